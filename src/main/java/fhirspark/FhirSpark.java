@@ -1,36 +1,64 @@
 package fhirspark;
 
 import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
-import com.sun.jersey.api.client.Client;
-import com.sun.jersey.api.client.ClientResponse;
-import com.sun.jersey.api.client.WebResource;
-import fhirspark.adapter.SpecimenAdapter;
-import fhirspark.adapter.TherapyRecommendationAdapter;
+import fhirspark.adapter.FollowUpAdapter;
+import fhirspark.adapter.MtbAdapter;
+import fhirspark.http.OutboundClient;
+import fhirspark.http.RequestLog;
+import fhirspark.http.ServerMetrics;
+import fhirspark.index.AlterationMatch;
 import fhirspark.resolver.HgncGeneName;
 import fhirspark.resolver.OncoKbDrug;
+import fhirspark.resolver.model.Genenames;
 import fhirspark.restmodel.CbioportalRest;
 import fhirspark.restmodel.Deletions;
 import fhirspark.restmodel.FollowUp;
 import fhirspark.restmodel.GeneticAlteration;
 import fhirspark.restmodel.Mtb;
 import fhirspark.settings.ConfigurationLoader;
+import fhirspark.settings.ServerSettings;
 import fhirspark.settings.Settings;
+import fhirspark.tracing.Tracing;
+import fhirspark.writebehind.WriteBehindQueue;
+import io.micrometer.core.instrument.Metrics;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.prometheusmetrics.PrometheusMeterRegistry;
+import jakarta.servlet.ServletRequest;
+import jakarta.servlet.ServletRequestWrapper;
 
-import org.apache.log4j.BasicConfigurator;
 import org.eclipse.jetty.http.HttpStatus;
+import org.eclipse.jetty.util.VirtualThreads;
+import org.eclipse.jetty.util.thread.QueuedThreadPool;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import spark.Request;
 import spark.Response;
+import spark.Route;
+import spark.embeddedserver.EmbeddedServers;
+import spark.embeddedserver.jetty.EmbeddedJettyFactory;
 
-import javax.ws.rs.core.Cookie;
-
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
 import java.io.FileInputStream;
+import java.io.IOException;
 import java.io.InputStream;
-import java.time.LocalDateTime;
-import java.time.format.DateTimeFormatter;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.net.URLEncoder;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.function.Predicate;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -48,9 +76,17 @@ import static spark.Spark.put;
  */
 public final class FhirSpark {
 
+    private static final Logger LOG = LoggerFactory.getLogger(FhirSpark.class);
+    private static final int GENE_PREFIX_LIMIT = 20;
+    private static final int GENE_PREFIX_MAX_LIMIT = 100;
+    private static final String NDJSON = "application/x-ndjson";
+
     private static JsonFhirMapper jsonFhirMapper;
     private static Settings settings;
-    private static Client client = new Client();
+    private static OutboundClient portalClient;
+    private static ServerMetrics metrics;
+    private static RequestLog requestLog;
+    private static WriteBehindQueue writeBehind;
     private static ObjectMapper objectMapper = new ObjectMapper(new JsonFactory());
 
     private FhirSpark() {
@@ -62,7 +98,6 @@ public final class FhirSpark {
      * @throws Exception Exception if the REST API runs into issues.
      */
     public static void main(final String[] args) throws Exception {
-        BasicConfigurator.configure();
         InputStream settingsYaml = ClassLoader.getSystemClassLoader().getResourceAsStream("settings.yaml");
         if (args.length == 1) {
             settingsYaml = new FileInputStream(args[0]);
@@ -71,11 +106,138 @@ public final class FhirSpark {
         settings = configLoader.loadConfiguration(settingsYaml, Settings.class);
         HgncGeneName.initialize(settings.getHgncPath());
         OncoKbDrug.initalize(settings.getOncokbPath());
-        SpecimenAdapter.initialize(settings.getSpecimenSystem());
-        TherapyRecommendationAdapter.initialize(settings.getObservationSystem(), settings.getStudySystem());
+        Tracing.install(settings.getTracing());
+        PrometheusMeterRegistry prometheus = ServerMetrics.prometheus();
+        metrics = new ServerMetrics(Metrics.globalRegistry);
+        EmbeddedServers.add(EmbeddedServers.defaultIdentifier(),
+                new EmbeddedJettyFactory().withThreadPool(metrics.bind(createThreadPool(settings.getServer()))));
+        portalClient = new OutboundClient("portal", settings.getPortalClient(), Metrics.globalRegistry);
         jsonFhirMapper = new JsonFhirMapper(settings);
+        jsonFhirMapper.startAlterationIndex();
+        jsonFhirMapper.startChangeFeed();
+        requestLog = new RequestLog(jsonFhirMapper.getCallCounter());
+        if (settings.getWriteBehind().getEnabled()) {
+            writeBehind = new WriteBehindQueue(settings.getWriteBehind(), FhirSpark::write, Metrics.globalRegistry);
+        }
         port(settings.getPort());
 
+        get("/metrics", (req, res) -> {
+            res.type(ServerMetrics.CONTENT_TYPE);
+            return prometheus.scrape();
+        });
+
+        if (Tracing.getRecentSpans() != null) {
+            // the spans show which routes and FHIR resources were used, so only admins may read them
+            get("/traces", (req, res) -> {
+                if (settings.getLoginRequired() && validateManipulation(req) != 2) {
+                    res.status(HttpStatus.FORBIDDEN_403);
+                    return "DENIED";
+                }
+                res.type("application/json");
+                return objectMapper.writeValueAsString(Tracing.getRecentSpans().summarize(req.queryParams("traceId")));
+            });
+        }
+
+        if (writeBehind != null) {
+            get("/writebehind", instrumented((req, res) -> {
+                res.type("application/json");
+                return objectMapper.writeValueAsString(writeBehind.status());
+            }));
+
+            options("/writebehind/:patientId", (req, res) -> {
+                addOptions(req, res);
+                res.header("Access-Control-Allow-Methods", "GET");
+                return res;
+            });
+
+            get("/writebehind/:patientId", instrumented((req, res) -> {
+                if (settings.getLoginRequired() && !validateRequest(req)) {
+                    res.status(HttpStatus.FORBIDDEN_403);
+                    return res;
+                }
+                res.status(HttpStatus.OK_200);
+                addContent(req, res);
+                res.body(objectMapper.writeValueAsString(writeBehind.status(req.params(":patientId"))));
+                return res.body();
+            }));
+        }
+
+        options("/mtb", (req, res) -> {
+            addOptions(req, res);
+            res.header("Access-Control-Allow-Methods", "GET, POST, PUT");
+            return res;
+        });
+
+        /**
+        *
+        * Streams the MTB data of all patients of the study given in the query parameter studyId as NDJSON.
+        * The patients are listed by cBioPortal with the session of the caller.
+        */
+        get("/mtb", instrumented((req, res) -> {
+            String studyId = req.queryParams("studyId");
+            if (studyId == null || studyId.isBlank()) {
+                res.status(HttpStatus.BAD_REQUEST_400);
+                return "Query parameter studyId is required";
+            }
+            List<String> patientIds = studyPatients(req);
+            if (patientIds == null) {
+                res.status(settings.getLoginRequired() ? HttpStatus.FORBIDDEN_403 : HttpStatus.BAD_GATEWAY_502);
+                return res;
+            }
+            return streamMtbs(req, res, patientIds);
+        }));
+
+        /**
+        *
+        * Streams the MTB data of the patients in the JSON array of the body as NDJSON. If a login is
+        * required, all patients have to belong to the study given in the query parameter studyId.
+        */
+        post("/mtb", instrumented((req, res) -> {
+            List<String> patientIds = objectMapper.readValue(req.body(), new TypeReference<List<String>>() {
+            });
+            if (settings.getLoginRequired()) {
+                List<String> studyPatients = studyPatients(req);
+                if (studyPatients == null || !new HashSet<>(studyPatients).containsAll(patientIds)) {
+                    res.status(HttpStatus.FORBIDDEN_403);
+                    return res;
+                }
+            }
+            return streamMtbs(req, res, patientIds);
+        }));
+
+        /**
+        *
+        * Imports NDJSON with the MTB data of one patient per line and streams one progress line per FHIR
+        * transaction and per rejected input line. If a login is required, the user needs admin permission
+        * for the study given in the query parameter studyId and all patients have to belong to it.
+        */
+        put("/mtb", instrumented((req, res) -> {
+            Predicate<String> allowed = patientId -> true;
+            if (settings.getLoginRequired()) {
+                List<String> studyPatients = validateManipulation(req) == 2 ? studyPatients(req) : null;
+                if (studyPatients == null) {
+                    res.status(HttpStatus.FORBIDDEN_403);
+                    return res;
+                }
+                allowed = new HashSet<>(studyPatients)::contains;
+            }
+            addRes(req, res);
+            res.status(HttpStatus.OK_200);
+            res.type(NDJSON);
+            Writer out = new BufferedWriter(new OutputStreamWriter(res.raw().getOutputStream(),
+                    StandardCharsets.UTF_8));
+            jsonFhirMapper.mtbsFromNdjson(streamedBody(req), allowed, progress -> {
+                try {
+                    out.write(objectMapper.writeValueAsString(progress));
+                    out.write('\n');
+                    out.flush();
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+            return "";
+        }));
+
         options("/mtb/:patientId", (req, res) -> {
             addOptions(req, res);
             res.header("Access-Control-Allow-Methods", "GET, PUT, DELETE");
@@ -92,7 +254,7 @@ public final class FhirSpark {
         * @return ACCEPTED_202 if authorized
         */
 
-        get("/mtb/:patientId/permission", (req, res) -> {
+        get("/mtb/:patientId/permission", instrumented((req, res) -> {
             if (settings.getLoginRequired()) {
                 int perms = validateManipulation(req);
                 if (!validateRequest(req) || perms == 0) {
@@ -110,20 +272,22 @@ public final class FhirSpark {
                 res.header("Cache-Control", "no-cache, no-store, max-age=0");
                 return "WRITE";
             }
-        });
+        }));
 
-        get("/mtb/:patientId", (req, res) -> {
+        get("/mtb/:patientId", instrumented((req, res) -> {
             if (settings.getLoginRequired() && !validateRequest(req)) {
                 res.status(HttpStatus.FORBIDDEN_403);
                 return res;
             }
             res.status(HttpStatus.OK_200);
             addContent(req, res);
-            res.body(jsonFhirMapper.mtbToJson(req.params(":patientId")));
+            String pending = writeBehind != null
+                    ? writeBehind.pendingBody(WriteBehindQueue.MTB, req.params(":patientId")) : null;
+            res.body(pending != null ? pending : jsonFhirMapper.mtbToJson(req.params(":patientId")));
             return res.body();
-        });
+        }));
 
-        put("/mtb/:patientId", (req, res) -> {
+        put("/mtb/:patientId", instrumented((req, res) -> {
             if (settings.getLoginRequired()
                 && (!validateRequest(req) || validateManipulation(req) == 0)) {
                 res.status(HttpStatus.FORBIDDEN_403);
@@ -133,24 +297,41 @@ public final class FhirSpark {
             addContent(req, res);
 
             List<Mtb> mtbs = objectMapper.readValue(req.body(), CbioportalRest.class).getMtbs();
-            jsonFhirMapper.mtbFromJson(req.params(":patientId"), mtbs);
+            if (writeBehind != null) {
+                try {
+                    mtbs.forEach(mtb -> MtbAdapter.validate(req.params(":patientId"), mtb));
+                } catch (IllegalArgumentException e) {
+                    res.status(HttpStatus.BAD_REQUEST_400);
+                    return e.getMessage();
+                }
+            }
+            if (writeBehind != null
+                    && writeBehind.submit(WriteBehindQueue.MTB, req.params(":patientId"), req.body())) {
+                res.status(HttpStatus.ACCEPTED_202);
+            } else {
+                jsonFhirMapper.mtbFromJson(req.params(":patientId"), mtbs);
+            }
             res.body(req.body());
             return res.body();
-        });
+        }));
 
-        delete("/mtb/:patientId", (req, res) -> {
+        delete("/mtb/:patientId", instrumented((req, res) -> {
             if (settings.getLoginRequired()
                 && (!validateRequest(req) || validateManipulation(req) == 0)) {
                 res.status(HttpStatus.FORBIDDEN_403);
                 return res;
             }
+            if (writeBehind != null && !writeBehind.drain(req.params(":patientId"))) {
+                res.status(HttpStatus.SERVICE_UNAVAILABLE_503);
+                return "Pending saves of the patient were not written yet";
+            }
             res.status(HttpStatus.OK_200);
             addContent(req, res);
             Deletions deletions = objectMapper.readValue(req.body(), Deletions.class);
             jsonFhirMapper.deleteEntries(req.params(":patientId"), deletions);
             res.body(req.body());
             return res.body();
-        });
+        }));
 
         options("/mtb/alteration", (req, res) -> {
             addOptions(req, res);
@@ -158,17 +339,24 @@ public final class FhirSpark {
             return res;
         });
 
-        post("/mtb/alteration", (req, res) -> {
+        post("/mtb/alteration", instrumented((req, res) -> {
             res.status(HttpStatus.OK_200);
             addContent(req, res);
+            AlterationMatch match;
+            try {
+                match = AlterationMatch.fromParameter(req.queryParams("match"));
+            } catch (IllegalArgumentException e) {
+                res.status(HttpStatus.BAD_REQUEST_400);
+                return e.getMessage();
+            }
             List<GeneticAlteration> alterations = objectMapper.readValue(req.body(),
                     new TypeReference<List<GeneticAlteration>>() {
                     });
             res.body(
                     objectMapper.writeValueAsString(jsonFhirMapper
-                        .getTherapyRecommendationsByAlteration(alterations)));
+                        .getTherapyRecommendationsByAlteration(alterations, match)));
             return res.body();
-        });
+        }));
 
         options("/mtb/alteration/pmid", (req, res) -> {
             addOptions(req, res);
@@ -176,15 +364,22 @@ public final class FhirSpark {
             return res;
         });
 
-        post("/mtb/alteration/pmid", (req, res) -> {
+        post("/mtb/alteration/pmid", instrumented((req, res) -> {
             res.status(HttpStatus.OK_200);
             addContent(req, res);
+            AlterationMatch match;
+            try {
+                match = AlterationMatch.fromParameter(req.queryParams("match"));
+            } catch (IllegalArgumentException e) {
+                res.status(HttpStatus.BAD_REQUEST_400);
+                return e.getMessage();
+            }
             List<GeneticAlteration> alterations = objectMapper.readValue(req.body(),
                     new TypeReference<List<GeneticAlteration>>() {
                     });
-            res.body(objectMapper.writeValueAsString(jsonFhirMapper.getPmidsByAlteration(alterations)));
+            res.body(objectMapper.writeValueAsString(jsonFhirMapper.getPmidsByAlteration(alterations, match)));
             return res.body();
-        });
+        }));
 
         options("/followup/:patientId", (req, res) -> {
             addOptions(req, res);
@@ -192,7 +387,7 @@ public final class FhirSpark {
             return res;
         });
 
-        get("/followup/:patientId/permission", (req, res) -> {
+        get("/followup/:patientId/permission", instrumented((req, res) -> {
             if (settings.getLoginRequired()) {
                 int perms = validateManipulation(req);
                 if (!validateRequest(req) || perms == 0) {
@@ -210,20 +405,22 @@ public final class FhirSpark {
                 res.header("Cache-Control", "no-cache, no-store, max-age=0");
                 return "WRITE";
             }
-        });
+        }));
 
-        get("/followup/:patientId", (req, res) -> {
+        get("/followup/:patientId", instrumented((req, res) -> {
             if (settings.getLoginRequired() && !validateRequest(req)) {
                 res.status(HttpStatus.FORBIDDEN_403);
                 return res;
             }
             res.status(HttpStatus.OK_200);
             addContent(req, res);
-            res.body(jsonFhirMapper.followUpToJson(req.params(":patientId")));
+            String pending = writeBehind != null
+                    ? writeBehind.pendingBody(WriteBehindQueue.FOLLOW_UP, req.params(":patientId")) : null;
+            res.body(pending != null ? pending : jsonFhirMapper.followUpToJson(req.params(":patientId")));
             return res.body();
-        });
+        }));
 
-        put("/followup/:patientId", (req, res) -> {
+        put("/followup/:patientId", instrumented((req, res) -> {
             if (settings.getLoginRequired()
                 && (!validateRequest(req) || validateManipulation(req) == 0)) {
                 res.status(HttpStatus.FORBIDDEN_403);
@@ -232,24 +429,41 @@ public final class FhirSpark {
             res.status(HttpStatus.CREATED_201);
             addContent(req, res);
             List<FollowUp> followUps = objectMapper.readValue(req.body(), CbioportalRest.class).getFollowUps();
-            jsonFhirMapper.followUpFromJson(req.params(":patientId"), followUps);
+            if (writeBehind != null) {
+                try {
+                    followUps.forEach(followUp -> FollowUpAdapter.validate(req.params(":patientId"), followUp));
+                } catch (IllegalArgumentException e) {
+                    res.status(HttpStatus.BAD_REQUEST_400);
+                    return e.getMessage();
+                }
+            }
+            if (writeBehind != null
+                    && writeBehind.submit(WriteBehindQueue.FOLLOW_UP, req.params(":patientId"), req.body())) {
+                res.status(HttpStatus.ACCEPTED_202);
+            } else {
+                jsonFhirMapper.followUpFromJson(req.params(":patientId"), followUps);
+            }
             res.body(req.body());
             return res.body();
-        });
+        }));
 
-        delete("/followup/:patientId", (req, res) -> {
+        delete("/followup/:patientId", instrumented((req, res) -> {
             if (settings.getLoginRequired()
                 && (!validateRequest(req) || validateManipulation(req) == 0)) {
                 res.status(HttpStatus.FORBIDDEN_403);
                 return res;
             }
+            if (writeBehind != null && !writeBehind.drain(req.params(":patientId"))) {
+                res.status(HttpStatus.SERVICE_UNAVAILABLE_503);
+                return "Pending saves of the patient were not written yet";
+            }
             res.status(HttpStatus.OK_200);
             addContent(req, res);
             Deletions deletions = objectMapper.readValue(req.body(), Deletions.class);
             jsonFhirMapper.deleteEntries(req.params(":patientId"), deletions);
             res.body(req.body());
             return res.body();
-        });
+        }));
 
         options("/followup/alteration", (req, res) -> {
             addOptions(req, res);
@@ -257,17 +471,172 @@ public final class FhirSpark {
             return res;
         });
 
-        post("/followup/alteration", (req, res) -> {
+        post("/followup/alteration", instrumented((req, res) -> {
             res.status(HttpStatus.OK_200);
             addContent(req, res);
+            AlterationMatch match;
+            try {
+                match = AlterationMatch.fromParameter(req.queryParams("match"));
+            } catch (IllegalArgumentException e) {
+                res.status(HttpStatus.BAD_REQUEST_400);
+                return e.getMessage();
+            }
             List<GeneticAlteration> alterations = objectMapper.readValue(req.body(),
                     new TypeReference<List<GeneticAlteration>>() {
                     });
             res.body(
                     objectMapper.writeValueAsString(jsonFhirMapper
-                        .getFollowUpsByAlteration(alterations)));
+                        .getFollowUpsByAlteration(alterations, match)));
             return res.body();
+        }));
+
+        options("/genes", (req, res) -> {
+            addOptions(req, res);
+            res.header("Access-Control-Allow-Methods", "GET");
+            return res;
         });
+
+        get("/genes", instrumented((req, res) -> {
+            res.status(HttpStatus.OK_200);
+            addContent(req, res);
+            int limit;
+            try {
+                limit = geneLimit(req.queryParams("limit"));
+            } catch (IllegalArgumentException e) {
+                res.status(HttpStatus.BAD_REQUEST_400);
+                return e.getMessage();
+            }
+            res.body(objectMapper.writeValueAsString(genesByPrefix(req.queryParams("prefix"), limit)));
+            return res.body();
+        }));
+
+        options("/genes/resolve", (req, res) -> {
+            addOptions(req, res);
+            res.header("Access-Control-Allow-Methods", "POST");
+            return res;
+        });
+
+        /**
+        *
+        * Resolves entrez gene ids to HGNC symbols and vice versa. Entries that cannot be
+        * resolved are returned unchanged so that the client can flag them.
+        */
+        post("/genes/resolve", instrumented((req, res) -> {
+            res.status(HttpStatus.OK_200);
+            addContent(req, res);
+            List<GeneticAlteration> genes = objectMapper.readValue(req.body(),
+                    new TypeReference<List<GeneticAlteration>>() {
+                    });
+            resolveGenes(genes);
+            res.body(objectMapper.writeValueAsString(genes));
+            return res.body();
+        }));
+    }
+
+    /**
+     * Creates the request thread pool of Jetty. With virtual threads enabled the
+     * pool threads only run the selectors and hand every request over to a new
+     * virtual thread, so requests that wait for the FHIR server or cBioPortal
+     * do not hold on to a platform thread.
+     *
+     * @param server thread pool settings.
+     * @return thread pool for the embedded server.
+     */
+    private static QueuedThreadPool createThreadPool(ServerSettings server) {
+        QueuedThreadPool pool = new QueuedThreadPool(server.getMaxThreads(), server.getMinThreads(),
+                server.getIdleTimeout());
+        pool.setName("fhirspark");
+        if (server.getVirtualThreads()) {
+            pool.setVirtualThreadsExecutor(VirtualThreads.getNamedVirtualThreadsExecutor("fhirspark-virtual-"));
+        }
+        return pool;
+    }
+
+    private static String streamMtbs(Request req, Response res, List<String> patientIds) throws IOException {
+        addRes(req, res);
+        res.status(HttpStatus.OK_200);
+        res.type(NDJSON);
+        Writer out = new BufferedWriter(new OutputStreamWriter(res.raw().getOutputStream(), StandardCharsets.UTF_8));
+        jsonFhirMapper.mtbsToNdjson(patientIds, out);
+        return "";
+    }
+
+    /**
+     * Spark buffers the whole request body unless it is sent chunked. Reading
+     * from the wrapped servlet request streams it instead.
+     */
+    private static BufferedReader streamedBody(Request req) throws IOException {
+        ServletRequest raw = req.raw();
+        if (raw instanceof ServletRequestWrapper) {
+            raw = ((ServletRequestWrapper) raw).getRequest();
+        }
+        return new BufferedReader(new InputStreamReader(raw.getInputStream(), StandardCharsets.UTF_8));
+    }
+
+    private static void write(String kind, String patientId, String body) throws IOException {
+        CbioportalRest rest = objectMapper.readValue(body, CbioportalRest.class);
+        if (WriteBehindQueue.MTB.equals(kind)) {
+            jsonFhirMapper.saveMtbs(patientId, rest.getMtbs());
+        } else {
+            jsonFhirMapper.saveFollowUps(patientId, rest.getFollowUps());
+        }
+    }
+
+    private static Route instrumented(Route route) {
+        return metrics.timed(Tracing.traced(requestLog.logged(route)));
+    }
+
+    private static GeneticAlteration toGene(Genenames g) {
+        return new GeneticAlteration().withEntrezGeneId(g.getNcbiGeneId()).withHugoSymbol(g.getApprovedSymbol());
+    }
+
+    /**
+     *
+     * @param value value of the {@code limit} query parameter, may be null.
+     * @return the limit, {@link #GENE_PREFIX_LIMIT} if no value is given and at
+     *         most {@link #GENE_PREFIX_MAX_LIMIT}.
+     * @throws IllegalArgumentException if the value is not a positive number.
+     */
+    static int geneLimit(String value) {
+        if (value == null) {
+            return GENE_PREFIX_LIMIT;
+        }
+        int limit;
+        try {
+            limit = Integer.parseInt(value.trim());
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Invalid limit " + value + ", expected a positive number");
+        }
+        if (limit < 1) {
+            throw new IllegalArgumentException("Invalid limit " + value + ", expected a positive number");
+        }
+        return Math.min(limit, GENE_PREFIX_MAX_LIMIT);
+    }
+
+    static List<GeneticAlteration> genesByPrefix(String prefix, int limit) {
+        List<GeneticAlteration> genes = new ArrayList<>();
+        for (Genenames g : HgncGeneName.findByPrefix(prefix, limit)) {
+            genes.add(toGene(g));
+        }
+        return genes;
+    }
+
+    /**
+     * Completes the entrez gene id and the HGNC symbol of each gene. An unknown
+     * entrez gene id falls back to the symbol; entries that cannot be resolved
+     * either way are left unchanged.
+     */
+    static void resolveGenes(List<GeneticAlteration> genes) {
+        for (GeneticAlteration gene : genes) {
+            Genenames g = gene.getEntrezGeneId() != null ? HgncGeneName.resolve(gene.getEntrezGeneId()) : null;
+            if (g == null) {
+                g = HgncGeneName.resolveSymbol(gene.getHugoSymbol());
+            }
+            if (g != null) {
+                gene.setEntrezGeneId(g.getNcbiGeneId());
+                gene.setHugoSymbol(g.getApprovedSymbol());
+            }
+        }
     }
 
     /**
@@ -278,6 +647,20 @@ public final class FhirSpark {
      * @return Boolean if the session if able to access the data
      */
     private static boolean validateRequest(Request req) {
+        Timer.Sample sample = Timer.start();
+        String outcome = "error";
+        try {
+            boolean granted = validatePortalSession(req);
+            outcome = granted ? "granted" : "denied";
+            return granted;
+        } finally {
+            sample.stop(Timer.builder("fhirspark.portal.validation")
+                    .description("Time to decide whether cBioPortal grants access to a patient")
+                    .tag("outcome", outcome).publishPercentileHistogram().register(Metrics.globalRegistry));
+        }
+    }
+
+    private static boolean validatePortalSession(Request req) {
         String portalDomain = settings.getPortalUrl();
         String requestedStudyId = req.queryParams("studyId");
         String validatePath = "api/studies/" + requestedStudyId + "/patients/"
@@ -285,27 +668,73 @@ public final class FhirSpark {
         String requestUrl = portalDomain + validatePath;
 
         if (requestedStudyId == null) {
-            System.out.println("No query parameter studyId found - returning false\n");
+            LOG.info("Access denied: no query parameter studyId");
             return false;
         }
 
-        WebResource webResource = client.resource(requestUrl);
-        WebResource.Builder builder = webResource.getRequestBuilder();
-        builder = builder.cookie(new Cookie("JSESSIONID", req.cookies().get("JSESSIONID")));
-        ClientResponse response = builder.accept("application/json").get(ClientResponse.class);
-
-        System.out.println(LocalDateTime.now().format(DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss")));
-        System.out.println("Validation request for study:");
-        System.out.println("Sending request at requestUrl: " + requestUrl);
+        HttpResponse<String> response;
+        try {
+            response = portalClient.get(requestUrl, portalHeaders(req));
+        } catch (IOException e) {
+            LOG.atWarn().addKeyValue("studyId", requestedStudyId).setCause(e)
+                    .log("Access denied: validation request to cBioPortal failed");
+            return false;
+        }
 
-        if (response.getStatus() == HttpStatus.OK_200) {
-            System.out.println("Response code was good: " + response.getStatus() + "\n");
+        if (response.statusCode() == HttpStatus.OK_200) {
+            LOG.atDebug().addKeyValue("studyId", requestedStudyId).log("Access granted by cBioPortal");
             return true;
         }
-        System.out.println("Response code was: " + response.getStatus() + "\n");
+        LOG.atInfo().addKeyValue("studyId", requestedStudyId).addKeyValue("portalStatus", response.statusCode())
+                .log("Access denied by cBioPortal");
         return false;
     }
 
+    /**
+     * Lists the patients of the study in the query parameter studyId. cBioPortal
+     * is asked with the session of the caller, so the list only contains
+     * patients the caller may see.
+     *
+     * @param req Incoming Java Spark Request
+     * @return ids of the patients or null if cBioPortal did not list them
+     */
+    private static List<String> studyPatients(Request req) throws JsonProcessingException {
+        String requestedStudyId = req.queryParams("studyId");
+        if (requestedStudyId == null || requestedStudyId.isBlank()) {
+            LOG.info("Study export denied: no query parameter studyId");
+            return null;
+        }
+        String requestUrl = settings.getPortalUrl() + "api/studies/"
+                + URLEncoder.encode(requestedStudyId, StandardCharsets.UTF_8) + "/patients?projection=ID";
+        HttpResponse<String> response;
+        try {
+            response = portalClient.get(requestUrl, portalHeaders(req));
+        } catch (IOException e) {
+            LOG.atWarn().addKeyValue("studyId", requestedStudyId).setCause(e)
+                    .log("Study export denied: request to cBioPortal failed");
+            return null;
+        }
+        if (response.statusCode() != HttpStatus.OK_200) {
+            LOG.atInfo().addKeyValue("studyId", requestedStudyId).addKeyValue("portalStatus", response.statusCode())
+                    .log("Study export denied by cBioPortal");
+            return null;
+        }
+        List<String> patientIds = new ArrayList<>();
+        for (JsonNode patient : objectMapper.readTree(response.body())) {
+            patientIds.add(patient.get("patientId").asText());
+        }
+        return patientIds;
+    }
+
+    private static Map<String, String> portalHeaders(Request req) {
+        Map<String, String> headers = new HashMap<>();
+        headers.put("Accept", "application/json");
+        if (req.cookies().get("JSESSIONID") != null) {
+            headers.put("Cookie", "JSESSIONID=" + req.cookies().get("JSESSIONID"));
+        }
+        return headers;
+    }
+
     /**
      * Checks if the user is authorized to manipulate the clinical data of the
      * patients in the requested study.
@@ -320,13 +749,9 @@ public final class FhirSpark {
         String userRoles = req.headers("X-USERROLES");
         String userLoginName = req.headers("X-USERLOGIN");
 
-        System.out.println(LocalDateTime.now().format(DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss")));
-        System.out.println("Manipulation permission request:\nfrom user: " + userLoginName + ", for patientId: "
-                + requestedPatientId + "\nfound header X-USERROLES: " + userRoles
-                + "\nfound query parameter studyId: " + requestedStudyId);
-
         if (userRoles == null || userRoles.isEmpty() || requestedStudyId == null || requestedStudyId.isEmpty()) {
-            System.out.println("Incoming user roles or studyId are null or empty - returning false\n");
+            LOG.atInfo().addKeyValue("user", userLoginName).addKeyValue("studyId", requestedStudyId)
+                    .log("Manipulation denied: user roles or studyId missing");
             return 0;
         }
 
@@ -339,19 +764,22 @@ public final class FhirSpark {
 
         for (String s : roleList) {
             if ((requestedStudyId != null && ("ADMIN_" + requestedStudyId).matches(s))) {
-                System.out.println("admin permission granted with role: " + s + "\n");
+                LOG.atDebug().addKeyValue("user", userLoginName).addKeyValue("studyId", requestedStudyId)
+                        .log("Admin permission granted");
                 return 2;
             }
         }
 
         for (String s : roleList) {
             if ((requestedStudyId != null && requestedStudyId.matches(s)) || s.equals(requestedPatientId)) {
-                System.out.println("permission granted with role: " + s + "\n");
+                LOG.atDebug().addKeyValue("user", userLoginName).addKeyValue("studyId", requestedStudyId)
+                        .log("Write permission granted");
                 return 1;
             }
         }
 
-        System.out.println("no matching role could be found - returning false\n");
+        LOG.atInfo().addKeyValue("user", userLoginName).addKeyValue("studyId", requestedStudyId)
+                .log("Manipulation denied: no matching role");
         return 0;
 
     }
@@ -1,41 +1,79 @@
 package fhirspark;
 
 import ca.uhn.fhir.context.FhirContext;
+import ca.uhn.fhir.context.FhirVersionEnum;
 import ca.uhn.fhir.parser.DataFormatException;
+import ca.uhn.fhir.rest.api.EncodingEnum;
 import ca.uhn.fhir.rest.client.api.IGenericClient;
+import ca.uhn.fhir.rest.gclient.ICriterion;
 import ca.uhn.fhir.rest.gclient.ReferenceClientParam;
 import ca.uhn.fhir.rest.gclient.TokenClientParam;
+import ca.uhn.fhir.rest.server.exceptions.BaseServerResponseException;
 import ca.uhn.fhir.rest.server.exceptions.UnprocessableEntityException;
 import com.fasterxml.jackson.core.JsonFactory;
 import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import fhirspark.adapter.BundleIdentityMap;
+import fhirspark.adapter.ContentHash;
 import fhirspark.adapter.FollowUpAdapter;
+import fhirspark.adapter.MappingContext;
+import fhirspark.adapter.MappingScope;
 import fhirspark.adapter.MtbAdapter;
 import fhirspark.adapter.TherapyRecommendationAdapter;
 import fhirspark.definitions.GenomicsReportingEnum;
 import fhirspark.definitions.Hl7TerminologyEnum;
 import fhirspark.definitions.UriEnum;
+import fhirspark.fhir.ChangeFeed;
+import fhirspark.fhir.FhirCallCounter;
+import fhirspark.fhir.FhirClientFactory;
+import fhirspark.fhir.FhirCodec;
+import fhirspark.fhir.FhirTracingInterceptor;
+import fhirspark.fhir.HashedVersions;
+import fhirspark.fhir.SaveCoordinator;
+import fhirspark.fhir.TransactionChunk;
+import fhirspark.fhir.UnchangedEntries;
+import fhirspark.http.OutboundClient;
+import fhirspark.index.AlterationIndex;
+import fhirspark.index.AlterationMatch;
+import fhirspark.resolver.PubmedPublication;
 import fhirspark.restmodel.CbioportalRest;
 import fhirspark.restmodel.Deletions;
 import fhirspark.restmodel.FollowUp;
 import fhirspark.restmodel.GeneticAlteration;
+import fhirspark.restmodel.ImportProgress;
 import fhirspark.restmodel.Mtb;
 import fhirspark.restmodel.TherapyRecommendation;
+import fhirspark.settings.AlterationIndexSettings;
+import fhirspark.settings.BulkSettings;
 import fhirspark.settings.Settings;
+import io.micrometer.core.instrument.Metrics;
+import java.io.BufferedReader;
 import java.io.FileWriter;
 import java.io.IOException;
+import java.io.Writer;
+import java.nio.file.Path;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Comparator;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Optional;
 import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
 import org.hl7.fhir.instance.model.api.IAnyResource;
 import org.hl7.fhir.r4.model.Bundle;
 import org.hl7.fhir.r4.model.Bundle.BundleEntryComponent;
 import org.hl7.fhir.r4.model.DiagnosticReport;
+import org.hl7.fhir.r4.model.DomainResource;
 import org.hl7.fhir.r4.model.IdType;
 import org.hl7.fhir.r4.model.Identifier;
 import org.hl7.fhir.r4.model.Identifier.IdentifierUse;
@@ -45,22 +83,34 @@ import org.hl7.fhir.r4.model.Patient;
 import org.hl7.fhir.r4.model.Reference;
 import org.hl7.fhir.r4.model.RelatedArtifact;
 import org.hl7.fhir.r4.model.RelatedArtifact.RelatedArtifactType;
+import org.hl7.fhir.r4.model.Resource;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 /**
  * Fulfils the persistence in HL7 FHIR resources.
  */
 public class JsonFhirMapper {
 
-    public static final int TIMEOUT = 60000;
-
-    private static String patientUri;
-    private static String therapyRecommendationUri;
-    private static String followUpUri;
-    private static String responseUri;
-    private static String mtbUri;
-    private static Settings settings;
-
-    private FhirContext ctx = FhirContext.forR4();
+    private static final Logger LOG = LoggerFactory.getLogger(JsonFhirMapper.class);
+
+    private final String patientUri;
+    private final String therapyRecommendationUri;
+    private final String followUpUri;
+    private final String responseUri;
+    private final String mtbUri;
+    private final MappingContext mappingContext;
+    private final FhirCallCounter callCounter;
+    private final BulkSettings bulk;
+    private final AlterationIndex alterationIndex;
+    private final long alterationIndexRetryDelay;
+    private final ChangeFeed changeFeed;
+    private final long changeFeedInterval;
+    private final SaveCoordinator saves = new SaveCoordinator(Metrics.globalRegistry);
+    private final HashedVersions hashedVersions = new HashedVersions();
+
+    private FhirCodec codec = new FhirCodec(FhirVersionEnum.R4, EncodingEnum.JSON, Metrics.globalRegistry);
+    private FhirContext ctx = codec.getContext();
     private IGenericClient client;
     private ObjectMapper objectMapper = new ObjectMapper(new JsonFactory());
 
@@ -71,90 +121,565 @@ public class JsonFhirMapper {
      * @param settings Settings object with containing configuration
      */
     public JsonFhirMapper(Settings settings) {
-        JsonFhirMapper.settings = settings;
-        ctx.getRestfulClientFactory().setConnectTimeout(TIMEOUT);
-        ctx.getRestfulClientFactory().setSocketTimeout(TIMEOUT);
-        this.client = ctx.newRestfulGenericClient(settings.getFhirDbBase());
-        MtbAdapter.initialize(settings, client);
-        FollowUpAdapter.initialize(settings, client);
-        JsonFhirMapper.patientUri = settings.getPatientSystem();
-        JsonFhirMapper.therapyRecommendationUri = settings.getObservationSystem();
-        JsonFhirMapper.followUpUri = settings.getFollowUpSystem();
-        JsonFhirMapper.mtbUri = settings.getDiagnosticReportSystem();
-        JsonFhirMapper.responseUri = settings.getResponseSystem();
+        this.client = FhirClientFactory.create(codec, settings.getFhirDbBase(), settings.getFhirClient(),
+                Metrics.globalRegistry);
+        this.callCounter = new FhirCallCounter(settings.getFhirDbBase(), Metrics.globalRegistry);
+        this.client.registerInterceptor(callCounter);
+        this.client.registerInterceptor(new FhirTracingInterceptor(settings.getFhirDbBase()));
+        PubmedPublication pubmedResolver = new PubmedPublication(
+                new OutboundClient("pubmed", settings.getPubmedClient(), Metrics.globalRegistry));
+        this.mappingContext = MappingContext.fromSettings(settings, client, pubmedResolver);
+        this.patientUri = settings.getPatientSystem();
+        this.therapyRecommendationUri = settings.getObservationSystem();
+        this.followUpUri = settings.getFollowUpSystem();
+        this.mtbUri = settings.getDiagnosticReportSystem();
+        this.responseUri = settings.getResponseSystem();
+        this.bulk = settings.getBulk();
+        this.alterationIndex = settings.getAlterationIndex().getEnabled()
+                ? createAlterationIndex(settings.getAlterationIndex()) : null;
+        this.alterationIndexRetryDelay = settings.getAlterationIndex().getRebuildRetryDelay();
+        if (settings.getChangeFeed().getEnabled() && alterationIndex == null) {
+            LOG.warn("The change feed only updates the alteration index, which is disabled");
+        }
+        this.changeFeed = settings.getChangeFeed().getEnabled() && alterationIndex != null
+                ? new ChangeFeed(client, List.of(DiagnosticReport.class, Observation.class, MedicationStatement.class),
+                        bulk.getPageSize(), settings.getChangeFeed().getOverlap(), Metrics.globalRegistry)
+                : null;
+        this.changeFeedInterval = settings.getChangeFeed().getInterval();
+
+    }
+
+    /**
+     *
+     * @return interceptor that counts the requests of this mapper to the FHIR server.
+     */
+    public FhirCallCounter getCallCounter() {
+        return callCounter;
+    }
+
+    /**
+     * Loads the alteration index from disk or starts building it from the
+     * FHIR server in the background, if the index is enabled. Has to be called
+     * before the first request is served.
+     */
+    public void startAlterationIndex() {
+        if (alterationIndex != null) {
+            alterationIndex.start(this::readStored, alterationIndexRetryDelay);
+        }
+    }
+
+    private static AlterationIndex createAlterationIndex(AlterationIndexSettings settings) {
+        if (settings.getPath() == null || settings.getPath().isBlank()) {
+            return new AlterationIndex(Metrics.globalRegistry);
+        }
+        try {
+            return new AlterationIndex(Metrics.globalRegistry, Path.of(settings.getPath()),
+                    settings.getCompactionThreshold());
+        } catch (IOException e) {
+            LOG.warn("Could not open alteration index directory {}, keeping the index in memory only",
+                    settings.getPath(), e);
+            return new AlterationIndex(Metrics.globalRegistry);
+        }
+    }
+
+    /**
+     * Starts polling the history of the FHIR server in a daemon thread, if the
+     * change feed is enabled, so the alteration index also sees the writes of
+     * other clients.
+     */
+    public void startChangeFeed() {
+        if (changeFeed == null) {
+            return;
+        }
+        ScheduledExecutorService poller = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "fhirspark-change-feed");
+            thread.setDaemon(true);
+            return thread;
+        });
+        poller.scheduleWithFixedDelay(() -> {
+            try {
+                pollChanges();
+            } catch (RuntimeException e) {
+                LOG.warn("Could not read the changes of the FHIR server, retrying in {} ms", changeFeedInterval, e);
+            }
+        }, changeFeedInterval, changeFeedInterval, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Applies the changes of the FHIR server since the cursor of the
+     * alteration index. Deleted MTBs, therapy recommendations and follow-ups
+     * are removed by their identifiers; for every other change, the MTBs and
+     * follow-ups of the patient are read again.
+     */
+    void pollChanges() {
+        Long cursor = alterationIndex.getCursor();
+        if (cursor == null) {
+            if (alterationIndex.isReady()) {
+                LOG.warn("Alteration index has no change feed cursor, applying changes from now on");
+                alterationIndex.setCursor(System.currentTimeMillis());
+            }
+            return;
+        }
+        ChangeFeed.Changes changes = changeFeed.poll(cursor);
+        Set<String> patients = new LinkedHashSet<>();
+        for (ChangeFeed.Change change : changes.changes()) {
+            Resource resource = change.resource();
+            if (change.deleted()) {
+                removeFromIndex(resource);
+            }
+            Reference subject = subjectOf(resource);
+            if (subject != null && subject.hasReference()) {
+                patients.add(new IdType(subject.getReference()).toUnqualifiedVersionless().getValue());
+            }
+        }
+        List<String> references = new ArrayList<>(patients);
+        int groupSize = bulk.getPatientsPerSearch();
+        for (int from = 0; from < references.size(); from += groupSize) {
+            List<String> group = references.subList(from, Math.min(from + groupSize, references.size()));
+            List<Mtb> mtbs = new ArrayList<>();
+            readMtbs(searchMtbs(new ReferenceClientParam("subject").hasAnyOfIds(group)), new HashMap<>(),
+                    (caseId, mtb) -> mtbs.add(mtb));
+            alterationIndex.putMtbs(mtbs);
+            List<FollowUp> followUps = new ArrayList<>();
+            readFollowUps(searchFollowUps(new ReferenceClientParam("subject").hasAnyOfIds(group)), followUps::add);
+            alterationIndex.putFollowUps(followUps);
+        }
+        if (changes.cursor() != cursor) {
+            alterationIndex.setCursor(changes.cursor());
+        }
+        if (!changes.changes().isEmpty()) {
+            LOG.info("Applied {} changes of {} patients from the FHIR server", changes.changes().size(),
+                    patients.size());
+        }
+    }
+
+    private void removeFromIndex(Resource resource) {
+        if (resource instanceof DiagnosticReport diagnosticReport) {
+            identifierValue(diagnosticReport.getIdentifier(), mtbUri).ifPresent(alterationIndex::removeMtb);
+        } else if (resource instanceof Observation observation) {
+            identifierValue(observation.getIdentifier(), therapyRecommendationUri)
+                    .ifPresent(alterationIndex::removeRecommendation);
+        } else if (resource instanceof MedicationStatement medicationStatement) {
+            identifierValue(medicationStatement.getIdentifier(), followUpUri)
+                    .ifPresent(alterationIndex::removeFollowUp);
+        }
+    }
+
+    private static Optional<String> identifierValue(List<Identifier> identifiers, String system) {
+        return identifiers.stream().filter(identifier -> system.equals(identifier.getSystem()))
+                .map(Identifier::getValue).findFirst();
+    }
+
+    private static Reference subjectOf(Resource resource) {
+        if (resource instanceof DiagnosticReport diagnosticReport) {
+            return diagnosticReport.getSubject();
+        } else if (resource instanceof Observation observation) {
+            return observation.getSubject();
+        } else if (resource instanceof MedicationStatement medicationStatement) {
+            return medicationStatement.getSubject();
+        }
+        return null;
+    }
+
+    /**
+     * Builds the alteration index from the FHIR server.
+     *
+     * @throws Exception if the FHIR server could not be read.
+     */
+    void rebuildAlterationIndex() throws Exception {
+        alterationIndex.rebuild(this::readStored);
+    }
+
+    /**
+     * Reads all MTBs and follow-ups page by page.
+     */
+    private void readStored(Consumer<Mtb> mtbs, Consumer<FollowUp> followUps) {
+        readMtbs(searchMtbs(new TokenClientParam("identifier").hasSystemWithAnyCode(mtbUri)), new HashMap<>(),
+                (caseId, mtb) -> mtbs.accept(mtb));
+        readFollowUps(searchFollowUps(new TokenClientParam("identifier").hasSystemWithAnyCode(followUpUri)),
+                followUps);
+    }
+
+    /**
+     * Searches reports together with their patients and everything the MTB
+     * adapter needs, see {@link #readMtbs}.
+     */
+    private Bundle searchMtbs(ICriterion<?> criterion) {
+        return (Bundle) client.search().forResource(DiagnosticReport.class)
+                .where(criterion)
+                .include(DiagnosticReport.INCLUDE_SUBJECT)
+                .include(DiagnosticReport.INCLUDE_BASED_ON)
+                .include(DiagnosticReport.INCLUDE_PERFORMER)
+                .include(DiagnosticReport.INCLUDE_RESULT.asRecursive())
+                .include(DiagnosticReport.INCLUDE_SPECIMEN.asRecursive())
+                .include(Observation.INCLUDE_PERFORMER.asRecursive())
+                .include(Observation.INCLUDE_FOCUS.asRecursive())
+                .count(bulk.getPageSize()).execute();
+    }
 
+    private Bundle searchFollowUps(ICriterion<?> criterion) {
+        return (Bundle) client.search().forResource(MedicationStatement.class)
+                .where(criterion)
+                .include(MedicationStatement.INCLUDE_PART_OF)
+                .include(MedicationStatement.INCLUDE_CONTEXT.asRecursive())
+                .count(bulk.getPageSize()).execute();
+    }
+
+    /**
+     * Maps the follow-ups of a search page by page.
+     */
+    private void readFollowUps(Bundle page, Consumer<FollowUp> followUps) {
+        while (page != null) {
+            MappingScope scope = mappingContext.newScope();
+            for (BundleEntryComponent entry : page.getEntry()) {
+                if (entry.getResource() instanceof MedicationStatement medicationStatement) {
+                    followUps.accept(FollowUpAdapter.toJson(scope, medicationStatement));
+                }
+            }
+            page = page.getLink(Bundle.LINK_NEXT) != null ? client.loadPage().next(page).execute() : null;
+        }
     }
 
     /**
      * Retrieves MTB data from FHIR server and transforms it into JSON format for
-     * cBioPortal.
+     * cBioPortal. Like the bulk export, the reports are searched together with
+     * everything the adapters need, so one search finds the patient and one
+     * more, plus one request per further page, reads the MTBs.
      *
      * @param patientId id of the patient.
      * @return JSON representation of the MTB data.
      * @throws JsonProcessingException if the JSON representation could not be created.
      */
     public String mtbToJson(String patientId) throws JsonProcessingException {
-        List<Mtb> mtbs = new ArrayList<Mtb>();
-        Bundle bPatient = (Bundle) client.search().forResource(Patient.class)
-                .where(new TokenClientParam("identifier").exactly().systemAndCode(patientUri, patientId)).prettyPrint()
-                .execute();
-        Patient fhirPatient = (Patient) bPatient.getEntryFirstRep().getResource();
+        List<Mtb> mtbs = mtbsOfGroup(List.of(patientId)).getOrDefault(patientId, new ArrayList<>());
+        mtbs.sort(Comparator.comparing(Mtb::getId).reversed());
 
-        if (fhirPatient == null) {
-            return this.objectMapper.writeValueAsString(new CbioportalRest().withId(patientId).withMtbs(mtbs));
+        return this.objectMapper.writeValueAsString(new CbioportalRest().withId(patientId).withMtbs(mtbs));
+
+    }
+
+    /**
+     * Streams the MTB data of many patients as NDJSON, one {@link CbioportalRest}
+     * per line in the order of the given ids. Patients are resolved
+     * {@code patientsPerSearch} at a time and their reports are fetched page by
+     * page together with everything the adapters would otherwise look up one by
+     * one, so only the current group of patients is held in memory.
+     *
+     * @param patientIds ids of the patients.
+     * @param out        receives one line per patient and is flushed after each group.
+     * @throws IOException if a line could not be written.
+     */
+    public void mtbsToNdjson(List<String> patientIds, Writer out) throws IOException {
+        int groupSize = bulk.getPatientsPerSearch();
+        for (int from = 0; from < patientIds.size(); from += groupSize) {
+            List<String> group = patientIds.subList(from, Math.min(from + groupSize, patientIds.size()));
+            Map<String, List<Mtb>> mtbs = mtbsOfGroup(group);
+            for (String patientId : group) {
+                List<Mtb> patientMtbs = mtbs.getOrDefault(patientId, new ArrayList<>());
+                patientMtbs.sort(Comparator.comparing(Mtb::getId).reversed());
+                out.write(this.objectMapper.writeValueAsString(
+                        new CbioportalRest().withId(patientId).withMtbs(patientMtbs)));
+                out.write('\n');
+            }
+            out.flush();
         }
+    }
 
-        Bundle bDiagnosticReports = (Bundle) client.search().forResource(DiagnosticReport.class)
-                .where(new ReferenceClientParam("subject").hasId(harmonizeId(fhirPatient))).prettyPrint()
+    private Map<String, List<Mtb>> mtbsOfGroup(List<String> patientIds) {
+        Map<String, List<Mtb>> mtbs = new HashMap<>();
+        Bundle bPatients = (Bundle) client.search().forResource(Patient.class)
+                .where(new TokenClientParam("identifier").exactly().systemAndValues(patientUri, patientIds))
+                .count(patientIds.size()).execute();
+        Map<String, String> caseIds = new HashMap<>();
+        for (BundleEntryComponent entry : bPatients.getEntry()) {
+            Patient fhirPatient = (Patient) entry.getResource();
+            String caseId = caseId(fhirPatient);
+            if (caseId != null) {
+                caseIds.put(harmonizeId(fhirPatient), caseId);
+            }
+        }
+        if (caseIds.isEmpty()) {
+            return mtbs;
+        }
+
+        Bundle page = (Bundle) client.search().forResource(DiagnosticReport.class)
+                .where(new ReferenceClientParam("subject").hasAnyOfIds(caseIds.keySet()))
                 .include(DiagnosticReport.INCLUDE_BASED_ON)
+                .include(DiagnosticReport.INCLUDE_PERFORMER)
                 .include(DiagnosticReport.INCLUDE_RESULT.asRecursive())
-                .include(DiagnosticReport.INCLUDE_SPECIMEN.asRecursive()).execute();
+                .include(DiagnosticReport.INCLUDE_SPECIMEN.asRecursive())
+                .include(Observation.INCLUDE_PERFORMER.asRecursive())
+                .include(Observation.INCLUDE_FOCUS.asRecursive())
+                .count(bulk.getPageSize()).execute();
+        readMtbs(page, caseIds, (caseId, mtb) -> mtbs.computeIfAbsent(caseId, k -> new ArrayList<>()).add(mtb));
+        return mtbs;
+    }
 
-        List<BundleEntryComponent> diagnosticReports = bDiagnosticReports.getEntry();
+    /**
+     * Patients may carry identifiers of other systems before the cBioPortal one,
+     * e.g. if another tool created them.
+     *
+     * @param fhirPatient patient resource.
+     * @return value of the identifier in the patient system or null.
+     */
+    private String caseId(Patient fhirPatient) {
+        for (Identifier identifier : fhirPatient.getIdentifier()) {
+            if (patientUri.equals(identifier.getSystem())) {
+                return identifier.getValue();
+            }
+        }
+        return null;
+    }
 
-        for (int i = 0; i < diagnosticReports.size(); i++) {
-            if (!(diagnosticReports.get(i).getResource() instanceof DiagnosticReport)) {
-                continue;
+    /**
+     * Maps the reports of a search page by page. Each page has to contain the
+     * resources the reports refer to; patients in a page are added to the case
+     * ids.
+     *
+     * @param page     first page of the search.
+     * @param caseIds  case ids by patient reference.
+     * @param consumer receives the case id and the MTB of each report.
+     */
+    private void readMtbs(Bundle page, Map<String, String> caseIds, BiConsumer<String, Mtb> consumer) {
+        while (page != null) {
+            MappingScope scope = mappingContext.newScope();
+            List<DiagnosticReport> diagnosticReports = new ArrayList<>();
+            for (BundleEntryComponent entry : page.getEntry()) {
+                if (entry.getResource() instanceof DiagnosticReport) {
+                    diagnosticReports.add((DiagnosticReport) entry.getResource());
+                } else {
+                    if (entry.getResource() instanceof Patient fhirPatient && caseId(fhirPatient) != null) {
+                        caseIds.putIfAbsent(harmonizeId(fhirPatient), caseId(fhirPatient));
+                    }
+                    scope.remember(entry.getResource());
+                }
+            }
+            for (DiagnosticReport diagnosticReport : diagnosticReports) {
+                String caseId = caseIds.get(diagnosticReport.getSubject().getReference());
+                if (caseId == null) {
+                    continue;
+                }
+                for (Reference result : diagnosticReport.getResult()) {
+                    TherapyRecommendationAdapter.rememberCaseId(scope,
+                            new IdType(result.getReference()).getIdPart(), caseId);
+                }
+                consumer.accept(caseId, MtbAdapter.toJson(scope, caseId, diagnosticReport));
             }
-            DiagnosticReport diagnosticReport = (DiagnosticReport) diagnosticReports.get(i).getResource();
-            mtbs.add(MtbAdapter.toJson(settings.getRegex(), patientId, diagnosticReport));
+            page = page.getLink(Bundle.LINK_NEXT) != null ? client.loadPage().next(page).execute() : null;
+        }
+    }
 
+    /**
+     * Retrieves MTB data from cBioPortal and persists it in FHIR resources. Only
+     * MTBs and therapy recommendations whose content differs from the stored
+     * state are written; if nothing changed, no transaction is sent at all.
+     * Concurrent saves of the patient are coalesced, see {@link SaveCoordinator}.
+     */
+    public void mtbFromJson(String patientId, List<Mtb> mtbs) throws DataFormatException, IOException {
+        try {
+            saveMtbs(patientId, mtbs);
+        } catch (UnprocessableEntityException entityException) {
+            dumpRejected(entityException);
         }
+    }
 
-        mtbs.sort(Comparator.comparing(Mtb::getId).reversed());
+    /**
+     * Like {@link #mtbFromJson}, but a transaction the FHIR server rejects is
+     * thrown instead of being dumped, so the write-behind queue can record the
+     * save as failed.
+     *
+     * @param patientId id of the patient.
+     * @param mtbs      MTBs to be saved.
+     * @throws UnprocessableEntityException if the FHIR server rejected the transaction.
+     * @throws IOException                  if the stored state could not be read.
+     */
+    public void saveMtbs(String patientId, List<Mtb> mtbs) throws IOException {
+        saves.<IOException>save(patientId, "mtb", () -> writeMtbs(patientId, mtbs));
+    }
 
-        return this.objectMapper.writeValueAsString(new CbioportalRest().withId(patientId).withMtbs(mtbs));
+    private static void dumpRejected(UnprocessableEntityException entityException) throws IOException {
+        try (FileWriter f = new FileWriter("error.json")) {
+            f.write(entityException.getResponseBody());
+        }
+    }
+
+    private void writeMtbs(String patientId, List<Mtb> mtbs) throws IOException {
+
+        Map<String, DomainResource> stored = storedMtbs(mtbs);
+        List<Mtb> changed = new ArrayList<>();
+        for (Mtb mtb : mtbs) {
+            // the reports of another client can be edited below an unchanged MTB
+            if (!unchanged(stored, mtbUri, mtb.getId(), ContentHash.of(mtb)) || mtb.getTherapyRecommendations()
+                    .stream().anyMatch(therapyRecommendation -> !unchanged(stored, therapyRecommendationUri,
+                            therapyRecommendation.getId(), ContentHash.of(therapyRecommendation)))) {
+                changed.add(mtb);
+            }
+        }
+        if (!mtbs.isEmpty() && changed.isEmpty()) {
+            LOG.debug("No MTB changed, skipping transaction");
+            return;
+        }
+
+        Bundle bundle = mtbBundle(patientId, changed);
+
+        Map<String, String> unchangedEntries = new HashMap<>();
+        for (BundleEntryComponent entry : bundle.getEntry()) {
+            if (entry.getResource() instanceof Observation observation
+                    && therapyRecommendationUri.equals(observation.getIdentifierFirstRep().getSystem())) {
+                String id = observation.getIdentifierFirstRep().getValue();
+                if (unchanged(stored, therapyRecommendationUri, id, ContentHash.read(observation))) {
+                    unchangedEntries.put(entry.getFullUrl(), stored.get(therapyRecommendationUri + "|" + id)
+                            .getIdElement().toUnqualifiedVersionless().getValue());
+                }
+            }
+        }
+        int removed = UnchangedEntries.remove(ctx.newTerser(), bundle, unchangedEntries);
+        LOG.debug("Writing {} of {} MTBs, {} unchanged entries removed", changed.size(), mtbs.size(), removed);
+
+        if (LOG.isDebugEnabled()) {
+            LOG.debug("Transaction bundle: {}", codec.encode(bundle));
+        }
+
+        Bundle resp = client.transaction().withBundle(bundle).execute();
+        hashedVersions.record(bundle, resp);
+
+        if (LOG.isDebugEnabled()) {
+            LOG.debug("Transaction response: {}", codec.encode(resp));
+        }
+        if (alterationIndex != null) {
+            alterationIndex.putMtbs(changed);
+        }
 
     }
 
     /**
-     * Retrieves MTB data from cBioPortal and persists it in FHIR resources.
+     * Fetches the stored MTBs and therapy recommendations with the given MTBs'
+     * ids in one search.
+     *
+     * @param mtbs MTBs to be saved.
+     * @return stored resources by identifier ({@code system|value}).
      */
-    public void mtbFromJson(String patientId, List<Mtb> mtbs) throws DataFormatException, IOException {
+    private Map<String, DomainResource> storedMtbs(List<Mtb> mtbs) {
+        Map<String, DomainResource> stored = new HashMap<>();
+        if (mtbs.isEmpty()) {
+            return stored;
+        }
+        Bundle page = (Bundle) client.search().forResource(DiagnosticReport.class)
+                .where(new TokenClientParam("identifier").exactly()
+                        .systemAndValues(mtbUri, mtbs.stream().map(Mtb::getId).toList()))
+                .include(DiagnosticReport.INCLUDE_RESULT).prettyPrint().execute();
+        while (page != null) {
+            for (BundleEntryComponent entry : page.getEntry()) {
+                if (entry.getResource() instanceof DiagnosticReport diagnosticReport) {
+                    Identifier identifier = diagnosticReport.getIdentifierFirstRep();
+                    stored.put(identifier.getSystem() + "|" + identifier.getValue(), diagnosticReport);
+                } else if (entry.getResource() instanceof Observation observation) {
+                    Identifier identifier = observation.getIdentifierFirstRep();
+                    stored.put(identifier.getSystem() + "|" + identifier.getValue(), observation);
+                }
+            }
+            page = page.getLink(Bundle.LINK_NEXT) != null ? client.loadPage().next(page).execute() : null;
+        }
+        return stored;
+    }
+
+    /**
+     * A stored resource is unchanged if it carries the same hash and was not
+     * changed by another client since this instance wrote it.
+     */
+    private boolean unchanged(Map<String, DomainResource> stored, String system, String value, String hash) {
+        DomainResource resource = stored.get(system + "|" + value);
+        return resource != null && hash != null && hash.equals(ContentHash.read(resource))
+                && hashedVersions.isWritten(resource);
+    }
 
+    private Bundle mtbBundle(String patientId, List<Mtb> mtbs) {
         Bundle bundle = new Bundle();
         bundle.setType(Bundle.BundleType.TRANSACTION);
 
         Reference fhirPatient = getOrCreatePatient(bundle, patientId);
 
+        MappingScope scope = mappingContext.newScope();
         for (Mtb mtb : mtbs) {
-            MtbAdapter.fromJson(bundle, settings.getRegex(), fhirPatient, patientId, mtb);
+            MtbAdapter.fromJson(scope, bundle, fhirPatient, patientId, mtb);
         }
+        return bundle;
+    }
 
-        try {
-            System.out.println(bundle);
-            System.out.println(ctx.newJsonParser().setPrettyPrint(true).encodeResourceToString(bundle));
-
-            Bundle resp = client.transaction().withBundle(bundle).execute();
-
-            // Log the response
-            System.out.println(ctx.newJsonParser().setPrettyPrint(true).encodeResourceToString(resp));
-        } catch (UnprocessableEntityException entityException) {
-            try (FileWriter f = new FileWriter("error.json")) {
-                f.write(entityException.getResponseBody());
+    /**
+     * Imports NDJSON with one {@link CbioportalRest} per line, e.g. the output of
+     * {@link #mtbsToNdjson}. The MTBs of consecutive patients are combined into
+     * transactions of at most {@code transactionSize} entries, in which shared
+     * practitioners, research studies and specimens appear once. The next line
+     * is only read when the previous transaction has been committed, so a fast
+     * client is slowed down to the pace of the FHIR server.
+     *
+     * @param in       NDJSON input.
+     * @param allowed  patients that may be written; lines of other patients are rejected.
+     * @param progress receives one entry per transaction and per rejected line.
+     * @throws IOException if the input could not be read.
+     */
+    public void mtbsFromNdjson(BufferedReader in, Predicate<String> allowed, Consumer<ImportProgress> progress)
+            throws IOException {
+        TransactionChunk chunk = new TransactionChunk(ctx);
+        List<Mtb> chunkMtbs = new ArrayList<>();
+        int chunks = 0;
+        int lineNumber = 0;
+        String line;
+        while ((line = in.readLine()) != null) {
+            lineNumber++;
+            if (line.isBlank()) {
+                continue;
             }
+            String patientId;
+            List<Mtb> patientMtbs;
+            Bundle patientBundle;
+            try {
+                CbioportalRest rest = this.objectMapper.readValue(line, CbioportalRest.class);
+                patientId = rest.getId();
+                if (patientId == null || !allowed.test(patientId)) {
+                    throw new IllegalArgumentException("Patient " + patientId + " may not be imported");
+                }
+                patientMtbs = rest.getMtbs() != null ? rest.getMtbs() : List.of();
+                patientBundle = mtbBundle(patientId, patientMtbs);
+            } catch (JsonProcessingException | RuntimeException e) {
+                progress.accept(new ImportProgress().withLine(lineNumber).withStatus("rejected")
+                        .withError(e.getMessage()));
+                continue;
+            }
+            // a transaction must not contain two conditional updates of the same patient
+            if (!chunk.isEmpty() && (chunk.size() + patientBundle.getEntry().size() > bulk.getTransactionSize()
+                    || chunk.getPatientIds().contains(patientId))) {
+                progress.accept(commit(++chunks, chunk, chunkMtbs));
+                chunk = new TransactionChunk(ctx);
+                chunkMtbs = new ArrayList<>();
+            }
+            chunk.add(patientId, patientBundle);
+            chunkMtbs.addAll(patientMtbs);
+        }
+        if (!chunk.isEmpty()) {
+            progress.accept(commit(++chunks, chunk, chunkMtbs));
         }
+    }
 
+    private ImportProgress commit(int number, TransactionChunk chunk, List<Mtb> mtbs) {
+        ImportProgress result = new ImportProgress().withChunk(number).withPatients(chunk.getPatientIds())
+                .withEntries(chunk.size()).withDeduplicated(chunk.getDeduplicated());
+        long start = System.nanoTime();
+        try {
+            Bundle resp = client.transaction().withBundle(chunk.getBundle()).execute();
+            hashedVersions.record(chunk.getBundle(), resp);
+            result.setStatus("committed");
+            if (alterationIndex != null) {
+                alterationIndex.putMtbs(mtbs);
+            }
+        } catch (BaseServerResponseException e) {
+            LOG.atWarn().addKeyValue("chunk", number).addKeyValue("status", e.getStatusCode()).setCause(e)
+                    .log("Import transaction failed");
+            result.withStatus("failed").setError(e.getMessage());
+        }
+        result.setDurationMs(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+        return result;
     }
 
     /**
@@ -186,13 +711,14 @@ public class JsonFhirMapper {
                 .execute();
 
         List<BundleEntryComponent> medicationStatements = bMedicationStatements.getEntry();
+        MappingScope scope = mappingContext.newScope();
 
         for (int i = 0; i < medicationStatements.size(); i++) {
             if (!(medicationStatements.get(i).getResource() instanceof MedicationStatement)) {
                 continue;
             }
             MedicationStatement medicationStatement = (MedicationStatement) medicationStatements.get(i).getResource();
-            followUps.add(FollowUpAdapter.toJson(settings.getRegex(), medicationStatement));
+            followUps.add(FollowUpAdapter.toJson(scope, medicationStatement));
 
         }
 
@@ -202,30 +728,52 @@ public class JsonFhirMapper {
 
     /**
      * Retrieves FollowUp data from cBioPortal and persists it in FHIR resources.
+     * Concurrent saves of the patient are coalesced, see {@link SaveCoordinator}.
      */
     public void followUpFromJson(String patientId, List<FollowUp> followUps) throws DataFormatException, IOException {
+        try {
+            saveFollowUps(patientId, followUps);
+        } catch (UnprocessableEntityException entityException) {
+            dumpRejected(entityException);
+        }
+    }
+
+    /**
+     * Like {@link #followUpFromJson}, but a transaction the FHIR server rejects
+     * is thrown instead of being dumped, so the write-behind queue can record
+     * the save as failed.
+     *
+     * @param patientId id of the patient.
+     * @param followUps follow-ups to be saved.
+     * @throws UnprocessableEntityException if the FHIR server rejected the transaction.
+     */
+    public void saveFollowUps(String patientId, List<FollowUp> followUps) {
+        saves.<RuntimeException>save(patientId, "followup", () -> writeFollowUps(patientId, followUps));
+    }
+
+    private void writeFollowUps(String patientId, List<FollowUp> followUps) {
 
         Bundle bundle = new Bundle();
         bundle.setType(Bundle.BundleType.TRANSACTION);
 
         Reference fhirPatient = getOrCreatePatient(bundle, patientId);
 
+        MappingScope scope = mappingContext.newScope();
         for (FollowUp followUp : followUps) {
-            FollowUpAdapter.fromJson(bundle, settings.getRegex(), fhirPatient, patientId, followUp);
+            FollowUpAdapter.fromJson(scope, bundle, fhirPatient, patientId, followUp);
         }
 
-        try {
-            System.out.println(bundle);
-            System.out.println(ctx.newJsonParser().setPrettyPrint(true).encodeResourceToString(bundle));
+        if (LOG.isDebugEnabled()) {
+            LOG.debug("Transaction bundle: {}", codec.encode(bundle));
+        }
 
-            Bundle resp = client.transaction().withBundle(bundle).execute();
+        Bundle resp = client.transaction().withBundle(bundle).execute();
 
-            // Log the response
-            System.out.println(ctx.newJsonParser().setPrettyPrint(true).encodeResourceToString(resp));
-        } catch (UnprocessableEntityException entityException) {
-            try (FileWriter f = new FileWriter("error.json")) {
-                f.write(entityException.getResponseBody());
-            }
+        if (LOG.isDebugEnabled()) {
+            LOG.debug("Transaction response: {}", codec.encode(resp));
+        }
+        if (alterationIndex != null) {
+            alterationIndex.putFollowUps(followUps);
         }
 
     }
@@ -252,6 +800,9 @@ public class JsonFhirMapper {
         }
         client.delete().resourceConditionalByUrl(
                 "Observation?identifier=" + therapyRecommendationUri + "|" + therapyRecommendationId).execute();
+        if (alterationIndex != null) {
+            alterationIndex.removeRecommendation(therapyRecommendationId);
+        }
 
     }
 
@@ -260,6 +811,9 @@ public class JsonFhirMapper {
             throw new IllegalArgumentException("Invalid patientId!");
         }
         client.delete().resourceConditionalByUrl("DiagnosticReport?identifier=" + mtbUri + "|" + mtbId).execute();
+        if (alterationIndex != null) {
+            alterationIndex.removeMtb(mtbId);
+        }
     }
 
     private void deleteFollowUps(String patientId, String followUpId) {
@@ -268,6 +822,9 @@ public class JsonFhirMapper {
         }
         client.delete().resourceConditionalByUrl("MedicationStatement?identifier="
             + followUpUri + "|" + followUpId).execute();
+        if (alterationIndex != null) {
+            alterationIndex.removeFollowUp(followUpId);
+        }
 
         // Delete RECIST-response observations
         Bundle b = (Bundle) client.search().forResource(Observation.class)
@@ -283,16 +840,14 @@ public class JsonFhirMapper {
 
     private Reference getOrCreatePatient(Bundle b, String patientId) {
 
-        Patient patient = new Patient();
-        patient.setId(IdType.newRandomUuid());
-        patient.getIdentifierFirstRep().setSystem(patientUri).setValue(patientId);
-        patient.getIdentifierFirstRep().setUse(IdentifierUse.USUAL);
-        patient.getIdentifierFirstRep().getType().addCoding(Hl7TerminologyEnum.MR.toCoding());
-        b.addEntry().setFullUrl(patient.getIdElement().getValue()).setResource(patient).getRequest()
-                .setUrl("Patient?identifier=" + patientUri + "|" + patientId)
-                .setIfNoneExist("identifier=" + patientUri + "|" + patientId).setMethod(Bundle.HTTPVerb.PUT);
-
-        return new Reference(patient);
+        return BundleIdentityMap.conditionalUpdate(b, Patient.class, patientUri, patientId, () -> {
+            Patient patient = new Patient();
+            patient.setId(IdType.newRandomUuid());
+            patient.getIdentifierFirstRep().setSystem(patientUri).setValue(patientId);
+            patient.getIdentifierFirstRep().setUse(IdentifierUse.USUAL);
+            patient.getIdentifierFirstRep().getType().addCoding(Hl7TerminologyEnum.MR.toCoding());
+            return patient;
+        });
     }
 
     private String harmonizeId(IAnyResource resource) {
@@ -311,6 +866,34 @@ public class JsonFhirMapper {
      * @return List of matching references
      */
     public Collection<fhirspark.restmodel.Reference> getPmidsByAlteration(List<GeneticAlteration> alterations) {
+        return getPmidsByAlteration(alterations, AlterationMatch.GENE);
+    }
+
+    /**
+     * Fetches Pubmed IDs that have been previously associated with the same
+     * alteration, by gene or by variant.
+     *
+     * @param alterations List of alterations to consider
+     * @param match       whether the genes or the variants are matched
+     * @return List of matching references
+     */
+    public Collection<fhirspark.restmodel.Reference> getPmidsByAlteration(List<GeneticAlteration> alterations,
+            AlterationMatch match) {
+
+        if (alterationIndex != null && alterationIndex.isReady()) {
+            return alterationIndex.references(alterations, match);
+        }
+        if (match == AlterationMatch.VARIANT) {
+            Map<Integer, fhirspark.restmodel.Reference> references = new LinkedHashMap<>();
+            for (TherapyRecommendation therapyRecommendation : getTherapyRecommendationsByAlteration(alterations,
+                    match)) {
+                if (therapyRecommendation.getReferences() != null) {
+                    therapyRecommendation.getReferences()
+                            .forEach(reference -> references.put(reference.getPmid(), reference));
+                }
+            }
+            return references.values();
+        }
 
         Set<String> entrez = new HashSet<>();
         for (GeneticAlteration a : alterations) {
@@ -355,6 +938,23 @@ public class JsonFhirMapper {
      */
     public Collection<TherapyRecommendation> getTherapyRecommendationsByAlteration(
             List<GeneticAlteration> alterations) {
+        return getTherapyRecommendationsByAlteration(alterations, AlterationMatch.GENE);
+    }
+
+    /**
+     * Fetches therapy recommendations that have been previously associated with
+     * the same alteration, by gene or by variant.
+     *
+     * @param alterations List of alterations to consider
+     * @param match       whether the genes or the variants are matched
+     * @return List of matching therapies, exact variant matches first
+     */
+    public Collection<TherapyRecommendation> getTherapyRecommendationsByAlteration(
+            List<GeneticAlteration> alterations, AlterationMatch match) {
+
+        if (alterationIndex != null && alterationIndex.isReady()) {
+            return alterationIndex.recommendations(alterations, match);
+        }
 
         Set<String> entrez = new HashSet<>();
         for (GeneticAlteration a : alterations) {
@@ -367,6 +967,7 @@ public class JsonFhirMapper {
                 .prettyPrint().revInclude(Observation.INCLUDE_DERIVED_FROM).execute();
 
         Map<String, TherapyRecommendation> tcMap = new HashMap<>();
+        MappingScope scope = mappingContext.newScope();
 
         for (BundleEntryComponent bec : bStuff.getEntry()) {
             Observation ob = (Observation) bec.getResource();
@@ -376,53 +977,91 @@ public class JsonFhirMapper {
             }
 
             TherapyRecommendation therapyRecommendation =
-                TherapyRecommendationAdapter.toJson(client, settings.getRegex(), ob);
+                TherapyRecommendationAdapter.toJson(scope, ob);
 
             tcMap.put(ob.getIdentifierFirstRep().getValue(), therapyRecommendation);
 
         }
 
-        return tcMap.values();
+        return match.select(alterations, tcMap.values());
 
     }
 
+    /**
+     * Fetches the follow-ups of therapy recommendations that have been
+     * previously associated with the same alteration.
+     *
+     * @param alterations List of alterations to consider
+     * @return List of matching follow-ups
+     */
     public Collection<FollowUp> getFollowUpsByAlteration(List<GeneticAlteration> alterations) {
+        return getFollowUpsByAlteration(alterations, AlterationMatch.GENE);
+    }
 
-        Set<String> entrez = new HashSet<>();
-        for (GeneticAlteration a : alterations) {
-            entrez.add(String.valueOf(a.getEntrezGeneId()));
-        }
+    /**
+     * Fetches the follow-ups of therapy recommendations that have been
+     * previously associated with the same alteration, by gene or by variant.
+     *
+     * @param alterations List of alterations to consider
+     * @param match       whether the genes or the variants are matched
+     * @return List of matching follow-ups, those of exact variant matches first
+     */
+    public Collection<FollowUp> getFollowUpsByAlteration(List<GeneticAlteration> alterations,
+            AlterationMatch match) {
 
-        Bundle bStuff = (Bundle) client.search().forResource(Observation.class)
-                .where(new TokenClientParam("component-value-concept").exactly()
-                        .systemAndValues(UriEnum.NCBI_GENE.getUri(), new ArrayList<>(entrez)))
-                .prettyPrint().revInclude(Observation.INCLUDE_DERIVED_FROM).execute();
+        if (alterationIndex != null && alterationIndex.isReady()) {
+            return alterationIndex.followUps(alterations, match);
+        }
 
         Map<String, FollowUp> tcMap = new HashMap<>();
 
-        ArrayList<Identifier> idents = new ArrayList<>();
+        List<String> recommendationIds = new ArrayList<>();
+        if (match == AlterationMatch.VARIANT) {
+            getTherapyRecommendationsByAlteration(alterations, match)
+                    .forEach(therapyRecommendation -> recommendationIds.add(therapyRecommendation.getId()));
+        } else {
+            Set<String> entrez = new HashSet<>();
+            for (GeneticAlteration a : alterations) {
+                entrez.add(String.valueOf(a.getEntrezGeneId()));
+            }
 
-        for (BundleEntryComponent bec : bStuff.getEntry()) {
-            Observation ob = (Observation) bec.getResource();
-            if (!ob.getMeta().hasProfile(GenomicsReportingEnum.THERAPEUTIC_IMPLICATION.getSystem())) {
-                continue;
+            Bundle bStuff = (Bundle) client.search().forResource(Observation.class)
+                    .where(new TokenClientParam("component-value-concept").exactly()
+                            .systemAndValues(UriEnum.NCBI_GENE.getUri(), new ArrayList<>(entrez)))
+                    .prettyPrint().revInclude(Observation.INCLUDE_DERIVED_FROM).execute();
+
+            for (BundleEntryComponent bec : bStuff.getEntry()) {
+                Observation ob = (Observation) bec.getResource();
+                if (!ob.getMeta().hasProfile(GenomicsReportingEnum.THERAPEUTIC_IMPLICATION.getSystem())) {
+                    continue;
+                }
+                recommendationIds.add(ob.getIdentifierFirstRep().getValue());
             }
-            idents.addAll(ob.getIdentifier());
         }
 
         Bundle bFollowUps = (Bundle) client.search().forResource(MedicationStatement.class)
             .execute();
+        MappingScope scope = mappingContext.newScope();
 
         for (BundleEntryComponent bec : bFollowUps.getEntry()) {
             MedicationStatement ms = (MedicationStatement) bec.getResource();
             if (!ms.hasReasonReference()) {
                 continue;
             }
-            FollowUp followUp = FollowUpAdapter.toJson(settings.getRegex(), ms);
+            FollowUp followUp = FollowUpAdapter.toJson(scope, ms);
+            if (!recommendationIds.contains(followUp.getTherapyRecommendation().getId())) {
+                continue;
+            }
 
             tcMap.put(ms.getIdentifierFirstRep().getValue(), followUp);
 
         }
+        if (match == AlterationMatch.VARIANT) {
+            List<FollowUp> ranked = new ArrayList<>(tcMap.values());
+            ranked.sort(Comparator.comparingInt(
+                    followUp -> recommendationIds.indexOf(followUp.getTherapyRecommendation().getId())));
+            return ranked;
+        }
         return tcMap.values();
     }
 }
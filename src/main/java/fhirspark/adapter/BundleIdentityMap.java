@@ -0,0 +1,61 @@
+package fhirspark.adapter;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.function.Supplier;
+import org.hl7.fhir.r4.model.Bundle;
+import org.hl7.fhir.r4.model.Reference;
+import org.hl7.fhir.r4.model.Resource;
+
+/**
+ * Identity map of the resources of a transaction bundle that are identified by
+ * their identifier alone, such as patients, practitioners, research studies and
+ * specimens. Each of them gets exactly one conditional update in the bundle, no
+ * matter how many MTBs, therapy recommendations or follow-ups refer to it. The
+ * map is kept in the user data of the bundle, so it lives as long as the bundle.
+ */
+public final class BundleIdentityMap {
+
+    private static final String USER_DATA = BundleIdentityMap.class.getName();
+
+    private BundleIdentityMap() {
+    }
+
+    /**
+     * Returns a reference to the resource with the given identifier and adds a
+     * conditional update of it to the bundle if the bundle does not contain one
+     * yet.
+     *
+     * @param bundle  transaction bundle.
+     * @param type    type of the resource.
+     * @param system  system of the identifier.
+     * @param value   value of the identifier.
+     * @param factory creates the resource on the first call for the identifier.
+     * @return reference to the single entry of the resource in the bundle.
+     */
+    public static Reference conditionalUpdate(Bundle bundle, Class<? extends Resource> type, String system,
+            String value, Supplier<? extends Resource> factory) {
+        String search = "identifier=" + system + "|" + value;
+        String url = type.getSimpleName() + "?" + search;
+        Map<String, Resource> entries = entries(bundle);
+        Resource resource = entries.get(url);
+        if (resource == null) {
+            resource = factory.get();
+            entries.put(url, resource);
+            bundle.addEntry().setFullUrl(resource.getIdElement().getValue()).setResource(resource).getRequest()
+                    .setUrl(url).setIfNoneExist(search).setMethod(Bundle.HTTPVerb.PUT);
+        }
+        return new Reference(resource);
+    }
+
+    @SuppressWarnings("unchecked")
+    private static Map<String, Resource> entries(Bundle bundle) {
+        Map<String, Resource> entries = (Map<String, Resource>) bundle.getUserData(USER_DATA);
+        if (entries == null) {
+            entries = new HashMap<>();
+            bundle.setUserData(USER_DATA, entries);
+        }
+        return entries;
+    }
+
+}
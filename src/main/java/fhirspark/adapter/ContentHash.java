@@ -0,0 +1,56 @@
+package fhirspark.adapter;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import fhirspark.definitions.UriEnum;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
+import org.hl7.fhir.r4.model.DomainResource;
+import org.hl7.fhir.r4.model.Extension;
+import org.hl7.fhir.r4.model.StringType;
+
+/**
+ * Hash of the cBioPortal JSON a resource was mapped from. The hash is stored as
+ * an extension of the resource, so a later save can tell from the FHIR server
+ * alone whether an MTB or a therapy recommendation changed since it was
+ * written, regardless of which instance wrote it.
+ */
+public final class ContentHash {
+
+    private static final String URL = UriEnum.CONTENT_HASH.getUri();
+    private static final int HASH_BYTES = 16;
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+
+    private ContentHash() {
+    }
+
+    /**
+     *
+     * @param value object of the REST model.
+     * @return first bytes of the SHA-256 hash of its JSON in hex.
+     */
+    public static String of(Object value) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-256").digest(MAPPER.writeValueAsBytes(value));
+            return HexFormat.of().formatHex(digest, 0, HASH_BYTES);
+        } catch (NoSuchAlgorithmException | JsonProcessingException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    public static void tag(DomainResource resource, String hash) {
+        resource.addExtension(URL, new StringType(hash));
+    }
+
+    /**
+     *
+     * @param resource resource read from the FHIR server.
+     * @return stored hash or null if the resource was written without one.
+     */
+    public static String read(DomainResource resource) {
+        Extension extension = resource.getExtensionByUrl(URL);
+        return extension == null ? null : extension.getValue().primitiveValue();
+    }
+
+}
@@ -1,6 +1,5 @@
 package fhirspark.adapter;
 
-import ca.uhn.fhir.rest.client.api.IGenericClient;
 import ca.uhn.fhir.rest.gclient.TokenClientParam;
 import fhirspark.definitions.GenomicsReportingEnum;
 import fhirspark.definitions.MolekulargenetischerBefundberichtEnum;
@@ -9,13 +8,10 @@ import fhirspark.definitions.SnomedEnum;
 import fhirspark.restmodel.FollowUp;
 import fhirspark.restmodel.ResponseCriteria;
 import fhirspark.restmodel.TherapyRecommendation;
-import fhirspark.settings.Regex;
-import fhirspark.settings.Settings;
 import java.lang.reflect.InvocationTargetException;
 import java.text.SimpleDateFormat;
 import java.util.ArrayList;
 import java.util.Calendar;
-import java.util.List;
 import org.hl7.fhir.r4.model.Annotation;
 import org.hl7.fhir.r4.model.Bundle;
 import org.hl7.fhir.r4.model.CodeableConcept;
@@ -26,32 +22,27 @@ import org.hl7.fhir.r4.model.MedicationStatement;
 import org.hl7.fhir.r4.model.Observation;
 import org.hl7.fhir.r4.model.Practitioner;
 import org.hl7.fhir.r4.model.Reference;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 public final class FollowUpAdapter {
 
-    private static IGenericClient client;
-    private static String followUpUri;
-    private static String responseUri;
-    private static String therapyRecommendationUri;
+    private static final Logger LOG = LoggerFactory.getLogger(FollowUpAdapter.class);
 
     private FollowUpAdapter() {
     }
 
-    public static void initialize(Settings settings, IGenericClient fhirClient) {
-        FollowUpAdapter.client = fhirClient;
-        FollowUpAdapter.followUpUri = settings.getFollowUpSystem();
-        FollowUpAdapter.responseUri = settings.getResponseSystem();
-        FollowUpAdapter.therapyRecommendationUri = settings.getObservationSystem();
+    public static FollowUp toJson(MappingScope scope, MedicationStatement medicationStatement) {
+        return scope.trace("FollowUpAdapter.toJson", () -> mapToJson(scope, medicationStatement));
     }
 
-    public static FollowUp toJson(List<Regex> regex, MedicationStatement medicationStatement) {
+    private static FollowUp mapToJson(MappingScope scope, MedicationStatement medicationStatement) {
+        MappingContext ctx = scope.getContext();
         FollowUp followUp = new FollowUp();
 
         if (medicationStatement.hasInformationSource()) {
-            Bundle b2 = (Bundle) client.search().forResource(Practitioner.class).where(new TokenClientParam("_id")
-                    .exactly().code(medicationStatement.getInformationSource().getReference())).prettyPrint()
-                    .execute();
-            Practitioner author = (Practitioner) b2.getEntryFirstRep().getResource();
+            Practitioner author = scope.findById(Practitioner.class,
+                    medicationStatement.getInformationSource().getReference());
             followUp.setAuthor(author.getIdentifierFirstRep().getValue());
         }
 
@@ -77,7 +68,7 @@ public final class FollowUpAdapter {
 
         for (Reference reference : medicationStatement.getReasonReference()) {
 
-            Bundle b1 = (Bundle) client.search().forResource(Observation.class)
+            Bundle b1 = (Bundle) ctx.getClient().search().forResource(Observation.class)
                 .where(new TokenClientParam("_id")
                 .exactly().code(reference.getReference())).prettyPrint()
                 .include(Observation.INCLUDE_DERIVED_FROM)
@@ -93,18 +84,13 @@ public final class FollowUpAdapter {
                     ResponseCriteria.class
                         .getDeclaredMethod("set" + tag, Boolean.class)
                         .invoke(respCrit, true);
-                } catch (NoSuchMethodException e) {
-                    e.printStackTrace();
-                } catch (IllegalAccessException e) {
-                    e.printStackTrace();
-                } catch (InvocationTargetException e) {
-                    e.printStackTrace();
+                } catch (NoSuchMethodException | IllegalAccessException | InvocationTargetException e) {
+                    LOG.warn("Unknown response criterion {}", tag, e);
                 }
 
-            } else if (obs.getIdentifierFirstRep().getSystem().equals(therapyRecommendationUri)) {
+            } else if (obs.getIdentifierFirstRep().getSystem().equals(ctx.getObservationSystem())) {
 
-                therapyRecommendation = TherapyRecommendationAdapter.toJson(client,
-                        regex, obs);
+                therapyRecommendation = TherapyRecommendationAdapter.toJson(scope, obs);
 
             }
 
@@ -116,8 +102,16 @@ public final class FollowUpAdapter {
         return followUp;
     }
 
-    public static void fromJson(Bundle bundle, List<Regex> regex, Reference fhirPatient,
+    public static void fromJson(MappingScope scope, Bundle bundle, Reference fhirPatient,
+        String patientId, FollowUp followUp) {
+        scope.trace("FollowUpAdapter.fromJson",
+                () -> mapFromJson(scope, bundle, fhirPatient, patientId, followUp));
+    }
+
+    private static void mapFromJson(MappingScope scope, Bundle bundle, Reference fhirPatient,
         String patientId, FollowUp followUp) {
+        MappingContext ctx = scope.getContext();
+        String followUpUri = ctx.getFollowUpSystem();
 
         MedicationStatement medicationStatement = new MedicationStatement();
         medicationStatement.getMeta().addProfile(GenomicsReportingEnum.GENOMICS_REPORT.getSystem());
@@ -126,10 +120,11 @@ public final class FollowUpAdapter {
         medicationStatement.setId(IdType.newRandomUuid());
         medicationStatement.setSubject(fhirPatient);
 
-        medicationStatement.setInformationSource(MtbAdapter.getOrCreatePractitioner(bundle, followUp.getAuthor()));
+        medicationStatement.setInformationSource(MtbAdapter.getOrCreatePractitioner(scope, bundle,
+                followUp.getAuthor()));
 
         medicationStatement.addReasonReference(
-            getTherapyRecommendationReference(followUp.getAuthor(), followUp.getTherapyRecommendation().getId())
+            getTherapyRecommendationReference(scope, followUp.getTherapyRecommendation().getId())
         );
 
         medicationStatement.getEffectiveDateTimeType().fromStringValue(followUp.getDate());
@@ -210,7 +205,7 @@ public final class FollowUpAdapter {
                 responseObs.setValue(codeConc);
 
                 DateTimeType dTime = new DateTimeType(followUp.getDate());
-                DateTimeType respTime = getMTBDate(followUp.getAuthor(), followUp.getTherapyRecommendation().getId());
+                DateTimeType respTime = getMTBDate(scope, followUp.getTherapyRecommendation().getId());
                 respTime.add(Calendar.MONTH, Integer.valueOf(months[(int) Math.floor(i / numOfResp)]));
 
                 responseObs.setEffective(respTime);
@@ -220,7 +215,7 @@ public final class FollowUpAdapter {
 
                 responseObs.setId(IdType.newRandomUuid());
                 responseObs.setStatus(Observation.ObservationStatus.FINAL);
-                responseObs.addIdentifier().setSystem(responseUri)
+                responseObs.addIdentifier().setSystem(ctx.getResponseSystem())
                     .setValue("response_" + responseTags.get(i) + "_" + followUp.getId());
 
                 bundle.addEntry().setFullUrl(responseObs.getIdElement().getValue()).setResource(responseObs)
@@ -240,31 +235,61 @@ public final class FollowUpAdapter {
 
     }
 
-    private static Reference getTherapyRecommendationReference(String credentials, String trIdentifier) {
+    /**
+     * Checks what {@link #fromJson} cannot map, so a save can be rejected before
+     * it is queued.
+     *
+     * @param patientId id of the patient.
+     * @param followUp  follow-up to check.
+     * @throws IllegalArgumentException if the follow-up cannot be mapped.
+     */
+    public static void validate(String patientId, FollowUp followUp) {
+        String prefix = "followUp_" + patientId + "_";
+        if (followUp.getId() == null || !followUp.getId().startsWith(prefix)
+                || !followUp.getId().substring(prefix.length()).matches("\\d+")) {
+            throw new IllegalArgumentException("Invalid followUp id!");
+        }
+        TherapyRecommendation therapyRecommendation = followUp.getTherapyRecommendation();
+        if (therapyRecommendation == null || therapyRecommendation.getId() == null
+                || !therapyRecommendation.getId().startsWith(patientId + "_")) {
+            throw new IllegalArgumentException("Invalid therapy recommendation of followUp " + followUp.getId());
+        }
+        if (followUp.getTherapyRecommendationRealized() == null || followUp.getSideEffect() == null) {
+            throw new IllegalArgumentException("Incomplete followUp " + followUp.getId());
+        }
+    }
 
-        Bundle b1 = (Bundle) client.search().forResource(Observation.class)
-                .where(new TokenClientParam("identifier")
-                .exactly().code(trIdentifier)).prettyPrint()
-                .execute();
+    private static Reference getTherapyRecommendationReference(MappingScope scope, String trIdentifier) {
 
-        Observation obs = (Observation) b1.getEntryFirstRep().getResource();
-        String id = obs.getIdElement().getIdPart();
+        String id = scope.memoize("Observation?identifier=" + trIdentifier, () -> {
+            Bundle b1 = (Bundle) scope.getContext().getClient().search().forResource(Observation.class)
+                    .where(new TokenClientParam("identifier")
+                    .exactly().code(trIdentifier)).prettyPrint()
+                    .execute();
+
+            Observation obs = (Observation) b1.getEntryFirstRep().getResource();
+            return obs.getIdElement().getIdPart();
+        });
 
         return new Reference("Observation/" + id).setDisplay("BaseTherapyRecommendation");
 
     }
 
-    private static DateTimeType getMTBDate(String credentials, String trIdentifier) {
+    private static DateTimeType getMTBDate(MappingScope scope, String trIdentifier) {
 
-        Bundle b1 = (Bundle) client.search().forResource(DiagnosticReport.class)
-                .where(new TokenClientParam("result")
-                .exactly().code(getTherapyRecommendationReference(credentials, trIdentifier).getId()))
-                .prettyPrint()
-                .execute();
+        String reference = getTherapyRecommendationReference(scope, trIdentifier).getId();
+        DateTimeType effective = scope.memoize("DiagnosticReport?result=" + reference, () -> {
+            Bundle b1 = (Bundle) scope.getContext().getClient().search().forResource(DiagnosticReport.class)
+                    .where(new TokenClientParam("result")
+                    .exactly().code(reference))
+                    .prettyPrint()
+                    .execute();
 
-        DiagnosticReport dr = (DiagnosticReport) b1.getEntryFirstRep().getResource();
+            DiagnosticReport dr = (DiagnosticReport) b1.getEntryFirstRep().getResource();
+            return dr.getEffectiveDateTimeType();
+        });
 
-        return dr.getEffectiveDateTimeType();
+        return effective.copy();
 
     }
 
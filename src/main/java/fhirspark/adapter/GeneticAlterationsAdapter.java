@@ -7,6 +7,7 @@ import fhirspark.definitions.UriEnum;
 import fhirspark.resolver.HgncGeneName;
 import fhirspark.resolver.model.Genenames;
 import fhirspark.restmodel.GeneticAlteration;
+import java.util.regex.Pattern;
 import org.hl7.fhir.r4.model.CodeableConcept;
 import org.hl7.fhir.r4.model.Coding;
 import org.hl7.fhir.r4.model.Meta;
@@ -23,6 +24,8 @@ import org.hl7.fhir.r4.model.codesystems.ObservationCategory;
  */
 public final class GeneticAlterationsAdapter {
 
+    private static final Pattern PROTEIN_CHANGE_PREFIX = Pattern.compile("p.");
+
     private GeneticAlterationsAdapter() {
     }
 
@@ -161,8 +164,9 @@ public final class GeneticAlterationsAdapter {
             o.getComponent().forEach(variant -> {
                 switch (LoincEnum.fromCode(variant.getCode().getCodingFirstRep().getCode())) {
                     case AMINO_ACID_CHANGE:
-                        g.setAlteration(variant.getValueCodeableConcept().getCodingFirstRep().getCode()
-                                .replaceFirst("p.", ""));
+                        g.setAlteration(PROTEIN_CHANGE_PREFIX
+                                .matcher(variant.getValueCodeableConcept().getCodingFirstRep().getCode())
+                                .replaceFirst(""));
                         break;
                     case DISCRETE_GENETIC_VARIANT:
                         variant.getValueCodeableConcept().getCoding().forEach(coding -> {
@@ -176,7 +180,7 @@ public final class GeneticAlterationsAdapter {
                                 case COSMIC:
                                     g.setCosmic(coding.getCode());
                                     break;
-                                default:
+                                case null, default:
                                     break;
                             }
                         });
@@ -206,7 +210,7 @@ public final class GeneticAlterationsAdapter {
                             case COPY_NUMBER_LOSS:
                                 g.setAlteration("Deletion");
                                 break;
-                            default:
+                            case null, default:
                                 break;
                         }
                         break;
@@ -228,7 +232,7 @@ public final class GeneticAlterationsAdapter {
                                             .toString()));
                         }
                         break;
-                    default:
+                    case null, default:
                         break;
                 }
             });
@@ -0,0 +1,114 @@
+package fhirspark.adapter;
+
+import ca.uhn.fhir.rest.client.api.IGenericClient;
+import fhirspark.resolver.PubmedPublication;
+import fhirspark.settings.Regex;
+import fhirspark.settings.Settings;
+import fhirspark.tracing.Tracing;
+import io.opentelemetry.api.trace.Tracer;
+import java.util.List;
+
+/**
+ * Immutable configuration shared by all adapters of one FHIR backend. It is built
+ * once from the {@link Settings} and handed to the adapters through a
+ * {@link MappingScope} for every request.
+ */
+public final class MappingContext {
+
+    private final IGenericClient client;
+    private final PubmedPublication pubmedResolver;
+    private final Tracer tracer;
+    private final List<Regex> regex;
+    private final String patientSystem;
+    private final String specimenSystem;
+    private final String diagnosticReportSystem;
+    private final String observationSystem;
+    private final String responseSystem;
+    private final String followUpSystem;
+    private final String studySystem;
+    private final String serviceRequestSystem;
+
+    private MappingContext(Settings settings, IGenericClient client, PubmedPublication pubmedResolver) {
+        this.client = client;
+        this.pubmedResolver = pubmedResolver;
+        this.tracer = Tracing.tracer();
+        this.regex = settings.getRegex() != null ? List.copyOf(settings.getRegex()) : List.of();
+        this.patientSystem = settings.getPatientSystem();
+        this.specimenSystem = settings.getSpecimenSystem();
+        this.diagnosticReportSystem = settings.getDiagnosticReportSystem();
+        this.observationSystem = settings.getObservationSystem();
+        this.responseSystem = settings.getResponseSystem();
+        this.followUpSystem = settings.getFollowUpSystem();
+        this.studySystem = settings.getStudySystem();
+        this.serviceRequestSystem = settings.getServiceRequestSystem();
+    }
+
+    /**
+     *
+     * @param settings       configuration of the FHIR backend.
+     * @param client         client of the FHIR server.
+     * @param pubmedResolver resolver for titles of cited publications.
+     * @return context with a snapshot of the settings.
+     */
+    public static MappingContext fromSettings(Settings settings, IGenericClient client,
+            PubmedPublication pubmedResolver) {
+        return new MappingContext(settings, client, pubmedResolver);
+    }
+
+    /**
+     *
+     * @return new scratch area for a single request.
+     */
+    public MappingScope newScope() {
+        return new MappingScope(this);
+    }
+
+    public IGenericClient getClient() {
+        return client;
+    }
+
+    public PubmedPublication getPubmedResolver() {
+        return pubmedResolver;
+    }
+
+    public Tracer getTracer() {
+        return tracer;
+    }
+
+    public List<Regex> getRegex() {
+        return regex;
+    }
+
+    public String getPatientSystem() {
+        return patientSystem;
+    }
+
+    public String getSpecimenSystem() {
+        return specimenSystem;
+    }
+
+    public String getDiagnosticReportSystem() {
+        return diagnosticReportSystem;
+    }
+
+    public String getObservationSystem() {
+        return observationSystem;
+    }
+
+    public String getResponseSystem() {
+        return responseSystem;
+    }
+
+    public String getFollowUpSystem() {
+        return followUpSystem;
+    }
+
+    public String getStudySystem() {
+        return studySystem;
+    }
+
+    public String getServiceRequestSystem() {
+        return serviceRequestSystem;
+    }
+
+}
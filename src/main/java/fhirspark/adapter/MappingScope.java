@@ -0,0 +1,123 @@
+package fhirspark.adapter;
+
+import ca.uhn.fhir.rest.gclient.TokenClientParam;
+import fhirspark.tracing.Tracing;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Metrics;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.function.Supplier;
+import org.hl7.fhir.r4.model.Bundle;
+import org.hl7.fhir.r4.model.Resource;
+
+/**
+ * Per-request scratch area of the adapters. It gives access to the shared
+ * {@link MappingContext} and memoizes lookups on the FHIR server, so that a
+ * resource referenced from several places of one request is fetched only once.
+ * A scope is confined to the thread that handles the request.
+ */
+public final class MappingScope {
+
+    private static final Counter HITS = memoCounter("hit");
+    private static final Counter MISSES = memoCounter("miss");
+
+    private final MappingContext context;
+    private final Map<String, Object> memo = new HashMap<>();
+
+    MappingScope(MappingContext context) {
+        this.context = context;
+    }
+
+    private static Counter memoCounter(String result) {
+        return Counter.builder("fhirspark.mapping.memo").description("Lookups answered by the per-request memo")
+                .tag("result", result).register(Metrics.globalRegistry);
+    }
+
+    public MappingContext getContext() {
+        return context;
+    }
+
+    /**
+     * Returns the memoized value for the key or computes and remembers it.
+     *
+     * @param <T>    type of the value.
+     * @param key    key that is unique within the request.
+     * @param loader computes the value on the first call.
+     * @return memoized value, may be null.
+     */
+    @SuppressWarnings("unchecked")
+    public <T> T memoize(String key, Supplier<T> loader) {
+        if (memo.containsKey(key)) {
+            HITS.increment();
+            return (T) memo.get(key);
+        }
+        MISSES.increment();
+        T value = loader.get();
+        memo.put(key, value);
+        return value;
+    }
+
+    /**
+     * Remembers a value that is already known, e.g. from an {@code _include}
+     * of a larger search, so that a later {@link #memoize} does not fetch it.
+     *
+     * @param key   key that is unique within the request.
+     * @param value value to return for the key.
+     */
+    public void remember(String key, Object value) {
+        memo.put(key, value);
+    }
+
+    /**
+     * Remembers a resource for {@link #findById}.
+     *
+     * @param resource resource with type and logical id.
+     */
+    public void remember(Resource resource) {
+        remember(resource.getClass().getSimpleName() + "?_id="
+                + resource.getIdElement().toUnqualifiedVersionless().getValue(), resource);
+    }
+
+    /**
+     * Runs a mapping step in its own span.
+     *
+     * @param <T>    type of the result.
+     * @param name   name of the span, e.g. {@code MtbAdapter.toJson}.
+     * @param action mapping step.
+     * @return result of the mapping step.
+     */
+    public <T> T trace(String name, Supplier<T> action) {
+        return Tracing.inSpan(context.getTracer(), name, action);
+    }
+
+    /**
+     * Runs a mapping step without result in its own span.
+     *
+     * @param name   name of the span, e.g. {@code MtbAdapter.fromJson}.
+     * @param action mapping step.
+     */
+    public void trace(String name, Runnable action) {
+        Tracing.inSpan(context.getTracer(), name, () -> {
+            action.run();
+            return null;
+        });
+    }
+
+    /**
+     * Fetches a resource by its logical id, at most once per request.
+     *
+     * @param <T>       type of the resource.
+     * @param type      class of the resource.
+     * @param reference reference or id of the resource.
+     * @return resource or null if it does not exist.
+     */
+    @SuppressWarnings("unchecked")
+    public <T extends Resource> T findById(Class<T> type, String reference) {
+        return memoize(type.getSimpleName() + "?_id=" + reference, () -> {
+            Bundle b = (Bundle) context.getClient().search().forResource(type)
+                    .where(new TokenClientParam("_id").exactly().code(reference)).prettyPrint().execute();
+            return (T) b.getEntryFirstRep().getResource();
+        });
+    }
+
+}
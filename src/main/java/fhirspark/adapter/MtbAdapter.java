@@ -1,58 +1,47 @@
 package fhirspark.adapter;
 
-import ca.uhn.fhir.rest.client.api.IGenericClient;
-import ca.uhn.fhir.rest.gclient.TokenClientParam;
 import fhirspark.definitions.GenomicsReportingEnum;
 import fhirspark.definitions.Hl7TerminologyEnum;
 import fhirspark.definitions.LoincEnum;
 import fhirspark.definitions.MolekulargenetischerBefundberichtEnum;
 import fhirspark.restmodel.Mtb;
 import fhirspark.restmodel.TherapyRecommendation;
-import fhirspark.settings.Regex;
-import fhirspark.settings.Settings;
 import java.text.SimpleDateFormat;
 import java.util.ArrayList;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import org.hl7.fhir.exceptions.FHIRException;
 import org.hl7.fhir.r4.model.Bundle;
+import org.hl7.fhir.r4.model.CanonicalType;
 import org.hl7.fhir.r4.model.Coding;
 import org.hl7.fhir.r4.model.DiagnosticReport;
 import org.hl7.fhir.r4.model.DiagnosticReport.DiagnosticReportStatus;
 import org.hl7.fhir.r4.model.Extension;
 import org.hl7.fhir.r4.model.IdType;
 import org.hl7.fhir.r4.model.Identifier;
+import org.hl7.fhir.r4.model.Meta;
 import org.hl7.fhir.r4.model.Observation;
 import org.hl7.fhir.r4.model.Practitioner;
 import org.hl7.fhir.r4.model.Reference;
 import org.hl7.fhir.r4.model.ServiceRequest;
 import org.hl7.fhir.r4.model.ServiceRequest.ServiceRequestStatus;
-import org.hl7.fhir.r4.model.Specimen;
 import org.hl7.fhir.r4.model.Task;
 import org.hl7.fhir.r4.model.Task.TaskIntent;
 import org.hl7.fhir.r4.model.Task.TaskStatus;
 
 public final class MtbAdapter {
 
-    private static IGenericClient client;
-    private static String patientUri;
-    private static String therapyRecommendationUri;
-    private static String mtbUri;
-    private static String serviceRequestUri;
-
     private MtbAdapter() {
     }
 
-    public static void initialize(Settings settings, IGenericClient fhirClient) {
-        MtbAdapter.client = fhirClient;
-        MtbAdapter.patientUri = settings.getPatientSystem();
-        MtbAdapter.therapyRecommendationUri = settings.getObservationSystem();
-        MtbAdapter.mtbUri = settings.getDiagnosticReportSystem();
-        MtbAdapter.serviceRequestUri = settings.getServiceRequestSystem();
+    public static Mtb toJson(MappingScope scope, String patientId,
+            DiagnosticReport diagnosticReport) {
+        return scope.trace("MtbAdapter.toJson", () -> mapToJson(scope, patientId, diagnosticReport));
     }
 
-    public static Mtb toJson(List<Regex> regex, String patientId,
+    private static Mtb mapToJson(MappingScope scope, String patientId,
             DiagnosticReport diagnosticReport) {
         Mtb mtb = new Mtb().withTherapyRecommendations(new ArrayList<>())
                 .withSamples(new ArrayList<>());
@@ -63,10 +52,8 @@ public final class MtbAdapter {
         }
 
         if (diagnosticReport.hasPerformer()) {
-            Bundle b2 = (Bundle) client.search().forResource(Practitioner.class).where(new TokenClientParam("_id")
-                    .exactly().code(diagnosticReport.getPerformerFirstRep().getReference())).prettyPrint()
-                    .execute();
-            Practitioner author = (Practitioner) b2.getEntryFirstRep().getResource();
+            Practitioner author = scope.findById(Practitioner.class,
+                    diagnosticReport.getPerformerFirstRep().getReference());
             mtb.setAuthor(author.getIdentifierFirstRep().getValue());
         }
 
@@ -85,38 +72,31 @@ public final class MtbAdapter {
 
         // REBIOPSY HERE
         mtb.getSamples().clear();
-        mtb.getSamples().addAll(SpecimenAdapter.toJson(regex, diagnosticReport.getSpecimen()));
+        mtb.getSamples().addAll(SpecimenAdapter.toJson(scope.getContext().getRegex(),
+                diagnosticReport.getSpecimen()));
+
+        for (Extension recommendedAction : diagnosticReport
+                .getExtensionsByUrl(GenomicsReportingEnum.RECOMMENDEDACTION.getSystem())) {
+            Task t = (Task) ((Reference) recommendedAction.getValue()).getResource();
+            if (t != null && t.getMeta().hasProfile(GenomicsReportingEnum.TASK_REC_FOLLOWUP.getSystem())) {
+                Coding c = t.getCode().getCodingFirstRep();
+                switch (LoincEnum.fromCode(c.getCode())) {
+                    case CONFIRMATORY_TESTING_RECOMMENDED:
+                        mtb.setRebiopsyRecommendation(true);
+                        break;
+                    case GENETIC_COUNSELING_RECOMMENDED:
+                        mtb.setGeneticCounselingRecommendation(true);
+                        break;
+                    case null, default:
+                        break;
+                }
+            }
+        }
 
         for (Reference reference : diagnosticReport.getResult()) {
-
-            List<Extension> recommendedActionReferences = diagnosticReport
-                    .getExtensionsByUrl(GenomicsReportingEnum.RECOMMENDEDACTION.getSystem());
-
-            recommendedActionReferences.forEach(recommendedActionReference -> {
-
-                Task t = (Task) ((Reference) recommendedActionReference.getValue()).getResource();
-                if (t != null && t.getMeta().hasProfile(GenomicsReportingEnum.TASK_REC_FOLLOWUP.getSystem())) {
-                    Coding c = t.getCode().getCodingFirstRep();
-                    switch (LoincEnum.fromCode(c.getCode())) {
-                        case CONFIRMATORY_TESTING_RECOMMENDED:
-                            mtb.setRebiopsyRecommendation(true);
-                            break;
-                        case GENETIC_COUNSELING_RECOMMENDED:
-                            mtb.setGeneticCounselingRecommendation(true);
-                            break;
-                        default:
-                            break;
-                    }
-                }
-            });
-
-            if (((Observation) reference.getResource()).getMeta()
-                    .hasProfile(GenomicsReportingEnum.THERAPEUTIC_IMPLICATION.getSystem())
-                    || ((Observation) reference.getResource()).getMeta()
-                            .hasProfile(GenomicsReportingEnum.MEDICATION_EFFICACY.getSystem())) {
-                TherapyRecommendation therapyRecommendation = TherapyRecommendationAdapter.toJson(client,
-                        regex, (Observation) reference.getResource());
-                mtb.getTherapyRecommendations().add(therapyRecommendation);
+            if (reference.getResource() instanceof Observation observation
+                    && isTherapyRecommendation(observation.getMeta())) {
+                mtb.getTherapyRecommendations().add(TherapyRecommendationAdapter.toJson(scope, observation));
             }
         }
 
@@ -124,7 +104,28 @@ public final class MtbAdapter {
 
     }
 
-    public static void fromJson(Bundle bundle, List<Regex> regex, Reference fhirPatient, String patientId, Mtb mtb) {
+    private static boolean isTherapyRecommendation(Meta meta) {
+        for (CanonicalType profile : meta.getProfile()) {
+            String url = profile.getValue();
+            if (GenomicsReportingEnum.THERAPEUTIC_IMPLICATION.getSystem().equals(url)
+                    || GenomicsReportingEnum.MEDICATION_EFFICACY.getSystem().equals(url)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    public static void fromJson(MappingScope scope, Bundle bundle, Reference fhirPatient, String patientId,
+            Mtb mtb) {
+        scope.trace("MtbAdapter.fromJson", () -> mapFromJson(scope, bundle, fhirPatient, patientId, mtb));
+    }
+
+    private static void mapFromJson(MappingScope scope, Bundle bundle, Reference fhirPatient, String patientId,
+            Mtb mtb) {
+        MappingContext ctx = scope.getContext();
+        String serviceRequestUri = ctx.getServiceRequestSystem();
+        String therapyRecommendationUri = ctx.getObservationSystem();
+        String mtbUri = ctx.getDiagnosticReportSystem();
         DiagnosticReport diagnosticReport = new DiagnosticReport();
         diagnosticReport.getMeta().addProfile(GenomicsReportingEnum.GENOMICS_REPORT.getSystem());
         diagnosticReport.getMeta().addProfile(MolekulargenetischerBefundberichtEnum.GENOMICS_REPORT.getSystem());
@@ -133,6 +134,7 @@ public final class MtbAdapter {
         diagnosticReport.addCategory().addCoding(Hl7TerminologyEnum.GE.toCoding());
         diagnosticReport.getCode()
                 .addCoding(LoincEnum.MASTER_HL7_GENETIC_VARIANT_REPORTING_PANEL.toCoding());
+        ContentHash.tag(diagnosticReport, ContentHash.of(mtb));
 
         if (mtb.getOrderId() != null && !mtb.getOrderId().isEmpty()) {
             ServiceRequest sr = new ServiceRequest();
@@ -152,7 +154,7 @@ public final class MtbAdapter {
             diagnosticReport.addBasedOn(new Reference(sr));
         }
 
-        diagnosticReport.addPerformer(getOrCreatePractitioner(bundle, mtb.getAuthor()));
+        diagnosticReport.addPerformer(getOrCreatePractitioner(scope, bundle, mtb.getAuthor()));
 
         diagnosticReport.getEffectiveDateTimeType().fromStringValue(mtb.getDate());
 
@@ -173,9 +175,7 @@ public final class MtbAdapter {
             diagnosticReport.addExtension(ex);
         }
 
-        if (!mtb.getId().startsWith("mtb_" + patientId + "_")) {
-            throw new IllegalArgumentException("Invalid mtb id!");
-        }
+        validate(patientId, mtb);
         diagnosticReport.setIssued(new Date(Long.valueOf(mtb.getId().replace("mtb_" + patientId + "_", ""))));
 
         if (mtb.getMtbState() != null) {
@@ -198,19 +198,16 @@ public final class MtbAdapter {
         }
 
         mtb.getSamples().forEach(sample -> {
-            String sampleId = RegexAdapter.applyRegexFromCbioportal(regex, sample);
-            Specimen s = SpecimenAdapter.fromJson(fhirPatient, sampleId);
-            bundle.addEntry().setFullUrl(s.getIdElement().getValue()).setResource(s)
-                    .getRequest().setUrl("Specimen?identifier=" + SpecimenAdapter.getSpecimenSystem() + "|" + sampleId)
-                    .setIfNoneExist("identifier=" + SpecimenAdapter.getSpecimenSystem() + "|" + sampleId)
-                    .setMethod(Bundle.HTTPVerb.PUT);
-            diagnosticReport.addSpecimen(new Reference(s));
+            String sampleId = RegexAdapter.applyRegexFromCbioportal(ctx.getRegex(), sample);
+            diagnosticReport.addSpecimen(SpecimenAdapter.getOrCreateSpecimen(ctx, bundle, fhirPatient, sampleId));
         });
 
         Map<String, Observation> unique = new HashMap<>();
         for (TherapyRecommendation therapyRecommendation : mtb.getTherapyRecommendations()) {
-            Observation efficacyObservation = TherapyRecommendationAdapter.fromJson(bundle, regex, diagnosticReport,
+            String hash = ContentHash.of(therapyRecommendation);
+            Observation efficacyObservation = TherapyRecommendationAdapter.fromJson(scope, bundle, diagnosticReport,
                     fhirPatient, therapyRecommendation, unique);
+            ContentHash.tag(efficacyObservation, hash);
             bundle.addEntry().setFullUrl(efficacyObservation.getIdElement().getValue())
                     .setResource(efficacyObservation).getRequest()
                     .setUrl("Observation?identifier=" + therapyRecommendationUri + "|"
@@ -229,16 +226,38 @@ public final class MtbAdapter {
 
     }
 
-    public static Reference getOrCreatePractitioner(Bundle b, String credentials) {
+    /**
+     * Checks what {@link #fromJson} cannot map, so a save can be rejected before
+     * it is queued.
+     *
+     * @param patientId id of the patient.
+     * @param mtb       MTB to check.
+     * @throws IllegalArgumentException if the MTB cannot be mapped.
+     */
+    public static void validate(String patientId, Mtb mtb) {
+        String prefix = "mtb_" + patientId + "_";
+        if (mtb.getId() == null || !mtb.getId().startsWith(prefix)
+                || !mtb.getId().substring(prefix.length()).matches("\\d+")) {
+            throw new IllegalArgumentException("Invalid mtb id!");
+        }
+        if (mtb.getMtbState() != null) {
+            try {
+                DiagnosticReportStatus.fromCode(mtb.getMtbState().toLowerCase());
+            } catch (FHIRException e) {
+                throw new IllegalArgumentException("Invalid mtb state " + mtb.getMtbState(), e);
+            }
+        }
+    }
 
-        Practitioner practitioner = new Practitioner();
-        practitioner.setId(IdType.newRandomUuid());
-        practitioner.addIdentifier(new Identifier().setSystem(patientUri).setValue(credentials));
-        b.addEntry().setFullUrl(practitioner.getIdElement().getValue()).setResource(practitioner).getRequest()
-                .setUrl("Practitioner?identifier=" + patientUri + "|" + credentials)
-                .setIfNoneExist("identifier=" + patientUri + "|" + credentials).setMethod(Bundle.HTTPVerb.PUT);
+    public static Reference getOrCreatePractitioner(MappingScope scope, Bundle b, String credentials) {
+        String patientUri = scope.getContext().getPatientSystem();
 
-        return new Reference(practitioner);
+        return BundleIdentityMap.conditionalUpdate(b, Practitioner.class, patientUri, credentials, () -> {
+            Practitioner practitioner = new Practitioner();
+            practitioner.setId(IdType.newRandomUuid());
+            practitioner.addIdentifier(new Identifier().setSystem(patientUri).setValue(credentials));
+            return practitioner;
+        });
 
     }
 
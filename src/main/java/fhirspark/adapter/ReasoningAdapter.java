@@ -1,12 +1,10 @@
 package fhirspark.adapter;
 
-import ca.uhn.fhir.rest.client.api.IGenericClient;
 import fhirspark.adapter.clinicaldata.GenericAdapter;
 import fhirspark.definitions.UriEnum;
 import fhirspark.restmodel.ClinicalDatum;
 import fhirspark.restmodel.GeneticAlteration;
 import fhirspark.restmodel.Reasoning;
-import fhirspark.settings.Regex;
 import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
 import java.util.ArrayList;
@@ -17,30 +15,24 @@ import org.hl7.fhir.r4.model.IdType;
 import org.hl7.fhir.r4.model.Observation;
 import org.hl7.fhir.r4.model.Reference;
 import org.hl7.fhir.r4.model.Resource;
-import org.hl7.fhir.r4.model.Specimen;
 
 public final class ReasoningAdapter {
 
     private ReasoningAdapter() {
     }
 
-    public static List<Reference> fromJson(Bundle bundle, Observation efficacyObservation, List<Regex> regex,
+    public static List<Reference> fromJson(MappingScope scope, Bundle bundle, Observation efficacyObservation,
             Reference fhirPatient, Reasoning reasoning, Map<String, Observation> unique) {
+        MappingContext ctx = scope.getContext();
         if (reasoning.getClinicalData() != null) {
             reasoning.getClinicalData().forEach(clinical -> {
                 if (clinical == null) {
                     return;
                 }
-                Specimen s = null;
+                Reference specimen = new Reference();
                 if (clinical.getSampleId() != null && clinical.getSampleId().length() > 0) {
-                    String sampleId = RegexAdapter.applyRegexFromCbioportal(regex, clinical.getSampleId());
-                    s = SpecimenAdapter.fromJson(fhirPatient, sampleId);
-                    bundle.addEntry().setFullUrl(s.getIdElement().getValue()).setResource(s)
-                            .getRequest().setUrl("Specimen?identifier=" + SpecimenAdapter.getSpecimenSystem() + "|"
-                                    + sampleId)
-                            .setIfNoneExist("identifier=" + SpecimenAdapter.getSpecimenSystem() + "|"
-                                    + sampleId)
-                            .setMethod(Bundle.HTTPVerb.PUT);
+                    String sampleId = RegexAdapter.applyRegexFromCbioportal(ctx.getRegex(), clinical.getSampleId());
+                    specimen = SpecimenAdapter.getOrCreateSpecimen(ctx, bundle, fhirPatient, sampleId);
                 }
                 try {
                     Method m = Class.forName("fhirspark.adapter.clinicaldata." + clinical.getAttributeId())
@@ -50,7 +42,7 @@ public final class ReasoningAdapter {
                         | InvocationTargetException e) {
                     GenericAdapter genericAdapter = new GenericAdapter();
                     efficacyObservation
-                            .addHasMember(new Reference(genericAdapter.fromJson(clinical, new Reference(s))));
+                            .addHasMember(new Reference(genericAdapter.fromJson(clinical, specimen)));
                 }
             });
         }
@@ -82,8 +74,8 @@ public final class ReasoningAdapter {
 
     }
 
-    public static Reasoning toJson(List<Regex> regex,
-        List<Reference> genetic, List<Reference> clinical, IGenericClient client) {
+    public static Reasoning toJson(MappingScope scope,
+        List<Reference> genetic, List<Reference> clinical) {
         List<ClinicalDatum> clinicalData = new ArrayList<>();
         List<GeneticAlteration> geneticAlterations = new ArrayList<>();
 
@@ -92,7 +84,7 @@ public final class ReasoningAdapter {
 
         clinical.forEach(member -> {
             GenericAdapter genericAdapter = new GenericAdapter();
-            ClinicalDatum cd = genericAdapter.toJson(regex, (Observation) member.getResource(), client);
+            ClinicalDatum cd = genericAdapter.toJson(scope, (Observation) member.getResource());
             clinicalData.add(cd);
         });
 
@@ -6,6 +6,7 @@ import fhirspark.settings.Regex;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.List;
+import org.hl7.fhir.r4.model.Bundle;
 import org.hl7.fhir.r4.model.IdType;
 import org.hl7.fhir.r4.model.Identifier;
 import org.hl7.fhir.r4.model.Reference;
@@ -16,36 +17,43 @@ import org.hl7.fhir.r4.model.Specimen;
  */
 public final class SpecimenAdapter {
 
-    private static String specimenSystem;
-
     private SpecimenAdapter() {
     }
 
-    public static void initialize(String newSpecimenSystem) {
-        SpecimenAdapter.specimenSystem = newSpecimenSystem;
-    }
-
-    public static String getSpecimenSystem() {
-        return SpecimenAdapter.specimenSystem;
-    }
-
     /**
      *
+     * @param ctx      Mapping context providing the specimen system.
      * @param patient  Reference to the patient is medication belongs to.
      * @param specimen id of the provided specimen.
      * @return HL7 FHIR Specimen object.
      */
-    public static Specimen fromJson(Reference patient, String specimen) {
+    public static Specimen fromJson(MappingContext ctx, Reference patient, String specimen) {
         Specimen fhirSpecimen = new Specimen();
         fhirSpecimen.setId(IdType.newRandomUuid());
         fhirSpecimen.getMeta().addProfile(GenomicsReportingEnum.SPECIMEN.getSystem());
         fhirSpecimen.setSubject(patient);
-        fhirSpecimen.addIdentifier(new Identifier().setSystem(specimenSystem).setValue(specimen));
+        fhirSpecimen.addIdentifier(new Identifier().setSystem(ctx.getSpecimenSystem()).setValue(specimen));
         fhirSpecimen.getType().addCoding(Hl7TerminologyEnum.TUMOR.toCoding());
 
         return fhirSpecimen;
     }
 
+    /**
+     * Returns a reference to the specimen and adds it to the bundle unless the
+     * bundle already contains it.
+     *
+     * @param ctx      Mapping context providing the specimen system.
+     * @param bundle   transaction bundle.
+     * @param patient  Reference to the patient the specimen belongs to.
+     * @param specimen id of the specimen.
+     * @return reference to the specimen entry of the bundle.
+     */
+    public static Reference getOrCreateSpecimen(MappingContext ctx, Bundle bundle, Reference patient,
+            String specimen) {
+        return BundleIdentityMap.conditionalUpdate(bundle, Specimen.class, ctx.getSpecimenSystem(), specimen,
+                () -> fromJson(ctx, patient, specimen));
+    }
+
     public static Collection<String> toJson(List<Regex> regex, Collection<Reference> specimens) {
         Collection<String> samples = new ArrayList<>();
         for (Reference specimen : specimens) {
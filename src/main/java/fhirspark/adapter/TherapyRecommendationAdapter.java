@@ -1,16 +1,12 @@
 package fhirspark.adapter;
 
-import ca.uhn.fhir.rest.client.api.IGenericClient;
-import ca.uhn.fhir.rest.gclient.TokenClientParam;
 import fhirspark.definitions.GenomicsReportingEnum;
 import fhirspark.definitions.LoincEnum;
 import fhirspark.definitions.MolekulargenetischerBefundberichtEnum;
 import fhirspark.definitions.UriEnum;
-import fhirspark.resolver.PubmedPublication;
 import fhirspark.restmodel.Reasoning;
 import fhirspark.restmodel.TherapyRecommendation;
 import fhirspark.restmodel.Treatment;
-import fhirspark.settings.Regex;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
@@ -35,20 +31,18 @@ import org.hl7.fhir.r4.model.codesystems.ObservationCategory;
 
 public final class TherapyRecommendationAdapter {
 
-    private static PubmedPublication pubmedResolver = new PubmedPublication();
-    private static String therapyRecommendationUri;
-    private static String studyUri;
-
     private TherapyRecommendationAdapter() {
     }
 
-    public static void initialize(String newTherapyRecommendationUri, String newStudyUri) {
-        TherapyRecommendationAdapter.therapyRecommendationUri = newTherapyRecommendationUri;
-        TherapyRecommendationAdapter.studyUri = newStudyUri;
+    public static Observation fromJson(MappingScope scope, Bundle bundle, DiagnosticReport diagnosticReport,
+            Reference fhirPatient, TherapyRecommendation therapyRecommendation, Map<String, Observation> unique) {
+        return scope.trace("TherapyRecommendationAdapter.fromJson", () -> mapFromJson(scope, bundle,
+                diagnosticReport, fhirPatient, therapyRecommendation, unique));
     }
 
-    public static Observation fromJson(Bundle bundle, List<Regex> regex, DiagnosticReport diagnosticReport,
+    private static Observation mapFromJson(MappingScope scope, Bundle bundle, DiagnosticReport diagnosticReport,
             Reference fhirPatient, TherapyRecommendation therapyRecommendation, Map<String, Observation> unique) {
+        MappingContext ctx = scope.getContext();
         Observation therapeuticImplication = new Observation();
         therapeuticImplication.setId(IdType.newRandomUuid());
         therapeuticImplication.getMeta().addProfile(GenomicsReportingEnum.THERAPEUTIC_IMPLICATION.getSystem());
@@ -77,10 +71,10 @@ public final class TherapyRecommendationAdapter {
         evidenceComponent.getValueCodeableConcept().addCoding(new Coding("https://cbioportal.org/evidence/BW/",
                 evidenceLevelCode, evidenceLevelDisplay));
 
-        therapeuticImplication.addIdentifier().setSystem(therapyRecommendationUri)
+        therapeuticImplication.addIdentifier().setSystem(ctx.getObservationSystem())
                 .setValue(therapyRecommendation.getId());
 
-        therapeuticImplication.addPerformer(MtbAdapter.getOrCreatePractitioner(bundle,
+        therapeuticImplication.addPerformer(MtbAdapter.getOrCreatePractitioner(scope, bundle,
                 therapyRecommendation.getAuthor()));
 
         therapyRecommendation.getComment()
@@ -88,14 +82,14 @@ public final class TherapyRecommendationAdapter {
                         .add(new Annotation().setText(comment)));
 
         if (therapyRecommendation.getReasoning() != null) {
-            ReasoningAdapter.fromJson(bundle, therapeuticImplication, regex,
+            ReasoningAdapter.fromJson(scope, bundle, therapeuticImplication,
                     fhirPatient, therapyRecommendation.getReasoning(), unique);
         }
 
         if (therapyRecommendation.getReferences() != null) {
             therapyRecommendation.getReferences().forEach(reference -> {
                 String title = reference.getName() != null ? reference.getName()
-                        : pubmedResolver.resolvePublication(reference.getPmid());
+                        : ctx.getPubmedResolver().resolvePublication(reference.getPmid());
                 Extension ex = new Extension()
                         .setUrl(GenomicsReportingEnum.RELATEDARTIFACT.getSystem());
                 RelatedArtifact relatedArtifact = new RelatedArtifact()
@@ -120,7 +114,7 @@ public final class TherapyRecommendationAdapter {
         }
 
         if (therapyRecommendation.getStudyId() != null) {
-            Reference study = getOrCreateResearchStudy(bundle, therapyRecommendation.getStudyId());
+            Reference study = getOrCreateResearchStudy(ctx, bundle, therapyRecommendation.getStudyId());
             therapeuticImplication.addFocus(study);
         }
 
@@ -128,52 +122,62 @@ public final class TherapyRecommendationAdapter {
 
     }
 
-    private static Reference getOrCreateResearchStudy(Bundle b, String studyId) {
+    private static Reference getOrCreateResearchStudy(MappingContext ctx, Bundle b, String studyId) {
+        String studyUri = ctx.getStudySystem();
+
+        return BundleIdentityMap.conditionalUpdate(b, ResearchStudy.class, studyUri, studyId, () -> {
+            ResearchStudy rs = new ResearchStudy();
+            rs.setId(IdType.newRandomUuid());
+            rs.addIdentifier(new Identifier().setSystem(studyUri).setValue(studyId));
+            return rs;
+        });
 
-        ResearchStudy rs = new ResearchStudy();
-        rs.setId(IdType.newRandomUuid());
-        rs.addIdentifier(new Identifier().setSystem(studyUri).setValue(studyId));
-        b.addEntry().setFullUrl(rs.getIdElement().getValue()).setResource(rs).getRequest()
-                .setUrl("ResearchStudy?identifier=" + studyUri + "|" + studyId)
-                .setIfNoneExist("identifier=" + studyUri + "|" + studyId)
-                .setMethod(Bundle.HTTPVerb.PUT);
+    }
 
-        return new Reference(rs);
+    /**
+     * Remembers the patient of a therapy recommendation whose report is already
+     * known, so that {@link #toJson} does not search the report again.
+     *
+     * @param scope         scope of the request.
+     * @param observationId logical id of the therapy recommendation.
+     * @param caseId        cBioPortal id of the patient.
+     */
+    public static void rememberCaseId(MappingScope scope, String observationId, String caseId) {
+        scope.remember(caseIdKey(observationId), caseId);
+    }
 
+    private static String caseIdKey(String observationId) {
+        return "DiagnosticReport.subject?result=" + observationId;
     }
 
-    public static TherapyRecommendation toJson(IGenericClient client, List<Regex> regex, Observation ob) {
+    public static TherapyRecommendation toJson(MappingScope scope, Observation ob) {
+        return scope.trace("TherapyRecommendationAdapter.toJson", () -> mapToJson(scope, ob));
+    }
+
+    private static TherapyRecommendation mapToJson(MappingScope scope, Observation ob) {
+        MappingContext ctx = scope.getContext();
         TherapyRecommendation therapyRecommendation = new TherapyRecommendation()
                 .withComment(new ArrayList<>()).withReasoning(new Reasoning()).withClinicalTrial(new ArrayList<>());
 
         if (ob.hasPerformer()) {
-            Bundle b2 = (Bundle) client
-                    .search().forResource(Practitioner.class).where(new TokenClientParam("_id")
-                            .exactly().code(ob.getPerformerFirstRep().getReference()))
-                    .prettyPrint().execute();
-            Practitioner author = (Practitioner) b2.getEntryFirstRep().getResource();
+            Practitioner author = scope.findById(Practitioner.class, ob.getPerformerFirstRep().getReference());
             therapyRecommendation.setAuthor(author.getIdentifierFirstRep().getValue());
         }
 
-        Bundle bDiagnosticReports = (Bundle) client.search().forResource(DiagnosticReport.class)
-            .where(DiagnosticReport.RESULT.hasId(ob.getIdElement().getIdPart())).prettyPrint()
-            .include(DiagnosticReport.INCLUDE_SUBJECT).execute();
-        if (bDiagnosticReports.hasEntry()) {
+        therapyRecommendation.setCaseId(scope.memoize(caseIdKey(ob.getIdElement().getIdPart()), () -> {
+            Bundle bDiagnosticReports = (Bundle) ctx.getClient().search().forResource(DiagnosticReport.class)
+                .where(DiagnosticReport.RESULT.hasId(ob.getIdElement().getIdPart())).prettyPrint()
+                .include(DiagnosticReport.INCLUDE_SUBJECT).execute();
+            if (!bDiagnosticReports.hasEntry()) {
+                return null;
+            }
             DiagnosticReport mtb = (DiagnosticReport) bDiagnosticReports.getEntryFirstRep().getResource();
-            Bundle bPat = (Bundle) client.search().forResource(Patient.class)
-                .where(new TokenClientParam("_id")
-                .exactly().code(mtb.getSubject().getReference())).prettyPrint().execute();
-            Patient subject = (Patient) bPat.getEntryFirstRep().getResource();
-
-            therapyRecommendation.setCaseId(subject.getIdentifierFirstRep().getValue());
-        }
+            Patient subject = scope.findById(Patient.class, mtb.getSubject().getReference());
+            return subject.getIdentifierFirstRep().getValue();
+        }));
 
         if (ob.hasFocus()) {
-            Bundle b2 = (Bundle) client
-                    .search().forResource(ResearchStudy.class).where(new TokenClientParam("_id")
-                            .exactly().code(ob.getFocusFirstRep().getReference()))
-                    .prettyPrint().execute();
-            ResearchStudy rs = (ResearchStudy) b2.getEntryFirstRep().getResource();
+            ResearchStudy rs = scope.findById(ResearchStudy.class, ob.getFocusFirstRep().getReference());
             therapyRecommendation.setStudyId(rs.getIdentifierFirstRep().getValue());
         }
 
@@ -198,7 +202,8 @@ public final class TherapyRecommendationAdapter {
         therapyRecommendation.setReferences(references);
 
         ob.getComponent().forEach(result -> {
-            if (result.getCode().getCodingFirstRep().getCode().equals("93044-6")) {
+            String code = result.getCode().getCodingFirstRep().getCode();
+            if (LoincEnum.fromCode(code) == LoincEnum.LEVEL_OF_EVIDENCE) {
                 String[] evidence = result.getValueCodeableConcept().getCodingFirstRep().getDisplay()
                         .split(" ");
                 therapyRecommendation.setEvidenceLevel(evidence[0]);
@@ -212,22 +217,22 @@ public final class TherapyRecommendationAdapter {
                                     .replace("(", "").replace(")", ""));
                 }
             }
-            if (result.getCode().getCodingFirstRep().getCode().equals("51963-7")) {
+            if (LoincEnum.fromCode(code) == LoincEnum.MEDICATION_ASSESSED) {
                 therapyRecommendation.getTreatments().add(DrugAdapter.toJson(result));
             }
-            if (result.getCode().getCodingFirstRep().getCode().equals("associated-therapy")) {
+            if (GenomicsReportingEnum.fromCode(code) == GenomicsReportingEnum.ASSOCIATED_THERAPY) {
                 therapyRecommendation.setClinicalTrial(ClinicalTrialAdapter.toJson(result));
             }
         });
 
         ob.getCategory().forEach(result -> {
-            if (result.getCodingFirstRep().getSystem().equals(studyUri)) {
+            if (result.getCodingFirstRep().getSystem().equals(ctx.getStudySystem())) {
                 therapyRecommendation.setStudyId(result.getCodingFirstRep().getCode());
             }
         });
 
         therapyRecommendation
-                .setReasoning(ReasoningAdapter.toJson(regex, ob.getDerivedFrom(), ob.getHasMember(), client));
+                .setReasoning(ReasoningAdapter.toJson(scope, ob.getDerivedFrom(), ob.getHasMember()));
 
         ob.getNote().forEach(note -> therapyRecommendation.getComment().add(note.getText()));
 
@@ -1,9 +1,7 @@
 package fhirspark.adapter.clinicaldata;
 
-import ca.uhn.fhir.rest.client.api.IGenericClient;
+import fhirspark.adapter.MappingScope;
 import fhirspark.restmodel.ClinicalDatum;
-import fhirspark.settings.Regex;
-import java.util.List;
 import org.hl7.fhir.r4.model.Observation;
 import org.hl7.fhir.r4.model.Reference;
 import org.hl7.fhir.r4.model.Resource;
@@ -17,6 +15,6 @@ public interface ClinicalDataAdapter {
 
     Resource fromJson(ClinicalDatum clinicalData, Reference specimen);
 
-    ClinicalDatum toJson(List<Regex> regex, Observation fhirResource, IGenericClient client);
+    ClinicalDatum toJson(MappingScope scope, Observation fhirResource);
 
 }
@@ -1,19 +1,17 @@
 package fhirspark.adapter.clinicaldata;
 
-import ca.uhn.fhir.rest.client.api.IGenericClient;
-import ca.uhn.fhir.rest.gclient.TokenClientParam;
+import fhirspark.adapter.MappingScope;
 import fhirspark.adapter.SpecimenAdapter;
 import fhirspark.definitions.LoincEnum;
 import fhirspark.restmodel.ClinicalDatum;
-import fhirspark.settings.Regex;
-import java.util.List;
-import org.hl7.fhir.r4.model.Bundle;
 import org.hl7.fhir.r4.model.CodeableConcept;
 import org.hl7.fhir.r4.model.Observation;
 import org.hl7.fhir.r4.model.Observation.ObservationStatus;
 import org.hl7.fhir.r4.model.Reference;
 import org.hl7.fhir.r4.model.Resource;
 import org.hl7.fhir.r4.model.Specimen;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 /**
  * Generic adapter for clinical data. Also fallback if other adapter was not
@@ -21,6 +19,8 @@ import org.hl7.fhir.r4.model.Specimen;
  */
 public class GenericAdapter implements ClinicalDataAdapter {
 
+    private static final Logger LOG = LoggerFactory.getLogger(GenericAdapter.class);
+
     @Override
     public Resource fromJson(ClinicalDatum clinicalData) {
         Observation obs = new Observation();
@@ -43,7 +43,7 @@ public class GenericAdapter implements ClinicalDataAdapter {
     }
 
     @Override
-    public ClinicalDatum toJson(List<Regex> regex, Observation obs, IGenericClient client) {
+    public ClinicalDatum toJson(MappingScope scope, Observation obs) {
         if (obs.getValueStringType().asStringValue() == null) {
             return null;
         }
@@ -54,20 +54,14 @@ public class GenericAdapter implements ClinicalDataAdapter {
         }
         if (obs.getSpecimen().getReference() != null && obs.getSpecimen().getResource() == null) {
 
-            Bundle b1 = (Bundle) client.search().forResource(Specimen.class)
-                    .where(new TokenClientParam("_id")
-                            .exactly().code(obs.getSpecimen().getReference()))
-                    .prettyPrint()
-                    .execute();
-
-            cd.setSampleId(((Specimen) b1.getEntryFirstRep().getResource())
+            cd.setSampleId(scope.findById(Specimen.class, obs.getSpecimen().getReference())
                     .getIdentifierFirstRep().getValue());
 
         }
         if (obs.getSpecimen().getResource() != null) {
-            System.out.println(((Specimen) obs.getSpecimen().getResource())
-                    .getIdentifierFirstRep().getValue());
-            cd.setSampleId(SpecimenAdapter.toJson(regex, obs.getSpecimen()));
+            LOG.trace("Clinical datum refers to specimen {}",
+                    ((Specimen) obs.getSpecimen().getResource()).getIdentifierFirstRep().getValue());
+            cd.setSampleId(SpecimenAdapter.toJson(scope.getContext().getRegex(), obs.getSpecimen()));
         }
         return cd;
 
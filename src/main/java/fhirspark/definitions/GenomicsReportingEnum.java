@@ -1,5 +1,7 @@
 package fhirspark.definitions;
 
+import java.util.HashMap;
+import java.util.Map;
 import org.hl7.fhir.r4.model.Coding;
 
 public enum GenomicsReportingEnum {
@@ -24,27 +26,43 @@ public enum GenomicsReportingEnum {
     ASSOCIATED_THERAPY("http://hl7.org/fhir/uv/genomics-reporting/CodeSystem/TbdCodes", "associated-therapy",
             "Genomically linked therapy");
 
+    private static final Map<String, GenomicsReportingEnum> BY_SYSTEM;
+    private static final Map<String, GenomicsReportingEnum> BY_CODE;
+
+    static {
+        Map<String, GenomicsReportingEnum> bySystem = new HashMap<>();
+        Map<String, GenomicsReportingEnum> byCode = new HashMap<>();
+        for (GenomicsReportingEnum e : values()) {
+            // several codes share a code system, the first one wins as before
+            bySystem.putIfAbsent(e.system, e);
+            if (e.code != null) {
+                byCode.put(e.code, e);
+            }
+        }
+        BY_SYSTEM = Map.copyOf(bySystem);
+        BY_CODE = Map.copyOf(byCode);
+    }
+
     private final String system;
     private final String code;
-    private final String display;
+    private final Coding coding;
 
     GenomicsReportingEnum(String system, String code, String display) {
         this.system = system;
         this.code = code;
-        this.display = display;
+        this.coding = new Coding(system, code, display);
     }
 
     public Coding toCoding() {
-        return new Coding(this.system, this.code, this.display);
+        return coding.copy();
     }
 
     public static GenomicsReportingEnum fromSystem(String s) {
-        for (GenomicsReportingEnum e : GenomicsReportingEnum.values()) {
-            if (e.system.equals(s)) {
-                return e;
-            }
-        }
-        return null;
+        return s == null ? null : BY_SYSTEM.get(s);
+    }
+
+    public static GenomicsReportingEnum fromCode(String s) {
+        return s == null ? null : BY_CODE.get(s);
     }
 
     /**
@@ -7,18 +7,14 @@ public enum Hl7TerminologyEnum {
     GE("0074", "GE", "Genetic"),
     TUMOR("0487", "TUMOR", "Tumor");
 
-    private final String table;
-    private final String code;
-    private final String display;
+    private final Coding coding;
 
     Hl7TerminologyEnum(String table, String code, String display) {
-        this.table = table;
-        this.code = code;
-        this.display = display;
+        this.coding = new Coding(UriEnum.HL7_TERMINOLOGY.getUri() + table, code, display);
     }
 
     public Coding toCoding() {
-        return new Coding(UriEnum.HL7_TERMINOLOGY.getUri() + this.table, this.code, this.display);
+        return coding.copy();
     }
 
 }
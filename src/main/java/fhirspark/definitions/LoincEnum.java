@@ -1,5 +1,7 @@
 package fhirspark.definitions;
 
+import java.util.HashMap;
+import java.util.Map;
 import org.hl7.fhir.r4.model.Coding;
 
 public enum LoincEnum {
@@ -25,25 +27,33 @@ public enum LoincEnum {
     MEDICATION_ASSESSED("51963-7", "Medication assessed [ID]"),
     EXACT_START_END("exact-start-end", "Variant exact start and end");
 
+    private static final Map<String, LoincEnum> BY_CODE;
+
+    static {
+        Map<String, LoincEnum> index = new HashMap<>();
+        for (LoincEnum e : values()) {
+            index.put(e.code, e);
+        }
+        BY_CODE = Map.copyOf(index);
+    }
+
     private final String code;
-    private final String display;
+    private final Coding coding;
 
     LoincEnum(String code, String display) {
         this.code = code;
-        this.display = display;
+        this.coding = new Coding(UriEnum.LOINC_URI.getUri(), code, display);
     }
 
+    /**
+     * @return copy of the coding of the code, which the caller may modify.
+     */
     public Coding toCoding() {
-        return new Coding(UriEnum.LOINC_URI.getUri(), this.code, this.display);
+        return coding.copy();
     }
 
     public static LoincEnum fromCode(String s) {
-        for (LoincEnum e : LoincEnum.values()) {
-            if (e.code.equals(s)) {
-                return e;
-            }
-        }
-        return null;
+        return s == null ? null : BY_CODE.get(s);
     }
 
 }
@@ -1,5 +1,7 @@
 package fhirspark.definitions;
 
+import java.util.HashMap;
+import java.util.Map;
 import org.hl7.fhir.r4.model.Coding;
 
 public enum MolekulargenetischerBefundberichtEnum {
@@ -15,27 +17,30 @@ public enum MolekulargenetischerBefundberichtEnum {
             "https://www.medizininformatik-initiative.de/fhir/ext/modul-molgen/StructureDefinition/empfohlene-folgemassnahme",
             null, null);
 
+    private static final Map<String, MolekulargenetischerBefundberichtEnum> BY_SYSTEM;
+
+    static {
+        Map<String, MolekulargenetischerBefundberichtEnum> bySystem = new HashMap<>();
+        for (MolekulargenetischerBefundberichtEnum e : values()) {
+            bySystem.put(e.system, e);
+        }
+        BY_SYSTEM = Map.copyOf(bySystem);
+    }
+
     private final String system;
-    private final String code;
-    private final String display;
+    private final Coding coding;
 
     MolekulargenetischerBefundberichtEnum(String system, String code, String display) {
         this.system = system;
-        this.code = code;
-        this.display = display;
+        this.coding = new Coding(system, code, display);
     }
 
     public Coding toCoding() {
-        return new Coding(this.system, this.code, this.display);
+        return coding.copy();
     }
 
     public static MolekulargenetischerBefundberichtEnum fromSystem(String s) {
-        for (MolekulargenetischerBefundberichtEnum e : MolekulargenetischerBefundberichtEnum.values()) {
-            if (e.system.equals(s)) {
-                return e;
-            }
-        }
-        return null;
+        return s == null ? null : BY_SYSTEM.get(s);
     }
 
     /**
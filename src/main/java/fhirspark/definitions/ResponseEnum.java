@@ -1,5 +1,7 @@
 package fhirspark.definitions;
 
+import java.util.HashMap;
+import java.util.Map;
 import org.hl7.fhir.r4.model.Coding;
 
 public enum ResponseEnum {
@@ -9,16 +11,30 @@ public enum ResponseEnum {
     PD("LA28370-7", "Progressive disease"),
     NA("LA9348-9", "Not assessed");
 
+    private static final Map<String, ResponseEnum> BY_CODE;
+
+    static {
+        Map<String, ResponseEnum> index = new HashMap<>();
+        for (ResponseEnum e : values()) {
+            index.put(e.code, e);
+        }
+        BY_CODE = Map.copyOf(index);
+    }
+
     private final String code;
-    private final String display;
+    private final Coding coding;
 
     ResponseEnum(String code, String display) {
         this.code = code;
-        this.display = display;
+        this.coding = new Coding(UriEnum.LOINC_URI.getUri() + "/88040-1", code, display);
     }
 
     public Coding toCoding() {
-        return new Coding(UriEnum.LOINC_URI.getUri() + "/88040-1", this.code, this.display);
+        return coding.copy();
+    }
+
+    public static ResponseEnum fromCode(String s) {
+        return s == null ? null : BY_CODE.get(s);
     }
 
 }
@@ -1,30 +1,37 @@
 package fhirspark.definitions;
 
+import java.util.HashMap;
+import java.util.Map;
 import org.hl7.fhir.r4.model.Coding;
 
 public enum SnomedEnum {
     PATIENT_ELIGIBLE_FOR_CLINICAL_TRIAL("399223003", "Patient eligible for clinical trial"),
     SIDE_EFFECT("395009001", "Medication stopped - side effect");
 
+    private static final Map<String, SnomedEnum> BY_CODE;
+
+    static {
+        Map<String, SnomedEnum> index = new HashMap<>();
+        for (SnomedEnum e : values()) {
+            index.put(e.code, e);
+        }
+        BY_CODE = Map.copyOf(index);
+    }
+
     private final String code;
-    private final String display;
+    private final Coding coding;
 
     SnomedEnum(String code, String display) {
         this.code = code;
-        this.display = display;
+        this.coding = new Coding(UriEnum.SNOMED.getUri(), code, display);
     }
 
     public Coding toCoding() {
-        return new Coding(UriEnum.SNOMED.getUri(), this.code, this.display);
+        return coding.copy();
     }
 
     public static SnomedEnum fromCode(String s) {
-        for (SnomedEnum e : SnomedEnum.values()) {
-            if (e.code.equals(s)) {
-                return e;
-            }
-        }
-        return null;
+        return s == null ? null : BY_CODE.get(s);
     }
 
 }
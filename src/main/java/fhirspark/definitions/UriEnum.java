@@ -1,5 +1,8 @@
 package fhirspark.definitions;
 
+import java.util.HashMap;
+import java.util.Map;
+
 public enum UriEnum {
     LOINC_URI("http://loinc.org"),
     PUBMED_URI("https://www.ncbi.nlm.nih.gov/pubmed/"),
@@ -13,7 +16,18 @@ public enum UriEnum {
     DBSNP("http://www.ncbi.nlm.nih.gov/projects/SNP"),
     HGVS("http://varomen.hgvs.org"),
     CLINICALTRIALS("http://clinicaltrials.gov/"),
-    SNOMED("http://snomed.info/sct");
+    SNOMED("http://snomed.info/sct"),
+    CONTENT_HASH("https://cbioportal.org/fhir/StructureDefinition/content-hash");
+
+    private static final Map<String, UriEnum> BY_URI;
+
+    static {
+        Map<String, UriEnum> index = new HashMap<>();
+        for (UriEnum e : values()) {
+            index.put(e.uri, e);
+        }
+        BY_URI = Map.copyOf(index);
+    }
 
     private final String uri;
 
@@ -22,12 +36,7 @@ public enum UriEnum {
     }
 
     public static UriEnum fromUri(String s) {
-        for (UriEnum e : UriEnum.values()) {
-            if (e.uri.equals(s)) {
-                return e;
-            }
-        }
-        return null;
+        return s == null ? null : BY_URI.get(s);
     }
 
     /**
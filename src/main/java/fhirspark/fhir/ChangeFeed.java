@@ -0,0 +1,141 @@
+package fhirspark.fhir;
+
+import ca.uhn.fhir.rest.client.api.IGenericClient;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import org.hl7.fhir.instance.model.api.IBaseResource;
+import org.hl7.fhir.r4.model.Bundle;
+import org.hl7.fhir.r4.model.Bundle.BundleEntryComponent;
+import org.hl7.fhir.r4.model.Bundle.HTTPVerb;
+import org.hl7.fhir.r4.model.IdType;
+import org.hl7.fhir.r4.model.Resource;
+
+/**
+ * Reads the changes of the FHIR server from the history of some resource
+ * types, including those of other clients. Each poll asks for the versions
+ * since the cursor minus an overlap, because a transaction that commits late
+ * can carry an earlier timestamp than versions that were already seen;
+ * versions that an earlier poll returned are skipped. A deleted resource is
+ * returned with the content of its last version, so its identifiers are known.
+ */
+public final class ChangeFeed {
+
+    /**
+     * Latest version of a changed resource.
+     *
+     * @param resource content of the version, of the last one before a deletion.
+     * @param deleted  true if the resource was deleted.
+     */
+    public record Change(Resource resource, boolean deleted) {
+    }
+
+    /**
+     * Result of a poll.
+     *
+     * @param cursor  time of the newest version seen, the cursor of the next poll.
+     * @param changes latest version of each changed resource.
+     */
+    public record Changes(long cursor, List<Change> changes) {
+    }
+
+    private final IGenericClient client;
+    private final List<Class<? extends Resource>> types;
+    private final int pageSize;
+    private final long overlap;
+    private final Map<String, Long> seen = new HashMap<>();
+    private final Counter changeCounter;
+
+    /**
+     *
+     * @param client   client of the FHIR server.
+     * @param types    resource types whose history is read.
+     * @param pageSize versions per history page.
+     * @param overlap  milliseconds before the cursor that are read again.
+     * @param registry registry that receives the change counter.
+     */
+    public ChangeFeed(IGenericClient client, List<Class<? extends Resource>> types, int pageSize, long overlap,
+            MeterRegistry registry) {
+        this.client = client;
+        this.types = List.copyOf(types);
+        this.pageSize = pageSize;
+        this.overlap = overlap;
+        this.changeCounter = Counter.builder("fhirspark.changefeed.changes")
+                .description("Changed resources read from the history of the FHIR server").register(registry);
+    }
+
+    /**
+     *
+     * @param cursor milliseconds since the epoch of the last poll's newest version.
+     * @return the resources that changed since the cursor and were not returned before.
+     */
+    public synchronized Changes poll(long cursor) {
+        long since = cursor - overlap;
+        long next = cursor;
+        Map<String, BundleEntryComponent> latest = new LinkedHashMap<>();
+        for (Class<? extends Resource> type : types) {
+            Bundle page = client.history().onType(type).returnBundle(Bundle.class).since(new Date(since))
+                    .count(pageSize).execute();
+            while (page != null) {
+                for (BundleEntryComponent entry : page.getEntry()) {
+                    String id = idOf(entry).getValue();
+                    long modified = lastModified(entry, cursor);
+                    next = Math.max(next, modified);
+                    // the history is ordered newest first
+                    if (seen.putIfAbsent(id + "@" + modified, modified) == null) {
+                        latest.putIfAbsent(id, entry);
+                    }
+                }
+                page = page.getLink(Bundle.LINK_NEXT) != null ? client.loadPage().next(page).execute() : null;
+            }
+        }
+        long oldest = next - overlap;
+        seen.values().removeIf(modified -> modified < oldest);
+
+        List<Change> changes = new ArrayList<>();
+        for (BundleEntryComponent entry : latest.values()) {
+            if (entry.getRequest().getMethod() == HTTPVerb.DELETE || !entry.hasResource()) {
+                Resource last = lastVersion(idOf(entry));
+                if (last != null) {
+                    changes.add(new Change(last, true));
+                }
+            } else {
+                changes.add(new Change(entry.getResource(), false));
+            }
+        }
+        changeCounter.increment(changes.size());
+        return new Changes(next, changes);
+    }
+
+    private Resource lastVersion(IdType id) {
+        Bundle versions = client.history().onInstance(id).returnBundle(Bundle.class).execute();
+        for (BundleEntryComponent entry : versions.getEntry()) {
+            if (entry.hasResource()) {
+                return entry.getResource();
+            }
+        }
+        return null;
+    }
+
+    private static IdType idOf(BundleEntryComponent entry) {
+        if (entry.hasResource()) {
+            return entry.getResource().getIdElement().toUnqualifiedVersionless();
+        }
+        String url = entry.hasFullUrl() ? entry.getFullUrl() : entry.getRequest().getUrl();
+        return new IdType(url).toUnqualifiedVersionless();
+    }
+
+    private static long lastModified(BundleEntryComponent entry, long fallback) {
+        IBaseResource resource = entry.getResource();
+        if (resource != null && resource.getMeta().getLastUpdated() != null) {
+            return resource.getMeta().getLastUpdated().getTime();
+        }
+        return entry.getResponse().hasLastModified() ? entry.getResponse().getLastModified().getTime() : fallback;
+    }
+
+}
@@ -0,0 +1,128 @@
+package fhirspark.fhir;
+
+import ca.uhn.fhir.rest.api.RestOperationTypeEnum;
+import ca.uhn.fhir.rest.client.api.IClientInterceptor;
+import ca.uhn.fhir.rest.client.api.IHttpRequest;
+import ca.uhn.fhir.rest.client.api.IHttpResponse;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Client interceptor that classifies every FHIR request by resource type and
+ * interaction. Each request is timed in the meter registry, and it is also
+ * counted in the {@link FhirCalls} recording of the calling thread, if one is
+ * open. This makes extra round trips inside the adapters visible to tests.
+ */
+public final class FhirCallCounter implements IClientInterceptor {
+
+    private static final int INSTANCE_HISTORY_SEGMENTS = 3;
+
+    private final String base;
+    private final MeterRegistry registry;
+    private final ThreadLocal<FhirCalls> recording = new ThreadLocal<>();
+    private final ThreadLocal<String[]> current = new ThreadLocal<>();
+
+    /**
+     *
+     * @param base     base URL of the FHIR server the client talks to.
+     * @param registry registry that receives the request timers.
+     */
+    public FhirCallCounter(String base, MeterRegistry registry) {
+        this.base = base.endsWith("/") ? base.substring(0, base.length() - 1) : base;
+        this.registry = registry;
+    }
+
+    /**
+     * Starts counting the requests of the current thread. Recordings nest; the
+     * enclosing one is restored on close.
+     *
+     * @return open recording.
+     */
+    public FhirCalls record() {
+        FhirCalls enclosing = recording.get();
+        FhirCalls calls = new FhirCalls(() -> {
+            if (enclosing == null) {
+                recording.remove();
+            } else {
+                recording.set(enclosing);
+            }
+        });
+        recording.set(calls);
+        return calls;
+    }
+
+    @Override
+    public void interceptRequest(IHttpRequest request) {
+        String uri = request.getUri();
+        String path = uri.startsWith(base) ? uri.substring(base.length()) : uri;
+        int query = path.indexOf('?');
+        if (query >= 0) {
+            path = path.substring(0, query);
+        }
+        String[] segments = path.replaceAll("^/+|/+$", "").split("/");
+        String resourceType = segments[0].startsWith("$") ? "" : segments[0];
+        RestOperationTypeEnum interaction = classify(request.getHttpVerbName(), segments);
+        if (interaction == RestOperationTypeEnum.METADATA || interaction == RestOperationTypeEnum.TRANSACTION) {
+            resourceType = "";
+        }
+
+        FhirCalls calls = recording.get();
+        if (calls != null) {
+            calls.add(resourceType, interaction);
+        }
+        current.set(new String[] {resourceType, interaction.getCode()});
+    }
+
+    @Override
+    public void interceptResponse(IHttpResponse response) {
+        String[] request = current.get();
+        current.remove();
+        if (request == null) {
+            return;
+        }
+        Timer.builder("fhirspark.fhir.requests").description("Requests to the FHIR server")
+                .tag("resource", request[0].isEmpty() ? "none" : request[0]).tag("interaction", request[1])
+                .tag("status", String.valueOf(response.getStatus())).register(registry)
+                .record(response.getRequestStopWatch().getMillis(), TimeUnit.MILLISECONDS);
+    }
+
+    private static RestOperationTypeEnum classify(String method, String[] segments) {
+        boolean system = segments[0].isEmpty();
+        if (!system && "metadata".equals(segments[0])) {
+            return RestOperationTypeEnum.METADATA;
+        }
+        if (segments[segments.length - 1].startsWith("$")) {
+            return system ? RestOperationTypeEnum.EXTENDED_OPERATION_SERVER
+                    : segments.length == 2 ? RestOperationTypeEnum.EXTENDED_OPERATION_TYPE
+                            : RestOperationTypeEnum.EXTENDED_OPERATION_INSTANCE;
+        }
+        boolean history = segments.length > 1 && "_history".equals(segments[segments.length > 2 ? 2 : 1]);
+        switch (method) {
+            case "POST":
+                if (system) {
+                    return RestOperationTypeEnum.TRANSACTION;
+                }
+                return segments.length > 1 && "_search".equals(segments[1]) ? RestOperationTypeEnum.SEARCH_TYPE
+                        : RestOperationTypeEnum.CREATE;
+            case "PUT":
+                return RestOperationTypeEnum.UPDATE;
+            case "PATCH":
+                return RestOperationTypeEnum.PATCH;
+            case "DELETE":
+                return RestOperationTypeEnum.DELETE;
+            default:
+                if (system) {
+                    return RestOperationTypeEnum.SEARCH_SYSTEM;
+                }
+                if (history) {
+                    return segments.length == 2 ? RestOperationTypeEnum.HISTORY_TYPE
+                            : segments.length == INSTANCE_HISTORY_SEGMENTS
+                                    ? RestOperationTypeEnum.HISTORY_INSTANCE
+                                    : RestOperationTypeEnum.VREAD;
+                }
+                return segments.length == 1 ? RestOperationTypeEnum.SEARCH_TYPE : RestOperationTypeEnum.READ;
+        }
+    }
+
+}
@@ -0,0 +1,73 @@
+package fhirspark.fhir;
+
+import ca.uhn.fhir.rest.api.RestOperationTypeEnum;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * FHIR requests issued by one thread while the recording was open, counted by
+ * resource type and interaction. Closing the recording stops counting.
+ */
+public final class FhirCalls implements AutoCloseable {
+
+    private final Map<String, Integer> counts = new TreeMap<>();
+    private final Runnable onClose;
+    private int total;
+
+    FhirCalls(Runnable onClose) {
+        this.onClose = onClose;
+    }
+
+    void add(String resourceType, RestOperationTypeEnum interaction) {
+        counts.merge(key(resourceType, interaction), 1, Integer::sum);
+        total++;
+    }
+
+    private static String key(String resourceType, RestOperationTypeEnum interaction) {
+        return (resourceType.isEmpty() ? "" : resourceType + " ") + interaction.getCode();
+    }
+
+    /**
+     * @return number of requests.
+     */
+    public int total() {
+        return total;
+    }
+
+    /**
+     * @param resourceType resource type, empty for system level interactions.
+     * @param interaction  interaction, e.g. search-type.
+     * @return number of matching requests.
+     */
+    public int count(String resourceType, RestOperationTypeEnum interaction) {
+        return counts.getOrDefault(key(resourceType, interaction), 0);
+    }
+
+    /**
+     * @param interaction interaction, e.g. transaction.
+     * @return number of requests with this interaction on any resource type.
+     */
+    public int count(RestOperationTypeEnum interaction) {
+        String code = interaction.getCode();
+        return counts.entrySet().stream().filter(e -> e.getKey().equals(code) || e.getKey().endsWith(" " + code))
+                .mapToInt(Map.Entry::getValue).sum();
+    }
+
+    /**
+     * @return counts keyed by {@code "<resource type> <interaction>"}.
+     */
+    public Map<String, Integer> asMap() {
+        return Map.copyOf(counts);
+    }
+
+    @Override
+    public void close() {
+        onClose.run();
+    }
+
+    @Override
+    public String toString() {
+        return total + " FHIR calls " + counts;
+    }
+
+}
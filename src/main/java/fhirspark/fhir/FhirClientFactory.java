@@ -0,0 +1,104 @@
+package fhirspark.fhir;
+
+import ca.uhn.fhir.context.FhirContext;
+import ca.uhn.fhir.rest.client.api.IGenericClient;
+import ca.uhn.fhir.rest.client.apache.GZipContentInterceptor;
+import fhirspark.settings.FhirClientSettings;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tags;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.ToDoubleFunction;
+import org.apache.http.HttpResponse;
+import org.apache.http.client.config.RequestConfig;
+import org.apache.http.impl.client.DefaultConnectionKeepAliveStrategy;
+import org.apache.http.impl.client.HttpClientBuilder;
+import org.apache.http.impl.client.HttpClients;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+import org.apache.http.pool.PoolStats;
+import org.apache.http.protocol.HttpContext;
+
+/**
+ * Creates HAPI generic clients on top of a pooled Apache HTTP client that is
+ * tuned by {@link FhirClientSettings}. Responses are always accepted gzip
+ * compressed, as by HAPI's default client; the gzip setting only compresses
+ * the request bodies. The pool gauges of each client are tagged with the base
+ * URL and a number that tells several clients of the same server apart.
+ */
+public final class FhirClientFactory {
+
+    private static final AtomicInteger CLIENTS = new AtomicInteger();
+
+    private FhirClientFactory() {
+    }
+
+    /**
+     *
+     * @param codec    codec whose context and encoding the client uses, so its
+     *                 request and response bodies are metered.
+     * @param base     base URL of the FHIR server.
+     * @param settings transport settings.
+     * @param registry registry that receives the connection pool gauges.
+     * @return generic client for the FHIR server.
+     */
+    public static IGenericClient create(FhirCodec codec, String base, FhirClientSettings settings,
+            MeterRegistry registry) {
+        FhirContext ctx = codec.getContext();
+        PoolingHttpClientConnectionManager pool = new PoolingHttpClientConnectionManager();
+        pool.setMaxTotal(settings.getPoolMaxTotal());
+        pool.setDefaultMaxPerRoute(settings.getPoolMaxPerRoute());
+
+        RequestConfig requestConfig = RequestConfig.custom()
+                .setConnectTimeout(settings.getConnectTimeout())
+                .setConnectionRequestTimeout(settings.getConnectTimeout())
+                .setSocketTimeout(settings.getSocketTimeout())
+                .build();
+
+        HttpClientBuilder builder = HttpClients.custom()
+                .setConnectionManager(pool)
+                .setDefaultRequestConfig(requestConfig)
+                .setKeepAliveStrategy((response, context) -> keepAlive(response, context, settings.getKeepAlive()))
+                .evictIdleConnections(settings.getKeepAlive(), TimeUnit.MILLISECONDS)
+                .disableCookieManagement();
+
+        ctx.getRestfulClientFactory().setConnectTimeout(settings.getConnectTimeout());
+        ctx.getRestfulClientFactory().setSocketTimeout(settings.getSocketTimeout());
+        ctx.getRestfulClientFactory().setHttpClient(builder.build());
+
+        IGenericClient client = ctx.newRestfulGenericClient(base);
+        client.setEncoding(codec.getEncoding());
+        if (settings.getGzip()) {
+            client.registerInterceptor(new GZipContentInterceptor());
+        }
+
+        Tags tags = Tags.of("base", base, "client", String.valueOf(CLIENTS.incrementAndGet()));
+        registerPoolGauge(registry, tags, "leased", "Connections currently leased to requests", pool,
+                PoolStats::getLeased);
+        registerPoolGauge(registry, tags, "available", "Idle connections kept alive in the pool", pool,
+                PoolStats::getAvailable);
+        registerPoolGauge(registry, tags, "pending", "Requests waiting for a connection lease", pool,
+                PoolStats::getPending);
+        registerPoolGauge(registry, tags, "max", "Maximum number of pooled connections", pool, PoolStats::getMax);
+
+        return client;
+    }
+
+    /**
+     * Keeps a connection no longer than the server announced in its
+     * {@code Keep-Alive: timeout=} header, so sockets the server has already
+     * closed are not reused, and never longer than the configured keep-alive.
+     */
+    static long keepAlive(HttpResponse response, HttpContext context, long configured) {
+        long announced = DefaultConnectionKeepAliveStrategy.INSTANCE.getKeepAliveDuration(response, context);
+        return announced > 0 ? Math.min(announced, configured) : configured;
+    }
+
+    private static void registerPoolGauge(MeterRegistry registry, Tags tags, String name, String description,
+            PoolingHttpClientConnectionManager pool, ToDoubleFunction<PoolStats> stat) {
+        // the client holds the pool, the registry must not keep it alive
+        Gauge.builder("fhirspark.fhir.pool." + name, pool, p -> stat.applyAsDouble(p.getTotalStats()))
+                .tags(tags).description(description).register(registry);
+    }
+
+}
@@ -0,0 +1,186 @@
+package fhirspark.fhir;
+
+import ca.uhn.fhir.context.FhirContext;
+import ca.uhn.fhir.context.FhirVersionEnum;
+import ca.uhn.fhir.parser.IParser;
+import ca.uhn.fhir.parser.JsonParser;
+import ca.uhn.fhir.parser.LenientErrorHandler;
+import ca.uhn.fhir.parser.XmlParser;
+import ca.uhn.fhir.rest.api.EncodingEnum;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+import java.util.function.Supplier;
+import org.hl7.fhir.instance.model.api.IBaseResource;
+
+/**
+ * Single place FHIR resources are encoded and decoded. The codec owns the FHIR
+ * context of the mapper; every parser the context creates, including the ones
+ * the generic client creates for its request and response bodies, records
+ * encode and decode time and the size of the bodies. The encoding of the
+ * client is taken from here, so switching the wire format is a change of the
+ * codec only.
+ */
+public final class FhirCodec {
+
+    private static final int TWO_BYTES = 0x80;
+    private static final int THREE_BYTES = 0x800;
+
+    private final EncodingEnum encoding;
+    private final Timer encodeTimer;
+    private final Counter encodedBytes;
+    private final Timer decodeTimer;
+    private final Counter decodedBytes;
+    private final FhirContext ctx;
+
+    /**
+     *
+     * @param version  FHIR version of the context.
+     * @param encoding wire format of the client.
+     * @param registry registry that receives the encode and decode meters.
+     */
+    public FhirCodec(FhirVersionEnum version, EncodingEnum encoding, MeterRegistry registry) {
+        this.encoding = encoding;
+        this.encodeTimer = Timer.builder("fhirspark.fhir.codec.encode")
+                .tag("encoding", encoding.getFormatContentType())
+                .description("Time spent serializing FHIR resources").register(registry);
+        this.encodedBytes = Counter.builder("fhirspark.fhir.codec.encoded").baseUnit("bytes")
+                .tag("encoding", encoding.getFormatContentType())
+                .description("Size of serialized FHIR resources").register(registry);
+        this.decodeTimer = Timer.builder("fhirspark.fhir.codec.decode")
+                .tag("encoding", encoding.getFormatContentType())
+                .description("Time spent parsing FHIR resources").register(registry);
+        this.decodedBytes = Counter.builder("fhirspark.fhir.codec.decoded").baseUnit("bytes")
+                .tag("encoding", encoding.getFormatContentType())
+                .description("Size of parsed FHIR resources").register(registry);
+        this.ctx = new MeteredContext(version);
+    }
+
+    public FhirContext getContext() {
+        return ctx;
+    }
+
+    public EncodingEnum getEncoding() {
+        return encoding;
+    }
+
+    /**
+     * Encodes a resource for the debug log. The dumps are not counted as
+     * traffic.
+     *
+     * @param resource resource to serialize.
+     * @return pretty-printed resource in the configured encoding.
+     */
+    public String encode(IBaseResource resource) {
+        IParser parser = encoding == EncodingEnum.XML ? new XmlParser(ctx, new LenientErrorHandler())
+                : new JsonParser(ctx, new LenientErrorHandler());
+        return parser.setPrettyPrint(true).encodeResourceToString(resource);
+    }
+
+    private String encoded(Supplier<String> encode) {
+        long start = System.nanoTime();
+        String encoded = encode.get();
+        encodeTimer.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+        encodedBytes.increment(utf8Length(encoded));
+        return encoded;
+    }
+
+    private <T> T decoded(InputStream in, Function<InputStream, T> decode) {
+        // the body is read first so that the time of the transfer is not counted as parsing
+        byte[] body;
+        try {
+            body = in.readAllBytes();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        decodedBytes.increment(body.length);
+        long start = System.nanoTime();
+        T resource = decode.apply(new ByteArrayInputStream(body));
+        decodeTimer.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+        return resource;
+    }
+
+    private static long utf8Length(CharSequence s) {
+        long length = 0;
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            if (c < TWO_BYTES) {
+                length++;
+            } else if (c < THREE_BYTES) {
+                length += 2;
+            } else if (Character.isHighSurrogate(c)) {
+                length += 4;
+                i++;
+            } else {
+                length += 3;
+            }
+        }
+        return length;
+    }
+
+    /**
+     * Context whose parsers are metered. HAPI creates a parser per request
+     * through {@link EncodingEnum#newParser}, which ends up here. The parsers
+     * use the lenient error handler, the default of every FHIR context.
+     */
+    private final class MeteredContext extends FhirContext {
+
+        MeteredContext(FhirVersionEnum version) {
+            super(version);
+        }
+
+        @Override
+        public IParser newJsonParser() {
+            return new MeteredJsonParser(this);
+        }
+
+        @Override
+        public IParser newXmlParser() {
+            return new MeteredXmlParser(this);
+        }
+
+    }
+
+    private final class MeteredJsonParser extends JsonParser {
+
+        MeteredJsonParser(FhirContext ctx) {
+            super(ctx, new LenientErrorHandler());
+        }
+
+        @Override
+        public String encodeResourceToString(IBaseResource resource) {
+            return encoded(() -> super.encodeResourceToString(resource));
+        }
+
+        @Override
+        public <T extends IBaseResource> T parseResource(Class<T> type, InputStream in) {
+            return decoded(in, body -> super.parseResource(type, body));
+        }
+
+    }
+
+    private final class MeteredXmlParser extends XmlParser {
+
+        MeteredXmlParser(FhirContext ctx) {
+            super(ctx, new LenientErrorHandler());
+        }
+
+        @Override
+        public String encodeResourceToString(IBaseResource resource) {
+            return encoded(() -> super.encodeResourceToString(resource));
+        }
+
+        @Override
+        public <T extends IBaseResource> T parseResource(Class<T> type, InputStream in) {
+            return decoded(in, body -> super.parseResource(type, body));
+        }
+
+    }
+
+}
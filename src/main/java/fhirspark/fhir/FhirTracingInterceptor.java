@@ -0,0 +1,67 @@
+package fhirspark.fhir;
+
+import ca.uhn.fhir.rest.client.api.IClientInterceptor;
+import ca.uhn.fhir.rest.client.api.IHttpRequest;
+import ca.uhn.fhir.rest.client.api.IHttpResponse;
+import fhirspark.tracing.Tracing;
+import io.opentelemetry.api.trace.Span;
+import io.opentelemetry.api.trace.SpanKind;
+import io.opentelemetry.api.trace.StatusCode;
+import io.opentelemetry.context.Context;
+
+/**
+ * Client interceptor that wraps every request to the FHIR server in a client
+ * span and forwards the trace context to the server. Spans are named after the
+ * HTTP method and the resource type, e.g. {@code FHIR GET DiagnosticReport}.
+ * Only the path is recorded: the query of a search can name a patient, and
+ * spans may be shown by {@code GET /traces}.
+ */
+public final class FhirTracingInterceptor implements IClientInterceptor {
+
+    private static final int HTTP_ERROR = 400;
+
+    private final String base;
+    private final ThreadLocal<Span> current = new ThreadLocal<>();
+
+    /**
+     *
+     * @param base base URL of the FHIR server the client talks to.
+     */
+    public FhirTracingInterceptor(String base) {
+        this.base = base.endsWith("/") ? base.substring(0, base.length() - 1) : base;
+    }
+
+    @Override
+    public void interceptRequest(IHttpRequest request) {
+        Span previous = current.get();
+        if (previous != null) {
+            // the previous request failed before a response arrived
+            previous.setStatus(StatusCode.ERROR);
+            previous.end();
+        }
+        String uri = request.getUri();
+        String path = (uri.startsWith(base) ? uri.substring(base.length()) : uri).split("\\?", 2)[0];
+        String resource = path.replaceAll("^/+", "").split("/", 2)[0];
+        Span span = Tracing.tracer()
+                .spanBuilder("FHIR " + request.getHttpVerbName() + (resource.isEmpty() ? "" : " " + resource))
+                .setSpanKind(SpanKind.CLIENT).setAttribute(Tracing.HTTP_METHOD, request.getHttpVerbName())
+                .setAttribute(Tracing.URL_PATH, path).startSpan();
+        Tracing.propagator().inject(Context.current().with(span), request, IHttpRequest::addHeader);
+        current.set(span);
+    }
+
+    @Override
+    public void interceptResponse(IHttpResponse response) {
+        Span span = current.get();
+        current.remove();
+        if (span == null) {
+            return;
+        }
+        span.setAttribute(Tracing.HTTP_STATUS, (long) response.getStatus());
+        if (response.getStatus() >= HTTP_ERROR) {
+            span.setStatus(StatusCode.ERROR);
+        }
+        span.end();
+    }
+
+}
@@ -0,0 +1,53 @@
+package fhirspark.fhir;
+
+import fhirspark.adapter.ContentHash;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import org.hl7.fhir.r4.model.Bundle;
+import org.hl7.fhir.r4.model.Bundle.BundleEntryComponent;
+import org.hl7.fhir.r4.model.DomainResource;
+import org.hl7.fhir.r4.model.IdType;
+
+/**
+ * Versions of the resources this instance wrote with a content hash. The hash
+ * of a stored resource only describes the resource as long as nobody else
+ * changed it, so a stored resource only counts as unchanged if its version is
+ * still the one this instance wrote. Resources that were changed by another
+ * client, or that were written before a restart, are written again.
+ */
+public final class HashedVersions {
+
+    private final Map<String, String> versions = new ConcurrentHashMap<>();
+
+    /**
+     * Remembers the versions the FHIR server assigned to the hashed resources
+     * of a transaction.
+     *
+     * @param request  transaction bundle that was sent.
+     * @param response transaction response, with one entry per request entry.
+     */
+    public void record(Bundle request, Bundle response) {
+        for (int i = 0; i < request.getEntry().size() && i < response.getEntry().size(); i++) {
+            BundleEntryComponent entry = request.getEntry().get(i);
+            String location = response.getEntry().get(i).getResponse().getLocation();
+            if (location != null && entry.getResource() instanceof DomainResource resource
+                    && ContentHash.read(resource) != null) {
+                IdType id = new IdType(location);
+                if (id.hasVersionIdPart()) {
+                    versions.put(id.getResourceType() + "/" + id.getIdPart(), id.getVersionIdPart());
+                }
+            }
+        }
+    }
+
+    /**
+     *
+     * @param stored resource read from the FHIR server.
+     * @return whether the stored version is the one this instance wrote.
+     */
+    public boolean isWritten(DomainResource stored) {
+        String version = stored.getMeta().getVersionId();
+        return version != null && version.equals(versions.get(stored.fhirType() + "/" + stored.getIdPart()));
+    }
+
+}
@@ -0,0 +1,159 @@
+package fhirspark.fhir;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Serializes the saves of a patient without a global lock. While a save of a
+ * patient is running, further saves of the patient wait; of the waiting saves
+ * of the same kind only the latest is run, the earlier ones return when it is
+ * written. Two clinicians saving the same MTB at once therefore cause two
+ * transactions one after the other instead of two racing ones, and a burst of
+ * saves causes at most two.
+ */
+public final class SaveCoordinator {
+
+    /**
+     * A save that writes the complete state of one kind of a patient.
+     *
+     * @param <E> checked exception of the save.
+     */
+    @FunctionalInterface
+    public interface Save<E extends Exception> {
+        void run() throws E;
+    }
+
+    private final Map<String, Slot> slots = new ConcurrentHashMap<>();
+    private final Counter superseded;
+
+    /**
+     *
+     * @param registry registry that receives the counter of superseded saves.
+     */
+    public SaveCoordinator(MeterRegistry registry) {
+        this.superseded = Counter.builder("fhirspark.saves.superseded")
+                .description("Saves that were not run because a later save of the patient replaced them")
+                .register(registry);
+    }
+
+    /**
+     * Runs a save once no other save of the patient is running, unless a later
+     * save of the same kind replaces it while it waits.
+     *
+     * @param <E>       checked exception of the save.
+     * @param patientId id of the patient.
+     * @param kind      kind of the saved state, e.g. MTBs or follow-ups.
+     * @param save      writes the state.
+     * @throws E if this save or the save that replaced it failed.
+     */
+    public <E extends Exception> void save(String patientId, String kind, Save<E> save) throws E {
+        Waiting mine = new Waiting();
+        boolean[] running = new boolean[1];
+        slots.compute(patientId, (id, slot) -> {
+            if (slot == null) {
+                running[0] = true;
+                return new Slot();
+            }
+            Waiting replaced = slot.waiting.remove(kind);
+            if (replaced != null) {
+                superseded.increment();
+                mine.written.whenComplete((v, e) -> {
+                    if (e == null) {
+                        replaced.written.complete(null);
+                    } else {
+                        replaced.written.completeExceptionally(e);
+                    }
+                });
+            }
+            slot.waiting.put(kind, mine);
+            return slot;
+        });
+
+        if (!running[0]) {
+            try {
+                CompletableFuture.anyOf(mine.turn, mine.written).join();
+            } catch (CompletionException e) {
+                SaveCoordinator.<E>rethrow(e.getCause());
+            }
+            if (mine.written.isDone()) {
+                try {
+                    mine.written.join();
+                } catch (CompletionException e) {
+                    SaveCoordinator.<E>rethrow(e.getCause());
+                }
+                return;
+            }
+        }
+
+        try {
+            save.run();
+            mine.written.complete(null);
+        } catch (Exception | Error e) {
+            mine.written.completeExceptionally(e);
+            throw e;
+        } finally {
+            handOff(patientId);
+        }
+    }
+
+    private void handOff(String patientId) {
+        Waiting[] next = new Waiting[1];
+        slots.compute(patientId, (id, slot) -> {
+            Iterator<Map.Entry<String, Waiting>> first = slot.waiting.entrySet().iterator();
+            if (!first.hasNext()) {
+                return null;
+            }
+            next[0] = first.next().getValue();
+            first.remove();
+            return slot;
+        });
+        if (next[0] != null) {
+            next[0].turn.complete(null);
+        }
+    }
+
+    /**
+     *
+     * @param patientId id of the patient.
+     * @return number of saves of the patient that wait for the running one.
+     */
+    int waiting(String patientId) {
+        int[] waiting = new int[1];
+        slots.computeIfPresent(patientId, (id, slot) -> {
+            waiting[0] = slot.waiting.size();
+            return slot;
+        });
+        return waiting[0];
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <E extends Exception> void rethrow(Throwable cause) throws E {
+        if (cause instanceof RuntimeException runtimeException) {
+            throw runtimeException;
+        }
+        if (cause instanceof Error error) {
+            throw error;
+        }
+        throw (E) cause;
+    }
+
+    /**
+     * Saves of a patient that wait for the running one, by kind in the order of
+     * their arrival.
+     */
+    private static final class Slot {
+        private final Map<String, Waiting> waiting = new LinkedHashMap<>();
+    }
+
+    private static final class Waiting {
+        private final CompletableFuture<Void> turn = new CompletableFuture<>();
+        private final CompletableFuture<Void> written = new CompletableFuture<>();
+    }
+
+}
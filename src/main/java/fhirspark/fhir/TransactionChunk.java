@@ -0,0 +1,117 @@
+package fhirspark.fhir;
+
+import ca.uhn.fhir.context.FhirContext;
+import ca.uhn.fhir.util.FhirTerser;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import org.hl7.fhir.r4.model.Bundle;
+import org.hl7.fhir.r4.model.Bundle.BundleEntryComponent;
+import org.hl7.fhir.r4.model.Reference;
+import org.hl7.fhir.r4.model.Resource;
+
+/**
+ * Transaction bundle that collects the bundles of several patients. Resources
+ * that are shared between patients and only identified by their identifier,
+ * i.e. practitioners, research studies and specimens, are added once; the
+ * references of later patients are pointed at the entry that is already in the
+ * chunk. The bundle of a patient is always added as a whole, so a patient is
+ * either stored completely or not at all.
+ */
+public final class TransactionChunk {
+
+    private static final Set<String> SHARED = Set.of("Practitioner", "ResearchStudy", "Specimen");
+
+    private final FhirTerser terser;
+    private final Bundle bundle = new Bundle().setType(Bundle.BundleType.TRANSACTION);
+    private final Map<String, BundleEntryComponent> shared = new HashMap<>();
+    private final List<String> patientIds = new ArrayList<>();
+    private int deduplicated;
+
+    /**
+     *
+     * @param ctx FHIR context used to find the references of the resources.
+     */
+    public TransactionChunk(FhirContext ctx) {
+        this.terser = ctx.newTerser();
+    }
+
+    /**
+     * Moves the entries of a patient bundle into this chunk.
+     *
+     * @param patientId      id of the patient.
+     * @param patientBundle  transaction bundle of the patient.
+     */
+    public void add(String patientId, Bundle patientBundle) {
+        Map<String, BundleEntryComponent> replaced = new HashMap<>();
+        List<BundleEntryComponent> added = new ArrayList<>();
+        for (BundleEntryComponent entry : patientBundle.getEntry()) {
+            String url = entry.getRequest().getUrl();
+            if (SHARED.contains(entry.getResource().fhirType()) && url != null && url.contains("?")) {
+                BundleEntryComponent existing = shared.putIfAbsent(url, entry);
+                if (existing != null) {
+                    replaced.put(entry.getFullUrl(), existing);
+                    deduplicated++;
+                    continue;
+                }
+            }
+            added.add(entry);
+        }
+        if (!replaced.isEmpty()) {
+            for (BundleEntryComponent entry : added) {
+                for (Reference reference : terser.getAllPopulatedChildElementsOfType(entry.getResource(),
+                        Reference.class)) {
+                    BundleEntryComponent target = replaced.get(target(reference));
+                    if (target != null) {
+                        reference.setReference(target.getFullUrl()).setResource(target.getResource());
+                    }
+                }
+            }
+        }
+        bundle.getEntry().addAll(added);
+        patientIds.add(patientId);
+    }
+
+    private static String target(Reference reference) {
+        if (reference.hasReference()) {
+            return reference.getReference();
+        }
+        Resource resource = (Resource) reference.getResource();
+        return resource == null ? null : resource.getIdElement().getValue();
+    }
+
+    public Bundle getBundle() {
+        return bundle;
+    }
+
+    /**
+     *
+     * @return ids of the patients in this chunk.
+     */
+    public List<String> getPatientIds() {
+        return patientIds;
+    }
+
+    /**
+     *
+     * @return number of entries in the bundle.
+     */
+    public int size() {
+        return bundle.getEntry().size();
+    }
+
+    public boolean isEmpty() {
+        return patientIds.isEmpty();
+    }
+
+    /**
+     *
+     * @return number of entries that were dropped because the chunk already contained them.
+     */
+    public int getDeduplicated() {
+        return deduplicated;
+    }
+
+}
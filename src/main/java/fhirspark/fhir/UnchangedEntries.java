@@ -0,0 +1,94 @@
+package fhirspark.fhir;
+
+import ca.uhn.fhir.util.FhirTerser;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import org.hl7.fhir.r4.model.Bundle;
+import org.hl7.fhir.r4.model.Bundle.BundleEntryComponent;
+import org.hl7.fhir.r4.model.Reference;
+import org.hl7.fhir.r4.model.Resource;
+
+/**
+ * Removes the entries of a transaction bundle whose resources are already
+ * stored unchanged on the FHIR server. References to a removed entry are
+ * pointed at the stored resource. Entries that were only needed by removed
+ * entries, e.g. the practitioner of an unchanged therapy recommendation, are
+ * dropped as well.
+ */
+public final class UnchangedEntries {
+
+    private UnchangedEntries() {
+    }
+
+    /**
+     *
+     * @param terser    terser used to find the references of the resources.
+     * @param bundle    transaction bundle.
+     * @param unchanged full URLs of the unchanged entries mapped to the ids of
+     *                  the stored resources, e.g. {@code Observation/42}.
+     * @return number of removed entries.
+     */
+    public static int remove(FhirTerser terser, Bundle bundle, Map<String, String> unchanged) {
+        if (unchanged.isEmpty()) {
+            return 0;
+        }
+        Map<String, BundleEntryComponent> byFullUrl = new HashMap<>();
+        Map<String, List<Reference>> references = new HashMap<>();
+        Set<String> referenced = new HashSet<>();
+        for (BundleEntryComponent entry : bundle.getEntry()) {
+            byFullUrl.put(entry.getFullUrl(), entry);
+            List<Reference> outgoing = new ArrayList<>();
+            for (Reference reference : terser.getAllPopulatedChildElementsOfType(entry.getResource(),
+                    Reference.class)) {
+                String target = target(reference);
+                if (target != null) {
+                    outgoing.add(reference);
+                    referenced.add(target);
+                }
+            }
+            references.put(entry.getFullUrl(), outgoing);
+        }
+
+        Deque<String> pending = new ArrayDeque<>();
+        for (BundleEntryComponent entry : bundle.getEntry()) {
+            if (!referenced.contains(entry.getFullUrl()) && !unchanged.containsKey(entry.getFullUrl())) {
+                pending.add(entry.getFullUrl());
+            }
+        }
+        Set<String> reachable = new HashSet<>();
+        while (!pending.isEmpty()) {
+            String fullUrl = pending.poll();
+            if (!reachable.add(fullUrl)) {
+                continue;
+            }
+            for (Reference reference : references.get(fullUrl)) {
+                String target = target(reference);
+                String stored = unchanged.get(target);
+                if (stored != null) {
+                    reference.setReference(stored).setResource(null);
+                } else if (byFullUrl.containsKey(target)) {
+                    pending.add(target);
+                }
+            }
+        }
+
+        int before = bundle.getEntry().size();
+        bundle.getEntry().removeIf(entry -> !reachable.contains(entry.getFullUrl()));
+        return before - bundle.getEntry().size();
+    }
+
+    private static String target(Reference reference) {
+        if (reference.hasReference()) {
+            return reference.getReference();
+        }
+        Resource resource = (Resource) reference.getResource();
+        return resource == null ? null : resource.getIdElement().getValue();
+    }
+
+}
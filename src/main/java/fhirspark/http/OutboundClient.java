@@ -0,0 +1,120 @@
+package fhirspark.http;
+
+import fhirspark.settings.HttpTargetSettings;
+import fhirspark.tracing.Tracing;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import io.opentelemetry.api.trace.Span;
+import io.opentelemetry.api.trace.SpanKind;
+import io.opentelemetry.api.trace.StatusCode;
+import io.opentelemetry.context.Context;
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.Map;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Outbound HTTP client for one target host. Connections are reused by the
+ * underlying JDK client, every request is bounded by the configured timeouts and
+ * at most {@code maxConcurrent} requests are in flight at the same time.
+ * Response bodies are always read completely so that no connection leaks.
+ * Every request is a client span; its context is only sent in the
+ * {@code traceparent} header to targets that propagate the trace context, so
+ * trace ids do not leave for third-party services.
+ */
+public final class OutboundClient {
+
+    private final String target;
+    private final HttpClient http;
+    private final Duration readTimeout;
+    private final Semaphore permits;
+    private final MeterRegistry registry;
+    private final boolean propagate;
+
+    /**
+     *
+     * @param target   name of the target, used as metric tag.
+     * @param settings timeouts, concurrency limit and trace propagation of the
+     *                 target.
+     * @param registry registry that receives the latency histograms.
+     */
+    public OutboundClient(String target, HttpTargetSettings settings, MeterRegistry registry) {
+        this.target = target;
+        this.http = HttpClient.newBuilder()
+                .version(HttpClient.Version.HTTP_1_1)
+                .connectTimeout(Duration.ofMillis(settings.getConnectTimeout()))
+                .followRedirects(HttpClient.Redirect.NORMAL)
+                .build();
+        this.readTimeout = Duration.ofMillis(settings.getReadTimeout());
+        this.permits = new Semaphore(settings.getMaxConcurrent(), true);
+        this.registry = registry;
+        this.propagate = settings.getPropagateTraceContext();
+    }
+
+    /**
+     * Sends a GET request and reads the whole response body.
+     *
+     * @param url     absolute URL of the resource.
+     * @param headers additional request headers.
+     * @return response including status code and body.
+     * @throws IOException if the request fails, times out or no permit could be
+     *                     acquired within the read timeout.
+     */
+    public HttpResponse<String> get(String url, Map<String, String> headers) throws IOException {
+        URI uri = URI.create(url);
+        HttpRequest.Builder request = HttpRequest.newBuilder(uri).timeout(readTimeout).GET();
+        headers.forEach(request::header);
+        Span span = Tracing.tracer().spanBuilder("HTTP GET " + target).setSpanKind(SpanKind.CLIENT)
+                .setAttribute(Tracing.HTTP_METHOD, "GET").setAttribute(Tracing.SERVER_ADDRESS, uri.getHost())
+                .startSpan();
+        if (propagate) {
+            Tracing.propagator().inject(Context.current().with(span), request, HttpRequest.Builder::header);
+        }
+        try {
+            HttpResponse<String> response = send(request.build());
+            span.setAttribute(Tracing.HTTP_STATUS, (long) response.statusCode());
+            return response;
+        } catch (IOException e) {
+            span.recordException(e);
+            span.setStatus(StatusCode.ERROR);
+            throw e;
+        } finally {
+            span.end();
+        }
+    }
+
+    private HttpResponse<String> send(HttpRequest request) throws IOException {
+        long start = System.nanoTime();
+        String outcome = "error";
+        try {
+            if (!permits.tryAcquire(readTimeout.toMillis(), TimeUnit.MILLISECONDS)) {
+                outcome = "rejected";
+                throw new IOException("Too many concurrent requests to " + target);
+            }
+            try {
+                HttpResponse<String> response = http.send(request, HttpResponse.BodyHandlers.ofString());
+                outcome = String.valueOf(response.statusCode());
+                return response;
+            } finally {
+                permits.release();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while calling " + target, e);
+        } finally {
+            Timer.builder("fhirspark.outbound.requests")
+                    .description("Latency of outbound HTTP requests")
+                    .tag("target", target)
+                    .tag("status", outcome)
+                    .publishPercentileHistogram()
+                    .register(registry)
+                    .record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+        }
+    }
+
+}
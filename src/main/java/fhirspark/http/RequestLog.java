@@ -0,0 +1,87 @@
+package fhirspark.http;
+
+import fhirspark.fhir.FhirCallCounter;
+import fhirspark.fhir.FhirCalls;
+import io.opentelemetry.api.trace.Span;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
+import java.util.concurrent.TimeUnit;
+import org.eclipse.jetty.http.HttpStatus;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.slf4j.MDC;
+import spark.Route;
+
+/**
+ * Writes one structured log event per REST request with the route, the status,
+ * the duration and the number of FHIR requests it caused. While the request is
+ * handled the route, a hash of the patient id and the trace id are in the MDC,
+ * so every log event of the request carries them. Patient ids are never logged
+ * in clear text.
+ */
+public final class RequestLog {
+
+    private static final Logger LOG = LoggerFactory.getLogger(RequestLog.class);
+    private static final int HASH_BYTES = 8;
+
+    private final FhirCallCounter callCounter;
+
+    /**
+     *
+     * @param callCounter counter of the FHIR requests of the mapper.
+     */
+    public RequestLog(FhirCallCounter callCounter) {
+        this.callCounter = callCounter;
+    }
+
+    /**
+     * Wraps a route so that it is logged.
+     *
+     * @param route route to log.
+     * @return logged route.
+     */
+    public Route logged(Route route) {
+        return (req, res) -> {
+            MDC.put("route", req.requestMethod() + " " + req.matchedPath());
+            String patientId = req.params(":patientId");
+            if (patientId != null) {
+                MDC.put("patientIdHash", hash(patientId));
+            }
+            if (Span.current().getSpanContext().isValid()) {
+                MDC.put("traceId", Span.current().getSpanContext().getTraceId());
+            }
+            long start = System.nanoTime();
+            int status = HttpStatus.INTERNAL_SERVER_ERROR_500;
+            FhirCalls calls = callCounter.record();
+            try {
+                Object body = route.handle(req, res);
+                status = res.status();
+                return body;
+            } finally {
+                calls.close();
+                LOG.atInfo().addKeyValue("status", status)
+                        .addKeyValue("durationMs", TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start))
+                        .addKeyValue("fhirCalls", calls.total()).log("request");
+                MDC.clear();
+            }
+        };
+    }
+
+    /**
+     * Pseudonymizes an identifier for logging.
+     *
+     * @param value identifier.
+     * @return first bytes of the SHA-256 hash in hex.
+     */
+    public static String hash(String value) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-256").digest(value.getBytes(StandardCharsets.UTF_8));
+            return HexFormat.of().formatHex(digest, 0, HASH_BYTES);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+}
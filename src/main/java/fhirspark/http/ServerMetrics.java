@@ -0,0 +1,120 @@
+package fhirspark.http;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Metrics;
+import io.micrometer.core.instrument.Tags;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.binder.jvm.ClassLoaderMetrics;
+import io.micrometer.core.instrument.binder.jvm.JvmGcMetrics;
+import io.micrometer.core.instrument.binder.jvm.JvmMemoryMetrics;
+import io.micrometer.core.instrument.binder.jvm.JvmThreadMetrics;
+import io.micrometer.core.instrument.binder.system.ProcessorMetrics;
+import io.micrometer.core.instrument.binder.system.UptimeMetrics;
+import io.micrometer.prometheusmetrics.PrometheusConfig;
+import io.micrometer.prometheusmetrics.PrometheusMeterRegistry;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.ToDoubleFunction;
+import org.eclipse.jetty.http.HttpStatus;
+import org.eclipse.jetty.util.thread.QueuedThreadPool;
+import spark.Route;
+
+/**
+ * Server side metrics of the REST API. Routes wrapped by {@link #timed(Route)}
+ * report their latency and the number of requests in flight, tagged with the
+ * route template instead of the concrete path. Together with the JVM and
+ * thread pool gauges this is what is needed to size the number of replicas.
+ */
+public final class ServerMetrics {
+
+    /**
+     * Content type of the Prometheus text exposition format.
+     */
+    public static final String CONTENT_TYPE = "text/plain; version=0.0.4; charset=utf-8";
+
+    private final MeterRegistry registry;
+    private final Map<String, AtomicInteger> inFlight = new ConcurrentHashMap<>();
+
+    /**
+     *
+     * @param registry registry that receives the route timers and gauges.
+     */
+    public ServerMetrics(MeterRegistry registry) {
+        this.registry = registry;
+    }
+
+    /**
+     * Creates a Prometheus registry, adds it to the global registry and binds
+     * the JVM, garbage collector and processor metrics.
+     *
+     * @return registry that renders the scrape output.
+     */
+    @SuppressWarnings("resource")
+    public static PrometheusMeterRegistry prometheus() {
+        PrometheusMeterRegistry prometheus = new PrometheusMeterRegistry(PrometheusConfig.DEFAULT);
+        Metrics.addRegistry(prometheus);
+        new ClassLoaderMetrics().bindTo(prometheus);
+        new JvmMemoryMetrics().bindTo(prometheus);
+        new JvmGcMetrics().bindTo(prometheus);
+        new JvmThreadMetrics().bindTo(prometheus);
+        new ProcessorMetrics().bindTo(prometheus);
+        new UptimeMetrics().bindTo(prometheus);
+        return prometheus;
+    }
+
+    /**
+     * Registers gauges that show how saturated the request threads of Jetty are.
+     *
+     * @param pool thread pool of the embedded server.
+     * @return the given pool.
+     */
+    public QueuedThreadPool bind(QueuedThreadPool pool) {
+        registerPoolGauge("current", "Threads in the pool", pool, QueuedThreadPool::getThreads);
+        registerPoolGauge("busy", "Threads running jobs", pool, QueuedThreadPool::getBusyThreads);
+        registerPoolGauge("idle", "Threads waiting for jobs", pool, QueuedThreadPool::getIdleThreads);
+        registerPoolGauge("max", "Maximum number of threads", pool, QueuedThreadPool::getMaxThreads);
+        registerPoolGauge("queued", "Jobs waiting for a thread", pool, QueuedThreadPool::getQueueSize);
+        registerPoolGauge("utilization", "Share of the maximum threads that are busy", pool,
+                QueuedThreadPool::getUtilizationRate);
+        return pool;
+    }
+
+    private void registerPoolGauge(String name, String description, QueuedThreadPool pool,
+            ToDoubleFunction<QueuedThreadPool> stat) {
+        Gauge.builder("fhirspark.http.threads." + name, pool, stat).description(description)
+                .strongReference(true).register(registry);
+    }
+
+    /**
+     * Wraps a route so that every call is timed by method, route template and
+     * status. Routes that throw are recorded with status 500, which is what
+     * Spark answers in that case.
+     *
+     * @param route route to measure.
+     * @return measured route.
+     */
+    public Route timed(Route route) {
+        return (req, res) -> {
+            Tags tags = Tags.of("method", req.requestMethod(), "route", req.matchedPath());
+            AtomicInteger running = inFlight.computeIfAbsent(req.requestMethod() + " " + req.matchedPath(),
+                    key -> registry.gauge("fhirspark.http.inflight", tags, new AtomicInteger()));
+            running.incrementAndGet();
+            long start = System.nanoTime();
+            int status = HttpStatus.INTERNAL_SERVER_ERROR_500;
+            try {
+                Object body = route.handle(req, res);
+                status = res.status();
+                return body;
+            } finally {
+                running.decrementAndGet();
+                Timer.builder("fhirspark.http.requests").description("Latency of REST API requests")
+                        .tags(tags).tag("status", String.valueOf(status)).publishPercentileHistogram()
+                        .register(registry).record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+            }
+        };
+    }
+
+}
@@ -0,0 +1,769 @@
+package fhirspark.index;
+
+import fhirspark.restmodel.FollowUp;
+import fhirspark.restmodel.GeneticAlteration;
+import fhirspark.restmodel.Mtb;
+import fhirspark.restmodel.Reference;
+import fhirspark.restmodel.TherapyRecommendation;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tags;
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Consumer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Therapy recommendations by the Entrez gene ids and the variants of the
+ * alterations in their reasoning, together with the follow-ups of the
+ * recommendations, see {@link AlterationMatch} for the variant keys. The mapper
+ * updates the index after every write to the FHIR server, so the alteration
+ * endpoints can be answered without a search once the index has been built
+ * from the FHIR server. Writes that happen while the index is built win over
+ * the state that is read from the FHIR server.
+ *
+ * <p>If a directory is given, every change is also written to an
+ * {@link IndexStore} there, so after a restart the index is loaded from disk
+ * instead of being built from the FHIR server again. The log of changes is
+ * compacted into a new segment in the background once it grows beyond the
+ * compaction threshold.
+ *
+ * <p>The index also keeps the cursor of the change feed, the time up to which
+ * changes made to the FHIR server by other clients have been applied. It is
+ * set to the start of a rebuild and stored together with the index, so a
+ * loaded index continues where the feed stopped.
+ */
+public final class AlterationIndex implements Closeable {
+
+    private static final Logger LOG = LoggerFactory.getLogger(AlterationIndex.class);
+
+    /**
+     * Reads all MTBs and follow-ups that are stored on the FHIR server.
+     */
+    @FunctionalInterface
+    public interface Source {
+        /**
+         *
+         * @param mtbs      receives each stored MTB.
+         * @param followUps receives each stored follow-up.
+         * @throws Exception if the FHIR server could not be read.
+         */
+        void read(Consumer<Mtb> mtbs, Consumer<FollowUp> followUps) throws Exception;
+    }
+
+    private static final AtomicInteger INSTANCES = new AtomicInteger();
+
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+    private final Map<String, TherapyRecommendation> recommendations = new HashMap<>();
+    private final Map<String, String> mtbOfRecommendation = new HashMap<>();
+    private final Map<String, Set<String>> recommendationsOfMtb = new HashMap<>();
+    private final Map<Integer, Set<String>> recommendationsOfGene = new HashMap<>();
+    private final Map<String, Set<String>> recommendationsOfVariant = new HashMap<>();
+    private final Map<Integer, Set<String>> recommendationsOfUnspecifiedGene = new HashMap<>();
+    private final Map<String, FollowUp> followUps = new HashMap<>();
+    private final Map<String, Set<String>> followUpsOfRecommendation = new HashMap<>();
+    private final IndexStore store;
+    private final long compactionThreshold;
+    private final ExecutorService compactor;
+    private final AtomicBoolean compactionQueued = new AtomicBoolean();
+    private Set<String> changedDuringRebuild;
+    private Long cursor;
+    private boolean storeOpen;
+    private volatile boolean ready;
+    // tells the gauges of several indexes in one registry apart
+    private final Tags tags = Tags.of("index", String.valueOf(INSTANCES.incrementAndGet()));
+
+    /**
+     * Creates an index that is only kept in memory.
+     *
+     * @param registry registry that receives the index gauges.
+     */
+    public AlterationIndex(MeterRegistry registry) {
+        this.store = null;
+        this.compactionThreshold = 0;
+        this.compactor = null;
+        registerGauges(registry);
+    }
+
+    /**
+     * Creates an index that is kept in memory and on disk.
+     *
+     * @param registry            registry that receives the index gauges.
+     * @param directory           directory of the index files.
+     * @param compactionThreshold size of the log in bytes that starts a compaction.
+     * @throws IOException if the directory could not be created.
+     */
+    public AlterationIndex(MeterRegistry registry, Path directory, long compactionThreshold) throws IOException {
+        this.store = new IndexStore(directory);
+        this.compactionThreshold = compactionThreshold;
+        this.compactor = Executors.newSingleThreadExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "fhirspark-alteration-index-compaction");
+            thread.setDaemon(true);
+            return thread;
+        });
+        registerGauges(registry);
+        Gauge.builder("fhirspark.alterationindex.log", store, IndexStore::logBytes).tags(tags).baseUnit("bytes")
+                .description("Bytes in the alteration index log since the last compaction").register(registry);
+    }
+
+    private void registerGauges(MeterRegistry registry) {
+        Gauge.builder("fhirspark.alterationindex.recommendations", this, index -> index.size(index.recommendations))
+                .tags(tags).description("Therapy recommendations in the alteration index").register(registry);
+        Gauge.builder("fhirspark.alterationindex.followups", this, index -> index.size(index.followUps))
+                .tags(tags).description("Follow-ups in the alteration index").register(registry);
+    }
+
+    /**
+     *
+     * @return true once the index has been built from the FHIR server.
+     */
+    public boolean isReady() {
+        return ready;
+    }
+
+    /**
+     * Replaces the therapy recommendations of the given MTBs.
+     *
+     * @param mtbs MTBs that were written.
+     */
+    public void putMtbs(Collection<Mtb> mtbs) {
+        lock.writeLock().lock();
+        try {
+            for (Mtb mtb : mtbs) {
+                write(IndexRecord.mtb(mtb.getId(), recommendationsOf(mtb)));
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Removes an MTB and its therapy recommendations.
+     *
+     * @param mtbId id of the deleted MTB.
+     */
+    public void removeMtb(String mtbId) {
+        write(IndexRecord.remove(IndexRecord.REMOVE_MTB, mtbId));
+    }
+
+    /**
+     *
+     * @param therapyRecommendationId id of the deleted therapy recommendation.
+     */
+    public void removeRecommendation(String therapyRecommendationId) {
+        write(IndexRecord.remove(IndexRecord.REMOVE_RECOMMENDATION, therapyRecommendationId));
+    }
+
+    /**
+     * Replaces the given follow-ups.
+     *
+     * @param written follow-ups that were written.
+     */
+    public void putFollowUps(Collection<FollowUp> written) {
+        lock.writeLock().lock();
+        try {
+            for (FollowUp followUp : written) {
+                write(IndexRecord.followUp(followUp));
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     *
+     * @param followUpId id of the deleted follow-up.
+     */
+    public void removeFollowUp(String followUpId) {
+        write(IndexRecord.remove(IndexRecord.REMOVE_FOLLOW_UP, followUpId));
+    }
+
+    /**
+     *
+     * @return milliseconds since the epoch up to which the changes of the FHIR
+     *         server have been applied, null if the index was never built.
+     */
+    public Long getCursor() {
+        lock.readLock().lock();
+        try {
+            return cursor;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     *
+     * @param changesUntil milliseconds since the epoch up to which the changes
+     *                     of the FHIR server have been applied.
+     */
+    public void setCursor(long changesUntil) {
+        write(IndexRecord.cursor(changesUntil));
+    }
+
+    /**
+     *
+     * @param alterations alterations whose genes are looked up.
+     * @return therapy recommendations with an alteration of one of the genes.
+     */
+    public List<TherapyRecommendation> recommendations(Collection<GeneticAlteration> alterations) {
+        return recommendations(alterations, AlterationMatch.GENE);
+    }
+
+    /**
+     *
+     * @param alterations alterations that are looked up.
+     * @param match       whether the genes or the variants are matched.
+     * @return matching therapy recommendations, exact variant matches first.
+     */
+    public List<TherapyRecommendation> recommendations(Collection<GeneticAlteration> alterations,
+            AlterationMatch match) {
+        lock.readLock().lock();
+        try {
+            List<TherapyRecommendation> result = new ArrayList<>();
+            for (String id : recommendationIds(alterations, match)) {
+                result.add(recommendations.get(id));
+            }
+            return result;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     *
+     * @param alterations alterations whose genes are looked up.
+     * @return publications cited by the therapy recommendations of the genes, one per PMID.
+     */
+    public Collection<Reference> references(Collection<GeneticAlteration> alterations) {
+        return references(alterations, AlterationMatch.GENE);
+    }
+
+    /**
+     *
+     * @param alterations alterations that are looked up.
+     * @param match       whether the genes or the variants are matched.
+     * @return publications cited by the matching therapy recommendations, one per PMID.
+     */
+    public Collection<Reference> references(Collection<GeneticAlteration> alterations, AlterationMatch match) {
+        lock.readLock().lock();
+        try {
+            Map<Integer, Reference> references = new LinkedHashMap<>();
+            for (String id : recommendationIds(alterations, match)) {
+                List<Reference> cited = recommendations.get(id).getReferences();
+                if (cited != null) {
+                    cited.forEach(reference -> references.put(reference.getPmid(), reference));
+                }
+            }
+            return references.values();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     *
+     * @param alterations alterations whose genes are looked up.
+     * @return follow-ups of the therapy recommendations of the genes.
+     */
+    public List<FollowUp> followUps(Collection<GeneticAlteration> alterations) {
+        return followUps(alterations, AlterationMatch.GENE);
+    }
+
+    /**
+     *
+     * @param alterations alterations that are looked up.
+     * @param match       whether the genes or the variants are matched.
+     * @return follow-ups of the matching therapy recommendations, those of exact variant matches first.
+     */
+    public List<FollowUp> followUps(Collection<GeneticAlteration> alterations, AlterationMatch match) {
+        lock.readLock().lock();
+        try {
+            List<FollowUp> result = new ArrayList<>();
+            for (String id : recommendationIds(alterations, match)) {
+                for (String followUpId : followUpsOfRecommendation.getOrDefault(id, Set.of())) {
+                    result.add(followUps.get(followUpId));
+                }
+            }
+            return result;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Loads the index from disk.
+     *
+     * @return true if the index was loaded, false if it has to be built from
+     *         the FHIR server because it is only kept in memory, was not
+     *         written yet or could not be read.
+     */
+    public boolean load() {
+        if (store == null) {
+            return false;
+        }
+        long start = System.nanoTime();
+        lock.writeLock().lock();
+        try {
+            clearMaps();
+            if (store.load(this::apply)) {
+                storeOpen = true;
+                ready = true;
+                LOG.info("Loaded alteration index with {} therapy recommendations and {} follow-ups in {} ms",
+                        recommendations.size(), followUps.size(),
+                        TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+                return true;
+            }
+            storeOpen = true;
+        } catch (IOException | RuntimeException e) {
+            LOG.warn("Could not load alteration index, building it from the FHIR server", e);
+            clearMaps();
+            clearStore();
+        } finally {
+            lock.writeLock().unlock();
+        }
+        return false;
+    }
+
+    /**
+     * Loads the index from disk or, if that is not possible, builds it from
+     * the FHIR server in a daemon thread that retries until the FHIR server
+     * could be read. Has to be called before the first write.
+     *
+     * @param source     reads the FHIR server.
+     * @param retryDelay milliseconds to wait after a failed build.
+     */
+    public void start(Source source, long retryDelay) {
+        if (load()) {
+            return;
+        }
+        Thread thread = new Thread(() -> {
+            while (true) {
+                try {
+                    rebuild(source);
+                    return;
+                } catch (InterruptedException e) {
+                    return;
+                } catch (Exception e) {
+                    LOG.warn("Could not build alteration index, retrying in {} ms", retryDelay, e);
+                }
+                try {
+                    Thread.sleep(retryDelay);
+                } catch (InterruptedException e) {
+                    return;
+                }
+            }
+        }, "fhirspark-alteration-index");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Empties the index and builds it from the FHIR server. Queries are not
+     * answered from the index until the build is complete. If the index is
+     * kept on disk, the result is written as a new segment.
+     *
+     * @param source reads the FHIR server.
+     * @throws Exception if the FHIR server could not be read.
+     */
+    public void rebuild(Source source) throws Exception {
+        long start = System.nanoTime();
+        lock.writeLock().lock();
+        try {
+            ready = false;
+            clearMaps();
+            if (store != null && !storeOpen) {
+                clearStore();
+            }
+            changedDuringRebuild = new HashSet<>();
+            write(IndexRecord.cursor(System.currentTimeMillis()));
+        } finally {
+            lock.writeLock().unlock();
+        }
+        try {
+            source.read(this::loadMtb, this::loadFollowUp);
+            lock.writeLock().lock();
+            try {
+                ready = true;
+                changedDuringRebuild = null;
+                LOG.info("Built alteration index with {} therapy recommendations and {} follow-ups in {} ms",
+                        recommendations.size(), followUps.size(),
+                        TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+            } finally {
+                lock.writeLock().unlock();
+            }
+            scheduleCompaction();
+        } finally {
+            lock.writeLock().lock();
+            try {
+                changedDuringRebuild = null;
+            } finally {
+                lock.writeLock().unlock();
+            }
+        }
+    }
+
+    /**
+     * Waits for a running compaction and closes the index files.
+     */
+    @Override
+    public void close() throws IOException {
+        if (store == null) {
+            return;
+        }
+        compactor.shutdown();
+        try {
+            compactor.awaitTermination(1, TimeUnit.MINUTES);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        lock.writeLock().lock();
+        try {
+            storeOpen = false;
+            store.close();
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    private void loadMtb(Mtb mtb) {
+        lock.writeLock().lock();
+        try {
+            if (changedDuringRebuild.contains(mtb.getId())) {
+                return;
+            }
+            for (TherapyRecommendation therapyRecommendation : recommendationsOf(mtb)) {
+                if (!changedDuringRebuild.contains(therapyRecommendation.getId())) {
+                    putRecommendation(mtb.getId(), therapyRecommendation);
+                }
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    private void loadFollowUp(FollowUp followUp) {
+        lock.writeLock().lock();
+        try {
+            if (!changedDuringRebuild.contains(followUp.getId())) {
+                putFollowUp(followUp);
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Applies a change to the index and the log. The records that are read
+     * from the FHIR server during a rebuild are not logged, the segment that
+     * is written after the rebuild contains them.
+     */
+    private void write(IndexRecord record) {
+        lock.writeLock().lock();
+        try {
+            changed(record.getId());
+            if (record.getTherapyRecommendations() != null) {
+                record.getTherapyRecommendations().forEach(therapyRecommendation -> changed(
+                        therapyRecommendation.getId()));
+            }
+            apply(record);
+            if (storeOpen) {
+                store.append(record);
+                if (store.logBytes() > compactionThreshold) {
+                    scheduleCompaction();
+                }
+            }
+        } catch (IOException e) {
+            LOG.error("Could not write alteration index, it is built from the FHIR server after the next restart",
+                    e);
+            storeOpen = false;
+            clearStore();
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    private void apply(IndexRecord record) {
+        switch (record.getOp()) {
+            case IndexRecord.MTB:
+                putMtb(record.getId(), record.getTherapyRecommendations());
+                break;
+            case IndexRecord.REMOVE_MTB:
+                removeRecommendationsOf(record.getId());
+                break;
+            case IndexRecord.REMOVE_RECOMMENDATION:
+                removeRecommendationInternal(record.getId());
+                break;
+            case IndexRecord.FOLLOW_UP:
+                putFollowUp(record.getFollowUp());
+                break;
+            case IndexRecord.REMOVE_FOLLOW_UP:
+                removeFollowUpInternal(record.getId());
+                break;
+            case IndexRecord.CURSOR:
+                cursor = record.getCursor();
+                break;
+            default:
+                LOG.warn("Skipping alteration index record with unknown op {}", record.getOp());
+        }
+    }
+
+    private void scheduleCompaction() {
+        if (store != null && compactionQueued.compareAndSet(false, true)) {
+            try {
+                compactor.execute(this::compact);
+            } catch (RejectedExecutionException e) {
+                compactionQueued.set(false);
+            }
+        }
+    }
+
+    /**
+     * Starts a new log and writes the index as of that moment as the new
+     * segment. Only the rename of the log and the copy of the index happen
+     * under the lock, the segment is written while queries and writes go on.
+     */
+    private void compact() {
+        long start = System.nanoTime();
+        List<IndexRecord> records;
+        lock.writeLock().lock();
+        try {
+            compactionQueued.set(false);
+            if (!storeOpen || changedDuringRebuild != null) {
+                return;
+            }
+            store.rotate();
+            records = snapshot();
+        } catch (IOException e) {
+            LOG.error("Could not start a new alteration index log, it is built from the FHIR server after the next "
+                    + "restart", e);
+            storeOpen = false;
+            clearStore();
+            return;
+        } finally {
+            lock.writeLock().unlock();
+        }
+        try {
+            store.writeSegment(records);
+            LOG.info("Compacted alteration index to {} records in {} ms", records.size(),
+                    TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+        } catch (IOException e) {
+            LOG.warn("Could not compact alteration index, keeping its log", e);
+        }
+    }
+
+    private List<IndexRecord> snapshot() {
+        List<IndexRecord> records = new ArrayList<>();
+        if (cursor != null) {
+            records.add(IndexRecord.cursor(cursor));
+        }
+        for (String mtbId : new TreeSet<>(recommendationsOfMtb.keySet())) {
+            if (recommendationsOfMtb.get(mtbId).isEmpty()) {
+                continue;
+            }
+            List<TherapyRecommendation> ofMtb = new ArrayList<>();
+            for (String id : new TreeSet<>(recommendationsOfMtb.get(mtbId))) {
+                ofMtb.add(recommendations.get(id));
+            }
+            records.add(IndexRecord.mtb(mtbId, ofMtb));
+        }
+        for (String id : new TreeSet<>(followUps.keySet())) {
+            records.add(IndexRecord.followUp(followUps.get(id)));
+        }
+        return records;
+    }
+
+    private void clearStore() {
+        try {
+            store.clear();
+            storeOpen = true;
+        } catch (IOException e) {
+            LOG.error("Could not clear alteration index files, the index is only kept in memory", e);
+            storeOpen = false;
+        }
+    }
+
+    private void clearMaps() {
+        cursor = null;
+        recommendations.clear();
+        mtbOfRecommendation.clear();
+        recommendationsOfMtb.clear();
+        recommendationsOfGene.clear();
+        recommendationsOfVariant.clear();
+        recommendationsOfUnspecifiedGene.clear();
+        followUps.clear();
+        followUpsOfRecommendation.clear();
+    }
+
+    private void changed(String id) {
+        if (changedDuringRebuild != null && id != null) {
+            changedDuringRebuild.add(id);
+        }
+    }
+
+    private void putMtb(String mtbId, List<TherapyRecommendation> therapyRecommendations) {
+        removeRecommendationsOf(mtbId);
+        for (TherapyRecommendation therapyRecommendation : therapyRecommendations) {
+            putRecommendation(mtbId, therapyRecommendation);
+        }
+    }
+
+    private void putRecommendation(String mtbId, TherapyRecommendation therapyRecommendation) {
+        String id = therapyRecommendation.getId();
+        if (id == null) {
+            return;
+        }
+        removeRecommendationInternal(id);
+        recommendations.put(id, therapyRecommendation);
+        mtbOfRecommendation.put(id, mtbId);
+        recommendationsOfMtb.computeIfAbsent(mtbId, k -> new HashSet<>()).add(id);
+        for (Integer gene : genes(therapyRecommendation)) {
+            recommendationsOfGene.computeIfAbsent(gene, k -> new LinkedHashSet<>()).add(id);
+        }
+        for (String variant : variants(therapyRecommendation)) {
+            recommendationsOfVariant.computeIfAbsent(variant, k -> new LinkedHashSet<>()).add(id);
+        }
+        for (Integer gene : AlterationMatch.unspecifiedGenes(therapyRecommendation)) {
+            recommendationsOfUnspecifiedGene.computeIfAbsent(gene, k -> new LinkedHashSet<>()).add(id);
+        }
+    }
+
+    private void removeRecommendationsOf(String mtbId) {
+        Set<String> ids = recommendationsOfMtb.remove(mtbId);
+        if (ids != null) {
+            for (String id : new ArrayList<>(ids)) {
+                removeRecommendationInternal(id);
+            }
+        }
+    }
+
+    private void removeRecommendationInternal(String id) {
+        TherapyRecommendation removed = recommendations.remove(id);
+        if (removed == null) {
+            return;
+        }
+        Set<String> ofMtb = recommendationsOfMtb.get(mtbOfRecommendation.remove(id));
+        if (ofMtb != null) {
+            ofMtb.remove(id);
+        }
+        for (Integer gene : genes(removed)) {
+            Set<String> ofGene = recommendationsOfGene.get(gene);
+            if (ofGene != null && ofGene.remove(id) && ofGene.isEmpty()) {
+                recommendationsOfGene.remove(gene);
+            }
+        }
+        for (String variant : variants(removed)) {
+            Set<String> ofVariant = recommendationsOfVariant.get(variant);
+            if (ofVariant != null && ofVariant.remove(id) && ofVariant.isEmpty()) {
+                recommendationsOfVariant.remove(variant);
+            }
+        }
+        for (Integer gene : AlterationMatch.unspecifiedGenes(removed)) {
+            Set<String> ofGene = recommendationsOfUnspecifiedGene.get(gene);
+            if (ofGene != null && ofGene.remove(id) && ofGene.isEmpty()) {
+                recommendationsOfUnspecifiedGene.remove(gene);
+            }
+        }
+    }
+
+    private void putFollowUp(FollowUp followUp) {
+        if (followUp.getId() == null) {
+            return;
+        }
+        removeFollowUpInternal(followUp.getId());
+        followUps.put(followUp.getId(), followUp);
+        String recommendationId = recommendationOf(followUp);
+        if (recommendationId != null) {
+            followUpsOfRecommendation.computeIfAbsent(recommendationId, k -> new LinkedHashSet<>())
+                    .add(followUp.getId());
+        }
+    }
+
+    private void removeFollowUpInternal(String id) {
+        FollowUp removed = followUps.remove(id);
+        if (removed == null) {
+            return;
+        }
+        String recommendationId = recommendationOf(removed);
+        Set<String> ofRecommendation = followUpsOfRecommendation.get(recommendationId);
+        if (ofRecommendation != null && ofRecommendation.remove(id) && ofRecommendation.isEmpty()) {
+            followUpsOfRecommendation.remove(recommendationId);
+        }
+    }
+
+    private Set<String> recommendationIds(Collection<GeneticAlteration> alterations, AlterationMatch match) {
+        Set<String> exact = new LinkedHashSet<>();
+        Set<String> geneLevel = new LinkedHashSet<>();
+        for (GeneticAlteration alteration : alterations) {
+            Set<String> variants = match == AlterationMatch.VARIANT
+                    ? AlterationMatch.variantKeys(alteration) : Set.of();
+            if (variants.isEmpty()) {
+                geneLevel.addAll(recommendationsOfGene.getOrDefault(alteration.getEntrezGeneId(), Set.of()));
+            } else {
+                // recommendations that name only the gene still apply to the variant, other variants do not
+                geneLevel.addAll(
+                        recommendationsOfUnspecifiedGene.getOrDefault(alteration.getEntrezGeneId(), Set.of()));
+            }
+            for (String variant : variants) {
+                exact.addAll(recommendationsOfVariant.getOrDefault(variant, Set.of()));
+            }
+        }
+        exact.addAll(geneLevel);
+        return exact;
+    }
+
+    private static List<TherapyRecommendation> recommendationsOf(Mtb mtb) {
+        return mtb.getTherapyRecommendations() != null ? mtb.getTherapyRecommendations() : List.of();
+    }
+
+    private static String recommendationOf(FollowUp followUp) {
+        return followUp.getTherapyRecommendation() != null ? followUp.getTherapyRecommendation().getId() : null;
+    }
+
+    private static Set<Integer> genes(TherapyRecommendation therapyRecommendation) {
+        Set<Integer> genes = new HashSet<>();
+        for (GeneticAlteration alteration : AlterationMatch.reasoningOf(therapyRecommendation)) {
+            if (alteration.getEntrezGeneId() != null) {
+                genes.add(alteration.getEntrezGeneId());
+            }
+        }
+        return genes;
+    }
+
+    private static Set<String> variants(TherapyRecommendation therapyRecommendation) {
+        Set<String> variants = new HashSet<>();
+        for (GeneticAlteration alteration : AlterationMatch.reasoningOf(therapyRecommendation)) {
+            variants.addAll(AlterationMatch.variantKeys(alteration));
+        }
+        return variants;
+    }
+
+    private int size(Map<String, ?> map) {
+        lock.readLock().lock();
+        try {
+            return map.size();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+}
@@ -0,0 +1,149 @@
+package fhirspark.index;
+
+import fhirspark.restmodel.GeneticAlteration;
+import fhirspark.restmodel.TherapyRecommendation;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+
+/**
+ * How the alteration endpoints match the queried alterations against the
+ * reasoning of the stored therapy recommendations.
+ *
+ * <p>{@link #GENE} matches by Entrez gene id alone. {@link #VARIANT} matches a
+ * queried alteration that names a variant, by its protein change or by its
+ * genomic start, end, reference and alternative allele, against the same
+ * variant of the gene and against reasonings that name only the gene, but not
+ * against other variants of the gene; a queried alteration with nothing but
+ * the gene still matches by gene. Exact variant matches come before
+ * gene-level ones.
+ */
+public enum AlterationMatch {
+
+    GENE,
+    VARIANT;
+
+    private static final String PROTEIN_CHANGE_PREFIX = "p.";
+
+    /**
+     *
+     * @param value value of the {@code match} query parameter, may be null.
+     * @return the match, {@link #GENE} if no value is given.
+     * @throws IllegalArgumentException if the value is unknown.
+     */
+    public static AlterationMatch fromParameter(String value) {
+        if (value == null || value.isBlank()) {
+            return GENE;
+        }
+        for (AlterationMatch match : values()) {
+            if (match.name().equalsIgnoreCase(value)) {
+                return match;
+            }
+        }
+        throw new IllegalArgumentException("Unknown match " + value + ", expected gene or variant");
+    }
+
+    /**
+     * Keys under which a variant is indexed; two alterations are the same
+     * variant if they share a key.
+     *
+     * @param alteration alteration of a query or a reasoning.
+     * @return keys of the protein change and of the genomic change, empty if
+     *         the alteration names only a gene.
+     */
+    public static Set<String> variantKeys(GeneticAlteration alteration) {
+        Set<String> keys = new HashSet<>();
+        Integer gene = alteration.getEntrezGeneId();
+        if (gene == null) {
+            return keys;
+        }
+        String proteinChange = alteration.getAlteration() != null
+                ? alteration.getAlteration() : alteration.getAminoAcidChange();
+        if (proteinChange != null && !proteinChange.isBlank()) {
+            String normalized = proteinChange.trim();
+            if (normalized.startsWith(PROTEIN_CHANGE_PREFIX)) {
+                normalized = normalized.substring(PROTEIN_CHANGE_PREFIX.length());
+            }
+            keys.add(gene + ":" + normalized.toUpperCase(Locale.ROOT));
+        }
+        if (alteration.getStart() != null && alteration.getEnd() != null && alteration.getRef() != null
+                && alteration.getAlt() != null) {
+            keys.add(gene + ":g." + alteration.getStart() + "_" + alteration.getEnd() + ":"
+                    + alteration.getRef().toUpperCase(Locale.ROOT) + ">"
+                    + alteration.getAlt().toUpperCase(Locale.ROOT));
+        }
+        return keys;
+    }
+
+    /**
+     * Applies the match to therapy recommendations that were found by gene.
+     *
+     * @param alterations            queried alterations.
+     * @param therapyRecommendations recommendations with an alteration of one of the genes.
+     * @return the matching recommendations, exact variant matches first.
+     */
+    public List<TherapyRecommendation> select(Collection<GeneticAlteration> alterations,
+            Collection<TherapyRecommendation> therapyRecommendations) {
+        if (this == GENE) {
+            return new ArrayList<>(therapyRecommendations);
+        }
+        Set<String> variants = new HashSet<>();
+        Set<Integer> genes = new HashSet<>();
+        Set<Integer> genesOfVariants = new HashSet<>();
+        for (GeneticAlteration alteration : alterations) {
+            Set<String> keys = variantKeys(alteration);
+            if (keys.isEmpty()) {
+                genes.add(alteration.getEntrezGeneId());
+            } else {
+                variants.addAll(keys);
+                genesOfVariants.add(alteration.getEntrezGeneId());
+            }
+        }
+        List<TherapyRecommendation> exact = new ArrayList<>();
+        List<TherapyRecommendation> geneLevel = new ArrayList<>();
+        for (TherapyRecommendation therapyRecommendation : therapyRecommendations) {
+            boolean exactMatch = false;
+            boolean geneMatch = false;
+            for (GeneticAlteration alteration : reasoningOf(therapyRecommendation)) {
+                Set<String> keys = variantKeys(alteration);
+                exactMatch |= keys.stream().anyMatch(variants::contains);
+                geneMatch |= genes.contains(alteration.getEntrezGeneId())
+                        || (keys.isEmpty() && genesOfVariants.contains(alteration.getEntrezGeneId()));
+            }
+            if (exactMatch) {
+                exact.add(therapyRecommendation);
+            } else if (geneMatch) {
+                geneLevel.add(therapyRecommendation);
+            }
+        }
+        exact.addAll(geneLevel);
+        return exact;
+    }
+
+    /**
+     *
+     * @param therapyRecommendation recommendation of the index.
+     * @return genes that its reasoning names without a variant.
+     */
+    static Set<Integer> unspecifiedGenes(TherapyRecommendation therapyRecommendation) {
+        Set<Integer> genes = new HashSet<>();
+        for (GeneticAlteration alteration : reasoningOf(therapyRecommendation)) {
+            if (alteration.getEntrezGeneId() != null && variantKeys(alteration).isEmpty()) {
+                genes.add(alteration.getEntrezGeneId());
+            }
+        }
+        return genes;
+    }
+
+    static List<GeneticAlteration> reasoningOf(TherapyRecommendation therapyRecommendation) {
+        if (therapyRecommendation.getReasoning() == null
+                || therapyRecommendation.getReasoning().getGeneticAlterations() == null) {
+            return List.of();
+        }
+        return therapyRecommendation.getReasoning().getGeneticAlterations();
+    }
+
+}
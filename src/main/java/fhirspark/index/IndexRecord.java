@@ -0,0 +1,83 @@
+package fhirspark.index;
+
+import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import fhirspark.restmodel.FollowUp;
+import fhirspark.restmodel.TherapyRecommendation;
+import java.util.List;
+
+/**
+ * Change of the alteration index as it is written to its log and segment:
+ * the therapy recommendations of an MTB, a follow-up, the removal of one of
+ * them, or the cursor of the change feed.
+ */
+@JsonInclude(JsonInclude.Include.NON_NULL)
+final class IndexRecord {
+
+    static final String MTB = "mtb";
+    static final String REMOVE_MTB = "removeMtb";
+    static final String REMOVE_RECOMMENDATION = "removeRecommendation";
+    static final String FOLLOW_UP = "followUp";
+    static final String REMOVE_FOLLOW_UP = "removeFollowUp";
+    static final String CURSOR = "cursor";
+
+    private final String op;
+    private final String id;
+    private final List<TherapyRecommendation> therapyRecommendations;
+    private final FollowUp followUp;
+    private final Long cursor;
+
+    @JsonCreator
+    IndexRecord(@JsonProperty("op") String op, @JsonProperty("id") String id,
+            @JsonProperty("therapyRecommendations") List<TherapyRecommendation> therapyRecommendations,
+            @JsonProperty("followUp") FollowUp followUp, @JsonProperty("cursor") Long cursor) {
+        this.op = op;
+        this.id = id;
+        this.therapyRecommendations = therapyRecommendations;
+        this.followUp = followUp;
+        this.cursor = cursor;
+    }
+
+    static IndexRecord mtb(String mtbId, List<TherapyRecommendation> therapyRecommendations) {
+        return new IndexRecord(MTB, mtbId, therapyRecommendations, null, null);
+    }
+
+    static IndexRecord followUp(FollowUp followUp) {
+        return new IndexRecord(FOLLOW_UP, followUp.getId(), null, followUp, null);
+    }
+
+    static IndexRecord remove(String op, String id) {
+        return new IndexRecord(op, id, null, null, null);
+    }
+
+    static IndexRecord cursor(long cursor) {
+        return new IndexRecord(CURSOR, null, null, null, cursor);
+    }
+
+    @JsonProperty("op")
+    public String getOp() {
+        return op;
+    }
+
+    @JsonProperty("id")
+    public String getId() {
+        return id;
+    }
+
+    @JsonProperty("therapyRecommendations")
+    public List<TherapyRecommendation> getTherapyRecommendations() {
+        return therapyRecommendations;
+    }
+
+    @JsonProperty("followUp")
+    public FollowUp getFollowUp() {
+        return followUp;
+    }
+
+    @JsonProperty("cursor")
+    public Long getCursor() {
+        return cursor;
+    }
+
+}
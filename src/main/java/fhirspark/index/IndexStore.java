@@ -0,0 +1,230 @@
+package fhirspark.index;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.function.Consumer;
+import java.util.zip.CRC32C;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Files of the persistent alteration index: a segment with the complete index
+ * sorted by id and an append-only log of the changes since the segment was
+ * written. Records are written like those of the write-behind journal, as
+ * their length, a CRC32C checksum and their JSON, and every change is forced
+ * to disk before {@link #append} returns. To compact, the log is renamed and a
+ * new segment is written from the index as of the rename; until the segment
+ * is in place, the renamed log is replayed on top of the old segment.
+ */
+final class IndexStore implements Closeable {
+
+    private static final Logger LOG = LoggerFactory.getLogger(IndexStore.class);
+    private static final int HEADER_BYTES = 2 * Integer.BYTES;
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    private final Path segment;
+    private final Path log;
+    private final Path compacting;
+    private FileChannel channel;
+    private long logBytes;
+
+    /**
+     *
+     * @param directory directory of the files; created if it does not exist.
+     * @throws IOException if the directory could not be created.
+     */
+    IndexStore(Path directory) throws IOException {
+        Files.createDirectories(directory);
+        this.segment = directory.resolve("segment");
+        this.log = directory.resolve("log");
+        this.compacting = directory.resolve("log.compacting");
+    }
+
+    /**
+     * Reads the segment and the changes since it was written and opens the log
+     * for appending. A log that ends with an incomplete record, e.g. because
+     * the process died while writing it, is cut off before that record.
+     *
+     * @param consumer receives the records in the order they were written.
+     * @return false if there is no segment, i.e. the index has to be built.
+     * @throws IOException if the files could not be read or the segment is damaged.
+     */
+    boolean load(Consumer<IndexRecord> consumer) throws IOException {
+        if (!Files.exists(segment)) {
+            clear();
+            return false;
+        }
+        if (read(segment, consumer) != Files.size(segment)) {
+            throw new IOException("Segment " + segment + " is damaged");
+        }
+        if (Files.exists(compacting)) {
+            read(compacting, consumer);
+        }
+        long end = Files.exists(log) ? read(log, consumer) : 0;
+        open();
+        if (channel.size() > end) {
+            LOG.warn("Index log {} ends with an incomplete record, cutting it off", log);
+            channel.truncate(end);
+        }
+        channel.position(end);
+        logBytes = end;
+        return true;
+    }
+
+    /**
+     * Deletes all files and starts an empty log.
+     *
+     * @throws IOException if the files could not be deleted.
+     */
+    void clear() throws IOException {
+        if (channel != null) {
+            channel.close();
+        }
+        Files.deleteIfExists(segment);
+        Files.deleteIfExists(compacting);
+        Files.deleteIfExists(log);
+        open();
+        logBytes = 0;
+    }
+
+    /**
+     * Appends a change to the log and forces it to disk.
+     *
+     * @param record change of the index.
+     * @throws IOException if the log could not be written.
+     */
+    void append(IndexRecord record) throws IOException {
+        byte[] payload = objectMapper.writeValueAsBytes(record);
+        ByteBuffer buffer = ByteBuffer.allocate(HEADER_BYTES + payload.length);
+        buffer.putInt(payload.length).putInt(checksum(payload)).put(payload).flip();
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+        channel.force(false);
+        logBytes += HEADER_BYTES + payload.length;
+    }
+
+    /**
+     *
+     * @return bytes in the log since the last compaction started.
+     */
+    long logBytes() {
+        return logBytes;
+    }
+
+    /**
+     * Renames the log, so its changes are kept until {@link #writeSegment} has
+     * written a segment that contains them, and starts an empty log.
+     *
+     * @throws IOException if the log could not be renamed.
+     */
+    void rotate() throws IOException {
+        channel.close();
+        if (Files.exists(compacting)) {
+            // the last compaction failed, its changes are still needed
+            try (FileChannel target = FileChannel.open(compacting, StandardOpenOption.WRITE,
+                    StandardOpenOption.APPEND); FileChannel source = FileChannel.open(log, StandardOpenOption.READ)) {
+                long position = 0;
+                while (position < source.size()) {
+                    position += source.transferTo(position, source.size() - position, target);
+                }
+                target.force(false);
+            }
+            Files.delete(log);
+        } else {
+            Files.move(log, compacting, StandardCopyOption.ATOMIC_MOVE);
+        }
+        open();
+        logBytes = 0;
+    }
+
+    /**
+     * Replaces the segment and deletes the renamed log.
+     *
+     * @param records complete index as of the last {@link #rotate}.
+     * @throws IOException if the segment could not be written.
+     */
+    void writeSegment(List<IndexRecord> records) throws IOException {
+        Path next = segment.resolveSibling("segment.next");
+        try (FileChannel out = FileChannel.open(next, StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            DataOutputStream stream = new DataOutputStream(new BufferedOutputStream(Channels.newOutputStream(out)));
+            for (IndexRecord record : records) {
+                byte[] payload = objectMapper.writeValueAsBytes(record);
+                stream.writeInt(payload.length);
+                stream.writeInt(checksum(payload));
+                stream.write(payload);
+            }
+            stream.flush();
+            out.force(true);
+        }
+        Files.move(next, segment, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        Files.deleteIfExists(compacting);
+    }
+
+    /**
+     * Reads the records of a file up to the first incomplete one.
+     *
+     * @return bytes of the complete records.
+     */
+    private long read(Path path, Consumer<IndexRecord> consumer) throws IOException {
+        long size = Files.size(path);
+        long position = 0;
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(path)))) {
+            while (true) {
+                int length;
+                int checksum;
+                byte[] payload;
+                try {
+                    length = in.readInt();
+                    checksum = in.readInt();
+                    if (length < 0 || length > size - position - HEADER_BYTES) {
+                        return position;
+                    }
+                    payload = new byte[length];
+                    in.readFully(payload);
+                } catch (EOFException e) {
+                    return position;
+                }
+                if (checksum(payload) != checksum) {
+                    return position;
+                }
+                consumer.accept(objectMapper.readValue(payload, IndexRecord.class));
+                position += HEADER_BYTES + length;
+            }
+        }
+    }
+
+    private void open() throws IOException {
+        channel = FileChannel.open(log, StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+        channel.position(channel.size());
+    }
+
+    private static int checksum(byte[] payload) {
+        CRC32C crc = new CRC32C();
+        crc.update(payload);
+        return (int) crc.getValue();
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (channel != null) {
+            channel.close();
+        }
+    }
+
+}
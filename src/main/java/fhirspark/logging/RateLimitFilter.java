@@ -0,0 +1,60 @@
+package fhirspark.logging;
+
+import ch.qos.logback.classic.Level;
+import ch.qos.logback.classic.Logger;
+import ch.qos.logback.classic.turbo.TurboFilter;
+import ch.qos.logback.core.spi.FilterReply;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import org.slf4j.Marker;
+
+/**
+ * Limits the number of events each logger may emit per second. Warnings and
+ * errors always pass; everything below is dropped once the budget of the
+ * current second is used up, so a burst of requests cannot flood the log.
+ * Configured in {@code logback.xml}.
+ */
+public final class RateLimitFilter extends TurboFilter {
+
+    private static final int DEFAULT_MAX_PER_SECOND = 200;
+    private static final long SECOND = TimeUnit.SECONDS.toNanos(1);
+
+    private final Map<String, Window> windows = new ConcurrentHashMap<>();
+    private int maxPerSecond = DEFAULT_MAX_PER_SECOND;
+
+    private static final class Window {
+        private long start;
+        private int count;
+
+        Window(long start) {
+            this.start = start;
+        }
+
+        synchronized boolean tryAcquire(long now, int max) {
+            if (now - start >= SECOND) {
+                start = now;
+                count = 0;
+            }
+            return ++count <= max;
+        }
+    }
+
+    public void setMaxPerSecond(int maxPerSecond) {
+        this.maxPerSecond = maxPerSecond;
+    }
+
+    @Override
+    public FilterReply decide(Marker marker, Logger logger, Level level, String format, Object[] params,
+            Throwable t) {
+        // format is null when only isEnabled() is asked, which must not use up the budget
+        if (format == null || level.isGreaterOrEqual(Level.WARN)
+                || !level.isGreaterOrEqual(logger.getEffectiveLevel())) {
+            return FilterReply.NEUTRAL;
+        }
+        long now = System.nanoTime();
+        Window window = windows.computeIfAbsent(logger.getName(), name -> new Window(now));
+        return window.tryAcquire(now, maxPerSecond) ? FilterReply.NEUTRAL : FilterReply.DENY;
+    }
+
+}
@@ -5,17 +5,34 @@ import com.fasterxml.jackson.dataformat.csv.CsvSchema;
 import fhirspark.resolver.model.Genenames;
 import java.io.FileInputStream;
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
 import java.util.HashMap;
 import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
 import java.util.Map;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 /**
  * Cache for available Genenames from HGNC (offline).
  */
 public final class HgncGeneName {
 
+    private static final Logger LOG = LoggerFactory.getLogger(HgncGeneName.class);
+
     private static final Map<Integer, Genenames> HGNC_MAP = new HashMap<>();
 
+    /**
+     * Upper-cased approved symbols in ascending order. {@link #bySymbol} holds the
+     * matching entries at the same positions, so prefix lookups are a binary search
+     * followed by a short linear scan.
+     */
+    private static String[] symbolKeys = new String[0];
+    private static Genenames[] bySymbol = new Genenames[0];
+
     private HgncGeneName() {
     }
 
@@ -24,6 +41,7 @@ public final class HgncGeneName {
      * @param dbPath Path of the database.
      */
     public static void initialize(String dbPath) {
+        List<Genenames> indexed = new ArrayList<>();
         try {
             Iterator<Genenames> iterator = new CsvMapper().readerFor(Genenames.class)
                     .with(CsvSchema.emptySchema().withHeader().withColumnSeparator('\t'))
@@ -31,15 +49,70 @@ public final class HgncGeneName {
             while (iterator.hasNext()) {
                 Genenames g = iterator.next();
                 HGNC_MAP.put(g.getNcbiGeneId(), g);
+                if (g.getNcbiGeneId() != null && g.getApprovedSymbol() != null) {
+                    indexed.add(g);
+                }
             }
         } catch (IOException e) {
-            // TODO Auto-generated catch block
-            e.printStackTrace();
+            LOG.error("Could not read the HGNC gene names from {}", dbPath, e);
         }
+        buildSymbolIndex(indexed);
+    }
+
+    private static void buildSymbolIndex(List<Genenames> genes) {
+        Genenames[] sorted = genes.toArray(new Genenames[0]);
+        Arrays.sort(sorted, Comparator.comparing(g -> symbolKey(g.getApprovedSymbol())));
+        String[] keys = new String[sorted.length];
+        for (int i = 0; i < sorted.length; i++) {
+            keys[i] = symbolKey(sorted[i].getApprovedSymbol());
+        }
+        bySymbol = sorted;
+        symbolKeys = keys;
+    }
+
+    private static String symbolKey(String symbol) {
+        return symbol.toUpperCase(Locale.ROOT);
     }
 
     public static Genenames resolve(int ncbiGeneId) {
         return HGNC_MAP.get(ncbiGeneId);
     }
 
+    /**
+     * Resolves an approved HGNC symbol, ignoring case.
+     *
+     * @param symbol approved symbol, e.g. KRAS.
+     * @return matching entry or null if the symbol is unknown.
+     */
+    public static Genenames resolveSymbol(String symbol) {
+        if (symbol == null) {
+            return null;
+        }
+        int pos = Arrays.binarySearch(symbolKeys, symbolKey(symbol));
+        return pos >= 0 ? bySymbol[pos] : null;
+    }
+
+    /**
+     * Lists genes whose approved symbol starts with the given prefix, ignoring case.
+     *
+     * @param prefix start of the approved symbol.
+     * @param limit  maximum number of entries to return.
+     * @return matching entries in alphabetical order.
+     */
+    public static List<Genenames> findByPrefix(String prefix, int limit) {
+        List<Genenames> matches = new ArrayList<>();
+        if (prefix == null || prefix.isEmpty()) {
+            return matches;
+        }
+        String key = symbolKey(prefix);
+        int pos = Arrays.binarySearch(symbolKeys, key);
+        if (pos < 0) {
+            pos = -pos - 1;
+        }
+        for (int i = pos; i < symbolKeys.length && matches.size() < limit && symbolKeys[i].startsWith(key); i++) {
+            matches.add(bySymbol[i]);
+        }
+        return matches;
+    }
+
 }
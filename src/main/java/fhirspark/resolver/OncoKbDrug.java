@@ -8,12 +8,16 @@ import java.io.IOException;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 /**
  * Cache for available Drugs from OncoKB (offline).
  */
 public final class OncoKbDrug {
 
+    private static final Logger LOG = LoggerFactory.getLogger(OncoKbDrug.class);
+
     private static final Map<String, Drug> DRUG_MAP = new HashMap<>();
 
     private OncoKbDrug() {
@@ -31,8 +35,7 @@ public final class OncoKbDrug {
                 DRUG_MAP.put(d.getDrugName(), d);
             }
         } catch (IOException e) {
-            // TODO Auto-generated catch block
-            e.printStackTrace();
+            LOG.error("Could not read the OncoKB drugs from {}", dbPath, e);
         }
     }
 
@@ -0,0 +1,147 @@
+package fhirspark.restmodel;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import com.fasterxml.jackson.annotation.JsonPropertyOrder;
+import java.util.List;
+
+/**
+ * One line of the progress report of a bulk import. Either describes a
+ * transaction that was sent to the FHIR server or an input line that was
+ * rejected before.
+ */
+@JsonInclude(JsonInclude.Include.NON_NULL)
+@JsonPropertyOrder({
+    "chunk",
+    "line",
+    "status",
+    "patients",
+    "entries",
+    "deduplicated",
+    "durationMs",
+    "error"
+})
+public class ImportProgress {
+
+    @JsonProperty("chunk")
+    private Integer chunk;
+    @JsonProperty("line")
+    private Integer line;
+    @JsonProperty("status")
+    private String status;
+    @JsonProperty("patients")
+    private List<String> patients;
+    @JsonProperty("entries")
+    private Integer entries;
+    @JsonProperty("deduplicated")
+    private Integer deduplicated;
+    @JsonProperty("durationMs")
+    private Long durationMs;
+    @JsonProperty("error")
+    private String error;
+
+    @JsonProperty("chunk")
+    public Integer getChunk() {
+        return chunk;
+    }
+    @JsonProperty("chunk")
+    public void setChunk(Integer chunk) {
+        this.chunk = chunk;
+    }
+    public ImportProgress withChunk(Integer chunk) {
+        this.chunk = chunk;
+        return this;
+    }
+
+    @JsonProperty("line")
+    public Integer getLine() {
+        return line;
+    }
+    @JsonProperty("line")
+    public void setLine(Integer line) {
+        this.line = line;
+    }
+    public ImportProgress withLine(Integer line) {
+        this.line = line;
+        return this;
+    }
+
+    @JsonProperty("status")
+    public String getStatus() {
+        return status;
+    }
+    @JsonProperty("status")
+    public void setStatus(String status) {
+        this.status = status;
+    }
+    public ImportProgress withStatus(String status) {
+        this.status = status;
+        return this;
+    }
+
+    @JsonProperty("patients")
+    public List<String> getPatients() {
+        return patients;
+    }
+    @JsonProperty("patients")
+    public void setPatients(List<String> patients) {
+        this.patients = patients;
+    }
+    public ImportProgress withPatients(List<String> patients) {
+        this.patients = patients;
+        return this;
+    }
+
+    @JsonProperty("entries")
+    public Integer getEntries() {
+        return entries;
+    }
+    @JsonProperty("entries")
+    public void setEntries(Integer entries) {
+        this.entries = entries;
+    }
+    public ImportProgress withEntries(Integer entries) {
+        this.entries = entries;
+        return this;
+    }
+
+    @JsonProperty("deduplicated")
+    public Integer getDeduplicated() {
+        return deduplicated;
+    }
+    @JsonProperty("deduplicated")
+    public void setDeduplicated(Integer deduplicated) {
+        this.deduplicated = deduplicated;
+    }
+    public ImportProgress withDeduplicated(Integer deduplicated) {
+        this.deduplicated = deduplicated;
+        return this;
+    }
+
+    @JsonProperty("durationMs")
+    public Long getDurationMs() {
+        return durationMs;
+    }
+    @JsonProperty("durationMs")
+    public void setDurationMs(Long durationMs) {
+        this.durationMs = durationMs;
+    }
+    public ImportProgress withDurationMs(Long durationMs) {
+        this.durationMs = durationMs;
+        return this;
+    }
+
+    @JsonProperty("error")
+    public String getError() {
+        return error;
+    }
+    @JsonProperty("error")
+    public void setError(String error) {
+        this.error = error;
+    }
+    public ImportProgress withError(String error) {
+        this.error = error;
+        return this;
+    }
+
+}
@@ -0,0 +1,113 @@
+package fhirspark.restmodel;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import com.fasterxml.jackson.annotation.JsonPropertyOrder;
+
+/**
+ * Summary of the write-behind queue: the saves that are not written yet, the
+ * age of the oldest of them and how much of the journal is in use.
+ */
+@JsonInclude(JsonInclude.Include.NON_NULL)
+@JsonPropertyOrder({
+    "pending",
+    "retrying",
+    "failed",
+    "oldestPendingMs",
+    "journalUsed",
+    "journalCapacity"
+})
+public class WriteBehindStatus {
+
+    @JsonProperty("pending")
+    private Integer pending;
+    @JsonProperty("retrying")
+    private Integer retrying;
+    @JsonProperty("failed")
+    private Integer failed;
+    @JsonProperty("oldestPendingMs")
+    private Long oldestPendingMs;
+    @JsonProperty("journalUsed")
+    private Integer journalUsed;
+    @JsonProperty("journalCapacity")
+    private Integer journalCapacity;
+
+    @JsonProperty("pending")
+    public Integer getPending() {
+        return pending;
+    }
+    @JsonProperty("pending")
+    public void setPending(Integer pending) {
+        this.pending = pending;
+    }
+    public WriteBehindStatus withPending(Integer pending) {
+        this.pending = pending;
+        return this;
+    }
+
+    @JsonProperty("retrying")
+    public Integer getRetrying() {
+        return retrying;
+    }
+    @JsonProperty("retrying")
+    public void setRetrying(Integer retrying) {
+        this.retrying = retrying;
+    }
+    public WriteBehindStatus withRetrying(Integer retrying) {
+        this.retrying = retrying;
+        return this;
+    }
+
+    @JsonProperty("failed")
+    public Integer getFailed() {
+        return failed;
+    }
+    @JsonProperty("failed")
+    public void setFailed(Integer failed) {
+        this.failed = failed;
+    }
+    public WriteBehindStatus withFailed(Integer failed) {
+        this.failed = failed;
+        return this;
+    }
+
+    @JsonProperty("oldestPendingMs")
+    public Long getOldestPendingMs() {
+        return oldestPendingMs;
+    }
+    @JsonProperty("oldestPendingMs")
+    public void setOldestPendingMs(Long oldestPendingMs) {
+        this.oldestPendingMs = oldestPendingMs;
+    }
+    public WriteBehindStatus withOldestPendingMs(Long oldestPendingMs) {
+        this.oldestPendingMs = oldestPendingMs;
+        return this;
+    }
+
+    @JsonProperty("journalUsed")
+    public Integer getJournalUsed() {
+        return journalUsed;
+    }
+    @JsonProperty("journalUsed")
+    public void setJournalUsed(Integer journalUsed) {
+        this.journalUsed = journalUsed;
+    }
+    public WriteBehindStatus withJournalUsed(Integer journalUsed) {
+        this.journalUsed = journalUsed;
+        return this;
+    }
+
+    @JsonProperty("journalCapacity")
+    public Integer getJournalCapacity() {
+        return journalCapacity;
+    }
+    @JsonProperty("journalCapacity")
+    public void setJournalCapacity(Integer journalCapacity) {
+        this.journalCapacity = journalCapacity;
+    }
+    public WriteBehindStatus withJournalCapacity(Integer journalCapacity) {
+        this.journalCapacity = journalCapacity;
+        return this;
+    }
+
+}
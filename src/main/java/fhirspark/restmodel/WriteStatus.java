@@ -0,0 +1,98 @@
+package fhirspark.restmodel;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import com.fasterxml.jackson.annotation.JsonPropertyOrder;
+
+/**
+ * State of a save of a patient in the write-behind queue. A save is
+ * {@code pending} until it was written, {@code retrying} after a failed attempt
+ * and {@code failed} if the FHIR server rejected it for good.
+ */
+@JsonInclude(JsonInclude.Include.NON_NULL)
+@JsonPropertyOrder({
+    "kind",
+    "state",
+    "acceptedAt",
+    "attempts",
+    "error"
+})
+public class WriteStatus {
+
+    @JsonProperty("kind")
+    private String kind;
+    @JsonProperty("state")
+    private String state;
+    @JsonProperty("acceptedAt")
+    private Long acceptedAt;
+    @JsonProperty("attempts")
+    private Integer attempts;
+    @JsonProperty("error")
+    private String error;
+
+    @JsonProperty("kind")
+    public String getKind() {
+        return kind;
+    }
+    @JsonProperty("kind")
+    public void setKind(String kind) {
+        this.kind = kind;
+    }
+    public WriteStatus withKind(String kind) {
+        this.kind = kind;
+        return this;
+    }
+
+    @JsonProperty("state")
+    public String getState() {
+        return state;
+    }
+    @JsonProperty("state")
+    public void setState(String state) {
+        this.state = state;
+    }
+    public WriteStatus withState(String state) {
+        this.state = state;
+        return this;
+    }
+
+    @JsonProperty("acceptedAt")
+    public Long getAcceptedAt() {
+        return acceptedAt;
+    }
+    @JsonProperty("acceptedAt")
+    public void setAcceptedAt(Long acceptedAt) {
+        this.acceptedAt = acceptedAt;
+    }
+    public WriteStatus withAcceptedAt(Long acceptedAt) {
+        this.acceptedAt = acceptedAt;
+        return this;
+    }
+
+    @JsonProperty("attempts")
+    public Integer getAttempts() {
+        return attempts;
+    }
+    @JsonProperty("attempts")
+    public void setAttempts(Integer attempts) {
+        this.attempts = attempts;
+    }
+    public WriteStatus withAttempts(Integer attempts) {
+        this.attempts = attempts;
+        return this;
+    }
+
+    @JsonProperty("error")
+    public String getError() {
+        return error;
+    }
+    @JsonProperty("error")
+    public void setError(String error) {
+        this.error = error;
+    }
+    public WriteStatus withError(String error) {
+        this.error = error;
+        return this;
+    }
+
+}
@@ -0,0 +1,78 @@
+package fhirspark.settings;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import com.fasterxml.jackson.annotation.JsonPropertyOrder;
+
+/**
+ * In-memory index of the therapy recommendations and follow-ups by gene that
+ * answers the alteration endpoints. When {@code enabled}, the index is built
+ * from the FHIR server after startup; if that fails, it is tried again every
+ * {@code rebuildRetryDelay} milliseconds. Until the index is built, the
+ * alteration endpoints search the FHIR server. If {@code path} is set, the
+ * index is also kept in that directory and loaded from there at startup; its
+ * log of changes is compacted once it exceeds {@code compactionThreshold}
+ * bytes.
+ */
+@JsonInclude(JsonInclude.Include.NON_NULL)
+@JsonPropertyOrder({
+    "enabled",
+    "rebuildRetryDelay",
+    "path",
+    "compactionThreshold"
+})
+public class AlterationIndexSettings {
+
+    private static final int DEFAULT_REBUILD_RETRY_DELAY = 30000;
+    private static final int DEFAULT_COMPACTION_THRESHOLD = 16 * 1024 * 1024;
+
+    @JsonProperty("enabled")
+    private Boolean enabled = false;
+    @JsonProperty("rebuildRetryDelay")
+    private Integer rebuildRetryDelay = DEFAULT_REBUILD_RETRY_DELAY;
+    @JsonProperty("path")
+    private String path = "";
+    @JsonProperty("compactionThreshold")
+    private Integer compactionThreshold = DEFAULT_COMPACTION_THRESHOLD;
+
+    @JsonProperty("enabled")
+    public Boolean getEnabled() {
+        return enabled;
+    }
+
+    @JsonProperty("enabled")
+    public void setEnabled(Boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    @JsonProperty("rebuildRetryDelay")
+    public Integer getRebuildRetryDelay() {
+        return rebuildRetryDelay;
+    }
+
+    @JsonProperty("rebuildRetryDelay")
+    public void setRebuildRetryDelay(Integer rebuildRetryDelay) {
+        this.rebuildRetryDelay = rebuildRetryDelay;
+    }
+
+    @JsonProperty("path")
+    public String getPath() {
+        return path;
+    }
+
+    @JsonProperty("path")
+    public void setPath(String path) {
+        this.path = path;
+    }
+
+    @JsonProperty("compactionThreshold")
+    public Integer getCompactionThreshold() {
+        return compactionThreshold;
+    }
+
+    @JsonProperty("compactionThreshold")
+    public void setCompactionThreshold(Integer compactionThreshold) {
+        this.compactionThreshold = compactionThreshold;
+    }
+
+}
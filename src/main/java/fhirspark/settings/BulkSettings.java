@@ -0,0 +1,64 @@
+package fhirspark.settings;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import com.fasterxml.jackson.annotation.JsonPropertyOrder;
+
+/**
+ * Sizes of the bulk endpoints. The export resolves {@code patientsPerSearch}
+ * patients with one search and pages through their reports with
+ * {@code pageSize} matches per page, so the memory used by an export does not
+ * grow with the number of patients. The import sends the patients in
+ * transactions of at most {@code transactionSize} entries; a patient with more
+ * entries is sent in a transaction of its own.
+ */
+@JsonInclude(JsonInclude.Include.NON_NULL)
+@JsonPropertyOrder({
+    "patientsPerSearch",
+    "pageSize",
+    "transactionSize"
+})
+public class BulkSettings {
+
+    private static final int DEFAULT_PATIENTS_PER_SEARCH = 50;
+    private static final int DEFAULT_PAGE_SIZE = 100;
+    private static final int DEFAULT_TRANSACTION_SIZE = 500;
+
+    @JsonProperty("patientsPerSearch")
+    private Integer patientsPerSearch = DEFAULT_PATIENTS_PER_SEARCH;
+    @JsonProperty("pageSize")
+    private Integer pageSize = DEFAULT_PAGE_SIZE;
+    @JsonProperty("transactionSize")
+    private Integer transactionSize = DEFAULT_TRANSACTION_SIZE;
+
+    @JsonProperty("patientsPerSearch")
+    public Integer getPatientsPerSearch() {
+        return patientsPerSearch;
+    }
+
+    @JsonProperty("patientsPerSearch")
+    public void setPatientsPerSearch(Integer patientsPerSearch) {
+        this.patientsPerSearch = patientsPerSearch;
+    }
+
+    @JsonProperty("pageSize")
+    public Integer getPageSize() {
+        return pageSize;
+    }
+
+    @JsonProperty("pageSize")
+    public void setPageSize(Integer pageSize) {
+        this.pageSize = pageSize;
+    }
+
+    @JsonProperty("transactionSize")
+    public Integer getTransactionSize() {
+        return transactionSize;
+    }
+
+    @JsonProperty("transactionSize")
+    public void setTransactionSize(Integer transactionSize) {
+        this.transactionSize = transactionSize;
+    }
+
+}
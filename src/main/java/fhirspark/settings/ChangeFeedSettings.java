@@ -0,0 +1,63 @@
+package fhirspark.settings;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import com.fasterxml.jackson.annotation.JsonPropertyOrder;
+
+/**
+ * Change feed that keeps the alteration index in line with writes of other
+ * clients of the FHIR server. When {@code enabled}, the history of the MTB,
+ * therapy recommendation and follow-up resources is read every
+ * {@code interval} milliseconds. Each poll reads the last {@code overlap}
+ * milliseconds before the cursor again, to catch transactions that committed
+ * with an earlier timestamp or on a server whose clock is behind.
+ */
+@JsonInclude(JsonInclude.Include.NON_NULL)
+@JsonPropertyOrder({
+    "enabled",
+    "interval",
+    "overlap"
+})
+public class ChangeFeedSettings {
+
+    private static final int DEFAULT_INTERVAL = 30000;
+    private static final int DEFAULT_OVERLAP = 60000;
+
+    @JsonProperty("enabled")
+    private Boolean enabled = false;
+    @JsonProperty("interval")
+    private Integer interval = DEFAULT_INTERVAL;
+    @JsonProperty("overlap")
+    private Integer overlap = DEFAULT_OVERLAP;
+
+    @JsonProperty("enabled")
+    public Boolean getEnabled() {
+        return enabled;
+    }
+
+    @JsonProperty("enabled")
+    public void setEnabled(Boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    @JsonProperty("interval")
+    public Integer getInterval() {
+        return interval;
+    }
+
+    @JsonProperty("interval")
+    public void setInterval(Integer interval) {
+        this.interval = interval;
+    }
+
+    @JsonProperty("overlap")
+    public Integer getOverlap() {
+        return overlap;
+    }
+
+    @JsonProperty("overlap")
+    public void setOverlap(Integer overlap) {
+        this.overlap = overlap;
+    }
+
+}
@@ -9,12 +9,17 @@ import java.io.UncheckedIOException;
 import java.nio.charset.StandardCharsets;
 import org.apache.commons.text.StringSubstitutor;
 import org.apache.commons.text.lookup.StringLookupFactory;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 /**
  * Class that enables the use of environment variables in the settings.yaml
  * file.
  */
 public class ConfigurationLoader {
+
+    private static final Logger LOG = LoggerFactory.getLogger(ConfigurationLoader.class);
+
     private final ObjectMapper objectMapper;
     private final StringSubstitutor stringSubstitutor;
 
@@ -35,7 +40,7 @@ public class ConfigurationLoader {
             String contents = this.stringSubstitutor
                     .replace(new String(ByteStreams.toByteArray(config), StandardCharsets.UTF_8));
             if (contents.contains("$")) {
-                System.out.println("WARNING: Some environment variables were not replaced in the settings.yaml file.");
+                LOG.warn("Some environment variables were not replaced in the settings.yaml file.");
             }
 
             return this.objectMapper.readValue(contents, cls);
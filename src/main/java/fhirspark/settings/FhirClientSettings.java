@@ -0,0 +1,99 @@
+package fhirspark.settings;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import com.fasterxml.jackson.annotation.JsonPropertyOrder;
+
+/**
+ * HTTP transport settings of the client that talks to the FHIR server.
+ */
+@JsonInclude(JsonInclude.Include.NON_NULL)
+@JsonPropertyOrder({
+    "connectTimeout",
+    "socketTimeout",
+    "poolMaxTotal",
+    "poolMaxPerRoute",
+    "keepAlive",
+    "gzip"
+})
+public class FhirClientSettings {
+
+    private static final int DEFAULT_TIMEOUT = 60000;
+    private static final int DEFAULT_POOL_MAX_TOTAL = 100;
+    private static final int DEFAULT_POOL_MAX_PER_ROUTE = 50;
+    private static final int DEFAULT_KEEP_ALIVE = 30000;
+
+    @JsonProperty("connectTimeout")
+    private Integer connectTimeout = DEFAULT_TIMEOUT;
+    @JsonProperty("socketTimeout")
+    private Integer socketTimeout = DEFAULT_TIMEOUT;
+    @JsonProperty("poolMaxTotal")
+    private Integer poolMaxTotal = DEFAULT_POOL_MAX_TOTAL;
+    @JsonProperty("poolMaxPerRoute")
+    private Integer poolMaxPerRoute = DEFAULT_POOL_MAX_PER_ROUTE;
+    @JsonProperty("keepAlive")
+    private Integer keepAlive = DEFAULT_KEEP_ALIVE;
+    @JsonProperty("gzip")
+    private Boolean gzip = false;
+
+    @JsonProperty("connectTimeout")
+    public Integer getConnectTimeout() {
+        return connectTimeout;
+    }
+
+    @JsonProperty("connectTimeout")
+    public void setConnectTimeout(Integer connectTimeout) {
+        this.connectTimeout = connectTimeout;
+    }
+
+    @JsonProperty("socketTimeout")
+    public Integer getSocketTimeout() {
+        return socketTimeout;
+    }
+
+    @JsonProperty("socketTimeout")
+    public void setSocketTimeout(Integer socketTimeout) {
+        this.socketTimeout = socketTimeout;
+    }
+
+    @JsonProperty("poolMaxTotal")
+    public Integer getPoolMaxTotal() {
+        return poolMaxTotal;
+    }
+
+    @JsonProperty("poolMaxTotal")
+    public void setPoolMaxTotal(Integer poolMaxTotal) {
+        this.poolMaxTotal = poolMaxTotal;
+    }
+
+    @JsonProperty("poolMaxPerRoute")
+    public Integer getPoolMaxPerRoute() {
+        return poolMaxPerRoute;
+    }
+
+    @JsonProperty("poolMaxPerRoute")
+    public void setPoolMaxPerRoute(Integer poolMaxPerRoute) {
+        this.poolMaxPerRoute = poolMaxPerRoute;
+    }
+
+    @JsonProperty("keepAlive")
+    public Integer getKeepAlive() {
+        return keepAlive;
+    }
+
+    @JsonProperty("keepAlive")
+    public void setKeepAlive(Integer keepAlive) {
+        this.keepAlive = keepAlive;
+    }
+
+    @JsonProperty("gzip")
+    public Boolean getGzip() {
+        return gzip;
+    }
+
+    @JsonProperty("gzip")
+    public void setGzip(Boolean gzip) {
+        this.gzip = gzip;
+    }
+
+}
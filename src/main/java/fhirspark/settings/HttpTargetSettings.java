@@ -0,0 +1,73 @@
+package fhirspark.settings;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import com.fasterxml.jackson.annotation.JsonPropertyOrder;
+
+/**
+ * Timeouts, concurrency limit and trace propagation for one outbound HTTP
+ * target, e.g. cBioPortal or PubMed.
+ */
+@JsonInclude(JsonInclude.Include.NON_NULL)
+@JsonPropertyOrder({
+    "connectTimeout",
+    "readTimeout",
+    "maxConcurrent",
+    "propagateTraceContext"
+})
+public class HttpTargetSettings {
+
+    private static final int DEFAULT_CONNECT_TIMEOUT = 5000;
+    private static final int DEFAULT_READ_TIMEOUT = 10000;
+    private static final int DEFAULT_MAX_CONCURRENT = 20;
+
+    @JsonProperty("connectTimeout")
+    private Integer connectTimeout = DEFAULT_CONNECT_TIMEOUT;
+    @JsonProperty("readTimeout")
+    private Integer readTimeout = DEFAULT_READ_TIMEOUT;
+    @JsonProperty("maxConcurrent")
+    private Integer maxConcurrent = DEFAULT_MAX_CONCURRENT;
+    @JsonProperty("propagateTraceContext")
+    private Boolean propagateTraceContext = true;
+
+    @JsonProperty("connectTimeout")
+    public Integer getConnectTimeout() {
+        return connectTimeout;
+    }
+
+    @JsonProperty("connectTimeout")
+    public void setConnectTimeout(Integer connectTimeout) {
+        this.connectTimeout = connectTimeout;
+    }
+
+    @JsonProperty("readTimeout")
+    public Integer getReadTimeout() {
+        return readTimeout;
+    }
+
+    @JsonProperty("readTimeout")
+    public void setReadTimeout(Integer readTimeout) {
+        this.readTimeout = readTimeout;
+    }
+
+    @JsonProperty("maxConcurrent")
+    public Integer getMaxConcurrent() {
+        return maxConcurrent;
+    }
+
+    @JsonProperty("maxConcurrent")
+    public void setMaxConcurrent(Integer maxConcurrent) {
+        this.maxConcurrent = maxConcurrent;
+    }
+
+    @JsonProperty("propagateTraceContext")
+    public Boolean getPropagateTraceContext() {
+        return propagateTraceContext;
+    }
+
+    @JsonProperty("propagateTraceContext")
+    public void setPropagateTraceContext(Boolean propagateTraceContext) {
+        this.propagateTraceContext = propagateTraceContext;
+    }
+
+}
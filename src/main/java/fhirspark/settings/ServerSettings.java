@@ -0,0 +1,74 @@
+package fhirspark.settings;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import com.fasterxml.jackson.annotation.JsonPropertyOrder;
+
+/**
+ * Request threads of the embedded Jetty server. With {@code virtualThreads}
+ * the requests are handled on virtual threads and {@code maxThreads} only
+ * bounds the threads that accept connections and parse requests.
+ */
+@JsonInclude(JsonInclude.Include.NON_NULL)
+@JsonPropertyOrder({
+    "maxThreads",
+    "minThreads",
+    "idleTimeout",
+    "virtualThreads"
+})
+public class ServerSettings {
+
+    private static final int DEFAULT_MAX_THREADS = 200;
+    private static final int DEFAULT_MIN_THREADS = 8;
+    private static final int DEFAULT_IDLE_TIMEOUT = 60000;
+
+    @JsonProperty("maxThreads")
+    private Integer maxThreads = DEFAULT_MAX_THREADS;
+    @JsonProperty("minThreads")
+    private Integer minThreads = DEFAULT_MIN_THREADS;
+    @JsonProperty("idleTimeout")
+    private Integer idleTimeout = DEFAULT_IDLE_TIMEOUT;
+    @JsonProperty("virtualThreads")
+    private Boolean virtualThreads = false;
+
+    @JsonProperty("maxThreads")
+    public Integer getMaxThreads() {
+        return maxThreads;
+    }
+
+    @JsonProperty("maxThreads")
+    public void setMaxThreads(Integer maxThreads) {
+        this.maxThreads = maxThreads;
+    }
+
+    @JsonProperty("minThreads")
+    public Integer getMinThreads() {
+        return minThreads;
+    }
+
+    @JsonProperty("minThreads")
+    public void setMinThreads(Integer minThreads) {
+        this.minThreads = minThreads;
+    }
+
+    @JsonProperty("idleTimeout")
+    public Integer getIdleTimeout() {
+        return idleTimeout;
+    }
+
+    @JsonProperty("idleTimeout")
+    public void setIdleTimeout(Integer idleTimeout) {
+        this.idleTimeout = idleTimeout;
+    }
+
+    @JsonProperty("virtualThreads")
+    public Boolean getVirtualThreads() {
+        return virtualThreads;
+    }
+
+    @JsonProperty("virtualThreads")
+    public void setVirtualThreads(Boolean virtualThreads) {
+        this.virtualThreads = virtualThreads;
+    }
+
+}
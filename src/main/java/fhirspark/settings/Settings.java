@@ -12,7 +12,9 @@ import java.util.List;
 @JsonInclude(JsonInclude.Include.NON_NULL)
 @JsonPropertyOrder({
     "port",
+    "server",
     "fhirDbBase",
+    "fhirClient",
     "specimenSystem",
     "diagnosticReportSystem",
     "observationSystem",
@@ -23,6 +25,13 @@ import java.util.List;
     "serviceRequestSystem",
     "hgncPath",
     "portalUrl",
+    "portalClient",
+    "pubmedClient",
+    "tracing",
+    "bulk",
+    "writeBehind",
+    "alterationIndex",
+    "changeFeed",
     "loginRequired",
     "oncokbPath",
     "regex"
@@ -31,8 +40,12 @@ public final class Settings {
 
     @JsonProperty("port")
     private Integer port;
+    @JsonProperty("server")
+    private ServerSettings server = new ServerSettings();
     @JsonProperty("fhirDbBase")
     private String fhirDbBase;
+    @JsonProperty("fhirClient")
+    private FhirClientSettings fhirClient = new FhirClientSettings();
     @JsonProperty("specimenSystem")
     private String specimenSystem;
     @JsonProperty("diagnosticReportSystem")
@@ -53,6 +66,20 @@ public final class Settings {
     private String hgncPath;
     @JsonProperty("portalUrl")
     private String portalUrl;
+    @JsonProperty("portalClient")
+    private HttpTargetSettings portalClient = new HttpTargetSettings();
+    @JsonProperty("pubmedClient")
+    private HttpTargetSettings pubmedClient = new HttpTargetSettings();
+    @JsonProperty("tracing")
+    private TracingSettings tracing = new TracingSettings();
+    @JsonProperty("bulk")
+    private BulkSettings bulk = new BulkSettings();
+    @JsonProperty("writeBehind")
+    private WriteBehindSettings writeBehind = new WriteBehindSettings();
+    @JsonProperty("alterationIndex")
+    private AlterationIndexSettings alterationIndex = new AlterationIndexSettings();
+    @JsonProperty("changeFeed")
+    private ChangeFeedSettings changeFeed = new ChangeFeedSettings();
     @JsonProperty("loginRequired")
     private Boolean loginRequired;
     @JsonProperty("oncokbPath")
@@ -70,6 +97,16 @@ public final class Settings {
         this.port = port;
     }
 
+    @JsonProperty("server")
+    public ServerSettings getServer() {
+        return server;
+    }
+
+    @JsonProperty("server")
+    public void setServer(ServerSettings server) {
+        this.server = server;
+    }
+
     @JsonProperty("fhirDbBase")
     public String getFhirDbBase() {
         return fhirDbBase;
@@ -80,6 +117,16 @@ public final class Settings {
         this.fhirDbBase = fhirDbBase;
     }
 
+    @JsonProperty("fhirClient")
+    public FhirClientSettings getFhirClient() {
+        return fhirClient;
+    }
+
+    @JsonProperty("fhirClient")
+    public void setFhirClient(FhirClientSettings fhirClient) {
+        this.fhirClient = fhirClient;
+    }
+
     @JsonProperty("specimenSystem")
     public String getSpecimenSystem() {
         return specimenSystem;
@@ -170,6 +217,76 @@ public final class Settings {
         this.portalUrl = portalUrl;
     }
 
+    @JsonProperty("portalClient")
+    public HttpTargetSettings getPortalClient() {
+        return portalClient;
+    }
+
+    @JsonProperty("portalClient")
+    public void setPortalClient(HttpTargetSettings portalClient) {
+        this.portalClient = portalClient;
+    }
+
+    @JsonProperty("pubmedClient")
+    public HttpTargetSettings getPubmedClient() {
+        return pubmedClient;
+    }
+
+    @JsonProperty("pubmedClient")
+    public void setPubmedClient(HttpTargetSettings pubmedClient) {
+        this.pubmedClient = pubmedClient;
+    }
+
+    @JsonProperty("tracing")
+    public TracingSettings getTracing() {
+        return tracing;
+    }
+
+    @JsonProperty("tracing")
+    public void setTracing(TracingSettings tracing) {
+        this.tracing = tracing;
+    }
+
+    @JsonProperty("bulk")
+    public BulkSettings getBulk() {
+        return bulk;
+    }
+
+    @JsonProperty("bulk")
+    public void setBulk(BulkSettings bulk) {
+        this.bulk = bulk;
+    }
+
+    @JsonProperty("writeBehind")
+    public WriteBehindSettings getWriteBehind() {
+        return writeBehind;
+    }
+
+    @JsonProperty("writeBehind")
+    public void setWriteBehind(WriteBehindSettings writeBehind) {
+        this.writeBehind = writeBehind;
+    }
+
+    @JsonProperty("alterationIndex")
+    public AlterationIndexSettings getAlterationIndex() {
+        return alterationIndex;
+    }
+
+    @JsonProperty("alterationIndex")
+    public void setAlterationIndex(AlterationIndexSettings alterationIndex) {
+        this.alterationIndex = alterationIndex;
+    }
+
+    @JsonProperty("changeFeed")
+    public ChangeFeedSettings getChangeFeed() {
+        return changeFeed;
+    }
+
+    @JsonProperty("changeFeed")
+    public void setChangeFeed(ChangeFeedSettings changeFeed) {
+        this.changeFeed = changeFeed;
+    }
+
     @JsonProperty("loginRequired")
     public Boolean getLoginRequired() {
         return loginRequired;
@@ -0,0 +1,85 @@
+package fhirspark.settings;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import com.fasterxml.jackson.annotation.JsonPropertyOrder;
+
+/**
+ * Where the spans of FhirSpark are exported to. {@code none} disables tracing,
+ * {@code otlp} sends the spans to an OpenTelemetry collector and
+ * {@code memory} keeps the most recent spans for local inspection.
+ */
+@JsonInclude(JsonInclude.Include.NON_NULL)
+@JsonPropertyOrder({
+    "exporter",
+    "endpoint",
+    "serviceName",
+    "sampleRatio",
+    "memorySpans"
+})
+public class TracingSettings {
+
+    private static final int DEFAULT_MEMORY_SPANS = 1000;
+
+    @JsonProperty("exporter")
+    private String exporter = "none";
+    @JsonProperty("endpoint")
+    private String endpoint = "http://localhost:4318/v1/traces";
+    @JsonProperty("serviceName")
+    private String serviceName = "fhirspark";
+    @JsonProperty("sampleRatio")
+    private Double sampleRatio = 1.0;
+    @JsonProperty("memorySpans")
+    private Integer memorySpans = DEFAULT_MEMORY_SPANS;
+
+    @JsonProperty("exporter")
+    public String getExporter() {
+        return exporter;
+    }
+
+    @JsonProperty("exporter")
+    public void setExporter(String exporter) {
+        this.exporter = exporter;
+    }
+
+    @JsonProperty("endpoint")
+    public String getEndpoint() {
+        return endpoint;
+    }
+
+    @JsonProperty("endpoint")
+    public void setEndpoint(String endpoint) {
+        this.endpoint = endpoint;
+    }
+
+    @JsonProperty("serviceName")
+    public String getServiceName() {
+        return serviceName;
+    }
+
+    @JsonProperty("serviceName")
+    public void setServiceName(String serviceName) {
+        this.serviceName = serviceName;
+    }
+
+    @JsonProperty("sampleRatio")
+    public Double getSampleRatio() {
+        return sampleRatio;
+    }
+
+    @JsonProperty("sampleRatio")
+    public void setSampleRatio(Double sampleRatio) {
+        this.sampleRatio = sampleRatio;
+    }
+
+    @JsonProperty("memorySpans")
+    public Integer getMemorySpans() {
+        return memorySpans;
+    }
+
+    @JsonProperty("memorySpans")
+    public void setMemorySpans(Integer memorySpans) {
+        this.memorySpans = memorySpans;
+    }
+
+}
@@ -0,0 +1,120 @@
+package fhirspark.settings;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import com.fasterxml.jackson.annotation.JsonPropertyOrder;
+
+/**
+ * Write-behind mode of the MTB and follow-up saves. When {@code enabled}, a
+ * save is answered as soon as it is appended to the journal at
+ * {@code journalPath}, a memory-mapped file of {@code journalSize} bytes. A
+ * background worker writes a patient once no further save arrived for
+ * {@code coalesceDelay} milliseconds and retries failed transactions after
+ * {@code retryDelay} milliseconds, doubling the delay up to
+ * {@code maxRetryDelay}. Deletions wait up to {@code drainTimeout}
+ * milliseconds for the pending saves of the patient.
+ */
+@JsonInclude(JsonInclude.Include.NON_NULL)
+@JsonPropertyOrder({
+    "enabled",
+    "journalPath",
+    "journalSize",
+    "coalesceDelay",
+    "retryDelay",
+    "maxRetryDelay",
+    "drainTimeout"
+})
+public class WriteBehindSettings {
+
+    private static final int DEFAULT_JOURNAL_SIZE = 64 * 1024 * 1024;
+    private static final int DEFAULT_COALESCE_DELAY = 500;
+    private static final int DEFAULT_RETRY_DELAY = 1000;
+    private static final int DEFAULT_MAX_RETRY_DELAY = 60000;
+    private static final int DEFAULT_DRAIN_TIMEOUT = 30000;
+
+    @JsonProperty("enabled")
+    private Boolean enabled = false;
+    @JsonProperty("journalPath")
+    private String journalPath = "fhirspark.journal";
+    @JsonProperty("journalSize")
+    private Integer journalSize = DEFAULT_JOURNAL_SIZE;
+    @JsonProperty("coalesceDelay")
+    private Integer coalesceDelay = DEFAULT_COALESCE_DELAY;
+    @JsonProperty("retryDelay")
+    private Integer retryDelay = DEFAULT_RETRY_DELAY;
+    @JsonProperty("maxRetryDelay")
+    private Integer maxRetryDelay = DEFAULT_MAX_RETRY_DELAY;
+    @JsonProperty("drainTimeout")
+    private Integer drainTimeout = DEFAULT_DRAIN_TIMEOUT;
+
+    @JsonProperty("enabled")
+    public Boolean getEnabled() {
+        return enabled;
+    }
+
+    @JsonProperty("enabled")
+    public void setEnabled(Boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    @JsonProperty("journalPath")
+    public String getJournalPath() {
+        return journalPath;
+    }
+
+    @JsonProperty("journalPath")
+    public void setJournalPath(String journalPath) {
+        this.journalPath = journalPath;
+    }
+
+    @JsonProperty("journalSize")
+    public Integer getJournalSize() {
+        return journalSize;
+    }
+
+    @JsonProperty("journalSize")
+    public void setJournalSize(Integer journalSize) {
+        this.journalSize = journalSize;
+    }
+
+    @JsonProperty("coalesceDelay")
+    public Integer getCoalesceDelay() {
+        return coalesceDelay;
+    }
+
+    @JsonProperty("coalesceDelay")
+    public void setCoalesceDelay(Integer coalesceDelay) {
+        this.coalesceDelay = coalesceDelay;
+    }
+
+    @JsonProperty("retryDelay")
+    public Integer getRetryDelay() {
+        return retryDelay;
+    }
+
+    @JsonProperty("retryDelay")
+    public void setRetryDelay(Integer retryDelay) {
+        this.retryDelay = retryDelay;
+    }
+
+    @JsonProperty("maxRetryDelay")
+    public Integer getMaxRetryDelay() {
+        return maxRetryDelay;
+    }
+
+    @JsonProperty("maxRetryDelay")
+    public void setMaxRetryDelay(Integer maxRetryDelay) {
+        this.maxRetryDelay = maxRetryDelay;
+    }
+
+    @JsonProperty("drainTimeout")
+    public Integer getDrainTimeout() {
+        return drainTimeout;
+    }
+
+    @JsonProperty("drainTimeout")
+    public void setDrainTimeout(Integer drainTimeout) {
+        this.drainTimeout = drainTimeout;
+    }
+
+}
@@ -0,0 +1,93 @@
+package fhirspark.tracing;
+
+import io.opentelemetry.sdk.common.CompletableResultCode;
+import io.opentelemetry.sdk.trace.data.SpanData;
+import io.opentelemetry.sdk.trace.export.SpanExporter;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Deque;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Span exporter that keeps the most recent spans in memory. It is meant for
+ * local testing without a collector; older spans are dropped once the capacity
+ * is reached.
+ */
+public final class RecentSpans implements SpanExporter {
+
+    private final int capacity;
+    private final Deque<SpanData> spans = new ArrayDeque<>();
+
+    /**
+     *
+     * @param capacity maximum number of spans that are kept.
+     */
+    public RecentSpans(int capacity) {
+        this.capacity = capacity;
+    }
+
+    @Override
+    public synchronized CompletableResultCode export(Collection<SpanData> finished) {
+        for (SpanData span : finished) {
+            if (spans.size() == capacity) {
+                spans.removeFirst();
+            }
+            spans.addLast(span);
+        }
+        return CompletableResultCode.ofSuccess();
+    }
+
+    /**
+     *
+     * @return spans in the order they finished, oldest first.
+     */
+    public synchronized List<SpanData> getSpans() {
+        return new ArrayList<>(spans);
+    }
+
+    /**
+     * Renders the spans in a form that can be serialized to JSON.
+     *
+     * @param traceId id of the trace to return, or null for all spans.
+     * @return one map per span.
+     */
+    public List<Map<String, Object>> summarize(String traceId) {
+        List<Map<String, Object>> result = new ArrayList<>();
+        for (SpanData span : getSpans()) {
+            if (traceId != null && !traceId.equals(span.getTraceId())) {
+                continue;
+            }
+            Map<String, Object> summary = new LinkedHashMap<>();
+            summary.put("traceId", span.getTraceId());
+            summary.put("spanId", span.getSpanId());
+            summary.put("parentSpanId", span.getParentSpanId());
+            summary.put("name", span.getName());
+            summary.put("kind", span.getKind().name());
+            summary.put("start", TimeUnit.NANOSECONDS.toMillis(span.getStartEpochNanos()));
+            summary.put("durationMicros",
+                    TimeUnit.NANOSECONDS.toMicros(span.getEndEpochNanos() - span.getStartEpochNanos()));
+            summary.put("status", span.getStatus().getStatusCode().name());
+            Map<String, Object> attributes = new LinkedHashMap<>();
+            span.getAttributes().forEach((key, value) -> attributes.put(key.getKey(), value));
+            summary.put("attributes", attributes);
+            result.add(summary);
+        }
+        return result;
+    }
+
+    @Override
+    public CompletableResultCode flush() {
+        return CompletableResultCode.ofSuccess();
+    }
+
+    @Override
+    public synchronized CompletableResultCode shutdown() {
+        spans.clear();
+        return CompletableResultCode.ofSuccess();
+    }
+
+}
@@ -0,0 +1,192 @@
+package fhirspark.tracing;
+
+import fhirspark.settings.TracingSettings;
+import io.opentelemetry.api.OpenTelemetry;
+import io.opentelemetry.api.common.AttributeKey;
+import io.opentelemetry.api.common.Attributes;
+import io.opentelemetry.api.trace.Span;
+import io.opentelemetry.api.trace.SpanKind;
+import io.opentelemetry.api.trace.StatusCode;
+import io.opentelemetry.api.trace.Tracer;
+import io.opentelemetry.api.trace.propagation.W3CTraceContextPropagator;
+import io.opentelemetry.context.Context;
+import io.opentelemetry.context.Scope;
+import io.opentelemetry.context.propagation.ContextPropagators;
+import io.opentelemetry.context.propagation.TextMapGetter;
+import io.opentelemetry.context.propagation.TextMapPropagator;
+import io.opentelemetry.exporter.otlp.http.trace.OtlpHttpSpanExporter;
+import io.opentelemetry.sdk.OpenTelemetrySdk;
+import io.opentelemetry.sdk.resources.Resource;
+import io.opentelemetry.sdk.trace.SdkTracerProvider;
+import io.opentelemetry.sdk.trace.SpanProcessor;
+import io.opentelemetry.sdk.trace.export.BatchSpanProcessor;
+import io.opentelemetry.sdk.trace.export.SimpleSpanProcessor;
+import io.opentelemetry.sdk.trace.samplers.Sampler;
+import java.util.Locale;
+import java.util.function.Supplier;
+import spark.Request;
+import spark.Route;
+
+/**
+ * Entry point to the OpenTelemetry tracing of FhirSpark. Until
+ * {@link #install(TracingSettings)} is called all spans are no-ops, so the
+ * instrumentation costs next to nothing when tracing is disabled. Trace context
+ * is propagated in the W3C {@code traceparent} header.
+ */
+public final class Tracing {
+
+    /**
+     * Attribute of the HTTP method of a span.
+     */
+    public static final AttributeKey<String> HTTP_METHOD = AttributeKey.stringKey("http.request.method");
+    /**
+     * Attribute of the HTTP status code of a span.
+     */
+    public static final AttributeKey<Long> HTTP_STATUS = AttributeKey.longKey("http.response.status_code");
+    /**
+     * Attribute of the path of a FHIR client span, without the query, which can
+     * contain patient identifiers.
+     */
+    public static final AttributeKey<String> URL_PATH = AttributeKey.stringKey("url.path");
+    /**
+     * Attribute of the host a client span talks to.
+     */
+    public static final AttributeKey<String> SERVER_ADDRESS = AttributeKey.stringKey("server.address");
+
+    private static final AttributeKey<String> HTTP_ROUTE = AttributeKey.stringKey("http.route");
+    private static final AttributeKey<String> SERVICE_NAME = AttributeKey.stringKey("service.name");
+    private static final String INSTRUMENTATION = "fhirspark";
+    private static final int HTTP_ERROR = 500;
+
+    private static final TextMapGetter<Request> REQUEST_HEADERS = new TextMapGetter<>() {
+        @Override
+        public Iterable<String> keys(Request carrier) {
+            return carrier.headers();
+        }
+
+        @Override
+        public String get(Request carrier, String key) {
+            return carrier == null ? null : carrier.headers(key);
+        }
+    };
+
+    private static volatile OpenTelemetry openTelemetry = OpenTelemetry.noop();
+    private static volatile RecentSpans recentSpans;
+
+    private Tracing() {
+    }
+
+    /**
+     * Sets up the SDK with the configured exporter. Without an exporter the
+     * no-op implementation stays in place.
+     *
+     * @param settings exporter configuration.
+     * @return the tracing implementation now in use.
+     */
+    public static synchronized OpenTelemetry install(TracingSettings settings) {
+        SpanProcessor processor;
+        switch (settings.getExporter().toLowerCase(Locale.ROOT)) {
+            case "otlp":
+                processor = BatchSpanProcessor.builder(OtlpHttpSpanExporter.builder()
+                        .setEndpoint(settings.getEndpoint()).build()).build();
+                break;
+            case "memory":
+                recentSpans = new RecentSpans(settings.getMemorySpans());
+                processor = SimpleSpanProcessor.create(recentSpans);
+                break;
+            case "none":
+                return openTelemetry;
+            default:
+                throw new IllegalArgumentException("Unknown tracing exporter " + settings.getExporter());
+        }
+        SdkTracerProvider tracerProvider = SdkTracerProvider.builder()
+                .setResource(Resource.getDefault().merge(
+                        Resource.create(Attributes.of(SERVICE_NAME, settings.getServiceName()))))
+                .setSampler(Sampler.parentBased(Sampler.traceIdRatioBased(settings.getSampleRatio())))
+                .addSpanProcessor(processor)
+                .build();
+        OpenTelemetrySdk sdk = OpenTelemetrySdk.builder().setTracerProvider(tracerProvider)
+                .setPropagators(ContextPropagators.create(W3CTraceContextPropagator.getInstance())).build();
+        Runtime.getRuntime().addShutdownHook(new Thread(sdk::close));
+        openTelemetry = sdk;
+        return sdk;
+    }
+
+    /**
+     *
+     * @return tracer of FhirSpark.
+     */
+    public static Tracer tracer() {
+        return openTelemetry.getTracer(INSTRUMENTATION);
+    }
+
+    /**
+     *
+     * @return propagator that reads and writes the trace context headers.
+     */
+    public static TextMapPropagator propagator() {
+        return openTelemetry.getPropagators().getTextMapPropagator();
+    }
+
+    /**
+     *
+     * @return spans kept in memory, or null if the memory exporter is not used.
+     */
+    public static RecentSpans getRecentSpans() {
+        return recentSpans;
+    }
+
+    /**
+     * Runs an action in a child span of the current span.
+     *
+     * @param <T>    type of the result.
+     * @param tracer tracer that creates the span.
+     * @param name   name of the span.
+     * @param action action to run.
+     * @return result of the action.
+     */
+    public static <T> T inSpan(Tracer tracer, String name, Supplier<T> action) {
+        Span span = tracer.spanBuilder(name).startSpan();
+        try (Scope scope = span.makeCurrent()) {
+            return action.get();
+        } catch (RuntimeException e) {
+            span.recordException(e);
+            span.setStatus(StatusCode.ERROR);
+            throw e;
+        } finally {
+            span.end();
+        }
+    }
+
+    /**
+     * Wraps a route in a server span that continues the trace of the caller if
+     * it sent a {@code traceparent} header.
+     *
+     * @param route route to trace.
+     * @return traced route.
+     */
+    public static Route traced(Route route) {
+        return (req, res) -> {
+            Context parent = propagator().extract(Context.root(), req, REQUEST_HEADERS);
+            Span span = tracer().spanBuilder(req.requestMethod() + " " + req.matchedPath()).setParent(parent)
+                    .setSpanKind(SpanKind.SERVER).setAttribute(HTTP_METHOD, req.requestMethod())
+                    .setAttribute(HTTP_ROUTE, req.matchedPath()).startSpan();
+            try (Scope scope = span.makeCurrent()) {
+                Object body = route.handle(req, res);
+                span.setAttribute(HTTP_STATUS, (long) res.status());
+                if (res.status() >= HTTP_ERROR) {
+                    span.setStatus(StatusCode.ERROR);
+                }
+                return body;
+            } catch (Exception e) {
+                span.setAttribute(HTTP_STATUS, (long) HTTP_ERROR);
+                span.recordException(e);
+                span.setStatus(StatusCode.ERROR);
+                throw e;
+            } finally {
+                span.end();
+            }
+        };
+    }
+
+}
@@ -0,0 +1,194 @@
+package fhirspark.writebehind;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.CRC32C;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Append-only journal of the accepted saves in a memory-mapped file. Every
+ * record is written as its length, a CRC32C checksum and its JSON and is
+ * forced to disk before {@link #append} returns. On opening, the records are
+ * replayed up to the first one that is incomplete, e.g. because the process
+ * died while writing it. When the file is full, it is replaced by a file with
+ * only the saves that are not done yet.
+ */
+public final class Journal implements Closeable {
+
+    private static final Logger LOG = LoggerFactory.getLogger(Journal.class);
+    private static final int HEADER_BYTES = 2 * Integer.BYTES;
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    private final Path path;
+    private final int capacity;
+    private final Map<Long, JournalRecord> pending = new LinkedHashMap<>();
+    private FileChannel channel;
+    private MappedByteBuffer buffer;
+    private long nextSeq = 1;
+
+    /**
+     * Opens the journal and replays its records.
+     *
+     * @param path     file of the journal; created if it does not exist.
+     * @param capacity size of the file in bytes.
+     * @throws IOException if the file could not be mapped.
+     */
+    public Journal(Path path, int capacity) throws IOException {
+        this.path = path;
+        this.capacity = capacity;
+        map();
+        if (replay()) {
+            LOG.warn("Journal {} ends with an incomplete record, rewriting it", path);
+            compact();
+        }
+    }
+
+    /**
+     * Appends a save and forces it to disk.
+     *
+     * @param kind      kind of the save.
+     * @param patientId id of the patient.
+     * @param body      request body of the save.
+     * @return the journaled save.
+     * @throws IOException if the save does not fit into the journal.
+     */
+    public synchronized JournalRecord append(String kind, String patientId, String body) throws IOException {
+        JournalRecord record = JournalRecord.save(nextSeq, kind, patientId, body);
+        write(objectMapper.writeValueAsBytes(record));
+        nextSeq++;
+        pending.put(record.getSeq(), record);
+        return record;
+    }
+
+    /**
+     * Marks saves as done, so they are not replayed.
+     *
+     * @param seqs sequence numbers of the saves.
+     * @throws IOException if the journal could not be written.
+     */
+    public synchronized void complete(Collection<Long> seqs) throws IOException {
+        pending.keySet().removeAll(seqs);
+        write(objectMapper.writeValueAsBytes(JournalRecord.done(new ArrayList<>(seqs))));
+    }
+
+    /**
+     *
+     * @return saves that are not done, in the order they were accepted.
+     */
+    public synchronized List<JournalRecord> pending() {
+        return new ArrayList<>(pending.values());
+    }
+
+    /**
+     *
+     * @return bytes of the journal in use.
+     */
+    public synchronized int used() {
+        return buffer.position();
+    }
+
+    public int capacity() {
+        return capacity;
+    }
+
+    private void write(byte[] payload) throws IOException {
+        if (buffer.position() + HEADER_BYTES + payload.length > capacity) {
+            compact();
+            if (buffer.position() + HEADER_BYTES + payload.length > capacity) {
+                throw new IOException("Journal " + path + " is full");
+            }
+        }
+        int start = buffer.position();
+        buffer.putInt(payload.length).putInt(checksum(payload)).put(payload);
+        buffer.force(start, HEADER_BYTES + payload.length);
+    }
+
+    /**
+     * Reads the records from the start of the file.
+     *
+     * @return true if the journal ends with an incomplete record.
+     */
+    private boolean replay() throws IOException {
+        buffer.position(0);
+        while (buffer.remaining() >= HEADER_BYTES) {
+            int start = buffer.position();
+            int length = buffer.getInt();
+            int checksum = buffer.getInt();
+            if (length == 0 && checksum == 0) {
+                buffer.position(start);
+                return false;
+            }
+            if (length < 0 || length > buffer.remaining()) {
+                buffer.position(start);
+                return true;
+            }
+            byte[] payload = new byte[length];
+            buffer.get(payload);
+            if (checksum(payload) != checksum) {
+                buffer.position(start);
+                return true;
+            }
+            JournalRecord record = objectMapper.readValue(payload, JournalRecord.class);
+            if (record.getDone() != null) {
+                pending.keySet().removeAll(record.getDone());
+            } else {
+                pending.put(record.getSeq(), record);
+                nextSeq = Math.max(nextSeq, record.getSeq() + 1);
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Replaces the journal with a file that only contains the pending saves.
+     */
+    private void compact() throws IOException {
+        Path next = path.resolveSibling(path.getFileName() + ".next");
+        Files.deleteIfExists(next);
+        try (FileChannel nextChannel = FileChannel.open(next, StandardOpenOption.CREATE_NEW,
+                StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            MappedByteBuffer nextBuffer = nextChannel.map(FileChannel.MapMode.READ_WRITE, 0, capacity);
+            for (JournalRecord record : pending.values()) {
+                byte[] payload = objectMapper.writeValueAsBytes(record);
+                nextBuffer.putInt(payload.length).putInt(checksum(payload)).put(payload);
+            }
+            nextBuffer.force();
+        }
+        channel.close();
+        Files.move(next, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        map();
+        replay();
+        LOG.info("Compacted journal {} to {} pending saves", path, pending.size());
+    }
+
+    private void map() throws IOException {
+        channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE);
+        buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, capacity);
+    }
+
+    private static int checksum(byte[] payload) {
+        CRC32C crc = new CRC32C();
+        crc.update(payload);
+        return (int) crc.getValue();
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        channel.close();
+    }
+
+}
@@ -0,0 +1,73 @@
+package fhirspark.writebehind;
+
+import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import java.util.List;
+
+/**
+ * Record of the write-behind journal. Either a save that was accepted, with
+ * the request body as it was received, or the sequence numbers of saves that
+ * are done and need not be replayed.
+ */
+@JsonInclude(JsonInclude.Include.NON_NULL)
+public final class JournalRecord {
+
+    private final Long seq;
+    private final String kind;
+    private final String patientId;
+    private final String body;
+    private final Long acceptedAt;
+    private final List<Long> done;
+
+    @JsonCreator
+    JournalRecord(@JsonProperty("seq") Long seq, @JsonProperty("kind") String kind,
+            @JsonProperty("patientId") String patientId, @JsonProperty("body") String body,
+            @JsonProperty("acceptedAt") Long acceptedAt, @JsonProperty("done") List<Long> done) {
+        this.seq = seq;
+        this.kind = kind;
+        this.patientId = patientId;
+        this.body = body;
+        this.acceptedAt = acceptedAt;
+        this.done = done;
+    }
+
+    static JournalRecord save(long seq, String kind, String patientId, String body) {
+        return new JournalRecord(seq, kind, patientId, body, System.currentTimeMillis(), null);
+    }
+
+    static JournalRecord done(List<Long> seqs) {
+        return new JournalRecord(null, null, null, null, null, seqs);
+    }
+
+    @JsonProperty("seq")
+    public Long getSeq() {
+        return seq;
+    }
+
+    @JsonProperty("kind")
+    public String getKind() {
+        return kind;
+    }
+
+    @JsonProperty("patientId")
+    public String getPatientId() {
+        return patientId;
+    }
+
+    @JsonProperty("body")
+    public String getBody() {
+        return body;
+    }
+
+    @JsonProperty("acceptedAt")
+    public Long getAcceptedAt() {
+        return acceptedAt;
+    }
+
+    @JsonProperty("done")
+    public List<Long> getDone() {
+        return done;
+    }
+
+}
@@ -0,0 +1,379 @@
+package fhirspark.writebehind;
+
+import ca.uhn.fhir.rest.server.exceptions.BaseServerResponseException;
+import fhirspark.restmodel.WriteBehindStatus;
+import fhirspark.restmodel.WriteStatus;
+import fhirspark.settings.WriteBehindSettings;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import org.eclipse.jetty.http.HttpStatus;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Writes the MTB and follow-up saves to the FHIR server in the background. A
+ * save is journaled before {@link #submit} returns, so it survives a restart.
+ * Saves of the same kind for the same patient that arrive before the previous
+ * one was written replace it, so a burst of saves ends in one transaction with
+ * the latest state. Transactions that fail for a transient reason, i.e. a
+ * connection problem, a server error, a conflict or throttling, are retried
+ * with an exponential backoff; other failures are recorded and dropped.
+ */
+public final class WriteBehindQueue implements Closeable {
+
+    public static final String MTB = "mtb";
+    public static final String FOLLOW_UP = "followup";
+
+    private static final Logger LOG = LoggerFactory.getLogger(WriteBehindQueue.class);
+    private static final int MAX_BACKOFF_SHIFT = 16;
+
+    /**
+     * Writes a save to the FHIR server.
+     */
+    @FunctionalInterface
+    public interface Store {
+        /**
+         *
+         * @param kind      {@link #MTB} or {@link #FOLLOW_UP}.
+         * @param patientId id of the patient.
+         * @param body      request body of the save.
+         * @throws Exception if the save could not be written.
+         */
+        void write(String kind, String patientId, String body) throws Exception;
+    }
+
+    private final WriteBehindSettings settings;
+    private final Store store;
+    private final Journal journal;
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition changed = lock.newCondition();
+    private final Map<String, Pending> pending = new LinkedHashMap<>();
+    private final Map<String, WriteStatus> failed = new LinkedHashMap<>();
+    private final Thread worker;
+    private volatile boolean running = true;
+
+    /**
+     * Opens the journal, queues the saves that were not written before the last
+     * shutdown and starts the worker.
+     *
+     * @param settings settings of the write-behind mode.
+     * @param store    writes the saves.
+     * @param registry registry that receives the queue gauges.
+     * @throws IOException if the journal could not be opened.
+     */
+    public WriteBehindQueue(WriteBehindSettings settings, Store store, MeterRegistry registry) throws IOException {
+        this.settings = settings;
+        this.store = store;
+        this.journal = new Journal(Path.of(settings.getJournalPath()), settings.getJournalSize());
+        List<JournalRecord> replayed = journal.pending();
+        for (JournalRecord record : replayed) {
+            enqueue(record);
+        }
+        if (!replayed.isEmpty()) {
+            LOG.info("Replaying {} saves from the journal", replayed.size());
+        }
+        Gauge.builder("fhirspark.writebehind.pending", this, queue -> queue.status().getPending())
+                .description("Saves that are not written to the FHIR server yet").register(registry);
+        Gauge.builder("fhirspark.writebehind.journal.used", journal, Journal::used)
+                .description("Bytes of the write-behind journal in use").baseUnit("bytes").register(registry);
+        this.worker = new Thread(this::work, "fhirspark-write-behind");
+        this.worker.setDaemon(true);
+        this.worker.start();
+    }
+
+    /**
+     * Journals a save and queues it.
+     *
+     * @param kind      {@link #MTB} or {@link #FOLLOW_UP}.
+     * @param patientId id of the patient.
+     * @param body      request body of the save.
+     * @return false if the journal is full; the caller has to write the save itself.
+     */
+    public boolean submit(String kind, String patientId, String body) {
+        JournalRecord record;
+        try {
+            record = journal.append(kind, patientId, body);
+        } catch (IOException e) {
+            LOG.warn("Could not journal save, writing it synchronously", e);
+            return false;
+        }
+        enqueue(record);
+        return true;
+    }
+
+    private void enqueue(JournalRecord record) {
+        lock.lock();
+        try {
+            Pending save = pending.computeIfAbsent(key(record.getKind(), record.getPatientId()),
+                    k -> new Pending(record.getKind(), record.getPatientId(), record.getAcceptedAt()));
+            save.seqs.add(record.getSeq());
+            // journal order wins if two saves of the patient were submitted concurrently
+            if (record.getSeq() > save.latestSeq) {
+                save.latestSeq = record.getSeq();
+                save.body = record.getBody();
+            }
+            save.updatedAt = System.currentTimeMillis();
+            changed.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     *
+     * @param kind      {@link #MTB} or {@link #FOLLOW_UP}.
+     * @param patientId id of the patient.
+     * @return latest accepted body that is not written yet, or null.
+     */
+    public String pendingBody(String kind, String patientId) {
+        lock.lock();
+        try {
+            Pending save = pending.get(key(kind, patientId));
+            return save == null ? null : save.body;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Waits until all saves of a patient are written or dropped.
+     *
+     * @param patientId id of the patient.
+     * @return false if the saves were not written within the drain timeout.
+     * @throws InterruptedException if the thread was interrupted while waiting.
+     */
+    public boolean drain(String patientId) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(settings.getDrainTimeout());
+        lock.lock();
+        try {
+            while (pending.values().stream().anyMatch(save -> save.patientId.equals(patientId))) {
+                long remaining = deadline - System.nanoTime();
+                if (remaining <= 0) {
+                    return false;
+                }
+                changed.awaitNanos(remaining);
+            }
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     *
+     * @param patientId id of the patient.
+     * @return saves of the patient that are not written yet or failed.
+     */
+    public List<WriteStatus> status(String patientId) {
+        List<WriteStatus> states = new ArrayList<>();
+        lock.lock();
+        try {
+            for (Pending save : pending.values()) {
+                if (save.patientId.equals(patientId)) {
+                    states.add(new WriteStatus().withKind(save.kind)
+                            .withState(save.attempts > 0 ? "retrying" : "pending")
+                            .withAcceptedAt(save.acceptedAt).withAttempts(save.attempts).withError(save.error));
+                }
+            }
+            for (String kind : List.of(MTB, FOLLOW_UP)) {
+                WriteStatus failure = failed.get(key(kind, patientId));
+                if (failure != null) {
+                    states.add(failure);
+                }
+            }
+        } finally {
+            lock.unlock();
+        }
+        return states;
+    }
+
+    /**
+     *
+     * @return summary of the queue.
+     */
+    public WriteBehindStatus status() {
+        lock.lock();
+        try {
+            long now = System.currentTimeMillis();
+            return new WriteBehindStatus().withPending(pending.size())
+                    .withRetrying((int) pending.values().stream().filter(save -> save.attempts > 0).count())
+                    .withFailed(failed.size())
+                    .withOldestPendingMs(pending.values().stream().mapToLong(save -> now - save.acceptedAt).max()
+                            .orElse(0))
+                    .withJournalUsed(journal.used()).withJournalCapacity(journal.capacity());
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void work() {
+        while (running) {
+            Pending save;
+            String body;
+            List<Long> seqs;
+            lock.lock();
+            try {
+                save = next();
+                if (save == null) {
+                    continue;
+                }
+                save.inFlight = true;
+                body = save.body;
+                seqs = new ArrayList<>(save.seqs);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            } finally {
+                lock.unlock();
+            }
+            try {
+                store.write(save.kind, save.patientId, body);
+                completed(save, seqs, null);
+            } catch (Exception e) {
+                if (isTransient(e)) {
+                    retry(save, e);
+                } else {
+                    LOG.warn("Dropping {} save that the FHIR server rejected", save.kind, e);
+                    completed(save, seqs, e);
+                }
+            }
+        }
+    }
+
+    /**
+     * Waits for the next save that is due, i.e. that did not change for the
+     * coalesce delay and whose backoff is over. Must hold the lock.
+     *
+     * @return due save, or null if the wait ended without one.
+     */
+    private Pending next() throws InterruptedException {
+        long now = System.currentTimeMillis();
+        long wait = Long.MAX_VALUE;
+        for (Pending save : pending.values()) {
+            if (save.inFlight) {
+                continue;
+            }
+            long due = Math.max(save.updatedAt + settings.getCoalesceDelay(), save.notBefore);
+            if (due <= now) {
+                return save;
+            }
+            wait = Math.min(wait, due - now);
+        }
+        if (wait == Long.MAX_VALUE) {
+            changed.await();
+        } else {
+            changed.await(wait, TimeUnit.MILLISECONDS);
+        }
+        return null;
+    }
+
+    private void completed(Pending save, List<Long> seqs, Exception error) {
+        try {
+            journal.complete(seqs);
+        } catch (IOException e) {
+            LOG.error("Could not mark saves as done, they will be written again after a restart", e);
+        }
+        lock.lock();
+        try {
+            save.seqs.removeAll(seqs);
+            save.inFlight = false;
+            save.attempts = 0;
+            save.error = null;
+            save.notBefore = 0;
+            if (save.seqs.isEmpty()) {
+                pending.remove(key(save.kind, save.patientId));
+            } else {
+                save.acceptedAt = save.updatedAt;
+            }
+            if (error != null) {
+                failed.put(key(save.kind, save.patientId), new WriteStatus().withKind(save.kind).withState("failed")
+                        .withAcceptedAt(save.acceptedAt).withError(error.getMessage()));
+            } else {
+                failed.remove(key(save.kind, save.patientId));
+            }
+            changed.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void retry(Pending save, Exception error) {
+        lock.lock();
+        try {
+            save.inFlight = false;
+            save.attempts++;
+            save.error = error.getMessage();
+            long delay = Math.min((long) settings.getRetryDelay() << Math.min(save.attempts - 1, MAX_BACKOFF_SHIFT),
+                    settings.getMaxRetryDelay());
+            save.notBefore = System.currentTimeMillis() + delay;
+            LOG.warn("Writing {} save failed {} times, retrying in {} ms: {}", save.kind, save.attempts, delay,
+                    save.error);
+            changed.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private static boolean isTransient(Exception e) {
+        if (e instanceof IOException) {
+            return true;
+        }
+        if (e instanceof BaseServerResponseException response) {
+            int status = response.getStatusCode();
+            return status >= HttpStatus.INTERNAL_SERVER_ERROR_500 || status == HttpStatus.REQUEST_TIMEOUT_408
+                    || status == HttpStatus.CONFLICT_409 || status == HttpStatus.PRECONDITION_FAILED_412
+                    || status == HttpStatus.TOO_MANY_REQUESTS_429;
+        }
+        return false;
+    }
+
+    private static String key(String kind, String patientId) {
+        return kind + "/" + patientId;
+    }
+
+    /**
+     * Stops the worker. Saves that are not written stay in the journal.
+     */
+    @Override
+    public void close() throws IOException {
+        running = false;
+        worker.interrupt();
+        try {
+            worker.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        journal.close();
+    }
+
+    private static final class Pending {
+        private final String kind;
+        private final String patientId;
+        private final List<Long> seqs = new ArrayList<>();
+        private long acceptedAt;
+        private long latestSeq;
+        private String body;
+        private long updatedAt;
+        private long notBefore;
+        private int attempts;
+        private String error;
+        private boolean inFlight;
+
+        Pending(String kind, String patientId, long acceptedAt) {
+            this.kind = kind;
+            this.patientId = patientId;
+            this.acceptedAt = acceptedAt;
+        }
+    }
+
+}
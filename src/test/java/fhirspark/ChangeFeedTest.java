@@ -0,0 +1,158 @@
+package fhirspark;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import ca.uhn.fhir.context.FhirContext;
+import ca.uhn.fhir.rest.api.RestOperationTypeEnum;
+import ca.uhn.fhir.rest.client.api.IGenericClient;
+import ca.uhn.fhir.rest.gclient.TokenClientParam;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import fhirspark.fhir.FhirCalls;
+import fhirspark.resolver.HgncGeneName;
+import fhirspark.resolver.OncoKbDrug;
+import fhirspark.restmodel.CbioportalRest;
+import fhirspark.restmodel.Deletions;
+import fhirspark.restmodel.GeneticAlteration;
+import fhirspark.restmodel.TherapyRecommendation;
+import fhirspark.settings.ConfigurationLoader;
+import fhirspark.settings.Settings;
+import fhirspark.stub.StubFhirServer;
+import java.io.FileInputStream;
+import java.util.Collection;
+import java.util.List;
+import java.util.Set;
+import java.util.stream.Collectors;
+import org.hl7.fhir.r4.model.Bundle;
+import org.hl7.fhir.r4.model.Bundle.BundleType;
+import org.hl7.fhir.r4.model.Bundle.HTTPVerb;
+import org.hl7.fhir.r4.model.Identifier;
+import org.hl7.fhir.r4.model.Observation;
+import org.hl7.fhir.r4.model.Patient;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Checks that the alteration index of one instance follows the writes another
+ * instance makes to the same FHIR server, and that resources changed by other
+ * tools are still read.
+ */
+public class ChangeFeedTest {
+
+    private static final String PATIENT = "Testpatient23";
+    private static final List<GeneticAlteration> ALTERATIONS = List.of(new GeneticAlteration().withEntrezGeneId(673),
+            new GeneticAlteration().withEntrezGeneId(3845), new GeneticAlteration().withEntrezGeneId(7157));
+
+    private StubFhirServer stub;
+    private Settings settings;
+    private JsonFhirMapper indexed;
+    private JsonFhirMapper other;
+
+    @BeforeEach
+    public void prepare() throws Exception {
+        stub = new StubFhirServer(0);
+        settings = new ConfigurationLoader()
+                .loadConfiguration(new FileInputStream("src/main/resources/settings.yaml"), Settings.class);
+        settings.setFhirDbBase(stub.getBase());
+        HgncGeneName.initialize(settings.getHgncPath());
+        OncoKbDrug.initalize(settings.getOncokbPath());
+        other = new JsonFhirMapper(settings);
+        settings.getAlterationIndex().setEnabled(true);
+        settings.getChangeFeed().setEnabled(true);
+        indexed = new JsonFhirMapper(settings);
+        indexed.rebuildAlterationIndex();
+    }
+
+    @AfterEach
+    public void stop() {
+        stub.close();
+    }
+
+    private static Set<String> ids(Collection<TherapyRecommendation> therapyRecommendations) {
+        return therapyRecommendations.stream().map(TherapyRecommendation::getId).collect(Collectors.toSet());
+    }
+
+    @Test
+    public void writesOfAnotherInstanceReachTheIndex() throws Exception {
+        stub.seed(other, "twoMtbThreeRecommendation.json");
+        assertEquals(Set.of(), ids(indexed.getTherapyRecommendationsByAlteration(ALTERATIONS)));
+
+        indexed.pollChanges();
+
+        Set<String> stored = ids(other.getTherapyRecommendationsByAlteration(ALTERATIONS));
+        assertEquals(3, stored.size());
+        assertEquals(stored, ids(indexed.getTherapyRecommendationsByAlteration(ALTERATIONS)));
+    }
+
+    @Test
+    public void deletionsOfAnotherInstanceReachTheIndex() throws Exception {
+        stub.seed(other, "twoMtbThreeRecommendation.json");
+        indexed.pollChanges();
+
+        Deletions deletions = new Deletions();
+        deletions.setMtb(List.of("mtb_" + PATIENT + "_1590601794804"));
+        deletions.setTherapyRecommendation(List.of());
+        deletions.setFollowUps(List.of());
+        other.deleteEntries(PATIENT, deletions);
+        indexed.pollChanges();
+
+        Set<String> found = ids(indexed.getTherapyRecommendationsByAlteration(ALTERATIONS));
+        assertEquals(Set.of(PATIENT + "_1590601812873", PATIENT + "_1590601827090"), found);
+    }
+
+    @Test
+    public void changesAreAppliedOnce() throws Exception {
+        stub.seed(other, "twoMtbThreeRecommendation.json");
+        indexed.pollChanges();
+
+        // the overlap returns the same versions again, but they were applied already
+        try (FhirCalls calls = indexed.getCallCounter().record()) {
+            indexed.pollChanges();
+            assertTrue(calls.total() <= 3, "Changes were applied again: " + calls);
+        }
+    }
+
+    @Test
+    public void patientsWithForeignIdentifiersAreRead() throws Exception {
+        stub.seed(other, "twoMtbThreeRecommendation.json");
+        IGenericClient client = FhirContext.forR4().newRestfulGenericClient(stub.getBase());
+        Bundle patients = client.search().forResource(Patient.class).returnBundle(Bundle.class).execute();
+        Patient patient = (Patient) patients.getEntryFirstRep().getResource();
+        patient.getIdentifier().add(0, new Identifier().setSystem("urn:other-tool").setValue("4711"));
+        Bundle update = new Bundle().setType(BundleType.TRANSACTION);
+        update.addEntry().setResource(patient).getRequest().setMethod(HTTPVerb.PUT)
+                .setUrl("Patient/" + patient.getIdElement().getIdPart());
+        client.transaction().withBundle(update).execute();
+
+        CbioportalRest read = new ObjectMapper().readValue(other.mtbToJson(PATIENT), CbioportalRest.class);
+        assertEquals(PATIENT, read.getId());
+        assertEquals(2, read.getMtbs().size());
+    }
+
+    @Test
+    public void foreignEditsAreOverwrittenBySaves() throws Exception {
+        stub.seed(other, "twoMtbThreeRecommendation.json");
+        String saved = other.mtbToJson(PATIENT);
+        IGenericClient client = FhirContext.forR4().newRestfulGenericClient(stub.getBase());
+        Observation observation = (Observation) client.search().forResource(Observation.class)
+                .where(new TokenClientParam("identifier").exactly()
+                        .systemAndCode(settings.getObservationSystem(), PATIENT + "_1590601812873"))
+                .returnBundle(Bundle.class).execute().getEntryFirstRep().getResource();
+        // another tool edits the recommendation but keeps the content hash
+        observation.addNote().setText("edited elsewhere");
+        Bundle update = new Bundle().setType(BundleType.TRANSACTION);
+        update.addEntry().setResource(observation).getRequest().setMethod(HTTPVerb.PUT)
+                .setUrl("Observation/" + observation.getIdElement().getIdPart());
+        client.transaction().withBundle(update).execute();
+
+        CbioportalRest rest = new ObjectMapper().readValue(saved, CbioportalRest.class);
+        try (FhirCalls calls = other.getCallCounter().record()) {
+            other.mtbFromJson(PATIENT, rest.getMtbs());
+            assertEquals(1, calls.count(RestOperationTypeEnum.TRANSACTION));
+        }
+        ObjectMapper objectMapper = new ObjectMapper();
+        assertEquals(objectMapper.readTree(saved), objectMapper.readTree(other.mtbToJson(PATIENT)));
+    }
+
+}
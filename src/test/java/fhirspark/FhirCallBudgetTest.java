@@ -0,0 +1,269 @@
+package fhirspark;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import ca.uhn.fhir.context.FhirContext;
+import ca.uhn.fhir.rest.api.RestOperationTypeEnum;
+import ca.uhn.fhir.rest.client.api.IGenericClient;
+import ca.uhn.fhir.rest.gclient.TokenClientParam;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import fhirspark.fhir.FhirCalls;
+import fhirspark.index.AlterationMatch;
+import fhirspark.resolver.HgncGeneName;
+import fhirspark.resolver.OncoKbDrug;
+import fhirspark.restmodel.CbioportalRest;
+import fhirspark.restmodel.GeneticAlteration;
+import fhirspark.restmodel.ImportProgress;
+import fhirspark.restmodel.Mtb;
+import fhirspark.restmodel.TherapyRecommendation;
+import fhirspark.settings.BulkSettings;
+import fhirspark.settings.ConfigurationLoader;
+import fhirspark.settings.Settings;
+import fhirspark.stub.StubFhirServer;
+import java.io.BufferedReader;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Set;
+import java.util.stream.Collectors;
+import org.hl7.fhir.r4.model.Bundle;
+import org.hl7.fhir.r4.model.Observation;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.TestInstance;
+import org.junit.jupiter.api.TestInstance.Lifecycle;
+import org.junit.jupiter.api.function.Executable;
+
+/**
+ * Asserts how many requests the mapper sends to the FHIR server. A budget that
+ * is exceeded usually means that an adapter started to fetch per entry again.
+ */
+@TestInstance(Lifecycle.PER_CLASS)
+public class FhirCallBudgetTest {
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    private StubFhirServer stub;
+    private Settings settings;
+    private JsonFhirMapper jfm;
+    private IGenericClient fhirClient;
+    private CbioportalRest twoMtbThreeRecommendation;
+
+    @BeforeAll
+    public void prepare() throws IOException {
+        stub = new StubFhirServer(0);
+        settings = new ConfigurationLoader()
+                .loadConfiguration(new FileInputStream("src/main/resources/settings.yaml"), Settings.class);
+        settings.setFhirDbBase(stub.getBase());
+        HgncGeneName.initialize(settings.getHgncPath());
+        OncoKbDrug.initalize(settings.getOncokbPath());
+        jfm = new JsonFhirMapper(settings);
+        fhirClient = FhirContext.forR4().newRestfulGenericClient(stub.getBase());
+        stub.seed(jfm, "twoMtbThreeRecommendation.json");
+        twoMtbThreeRecommendation = objectMapper.readValue(
+                ClassLoader.getSystemResourceAsStream("twoMtbThreeRecommendation.json"), CbioportalRest.class);
+    }
+
+    @AfterAll
+    public void stop() {
+        stub.close();
+    }
+
+    private FhirCalls record(Executable action) throws Throwable {
+        try (FhirCalls calls = jfm.getCallCounter().record()) {
+            action.execute();
+            return calls;
+        }
+    }
+
+    private static void assertBudget(int budget, FhirCalls calls) {
+        assertTrue(calls.total() <= budget, "Budget of " + budget + " exceeded: " + calls);
+    }
+
+    @Test
+    public void mtbToJson() throws Throwable {
+        FhirCalls calls = record(() -> jfm.mtbToJson(twoMtbThreeRecommendation.getId()));
+
+        assertEquals(0, calls.count("Practitioner", RestOperationTypeEnum.SEARCH_TYPE));
+        assertBudget(2, calls);
+    }
+
+    @Test
+    public void mtbToJsonUnknownPatient() throws Throwable {
+        FhirCalls calls = record(() -> jfm.mtbToJson("unknownPatient"));
+
+        assertEquals(1, calls.total());
+    }
+
+    @Test
+    public void mtbsToNdjson() throws Throwable {
+        String patientId = twoMtbThreeRecommendation.getId();
+        StringWriter out = new StringWriter();
+        FhirCalls calls = record(() -> jfm.mtbsToNdjson(List.of(patientId, "unknownPatient"), out));
+
+        String[] lines = out.toString().split("\n");
+        assertEquals(2, lines.length);
+        assertEquals(objectMapper.readTree(jfm.mtbToJson(patientId)), objectMapper.readTree(lines[0]));
+        assertEquals(0, objectMapper.readValue(lines[1], CbioportalRest.class).getMtbs().size());
+        assertBudget(2, calls);
+    }
+
+    @Test
+    public void mtbsToNdjsonPaged() throws Throwable {
+        BulkSettings bulk = new BulkSettings();
+        bulk.setPatientsPerSearch(1);
+        bulk.setPageSize(1);
+        BulkSettings shared = settings.getBulk();
+        JsonFhirMapper paged;
+        try {
+            settings.setBulk(bulk);
+            paged = new JsonFhirMapper(settings);
+        } finally {
+            settings.setBulk(shared);
+        }
+        String patientId = twoMtbThreeRecommendation.getId();
+        StringWriter out = new StringWriter();
+        paged.mtbsToNdjson(List.of("unknownPatient", patientId), out);
+
+        String[] lines = out.toString().split("\n");
+        assertEquals(objectMapper.readTree(jfm.mtbToJson(patientId)), objectMapper.readTree(lines[1]));
+    }
+
+    @Test
+    public void mtbsFromNdjson() throws Throwable {
+        CbioportalRest oneMtbOneRecommendation = objectMapper.readValue(
+                ClassLoader.getSystemResourceAsStream("oneMtbOneRecommendation.json"), CbioportalRest.class);
+        String ndjson = objectMapper.writeValueAsString(twoMtbThreeRecommendation) + "\nno json\n"
+                + objectMapper.writeValueAsString(oneMtbOneRecommendation) + "\n";
+        List<ImportProgress> progress = new ArrayList<>();
+        try (StubFhirServer importStub = new StubFhirServer(0)) {
+            Settings importSettings = new ConfigurationLoader()
+                    .loadConfiguration(new FileInputStream("src/main/resources/settings.yaml"), Settings.class);
+            importSettings.setFhirDbBase(importStub.getBase());
+            JsonFhirMapper importer = new JsonFhirMapper(importSettings);
+            try (FhirCalls calls = importer.getCallCounter().record()) {
+                importer.mtbsFromNdjson(new BufferedReader(new StringReader(ndjson)), patientId -> true,
+                        progress::add);
+
+                assertEquals(1, calls.count(RestOperationTypeEnum.TRANSACTION));
+            }
+            assertEquals(objectMapper.readTree(jfm.mtbToJson(twoMtbThreeRecommendation.getId())),
+                    objectMapper.readTree(importer.mtbToJson(twoMtbThreeRecommendation.getId())));
+        }
+
+        assertEquals(2, progress.size());
+        assertEquals("rejected", progress.get(0).getStatus());
+        assertEquals(2, progress.get(0).getLine());
+        assertEquals("committed", progress.get(1).getStatus());
+        assertEquals(List.of(twoMtbThreeRecommendation.getId(), oneMtbOneRecommendation.getId()),
+                progress.get(1).getPatients());
+        assertTrue(progress.get(1).getDeduplicated() > 0);
+    }
+
+    @Test
+    public void mtbFromJsonUnchanged() throws Throwable {
+        FhirCalls calls = record(() -> jfm.mtbFromJson(twoMtbThreeRecommendation.getId(),
+                twoMtbThreeRecommendation.getMtbs()));
+
+        assertEquals(0, calls.count(RestOperationTypeEnum.TRANSACTION));
+        assertBudget(1, calls);
+    }
+
+    @Test
+    public void mtbFromJsonChangedRecommendation() throws Throwable {
+        String patientId = twoMtbThreeRecommendation.getId();
+        CbioportalRest changed = objectMapper.readValue(objectMapper.writeValueAsString(twoMtbThreeRecommendation),
+                CbioportalRest.class);
+        TherapyRecommendation edited = changed.getMtbs().get(0).getTherapyRecommendations().get(0);
+        TherapyRecommendation untouched = changed.getMtbs().get(0).getTherapyRecommendations().get(1);
+        edited.setComment(List.of("changed"));
+        String editedVersion = version(edited.getId());
+        String untouchedVersion = version(untouched.getId());
+        try {
+            FhirCalls calls = record(() -> jfm.mtbFromJson(patientId, changed.getMtbs()));
+
+            assertEquals(1, calls.count(RestOperationTypeEnum.TRANSACTION));
+            assertBudget(2, calls);
+            assertNotEquals(editedVersion, version(edited.getId()));
+            assertEquals(untouchedVersion, version(untouched.getId()));
+            Mtb stored = objectMapper.readValue(jfm.mtbToJson(patientId), CbioportalRest.class).getMtbs().stream()
+                    .filter(mtb -> mtb.getId().equals(changed.getMtbs().get(0).getId())).findFirst().orElseThrow();
+            assertEquals(2, stored.getTherapyRecommendations().size());
+            assertTrue(stored.getTherapyRecommendations().stream()
+                    .anyMatch(tr -> tr.getId().equals(edited.getId()) && tr.getComment().equals(List.of("changed"))));
+        } finally {
+            jfm.mtbFromJson(patientId, twoMtbThreeRecommendation.getMtbs());
+        }
+    }
+
+    private String version(String therapyRecommendationId) {
+        Bundle bundle = fhirClient.search().forResource(Observation.class)
+                .where(new TokenClientParam("identifier").exactly()
+                        .systemAndCode(settings.getObservationSystem(), therapyRecommendationId))
+                .returnBundle(Bundle.class).execute();
+        return bundle.getEntryFirstRep().getResource().getMeta().getVersionId();
+    }
+
+    @Test
+    public void therapyRecommendationsByAlteration() throws Throwable {
+        List<GeneticAlteration> alterations = List.of(new GeneticAlteration().withEntrezGeneId(673),
+                new GeneticAlteration().withEntrezGeneId(3845));
+        FhirCalls calls = record(() -> jfm.getTherapyRecommendationsByAlteration(alterations));
+
+        assertEquals(1, calls.count("Observation", RestOperationTypeEnum.SEARCH_TYPE));
+        assertBudget(5, calls);
+    }
+
+    @Test
+    public void therapyRecommendationsByAlterationFromIndex() throws Throwable {
+        List<GeneticAlteration> alterations = List.of(new GeneticAlteration().withEntrezGeneId(673),
+                new GeneticAlteration().withEntrezGeneId(3845));
+        settings.getAlterationIndex().setEnabled(true);
+        JsonFhirMapper indexed = new JsonFhirMapper(settings);
+        settings.getAlterationIndex().setEnabled(false);
+        indexed.rebuildAlterationIndex();
+
+        try (FhirCalls calls = indexed.getCallCounter().record()) {
+            Collection<TherapyRecommendation> found = indexed.getTherapyRecommendationsByAlteration(alterations);
+
+            assertEquals(0, calls.total());
+            assertEquals(ids(jfm.getTherapyRecommendationsByAlteration(alterations)), ids(found));
+            // unlike the search, the index knows the alterations of other genes in the reasoning
+            assertTrue(found.stream().flatMap(tr -> tr.getReasoning().getGeneticAlterations().stream())
+                    .allMatch(alteration -> alteration.getEntrezGeneId() != null));
+        }
+    }
+
+    @Test
+    public void therapyRecommendationsByVariant() throws Throwable {
+        List<GeneticAlteration> alterations = List.of(
+                new GeneticAlteration().withEntrezGeneId(3845).withAminoAcidChange("p.G12C"),
+                new GeneticAlteration().withEntrezGeneId(673));
+        List<GeneticAlteration> otherVariant = List.of(
+                new GeneticAlteration().withEntrezGeneId(3845).withAlteration("G12D"));
+        settings.getAlterationIndex().setEnabled(true);
+        JsonFhirMapper indexed = new JsonFhirMapper(settings);
+        settings.getAlterationIndex().setEnabled(false);
+        indexed.rebuildAlterationIndex();
+
+        List<String> expected = List.of("Testpatient23_1590601812873", "Testpatient23_1590601800979");
+        assertEquals(expected, jfm.getTherapyRecommendationsByAlteration(alterations, AlterationMatch.VARIANT)
+                .stream().map(TherapyRecommendation::getId).toList());
+        assertEquals(expected, indexed.getTherapyRecommendationsByAlteration(alterations, AlterationMatch.VARIANT)
+                .stream().map(TherapyRecommendation::getId).toList());
+        assertEquals(Set.of(), ids(jfm.getTherapyRecommendationsByAlteration(otherVariant, AlterationMatch.VARIANT)));
+        assertEquals(Set.of(),
+                ids(indexed.getTherapyRecommendationsByAlteration(otherVariant, AlterationMatch.VARIANT)));
+    }
+
+    private static Set<String> ids(Collection<TherapyRecommendation> therapyRecommendations) {
+        return therapyRecommendations.stream().map(TherapyRecommendation::getId).collect(Collectors.toSet());
+    }
+
+}
@@ -0,0 +1,70 @@
+package fhirspark;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import fhirspark.resolver.HgncGeneName;
+import fhirspark.resolver.model.Genenames;
+import fhirspark.restmodel.GeneticAlteration;
+import fhirspark.settings.ConfigurationLoader;
+import fhirspark.settings.Settings;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.util.List;
+import java.util.Locale;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Checks the gene autocomplete and resolution behind {@code GET /genes} and
+ * {@code POST /genes/resolve}.
+ */
+public class GenesTest {
+
+    @BeforeAll
+    public static void prepare() throws IOException {
+        Settings settings = new ConfigurationLoader()
+                .loadConfiguration(new FileInputStream("src/main/resources/settings.yaml"), Settings.class);
+        HgncGeneName.initialize(settings.getHgncPath());
+    }
+
+    @Test
+    public void prefixesAreMatchedIgnoringCase() {
+        List<Genenames> found = HgncGeneName.findByPrefix("kra", 5);
+        assertTrue(found.size() <= 5);
+        assertTrue(found.stream().anyMatch(g -> "KRAS".equals(g.getApprovedSymbol())), found.toString());
+        assertTrue(found.stream().allMatch(g -> g.getApprovedSymbol().toUpperCase(Locale.ROOT).startsWith("KRA")));
+        assertEquals(List.of(), HgncGeneName.findByPrefix("", 5));
+        assertEquals(1, HgncGeneName.findByPrefix("A", 1).size());
+    }
+
+    @Test
+    public void limitsAreValidatedAndClamped() {
+        assertEquals(20, FhirSpark.geneLimit(null));
+        assertEquals(5, FhirSpark.geneLimit("5"));
+        assertEquals(100, FhirSpark.geneLimit("100000"));
+        assertThrows(IllegalArgumentException.class, () -> FhirSpark.geneLimit("abc"));
+        assertThrows(IllegalArgumentException.class, () -> FhirSpark.geneLimit("0"));
+        assertEquals(100, FhirSpark.genesByPrefix("A", FhirSpark.geneLimit("100000")).size());
+    }
+
+    @Test
+    public void genesAreResolvedByIdOrSymbol() {
+        GeneticAlteration byId = new GeneticAlteration().withEntrezGeneId(3845);
+        GeneticAlteration bySymbol = new GeneticAlteration().withHugoSymbol("braf");
+        GeneticAlteration unknownId = new GeneticAlteration().withEntrezGeneId(-1).withHugoSymbol("KRAS");
+        GeneticAlteration unknown = new GeneticAlteration().withHugoSymbol("NOTAGENE");
+
+        FhirSpark.resolveGenes(List.of(byId, bySymbol, unknownId, unknown));
+
+        assertEquals("KRAS", byId.getHugoSymbol());
+        assertEquals(673, bySymbol.getEntrezGeneId());
+        assertEquals("BRAF", bySymbol.getHugoSymbol());
+        assertEquals(3845, unknownId.getEntrezGeneId());
+        assertEquals("NOTAGENE", unknown.getHugoSymbol());
+        assertNull(unknown.getEntrezGeneId());
+    }
+
+}
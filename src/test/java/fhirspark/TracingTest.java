@@ -0,0 +1,131 @@
+package fhirspark;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import com.sun.net.httpserver.HttpServer;
+import fhirspark.http.OutboundClient;
+import fhirspark.resolver.HgncGeneName;
+import fhirspark.resolver.OncoKbDrug;
+import fhirspark.settings.ConfigurationLoader;
+import fhirspark.settings.HttpTargetSettings;
+import fhirspark.settings.Settings;
+import fhirspark.settings.TracingSettings;
+import fhirspark.stub.StubFhirServer;
+import fhirspark.tracing.RecentSpans;
+import fhirspark.tracing.Tracing;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import io.opentelemetry.api.trace.Span;
+import io.opentelemetry.api.trace.SpanKind;
+import io.opentelemetry.context.Scope;
+import io.opentelemetry.sdk.trace.data.SpanData;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Collectors;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.TestInstance;
+import org.junit.jupiter.api.TestInstance.Lifecycle;
+
+/**
+ * Checks that a mapper call produces one trace with the adapter and FHIR client
+ * spans as children of the calling span, and that outbound calls only forward
+ * the trace context to targets that propagate it.
+ */
+@TestInstance(Lifecycle.PER_CLASS)
+public class TracingTest {
+
+    private StubFhirServer stub;
+    private JsonFhirMapper jfm;
+
+    @BeforeAll
+    public void prepare() throws IOException {
+        TracingSettings tracing = new TracingSettings();
+        tracing.setExporter("memory");
+        Tracing.install(tracing);
+        stub = new StubFhirServer(0);
+        Settings settings = new ConfigurationLoader()
+                .loadConfiguration(new FileInputStream("src/main/resources/settings.yaml"), Settings.class);
+        settings.setFhirDbBase(stub.getBase());
+        HgncGeneName.initialize(settings.getHgncPath());
+        OncoKbDrug.initalize(settings.getOncokbPath());
+        jfm = new JsonFhirMapper(settings);
+        stub.seed(jfm, "twoMtbThreeRecommendation.json");
+    }
+
+    @AfterAll
+    public void stop() {
+        stub.close();
+    }
+
+    @Test
+    public void mtbToJsonIsOneTrace() throws Exception {
+        RecentSpans recent = Tracing.getRecentSpans();
+        Span root = Tracing.tracer().spanBuilder("test").startSpan();
+        try (Scope scope = root.makeCurrent()) {
+            jfm.mtbToJson("Testpatient23");
+        } finally {
+            root.end();
+        }
+        String traceId = root.getSpanContext().getTraceId();
+        List<SpanData> spans = recent.getSpans().stream().filter(s -> s.getTraceId().equals(traceId))
+                .collect(Collectors.toList());
+        List<String> names = spans.stream().map(SpanData::getName).collect(Collectors.toList());
+
+        assertTrue(names.contains("MtbAdapter.toJson"), names.toString());
+        assertTrue(names.contains("TherapyRecommendationAdapter.toJson"), names.toString());
+        assertTrue(names.contains("FHIR GET DiagnosticReport"), names.toString());
+        SpanData mtb = spans.stream().filter(s -> s.getName().equals("MtbAdapter.toJson")).findFirst().get();
+        assertEquals(root.getSpanContext().getSpanId(), mtb.getParentSpanId());
+        assertTrue(spans.stream().filter(s -> s.getKind() == SpanKind.CLIENT)
+                .allMatch(s -> s.getAttributes().get(Tracing.HTTP_STATUS) == 200L));
+        // the searches name the patient in their query, which must not be exported
+        assertTrue(spans.stream().filter(s -> s.getKind() == SpanKind.CLIENT)
+                .allMatch(s -> s.getAttributes().get(Tracing.URL_PATH) != null
+                        && !s.getAttributes().toString().contains("Testpatient23")), spans.toString());
+    }
+
+    @Test
+    public void traceContextOnlyGoesToPropagatingTargets() throws Exception {
+        Map<String, String> received = new ConcurrentHashMap<>();
+        HttpServer server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        server.createContext("/", exchange -> {
+            String traceparent = exchange.getRequestHeaders().getFirst("traceparent");
+            received.put(exchange.getRequestURI().getPath(), traceparent == null ? "" : traceparent);
+            exchange.sendResponseHeaders(200, -1);
+            exchange.close();
+        });
+        server.start();
+        try {
+            String base = "http://localhost:" + server.getAddress().getPort();
+            HttpTargetSettings internal = new HttpTargetSettings();
+            HttpTargetSettings external = new HttpTargetSettings();
+            external.setPropagateTraceContext(false);
+            SimpleMeterRegistry registry = new SimpleMeterRegistry();
+
+            Span root = Tracing.tracer().spanBuilder("test").startSpan();
+            try (Scope scope = root.makeCurrent()) {
+                new OutboundClient("portal", internal, registry).get(base + "/portal", Map.of());
+                new OutboundClient("pubmed", external, registry).get(base + "/pubmed", Map.of());
+            } finally {
+                root.end();
+            }
+
+            String traceId = root.getSpanContext().getTraceId();
+            assertTrue(received.get("/portal").contains(traceId), received.toString());
+            assertEquals("", received.get("/pubmed"));
+            List<String> names = Tracing.getRecentSpans().getSpans().stream()
+                    .filter(s -> s.getTraceId().equals(traceId)).map(SpanData::getName).collect(Collectors.toList());
+            assertTrue(names.contains("HTTP GET portal"), names.toString());
+            assertTrue(names.contains("HTTP GET pubmed"), names.toString());
+        } finally {
+            server.stop(0);
+        }
+    }
+
+}
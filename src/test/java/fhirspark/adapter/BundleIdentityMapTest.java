@@ -0,0 +1,86 @@
+package fhirspark.adapter;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import ca.uhn.fhir.context.FhirContext;
+import ca.uhn.fhir.rest.client.api.ServerValidationModeEnum;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import fhirspark.resolver.HgncGeneName;
+import fhirspark.resolver.OncoKbDrug;
+import fhirspark.restmodel.CbioportalRest;
+import fhirspark.restmodel.Mtb;
+import fhirspark.settings.ConfigurationLoader;
+import fhirspark.settings.Settings;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.util.List;
+import java.util.stream.Collectors;
+import org.hl7.fhir.r4.model.Bundle;
+import org.hl7.fhir.r4.model.Bundle.BundleEntryComponent;
+import org.hl7.fhir.r4.model.DiagnosticReport;
+import org.hl7.fhir.r4.model.IdType;
+import org.hl7.fhir.r4.model.Observation;
+import org.hl7.fhir.r4.model.Patient;
+import org.hl7.fhir.r4.model.Reference;
+import org.hl7.fhir.r4.model.Resource;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Checks that a transaction bundle contains every patient, practitioner and
+ * specimen once and that all references point at that entry.
+ */
+public class BundleIdentityMapTest {
+
+    @Test
+    public void sharedResourcesAppearOnce() throws IOException {
+        Settings settings = new ConfigurationLoader()
+                .loadConfiguration(new FileInputStream("src/main/resources/settings.yaml"), Settings.class);
+        HgncGeneName.initialize(settings.getHgncPath());
+        OncoKbDrug.initalize(settings.getOncokbPath());
+        FhirContext fhirContext = FhirContext.forR4Cached();
+        fhirContext.getRestfulClientFactory().setServerValidationMode(ServerValidationModeEnum.NEVER);
+        MappingContext ctx = MappingContext.fromSettings(settings,
+                fhirContext.newRestfulGenericClient("http://localhost:1/fhir"), null);
+        CbioportalRest rest = new ObjectMapper().readValue(
+                ClassLoader.getSystemResourceAsStream("twoMtbThreeRecommendation.json"), CbioportalRest.class);
+
+        Bundle bundle = new Bundle().setType(Bundle.BundleType.TRANSACTION);
+        Reference patient = BundleIdentityMap.conditionalUpdate(bundle, Patient.class, ctx.getPatientSystem(),
+                rest.getId(), () -> {
+                    Patient fhirPatient = new Patient();
+                    fhirPatient.setId(IdType.newRandomUuid());
+                    return fhirPatient;
+                });
+        BundleIdentityMap.conditionalUpdate(bundle, Patient.class, ctx.getPatientSystem(), rest.getId(),
+                Patient::new);
+        MappingScope scope = ctx.newScope();
+        for (Mtb mtb : rest.getMtbs()) {
+            MtbAdapter.fromJson(scope, bundle, patient, rest.getId(), mtb);
+        }
+
+        assertEquals(1, entries(bundle, "Patient").size());
+        List<BundleEntryComponent> practitioners = entries(bundle, "Practitioner");
+        assertEquals(1, practitioners.size());
+        assertEquals(2, entries(bundle, "Specimen").size());
+        for (BundleEntryComponent entry : entries(bundle, "DiagnosticReport")) {
+            DiagnosticReport diagnosticReport = (DiagnosticReport) entry.getResource();
+            assertEquals(practitioners.get(0).getFullUrl(), target(diagnosticReport.getPerformerFirstRep()));
+        }
+        for (BundleEntryComponent entry : entries(bundle, "Observation")) {
+            Observation observation = (Observation) entry.getResource();
+            if (observation.hasPerformer()) {
+                assertEquals(practitioners.get(0).getFullUrl(), target(observation.getPerformerFirstRep()));
+            }
+        }
+    }
+
+    private static List<BundleEntryComponent> entries(Bundle bundle, String type) {
+        return bundle.getEntry().stream().filter(e -> e.getResource().fhirType().equals(type))
+                .collect(Collectors.toList());
+    }
+
+    private static String target(Reference reference) {
+        return ((Resource) reference.getResource()).getIdElement().getValue();
+    }
+
+}
@@ -0,0 +1,58 @@
+package fhirspark.benchmark;
+
+import ca.uhn.fhir.context.FhirContext;
+import ca.uhn.fhir.rest.client.api.IGenericClient;
+import ca.uhn.fhir.rest.client.api.ServerValidationModeEnum;
+import fhirspark.adapter.MappingContext;
+import fhirspark.resolver.HgncGeneName;
+import fhirspark.resolver.OncoKbDrug;
+import fhirspark.settings.ConfigurationLoader;
+import fhirspark.settings.Settings;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import org.hl7.fhir.r4.model.IdType;
+import org.hl7.fhir.r4.model.Patient;
+import org.hl7.fhir.r4.model.Reference;
+
+/**
+ * Shared setup of the adapter benchmarks. Benchmarks run from the project
+ * directory, so the default settings and the offline gene and drug lists are
+ * used as they are shipped.
+ */
+final class BenchmarkFixtures {
+
+    private static final FhirContext FHIR_CONTEXT = FhirContext.forR4();
+
+    private BenchmarkFixtures() {
+    }
+
+    static Settings settings() {
+        try {
+            Settings settings = new ConfigurationLoader()
+                    .loadConfiguration(new FileInputStream("src/main/resources/settings.yaml"), Settings.class);
+            HgncGeneName.initialize(settings.getHgncPath());
+            OncoKbDrug.initalize(settings.getOncokbPath());
+            return settings;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * @param serverBase base URL of the FHIR server the adapters may query.
+     * @return mapping context that uses the default settings.
+     */
+    static MappingContext context(String serverBase) {
+        FHIR_CONTEXT.getRestfulClientFactory().setServerValidationMode(ServerValidationModeEnum.NEVER);
+        IGenericClient client = FHIR_CONTEXT.newRestfulGenericClient(serverBase);
+        return MappingContext.fromSettings(settings(), client, null);
+    }
+
+    static Reference patient() {
+        Patient patient = new Patient();
+        patient.setId(IdType.newRandomUuid());
+        return new Reference(patient);
+    }
+
+}
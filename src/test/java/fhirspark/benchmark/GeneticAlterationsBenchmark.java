@@ -0,0 +1,69 @@
+package fhirspark.benchmark;
+
+import fhirspark.adapter.GeneticAlterationsAdapter;
+import fhirspark.restmodel.GeneticAlteration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.hl7.fhir.r4.model.Observation;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Throughput of mapping genetic alterations to genomics-reporting variants and
+ * back. {@code toJson} includes the HGNC lookup of the gene symbol.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class GeneticAlterationsBenchmark {
+
+    @Param({"1", "20", "200"})
+    public int alterations;
+
+    private List<GeneticAlteration> json;
+    private List<Observation> fhir;
+
+    @Setup
+    public void setUp() {
+        BenchmarkFixtures.settings();
+        json = new ArrayList<>();
+        fhir = new ArrayList<>();
+        for (int i = 0; i < alterations; i++) {
+            GeneticAlteration alteration = SyntheticMtbs.geneticAlteration(i);
+            json.add(alteration);
+            fhir.add(GeneticAlterationsAdapter.fromJson(alteration));
+        }
+    }
+
+    @Benchmark
+    public List<Observation> fromJson() {
+        List<Observation> result = new ArrayList<>(json.size());
+        for (GeneticAlteration alteration : json) {
+            result.add(GeneticAlterationsAdapter.fromJson(alteration));
+        }
+        return result;
+    }
+
+    @Benchmark
+    public List<GeneticAlteration> toJson() {
+        List<GeneticAlteration> result = new ArrayList<>(fhir.size());
+        for (Observation variant : fhir) {
+            result.add(GeneticAlterationsAdapter.toJson(variant));
+        }
+        return result;
+    }
+
+}
@@ -0,0 +1,120 @@
+package fhirspark.benchmark;
+
+import fhirspark.JsonFhirMapper;
+import fhirspark.adapter.FollowUpAdapter;
+import fhirspark.adapter.MappingContext;
+import fhirspark.adapter.MappingScope;
+import fhirspark.adapter.MtbAdapter;
+import fhirspark.adapter.TherapyRecommendationAdapter;
+import fhirspark.restmodel.FollowUp;
+import fhirspark.restmodel.Mtb;
+import fhirspark.restmodel.TherapyRecommendation;
+import fhirspark.settings.Settings;
+import fhirspark.stub.StubFhirServer;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.hl7.fhir.r4.model.Bundle;
+import org.hl7.fhir.r4.model.DiagnosticReport;
+import org.hl7.fhir.r4.model.Observation;
+import org.hl7.fhir.r4.model.Reference;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Throughput of mapping cBioPortal MTBs and follow-ups into transaction bundles.
+ * Run with the gc profiler to see the allocation rate per operation:
+ * {@code mvn -Pbenchmark test -Djmh.args="MtbMappingBenchmark -prof gc"}.
+ *
+ * <p>The MTB is stored in a {@link StubFhirServer}, so the follow-ups can look up
+ * their therapy recommendations. The lookups happen once per iteration and are
+ * memoized afterwards, so the numbers reflect the mapping itself and not the
+ * network.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class MtbMappingBenchmark {
+
+    @Param({"1", "10", "50"})
+    public int recommendations;
+
+    private StubFhirServer server;
+    private MappingContext context;
+    private MappingScope followUpScope;
+    private Reference patient;
+    private Mtb mtb;
+    private List<FollowUp> followUps;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        server = new StubFhirServer(0);
+        context = BenchmarkFixtures.context(server.getBase());
+        patient = BenchmarkFixtures.patient();
+        mtb = SyntheticMtbs.mtb(recommendations);
+        Settings settings = BenchmarkFixtures.settings();
+        settings.setFhirDbBase(server.getBase());
+        new JsonFhirMapper(settings).mtbFromJson(SyntheticMtbs.PATIENT_ID, List.of(mtb));
+        followUps = new ArrayList<>();
+        for (TherapyRecommendation tr : mtb.getTherapyRecommendations()) {
+            followUps.add(SyntheticMtbs.followUp(tr));
+        }
+    }
+
+    @Setup(Level.Iteration)
+    public void warmFollowUpScope() {
+        followUpScope = context.newScope();
+        followUps();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        server.close();
+    }
+
+    @Benchmark
+    public Bundle mtbFromJson() {
+        Bundle bundle = new Bundle();
+        MtbAdapter.fromJson(context.newScope(), bundle, patient, SyntheticMtbs.PATIENT_ID, mtb);
+        return bundle;
+    }
+
+    @Benchmark
+    public Bundle therapyRecommendationsFromJson() {
+        Bundle bundle = new Bundle();
+        MappingScope scope = context.newScope();
+        DiagnosticReport diagnosticReport = new DiagnosticReport();
+        HashMap<String, Observation> unique = new HashMap<>();
+        for (TherapyRecommendation tr : mtb.getTherapyRecommendations()) {
+            bundle.addEntry().setResource(TherapyRecommendationAdapter.fromJson(scope, bundle, diagnosticReport,
+                    patient, tr, unique));
+        }
+        return bundle;
+    }
+
+    @Benchmark
+    public Bundle followUps() {
+        Bundle bundle = new Bundle();
+        for (FollowUp followUp : followUps) {
+            FollowUpAdapter.fromJson(followUpScope, bundle, patient, SyntheticMtbs.PATIENT_ID, followUp);
+        }
+        return bundle;
+    }
+
+}
@@ -0,0 +1,111 @@
+package fhirspark.benchmark;
+
+import ca.uhn.fhir.context.FhirContext;
+import ca.uhn.fhir.rest.client.api.IGenericClient;
+import fhirspark.JsonFhirMapper;
+import fhirspark.adapter.MappingContext;
+import fhirspark.adapter.MappingScope;
+import fhirspark.adapter.MtbAdapter;
+import fhirspark.adapter.TherapyRecommendationAdapter;
+import fhirspark.restmodel.Mtb;
+import fhirspark.settings.Settings;
+import fhirspark.stub.StubFhirServer;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.hl7.fhir.r4.model.Bundle;
+import org.hl7.fhir.r4.model.Bundle.BundleEntryComponent;
+import org.hl7.fhir.r4.model.DiagnosticReport;
+import org.hl7.fhir.r4.model.IdType;
+import org.hl7.fhir.r4.model.Observation;
+import org.hl7.fhir.r4.model.Reference;
+import org.hl7.fhir.r4.model.Resource;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Throughput of mapping a stored MTB back to cBioPortal JSON. The report and
+ * everything it includes is fetched once from a {@link StubFhirServer}; every
+ * operation maps it with a fresh scope that knows the included resources, as
+ * the bulk export does. With 50 therapy recommendations the report has more
+ * than 50 results, since the variants are results as well.
+ * {@code mvn -Pbenchmark test -Djmh.args="MtbReadBenchmark -prof gc"}.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class MtbReadBenchmark {
+
+    @Param({"50", "200"})
+    public int recommendations;
+
+    private StubFhirServer server;
+    private MappingContext context;
+    private DiagnosticReport diagnosticReport;
+    private List<Resource> included;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        server = new StubFhirServer(0);
+        context = BenchmarkFixtures.context(server.getBase());
+        Settings settings = BenchmarkFixtures.settings();
+        settings.setFhirDbBase(server.getBase());
+        new JsonFhirMapper(settings).mtbFromJson(SyntheticMtbs.PATIENT_ID,
+                List.of(SyntheticMtbs.mtb(recommendations)));
+
+        IGenericClient client = FhirContext.forR4Cached().newRestfulGenericClient(server.getBase());
+        Bundle bundle = client.search().forResource(DiagnosticReport.class)
+                .include(DiagnosticReport.INCLUDE_BASED_ON)
+                .include(DiagnosticReport.INCLUDE_PERFORMER)
+                .include(DiagnosticReport.INCLUDE_RESULT.asRecursive())
+                .include(DiagnosticReport.INCLUDE_SPECIMEN.asRecursive())
+                .include(Observation.INCLUDE_PERFORMER.asRecursive())
+                .include(Observation.INCLUDE_FOCUS.asRecursive())
+                .returnBundle(Bundle.class).execute();
+        included = new ArrayList<>();
+        for (BundleEntryComponent entry : bundle.getEntry()) {
+            if (entry.getResource() instanceof DiagnosticReport report) {
+                diagnosticReport = report;
+            } else {
+                included.add(entry.getResource());
+            }
+        }
+        if (diagnosticReport.getResult().size() <= recommendations) {
+            throw new IllegalStateException("Expected more results than recommendations");
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        server.close();
+    }
+
+    @Benchmark
+    public Mtb mtbToJson() {
+        MappingScope scope = context.newScope();
+        for (Resource resource : included) {
+            scope.remember(resource);
+        }
+        for (Reference result : diagnosticReport.getResult()) {
+            TherapyRecommendationAdapter.rememberCaseId(scope, new IdType(result.getReference()).getIdPart(),
+                    SyntheticMtbs.PATIENT_ID);
+        }
+        return MtbAdapter.toJson(scope, SyntheticMtbs.PATIENT_ID, diagnosticReport);
+    }
+
+}
@@ -0,0 +1,78 @@
+package fhirspark.benchmark;
+
+import fhirspark.adapter.RegexAdapter;
+import fhirspark.settings.Regex;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Throughput of translating sample ids between cBioPortal and the hospital
+ * information system, as done for every specimen of an MTB.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class RegexAdapterBenchmark {
+
+    @Param({"1", "20", "200"})
+    public int samples;
+
+    private List<Regex> regex;
+    private List<String> cbioportalIds;
+    private List<String> hisIds;
+
+    @Setup
+    public void setUp() {
+        regex = new ArrayList<>();
+        regex.add(rule("^(\\w+)_T(\\d+)$", "$1-TUMOR-$2"));
+        regex.add(rule("^(\\w+)_N(\\d+)$", "$1-NORMAL-$2"));
+        cbioportalIds = new ArrayList<>();
+        hisIds = new ArrayList<>();
+        for (int i = 0; i < samples; i++) {
+            String cbio = SyntheticMtbs.PATIENT_ID + "_" + (i % 2 == 0 ? "T" : "N") + i;
+            cbioportalIds.add(cbio);
+            hisIds.add(RegexAdapter.applyRegexFromCbioportal(regex, cbio));
+        }
+    }
+
+    private static Regex rule(String cbio, String his) {
+        Regex r = new Regex();
+        r.setCbio(cbio);
+        r.setHis(his);
+        return r;
+    }
+
+    @Benchmark
+    public List<String> fromCbioportal() {
+        List<String> result = new ArrayList<>(cbioportalIds.size());
+        for (String id : cbioportalIds) {
+            result.add(RegexAdapter.applyRegexFromCbioportal(regex, id));
+        }
+        return result;
+    }
+
+    @Benchmark
+    public List<String> toCbioportal() {
+        List<String> result = new ArrayList<>(hisIds.size());
+        for (String id : hisIds) {
+            result.add(RegexAdapter.applyRegexToCbioportal(regex, id));
+        }
+        return result;
+    }
+
+}
@@ -0,0 +1,83 @@
+package fhirspark.benchmark;
+
+import fhirspark.restmodel.ClinicalDatum;
+import fhirspark.restmodel.FollowUp;
+import fhirspark.restmodel.GeneticAlteration;
+import fhirspark.restmodel.Mtb;
+import fhirspark.restmodel.Reasoning;
+import fhirspark.restmodel.Reference;
+import fhirspark.restmodel.ResponseCriteria;
+import fhirspark.restmodel.TherapyRecommendation;
+import fhirspark.restmodel.Treatment;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Builds MTBs of a given size that look like the ones cBioPortal sends. The
+ * data is deterministic, so results of different runs are comparable.
+ */
+final class SyntheticMtbs {
+
+    static final String PATIENT_ID = "BenchmarkPatient";
+
+    private static final long MTB_TIMESTAMP = 1590601799440L;
+    private static final int[] ENTREZ = {673, 3845, 7157, 2475, 1956, 4893, 5290, 2064};
+    private static final String[] SYMBOLS = {"BRAF", "KRAS", "TP53", "MTOR", "EGFR", "NRAS", "PIK3CA", "ERBB2"};
+    private static final String[] ALTERATIONS = {"V600E", "G12C", "R248Q", "Amplification", "Deletion"};
+    private static final String[] DRUGS = {"Afatinib", "Avapritinib", "Asciminib", "Binimetinib"};
+    private static final String[] NCIT = {"C66940", "C123827", "C114494", "C84865"};
+    private static final int FIRST_PMID = 30000000;
+    private static final int ALTERATIONS_PER_RECOMMENDATION = 2;
+
+    private SyntheticMtbs() {
+    }
+
+    static Mtb mtb(int recommendations) {
+        List<TherapyRecommendation> trs = new ArrayList<>();
+        for (int i = 0; i < recommendations; i++) {
+            trs.add(therapyRecommendation(i));
+        }
+        return new Mtb().withId("mtb_" + PATIENT_ID + "_" + MTB_TIMESTAMP).withAuthor("anonymousUser1")
+                .withDate("2020-05-27").withGeneralRecommendation("synthetic").withMtbState("FINAL")
+                .withOrderId("order-" + recommendations).withRebiopsyRecommendation(true)
+                .withGeneticCounselingRecommendation(true)
+                .withSamples(List.of(PATIENT_ID + "_01", PATIENT_ID + "_02"))
+                .withTherapyRecommendations(trs);
+    }
+
+    static TherapyRecommendation therapyRecommendation(int i) {
+        List<GeneticAlteration> alterations = new ArrayList<>();
+        for (int j = 0; j < ALTERATIONS_PER_RECOMMENDATION; j++) {
+            alterations.add(geneticAlteration(i + j));
+        }
+        ClinicalDatum clinical = new ClinicalDatum().withAttributeId("CANCER_TYPE")
+                .withAttributeName("Cancer Type").withSampleId(PATIENT_ID + "_01").withValue("Melanoma");
+        return new TherapyRecommendation().withId(PATIENT_ID + "_" + (MTB_TIMESTAMP + i))
+                .withAuthor("anonymousUser" + (i % DRUGS.length)).withEvidenceLevel("m1a")
+                .withComment(List.of("comment " + i, "second comment")).withClinicalTrial(List.of())
+                .withStudyId(i % 2 == 0 ? "study-" + (i % DRUGS.length) : null)
+                .withReasoning(new Reasoning().withGeneticAlterations(alterations)
+                        .withClinicalData(List.of(clinical)))
+                .withReferences(List.of(new Reference().withPmid(FIRST_PMID + i).withName("Publication " + i)))
+                .withTreatments(List.of(new Treatment().withName(DRUGS[i % DRUGS.length])
+                        .withNcitCode(NCIT[i % NCIT.length])));
+    }
+
+    static GeneticAlteration geneticAlteration(int i) {
+        return new GeneticAlteration().withEntrezGeneId(ENTREZ[i % ENTREZ.length])
+                .withHugoSymbol(SYMBOLS[i % SYMBOLS.length]).withAlteration(ALTERATIONS[i % ALTERATIONS.length])
+                .withChromosome(String.valueOf(i % 22 + 1)).withClinvar(i).withCosmic("COSM" + i)
+                .withDbsnp("rs" + i).withAlleleFrequency(0.5).withGnomad(0.01);
+    }
+
+    static FollowUp followUp(TherapyRecommendation therapyRecommendation) {
+        ResponseCriteria response = new ResponseCriteria().withPd3(false).withSd3(true).withPr3(false)
+                .withCr3(false).withPd6(false).withSd6(true).withPr6(false).withCr6(false).withPd12(true)
+                .withSd12(false).withPr12(false).withCr12(false);
+        return new FollowUp().withId("followUp_" + PATIENT_ID + "_" + MTB_TIMESTAMP)
+                .withTherapyRecommendation(therapyRecommendation).withDate("2020-06-01")
+                .withAuthor("anonymousUser1").withComment("synthetic").withTherapyRecommendationRealized(true)
+                .withSideEffect(true).withResponse(response);
+    }
+
+}
@@ -0,0 +1,35 @@
+package fhirspark.fhir;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import org.apache.http.HttpResponse;
+import org.apache.http.HttpVersion;
+import org.apache.http.message.BasicHttpResponse;
+import org.apache.http.protocol.BasicHttpContext;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Checks that pooled connections are not kept longer than the FHIR server or
+ * the settings allow.
+ */
+public class FhirClientFactoryTest {
+
+    private static final long CONFIGURED = 30000;
+
+    private static HttpResponse response(String keepAlive) {
+        HttpResponse response = new BasicHttpResponse(HttpVersion.HTTP_1_1, 200, "OK");
+        if (keepAlive != null) {
+            response.addHeader("Keep-Alive", keepAlive);
+        }
+        return response;
+    }
+
+    @Test
+    public void theShorterKeepAliveWins() {
+        assertEquals(CONFIGURED, FhirClientFactory.keepAlive(response(null), new BasicHttpContext(), CONFIGURED));
+        assertEquals(5000, FhirClientFactory.keepAlive(response("timeout=5"), new BasicHttpContext(), CONFIGURED));
+        assertEquals(CONFIGURED,
+                FhirClientFactory.keepAlive(response("timeout=60, max=100"), new BasicHttpContext(), CONFIGURED));
+    }
+
+}
@@ -0,0 +1,78 @@
+package fhirspark.fhir;
+
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import fhirspark.JsonFhirMapper;
+import fhirspark.resolver.HgncGeneName;
+import fhirspark.resolver.OncoKbDrug;
+import fhirspark.settings.ConfigurationLoader;
+import fhirspark.settings.Settings;
+import fhirspark.stub.StubFhirServer;
+import io.micrometer.core.instrument.Metrics;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import java.io.FileInputStream;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Checks that the bodies the FHIR client sends and receives go through the
+ * codec and move its meters.
+ */
+public class FhirCodecTest {
+
+    private static final String PATIENT = "Testpatient23";
+
+    private final SimpleMeterRegistry registry = new SimpleMeterRegistry();
+    private StubFhirServer stub;
+    private JsonFhirMapper jfm;
+
+    @BeforeEach
+    public void prepare() throws Exception {
+        Metrics.addRegistry(registry);
+        stub = new StubFhirServer(0);
+        Settings settings = new ConfigurationLoader()
+                .loadConfiguration(new FileInputStream("src/main/resources/settings.yaml"), Settings.class);
+        settings.setFhirDbBase(stub.getBase());
+        HgncGeneName.initialize(settings.getHgncPath());
+        OncoKbDrug.initalize(settings.getOncokbPath());
+        jfm = new JsonFhirMapper(settings);
+    }
+
+    @AfterEach
+    public void stop() {
+        stub.close();
+        Metrics.removeRegistry(registry);
+    }
+
+    private double count(String name) {
+        return registry.get(name).timer().count();
+    }
+
+    private double bytes(String name) {
+        return registry.get(name).counter().count();
+    }
+
+    @Test
+    public void savesAreEncoded() throws Exception {
+        double encoded = bytes("fhirspark.fhir.codec.encoded");
+
+        stub.seed(jfm, "twoMtbThreeRecommendation.json");
+
+        assertTrue(count("fhirspark.fhir.codec.encode") > 0);
+        assertTrue(bytes("fhirspark.fhir.codec.encoded") > encoded);
+    }
+
+    @Test
+    public void readsOfAnMtbAreDecoded() throws Exception {
+        stub.seed(jfm, "twoMtbThreeRecommendation.json");
+        double decodes = count("fhirspark.fhir.codec.decode");
+        double decoded = bytes("fhirspark.fhir.codec.decoded");
+
+        jfm.mtbToJson(PATIENT);
+
+        assertTrue(count("fhirspark.fhir.codec.decode") > decodes);
+        assertTrue(bytes("fhirspark.fhir.codec.decoded") > decoded);
+    }
+
+}
@@ -0,0 +1,131 @@
+package fhirspark.fhir;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Checks that saves of a patient run one after the other, that waiting saves
+ * are replaced by later ones and that other patients are not held up.
+ */
+public class SaveCoordinatorTest {
+
+    private static final long TIMEOUT = 10;
+
+    private final SimpleMeterRegistry registry = new SimpleMeterRegistry();
+    private final SaveCoordinator coordinator = new SaveCoordinator(registry);
+    private final ExecutorService executor = Executors.newCachedThreadPool();
+    private final List<String> written = new CopyOnWriteArrayList<>();
+
+    @AfterEach
+    public void stop() {
+        executor.shutdownNow();
+    }
+
+    private Future<?> save(String patientId, String kind, String state, CountDownLatch started,
+            CountDownLatch release) {
+        return executor.submit(() -> {
+            coordinator.save(patientId, kind, () -> {
+                started.countDown();
+                release.await();
+                written.add(state);
+            });
+            return null;
+        });
+    }
+
+    private void awaitWaiting(String patientId, int count, double superseded) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(TIMEOUT);
+        while ((coordinator.waiting(patientId) < count
+                || registry.counter("fhirspark.saves.superseded").count() < superseded)
+                && System.nanoTime() < deadline) {
+            Thread.sleep(1);
+        }
+    }
+
+    @Test
+    public void onlyTheLatestWaitingSaveRuns() throws Exception {
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        Future<?> first = save("p1", "mtb", "first", started, release);
+        assertTrue(started.await(TIMEOUT, TimeUnit.SECONDS));
+        Future<?> second = save("p1", "mtb", "second", new CountDownLatch(1), release);
+        awaitWaiting("p1", 1, 0);
+        Future<?> third = save("p1", "mtb", "third", new CountDownLatch(1), release);
+        awaitWaiting("p1", 1, 1);
+
+        release.countDown();
+        for (Future<?> save : List.of(first, second, third)) {
+            save.get(TIMEOUT, TimeUnit.SECONDS);
+        }
+        assertEquals(List.of("first", "third"), written);
+    }
+
+    @Test
+    public void kindsOfAPatientAreKeptApart() throws Exception {
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        Future<?> mtb = save("p1", "mtb", "mtb", started, release);
+        assertTrue(started.await(TIMEOUT, TimeUnit.SECONDS));
+        Future<?> followUp = save("p1", "followup", "followup", new CountDownLatch(1), release);
+        awaitWaiting("p1", 1, 0);
+        assertEquals(List.of(), written);
+
+        release.countDown();
+        mtb.get(TIMEOUT, TimeUnit.SECONDS);
+        followUp.get(TIMEOUT, TimeUnit.SECONDS);
+        assertEquals(List.of("mtb", "followup"), written);
+    }
+
+    @Test
+    public void otherPatientsAreNotBlocked() throws Exception {
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        Future<?> blocked = save("p1", "mtb", "p1", started, release);
+        assertTrue(started.await(TIMEOUT, TimeUnit.SECONDS));
+
+        coordinator.save("p2", "mtb", () -> written.add("p2"));
+        assertEquals(List.of("p2"), written);
+
+        release.countDown();
+        blocked.get(TIMEOUT, TimeUnit.SECONDS);
+    }
+
+    @Test
+    public void replacedSavesReportTheFailureOfTheirReplacement() throws Exception {
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        Future<?> first = save("p1", "mtb", "first", started, release);
+        assertTrue(started.await(TIMEOUT, TimeUnit.SECONDS));
+        Future<?> replaced = save("p1", "mtb", "replaced", new CountDownLatch(1), release);
+        awaitWaiting("p1", 1, 0);
+        Future<?> failing = executor.submit(() -> {
+            coordinator.save("p1", "mtb", () -> {
+                throw new IOException("FHIR server down");
+            });
+            return null;
+        });
+        awaitWaiting("p1", 1, 1);
+
+        release.countDown();
+        first.get(TIMEOUT, TimeUnit.SECONDS);
+        ExecutionException e = assertThrows(ExecutionException.class, () -> replaced.get(TIMEOUT, TimeUnit.SECONDS));
+        assertTrue(e.getCause() instanceof IOException);
+        assertThrows(ExecutionException.class, () -> failing.get(TIMEOUT, TimeUnit.SECONDS));
+        assertEquals(List.of("first"), written);
+    }
+
+}
@@ -0,0 +1,282 @@
+package fhirspark.index;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import fhirspark.restmodel.FollowUp;
+import fhirspark.restmodel.GeneticAlteration;
+import fhirspark.restmodel.Mtb;
+import fhirspark.restmodel.Reasoning;
+import fhirspark.restmodel.Reference;
+import fhirspark.restmodel.TherapyRecommendation;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+/**
+ * Checks that writes and deletions keep the index in line with the FHIR server
+ * and that a rebuild does not undo writes that happen while it runs. The index
+ * that is kept on disk has to come back after a restart with the same content.
+ */
+public class AlterationIndexTest {
+
+    private static final int BRAF = 673;
+    private static final int KRAS = 3845;
+
+    private final AlterationIndex index = new AlterationIndex(new SimpleMeterRegistry());
+
+    @TempDir
+    Path directory;
+
+    private static TherapyRecommendation recommendation(String id, int gene, Integer pmid) {
+        TherapyRecommendation therapyRecommendation = new TherapyRecommendation().withId(id)
+                .withReasoning(new Reasoning().withGeneticAlterations(
+                        List.of(new GeneticAlteration().withEntrezGeneId(gene))));
+        therapyRecommendation.setReferences(pmid != null ? List.of(new Reference().withPmid(pmid)) : List.of());
+        return therapyRecommendation;
+    }
+
+    private static TherapyRecommendation recommendation(String id, GeneticAlteration alteration, Integer pmid) {
+        TherapyRecommendation therapyRecommendation = recommendation(id, alteration.getEntrezGeneId(), pmid);
+        therapyRecommendation.getReasoning().setGeneticAlterations(List.of(alteration));
+        return therapyRecommendation;
+    }
+
+    private static Mtb mtb(String id, TherapyRecommendation... therapyRecommendations) {
+        return new Mtb().withId(id).withTherapyRecommendations(new ArrayList<>(List.of(therapyRecommendations)));
+    }
+
+    private static List<GeneticAlteration> genes(int... genes) {
+        List<GeneticAlteration> alterations = new ArrayList<>();
+        for (int gene : genes) {
+            alterations.add(new GeneticAlteration().withEntrezGeneId(gene));
+        }
+        return alterations;
+    }
+
+    private List<String> recommendationIds(int... genes) {
+        return recommendationIds(index, genes);
+    }
+
+    private static List<String> recommendationIds(AlterationIndex index, int... genes) {
+        return index.recommendations(genes(genes)).stream().map(TherapyRecommendation::getId).toList();
+    }
+
+    private AlterationIndex persistent(long compactionThreshold) throws IOException {
+        return new AlterationIndex(new SimpleMeterRegistry(), directory, compactionThreshold);
+    }
+
+    @Test
+    public void writesReplaceTheRecommendationsOfAnMtb() {
+        index.putMtbs(List.of(mtb("mtb_p1_1", recommendation("p1_1", BRAF, null), recommendation("p1_2", KRAS, null))));
+        assertEquals(List.of("p1_1"), recommendationIds(BRAF));
+
+        index.putMtbs(List.of(mtb("mtb_p1_1", recommendation("p1_2", BRAF, null))));
+
+        assertEquals(List.of("p1_2"), recommendationIds(BRAF));
+        assertEquals(List.of(), recommendationIds(KRAS));
+    }
+
+    @Test
+    public void deletionsRemoveRecommendations() {
+        index.putMtbs(List.of(mtb("mtb_p1_1", recommendation("p1_1", BRAF, null)),
+                mtb("mtb_p1_2", recommendation("p1_2", BRAF, null), recommendation("p1_3", BRAF, null))));
+
+        index.removeMtb("mtb_p1_1");
+        index.removeRecommendation("p1_2");
+
+        assertEquals(List.of("p1_3"), recommendationIds(BRAF, KRAS));
+    }
+
+    @Test
+    public void referencesAndFollowUpsAreFoundByGene() {
+        index.putMtbs(List.of(mtb("mtb_p1_1", recommendation("p1_1", BRAF, 1), recommendation("p1_2", KRAS, 2)),
+                mtb("mtb_p2_1", recommendation("p2_1", BRAF, 1))));
+        index.putFollowUps(List.of(new FollowUp().withId("followUp_p1_1")
+                .withTherapyRecommendation(recommendation("p1_1", BRAF, 1))));
+
+        Collection<Reference> references = index.references(genes(BRAF));
+        assertEquals(1, references.size());
+        assertEquals(1, references.iterator().next().getPmid());
+        assertEquals(List.of("followUp_p1_1"), index.followUps(genes(BRAF)).stream().map(FollowUp::getId).toList());
+        assertEquals(List.of(), index.followUps(genes(KRAS)));
+
+        index.removeFollowUp("followUp_p1_1");
+        assertEquals(List.of(), index.followUps(genes(BRAF)));
+    }
+
+    @Test
+    public void everyIndexIsReported() {
+        SimpleMeterRegistry registry = new SimpleMeterRegistry();
+        AlterationIndex first = new AlterationIndex(registry);
+        AlterationIndex second = new AlterationIndex(registry);
+        first.putMtbs(List.of(mtb("mtb_p1_1", recommendation("p1_1", BRAF, null))));
+        second.putMtbs(List.of(mtb("mtb_p2_1", recommendation("p2_1", BRAF, null),
+                recommendation("p2_2", KRAS, null))));
+
+        assertEquals(List.of(1.0, 2.0), registry.find("fhirspark.alterationindex.recommendations").gauges().stream()
+                .map(Gauge::value).sorted().toList());
+    }
+
+    @Test
+    public void writesDuringARebuildWin() throws Exception {
+        index.putMtbs(List.of(mtb("mtb_p0_1", recommendation("p0_1", BRAF, null))));
+        assertFalse(index.isReady());
+
+        index.rebuild((mtbs, followUps) -> {
+            // saved and deleted after the FHIR server was read
+            index.putMtbs(List.of(mtb("mtb_p1_1", recommendation("p1_1", KRAS, null))));
+            index.removeMtb("mtb_p2_1");
+            mtbs.accept(mtb("mtb_p1_1", recommendation("p1_1", BRAF, null)));
+            mtbs.accept(mtb("mtb_p2_1", recommendation("p2_1", BRAF, null)));
+            mtbs.accept(mtb("mtb_p3_1", recommendation("p3_1", BRAF, null)));
+        });
+
+        assertTrue(index.isReady());
+        assertEquals(List.of("p3_1"), recommendationIds(BRAF));
+        assertEquals(List.of("p1_1"), recommendationIds(KRAS));
+    }
+
+    @Test
+    public void aRestartLoadsTheIndexFromDisk() throws Exception {
+        try (AlterationIndex first = persistent(Long.MAX_VALUE)) {
+            assertFalse(first.load());
+            first.rebuild((mtbs, followUps) -> {
+                mtbs.accept(mtb("mtb_p1_1", recommendation("p1_1", BRAF, 1)));
+                mtbs.accept(mtb("mtb_p2_1", recommendation("p2_1", BRAF, null)));
+            });
+            // after the segment of the rebuild, only in the log
+            first.putMtbs(List.of(mtb("mtb_p3_1", recommendation("p3_1", KRAS, null))));
+            first.removeMtb("mtb_p2_1");
+            first.putFollowUps(List.of(new FollowUp().withId("followUp_p1_1")
+                    .withTherapyRecommendation(recommendation("p1_1", BRAF, 1))));
+        }
+
+        try (AlterationIndex second = persistent(Long.MAX_VALUE)) {
+            assertTrue(second.load());
+            assertTrue(second.isReady());
+            assertEquals(List.of("p1_1"), recommendationIds(second, BRAF));
+            assertEquals(List.of("p3_1"), recommendationIds(second, KRAS));
+            assertEquals(1, second.references(genes(BRAF)).iterator().next().getPmid());
+            assertEquals(List.of("followUp_p1_1"),
+                    second.followUps(genes(BRAF)).stream().map(FollowUp::getId).toList());
+        }
+    }
+
+    @Test
+    public void anIncompleteRecordAtTheEndOfTheLogIsCutOff() throws Exception {
+        try (AlterationIndex first = persistent(Long.MAX_VALUE)) {
+            first.load();
+            first.rebuild((mtbs, followUps) -> mtbs.accept(mtb("mtb_p1_1", recommendation("p1_1", BRAF, null))));
+            first.putMtbs(List.of(mtb("mtb_p2_1", recommendation("p2_1", BRAF, null))));
+        }
+        // the process died while it wrote the header of the next record
+        Files.write(directory.resolve("log"), new byte[] {0, 0, 1}, StandardOpenOption.APPEND);
+
+        try (AlterationIndex second = persistent(Long.MAX_VALUE)) {
+            assertTrue(second.load());
+            assertEquals(List.of("p1_1", "p2_1"), recommendationIds(second, BRAF).stream().sorted().toList());
+            second.putMtbs(List.of(mtb("mtb_p3_1", recommendation("p3_1", KRAS, null))));
+        }
+        try (AlterationIndex third = persistent(Long.MAX_VALUE)) {
+            assertTrue(third.load());
+            assertEquals(List.of("p3_1"), recommendationIds(third, KRAS));
+        }
+    }
+
+    @Test
+    public void compactionKeepsTheIndex() throws Exception {
+        try (AlterationIndex first = persistent(1)) {
+            first.load();
+            first.rebuild((mtbs, followUps) -> { });
+            for (int i = 0; i < 20; i++) {
+                first.putMtbs(List.of(mtb("mtb_p" + i + "_1", recommendation("p" + i + "_1", BRAF, null))));
+                first.removeRecommendation("p" + (i - 1) + "_1");
+            }
+        }
+        // close waits for the last compaction
+        assertTrue(Files.size(directory.resolve("log")) < 1024);
+
+        try (AlterationIndex second = persistent(1)) {
+            assertTrue(second.load());
+            assertEquals(List.of("p19_1"), recommendationIds(second, BRAF));
+        }
+    }
+
+    @Test
+    public void aDamagedSegmentIsBuiltAgain() throws Exception {
+        try (AlterationIndex first = persistent(Long.MAX_VALUE)) {
+            first.load();
+            first.rebuild((mtbs, followUps) -> mtbs.accept(mtb("mtb_p1_1", recommendation("p1_1", BRAF, null))));
+        }
+        Files.write(directory.resolve("segment"), new byte[] {0, 0, 0, 1, 0, 0, 0, 0, 42});
+
+        try (AlterationIndex second = persistent(Long.MAX_VALUE)) {
+            assertFalse(second.load());
+            assertFalse(second.isReady());
+            assertFalse(Files.exists(directory.resolve("segment")));
+        }
+    }
+
+    @Test
+    public void variantsMatchExactlyAndComeFirst() {
+        GeneticAlteration g12c = new GeneticAlteration().withEntrezGeneId(KRAS).withAlteration("G12C")
+                .withStart(25398285).withEnd(25398285).withRef("C").withAlt("A");
+        index.putMtbs(List.of(mtb("mtb_p1_1", recommendation("p1_1", KRAS, 1),
+                recommendation("p1_2", new GeneticAlteration().withEntrezGeneId(KRAS).withAlteration("G12D"), 2),
+                recommendation("p1_3", g12c, 3), recommendation("p1_4", BRAF, 4))));
+        index.putFollowUps(List.of(new FollowUp().withId("followUp_p1_1")
+                .withTherapyRecommendation(recommendation("p1_1", KRAS, 1)), new FollowUp().withId("followUp_p1_3")
+                .withTherapyRecommendation(recommendation("p1_3", g12c, 3))));
+
+        List<GeneticAlteration> byProteinChange = List.of(
+                new GeneticAlteration().withEntrezGeneId(KRAS).withAminoAcidChange("p.g12c"),
+                new GeneticAlteration().withEntrezGeneId(BRAF));
+        // p1_1 names only KRAS and still applies to G12C, p1_2 names another variant
+        assertEquals(List.of("p1_3", "p1_1", "p1_4"), index.recommendations(byProteinChange,
+                AlterationMatch.VARIANT).stream().map(TherapyRecommendation::getId).toList());
+        assertEquals(List.of(3, 1, 4), index.references(byProteinChange, AlterationMatch.VARIANT).stream()
+                .map(Reference::getPmid).toList());
+        assertEquals(List.of("followUp_p1_3", "followUp_p1_1"), index.followUps(byProteinChange,
+                AlterationMatch.VARIANT).stream().map(FollowUp::getId).toList());
+
+        List<GeneticAlteration> byCoordinates = List.of(new GeneticAlteration().withEntrezGeneId(KRAS)
+                .withStart(25398285).withEnd(25398285).withRef("c").withAlt("a"));
+        assertEquals(List.of("p1_3", "p1_1"), index.recommendations(byCoordinates, AlterationMatch.VARIANT).stream()
+                .map(TherapyRecommendation::getId).toList());
+        assertEquals(List.of("p1_1", "p1_2", "p1_3"), index.recommendations(genes(KRAS), AlterationMatch.VARIANT)
+                .stream().map(TherapyRecommendation::getId).sorted().toList());
+
+        index.removeRecommendation("p1_3");
+        index.removeRecommendation("p1_1");
+        assertEquals(List.of("p1_4"), index.recommendations(byProteinChange, AlterationMatch.VARIANT).stream()
+                .map(TherapyRecommendation::getId).toList());
+    }
+
+    @Test
+    public void theSearchAndTheIndexSelectTheSameVariants() {
+        List<TherapyRecommendation> found = List.of(recommendation("p1_1", KRAS, null),
+                recommendation("p1_2", new GeneticAlteration().withEntrezGeneId(KRAS).withAlteration("G12D"), null),
+                recommendation("p1_3", new GeneticAlteration().withEntrezGeneId(KRAS).withAlteration("G12C"), null),
+                recommendation("p1_4", BRAF, null));
+        index.putMtbs(List.of(mtb("mtb_p1_1", found.toArray(new TherapyRecommendation[0]))));
+        List<GeneticAlteration> alterations = List.of(
+                new GeneticAlteration().withEntrezGeneId(KRAS).withAlteration("G12C"),
+                new GeneticAlteration().withEntrezGeneId(BRAF));
+
+        assertEquals(List.of("p1_3", "p1_1", "p1_4"), AlterationMatch.VARIANT.select(alterations, found).stream()
+                .map(TherapyRecommendation::getId).toList());
+        assertEquals(AlterationMatch.VARIANT.select(alterations, found),
+                List.copyOf(index.recommendations(alterations, AlterationMatch.VARIANT)));
+    }
+
+}
@@ -0,0 +1,83 @@
+package fhirspark.load;
+
+import java.io.PrintStream;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Latency samples of one load test, grouped by operation. Samples are recorded
+ * per worker and merged afterwards, so recording needs no synchronization.
+ */
+final class LatencyReport {
+
+    private static final int INITIAL_CAPACITY = 1024;
+    private static final double NANOS_PER_MILLI = 1_000_000.0;
+    private static final double P50 = 0.50;
+    private static final double P95 = 0.95;
+    private static final double P99 = 0.99;
+
+    private final Map<String, Samples> samples = new TreeMap<>();
+
+    private static final class Samples {
+        private long[] nanos = new long[INITIAL_CAPACITY];
+        private int size;
+        private int errors;
+
+        void add(long value) {
+            if (size == nanos.length) {
+                nanos = Arrays.copyOf(nanos, size * 2);
+            }
+            nanos[size++] = value;
+        }
+    }
+
+    void record(String operation, long nanos, boolean success) {
+        Samples s = samples.computeIfAbsent(operation, o -> new Samples());
+        s.add(nanos);
+        if (!success) {
+            s.errors++;
+        }
+    }
+
+    void merge(LatencyReport other) {
+        other.samples.forEach((operation, theirs) -> {
+            Samples ours = samples.computeIfAbsent(operation, o -> new Samples());
+            for (int i = 0; i < theirs.size; i++) {
+                ours.add(theirs.nanos[i]);
+            }
+            ours.errors += theirs.errors;
+        });
+    }
+
+    void print(PrintStream out, double seconds) {
+        out.printf("%-32s %8s %7s %10s %9s %9s %9s %9s%n", "operation", "requests", "errors", "req/s", "p50 ms",
+                "p95 ms", "p99 ms", "max ms");
+        Samples all = new Samples();
+        samples.forEach((operation, s) -> {
+            print(out, operation, s, seconds);
+            for (int i = 0; i < s.size; i++) {
+                all.add(s.nanos[i]);
+            }
+            all.errors += s.errors;
+        });
+        print(out, "total", all, seconds);
+    }
+
+    private static void print(PrintStream out, String operation, Samples s, double seconds) {
+        long[] sorted = Arrays.copyOf(s.nanos, s.size);
+        Arrays.sort(sorted);
+        out.printf("%-32s %8d %7d %10.1f %9.1f %9.1f %9.1f %9.1f%n", operation, s.size, s.errors, s.size / seconds,
+                percentile(sorted, P50), percentile(sorted, P95), percentile(sorted, P99),
+                percentile(sorted, 1.0));
+    }
+
+    private static double percentile(long[] sorted, double p) {
+        if (sorted.length == 0) {
+            return 0;
+        }
+        int rank = (int) Math.ceil(p * sorted.length) - 1;
+        return sorted[Math.max(rank, 0)] / NANOS_PER_MILLI;
+    }
+
+}
@@ -0,0 +1,201 @@
+package fhirspark.load;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.dataformat.yaml.YAMLFactory;
+import fhirspark.FhirSpark;
+import fhirspark.settings.ConfigurationLoader;
+import fhirspark.settings.Settings;
+import fhirspark.stub.StubFhirServer;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.net.http.HttpResponse.BodyHandlers;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import spark.Spark;
+
+/**
+ * Closed-loop HTTP load generator for the FhirSpark REST API. A number of
+ * workers replay the {@link Scenario} as fast as the server answers and the
+ * latency percentiles and the throughput are reported per route.
+ *
+ * <p>Without {@code target} the generator starts a {@link StubFhirServer} and
+ * FhirSpark in-process, so no network or FHIR server is needed:
+ * {@code mvn test-compile exec:java -Dexec.classpathScope=test
+ * -Dexec.mainClass=fhirspark.load.LoadGenerator -Dexec.args="patients=50 concurrency=16 duration=30"}.
+ *
+ * <p>Arguments are {@code key=value} pairs: {@code target} (base URL of a
+ * running FhirSpark), {@code patients} (10), {@code concurrency} (8),
+ * {@code duration} and {@code warmup} in seconds (30 and 5), {@code studyId}
+ * (loadtest), {@code fhirLatency} in milliseconds for the embedded stub (0),
+ * {@code port} of the embedded FhirSpark (3001) and its request threads
+ * {@code maxThreads} (200) and {@code virtualThreads} (false), and the
+ * connection pool size {@code fhirPool} towards the stub. {@code operations}
+ * restricts the traffic to a comma separated list of {@link Scenario.Operation}s
+ * and {@code seed=false} skips storing the MTBs before the run.
+ */
+public final class LoadGenerator {
+
+    private static final int DEFAULT_PATIENTS = 10;
+    private static final int DEFAULT_CONCURRENCY = 8;
+    private static final int DEFAULT_DURATION = 30;
+    private static final int DEFAULT_WARMUP = 5;
+    private static final int DEFAULT_PORT = 3001;
+    private static final int HTTP_ERROR = 400;
+    private static final double NANOS_PER_SECOND = 1_000_000_000.0;
+
+    private final HttpClient http = HttpClient.newBuilder().version(HttpClient.Version.HTTP_1_1)
+            .connectTimeout(Duration.ofSeconds(DEFAULT_WARMUP)).build();
+    private final Scenario scenario;
+    private final int concurrency;
+
+    LoadGenerator(Scenario scenario, int concurrency) {
+        this.scenario = scenario;
+        this.concurrency = concurrency;
+    }
+
+    /**
+     * Stores the MTBs of all patients once, so reads hit populated records.
+     *
+     * @throws IOException          if FhirSpark cannot be reached.
+     * @throws InterruptedException if interrupted.
+     */
+    void seed() throws IOException, InterruptedException {
+        for (int i = 0; i < scenario.getPatients(); i++) {
+            HttpResponse<String> response = http.send(scenario.putMtb(i), BodyHandlers.ofString());
+            if (response.statusCode() >= HTTP_ERROR) {
+                throw new IOException("Seeding failed with HTTP " + response.statusCode() + ": " + response.body());
+            }
+        }
+    }
+
+    /**
+     * Runs the workers for the given time.
+     *
+     * @param seconds duration of the run.
+     * @return merged latencies of all workers.
+     * @throws Exception if a worker fails unexpectedly.
+     */
+    LatencyReport run(long seconds) throws Exception {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(seconds);
+        ExecutorService workers = Executors.newFixedThreadPool(concurrency);
+        List<Future<LatencyReport>> futures = new ArrayList<>();
+        for (int w = 0; w < concurrency; w++) {
+            Random random = new Random(w);
+            futures.add(workers.submit(() -> work(random, deadline)));
+        }
+        LatencyReport report = new LatencyReport();
+        for (Future<LatencyReport> future : futures) {
+            report.merge(future.get());
+        }
+        workers.shutdown();
+        return report;
+    }
+
+    private LatencyReport work(Random random, long deadline) throws InterruptedException {
+        LatencyReport report = new LatencyReport();
+        while (System.nanoTime() < deadline) {
+            Scenario.Operation operation = scenario.pick(random);
+            HttpRequest request = scenario.request(operation, random);
+            long start = System.nanoTime();
+            boolean success;
+            try {
+                success = http.send(request, BodyHandlers.discarding()).statusCode() < HTTP_ERROR;
+            } catch (IOException e) {
+                success = false;
+            }
+            report.record(operation.getRoute(), System.nanoTime() - start, success);
+        }
+        return report;
+    }
+
+    private static URI startEmbedded(Map<String, String> options) throws IOException {
+        int port = Integer.parseInt(options.getOrDefault("port", String.valueOf(DEFAULT_PORT)));
+        StubFhirServer stub = new StubFhirServer(0);
+        stub.setLatency(StubFhirServer.Latency.fixed(Long.parseLong(options.getOrDefault("fhirLatency", "0"))));
+        Settings settings = new ConfigurationLoader()
+                .loadConfiguration(new FileInputStream("src/main/resources/settings.yaml"), Settings.class);
+        settings.setFhirDbBase(stub.getBase());
+        settings.setPort(port);
+        settings.setLoginRequired(false);
+        if (options.containsKey("maxThreads")) {
+            settings.getServer().setMaxThreads(Integer.parseInt(options.get("maxThreads")));
+        }
+        settings.getServer().setVirtualThreads(Boolean.parseBoolean(options.get("virtualThreads")));
+        if (options.containsKey("fhirPool")) {
+            settings.getFhirClient().setPoolMaxTotal(Integer.parseInt(options.get("fhirPool")));
+            settings.getFhirClient().setPoolMaxPerRoute(Integer.parseInt(options.get("fhirPool")));
+        }
+        Path yaml = Files.createTempFile("fhirspark-load", ".yaml");
+        yaml.toFile().deleteOnExit();
+        new ObjectMapper(new YAMLFactory()).writeValue(yaml.toFile(), settings);
+        try {
+            FhirSpark.main(new String[] {yaml.toString()});
+        } catch (Exception e) {
+            throw new IOException("FhirSpark could not be started", e);
+        }
+        Spark.awaitInitialization();
+        return URI.create("http://localhost:" + port + "/");
+    }
+
+    /**
+     * @param args {@code key=value} pairs, see the class documentation.
+     * @throws Exception if the load test cannot be run.
+     */
+    public static void main(String[] args) throws Exception {
+        Map<String, String> options = new HashMap<>();
+        for (String arg : args) {
+            int eq = arg.indexOf('=');
+            if (eq > 0) {
+                options.put(arg.substring(0, eq), arg.substring(eq + 1));
+            }
+        }
+        int patients = Integer.parseInt(options.getOrDefault("patients", String.valueOf(DEFAULT_PATIENTS)));
+        int concurrency = Integer.parseInt(options.getOrDefault("concurrency",
+                String.valueOf(DEFAULT_CONCURRENCY)));
+        long duration = Long.parseLong(options.getOrDefault("duration", String.valueOf(DEFAULT_DURATION)));
+        long warmup = Long.parseLong(options.getOrDefault("warmup", String.valueOf(DEFAULT_WARMUP)));
+        String studyId = options.getOrDefault("studyId", "loadtest");
+
+        URI target = options.containsKey("target") ? URI.create(options.get("target").replaceAll("/?$", "/"))
+                : startEmbedded(options);
+
+        Scenario scenario = new Scenario(target, studyId, patients);
+        if (options.containsKey("operations")) {
+            scenario.restrictTo(Arrays.stream(options.get("operations").split(","))
+                    .map(Scenario.Operation::valueOf).collect(Collectors.toList()));
+        }
+        LoadGenerator generator = new LoadGenerator(scenario, concurrency);
+        if (Boolean.parseBoolean(options.getOrDefault("seed", "true"))) {
+            generator.seed();
+        }
+        if (warmup > 0) {
+            generator.run(warmup);
+        }
+        long start = System.nanoTime();
+        LatencyReport report = generator.run(duration);
+        double seconds = (System.nanoTime() - start) / NANOS_PER_SECOND;
+
+        System.out.printf("%n%d patients, %d workers, %.1f s against %s%n", patients, concurrency, seconds, target);
+        report.print(System.out, seconds);
+        if (!options.containsKey("target")) {
+            System.exit(0);
+        }
+    }
+
+}
@@ -0,0 +1,156 @@
+package fhirspark.load;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import fhirspark.restmodel.CbioportalRest;
+import fhirspark.restmodel.Mtb;
+import fhirspark.restmodel.TherapyRecommendation;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URI;
+import java.net.http.HttpRequest;
+import java.net.http.HttpRequest.BodyPublishers;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Traffic cBioPortal sends while clinicians prepare a tumor board: loading the
+ * MTB tab of a patient, checking permissions, saving MTBs and looking up
+ * recommendations of other patients with the same alterations. Patients are
+ * cloned from the JSON fixtures in {@code src/test/resources}.
+ */
+final class Scenario {
+
+    static final String[] FIXTURES = {"oneMtbOneRecommendation.json", "oneMtbTwoRecommendation.json",
+        "twoMtbTwoRecommendation.json", "twoMtbThreeRecommendation.json", "oneAlterationTwoRecommendation.json",
+        "samplemanager.json"};
+
+    /**
+     * Operations with their share of the traffic in percent.
+     */
+    enum Operation {
+        GET_MTB("GET /mtb/:patientId", 45),
+        GET_PERMISSION("GET /mtb/:patientId/permission", 20),
+        PUT_MTB("PUT /mtb/:patientId", 10),
+        POST_ALTERATION("POST /mtb/alteration", 20),
+        POST_ALTERATION_PMID("POST /mtb/alteration/pmid", 5);
+
+        private final String route;
+        private final int weight;
+
+        Operation(String route, int weight) {
+            this.route = route;
+            this.weight = weight;
+        }
+
+        String getRoute() {
+            return route;
+        }
+    }
+
+    private final URI target;
+    private final String studyId;
+    private final List<String> patientIds = new ArrayList<>();
+    private final List<String> mtbBodies = new ArrayList<>();
+    private final List<String> alterationBodies = new ArrayList<>();
+    private List<Operation> operations = List.of(Operation.values());
+    private int totalWeight = Arrays.stream(Operation.values()).mapToInt(o -> o.weight).sum();
+
+    /**
+     * @param target   base URL of FhirSpark.
+     * @param studyId  study id sent with permission checks.
+     * @param patients number of distinct patients.
+     * @throws IOException if a fixture cannot be read.
+     */
+    Scenario(URI target, String studyId, int patients) throws IOException {
+        this.target = target;
+        this.studyId = studyId;
+        ObjectMapper objectMapper = new ObjectMapper();
+        List<String> templates = new ArrayList<>();
+        List<String> templateIds = new ArrayList<>();
+        for (String fixture : FIXTURES) {
+            try (InputStream in = Scenario.class.getClassLoader().getResourceAsStream(fixture)) {
+                String json = new String(in.readAllBytes(), StandardCharsets.UTF_8);
+                CbioportalRest rest = objectMapper.readValue(json, CbioportalRest.class);
+                templates.add(json);
+                templateIds.add(rest.getId());
+                for (Mtb mtb : rest.getMtbs()) {
+                    for (TherapyRecommendation tr : mtb.getTherapyRecommendations()) {
+                        alterationBodies.add(objectMapper.writeValueAsString(
+                                tr.getReasoning().getGeneticAlterations()));
+                    }
+                }
+            }
+        }
+        for (int i = 0; i < patients; i++) {
+            String patientId = "LoadPatient" + i;
+            int template = i % templates.size();
+            patientIds.add(patientId);
+            mtbBodies.add(templates.get(template).replace(templateIds.get(template), patientId));
+        }
+    }
+
+    /**
+     * Restricts the traffic to some operations, keeping their relative weights.
+     *
+     * @param only operations to send.
+     */
+    void restrictTo(List<Operation> only) {
+        operations = List.copyOf(only);
+        totalWeight = operations.stream().mapToInt(o -> o.weight).sum();
+    }
+
+    int getPatients() {
+        return patientIds.size();
+    }
+
+    Operation pick(Random random) {
+        int roll = random.nextInt(totalWeight);
+        for (Operation operation : operations) {
+            roll -= operation.weight;
+            if (roll < 0) {
+                return operation;
+            }
+        }
+        return operations.get(0);
+    }
+
+    HttpRequest request(Operation operation, Random random) {
+        int patient = random.nextInt(patientIds.size());
+        switch (operation) {
+            case GET_PERMISSION:
+                return get("mtb/" + patientIds.get(patient) + "/permission?studyId=" + studyId);
+            case PUT_MTB:
+                return putMtb(patient);
+            case POST_ALTERATION:
+                return post("mtb/alteration", alterationBodies.get(random.nextInt(alterationBodies.size())));
+            case POST_ALTERATION_PMID:
+                return post("mtb/alteration/pmid", alterationBodies.get(random.nextInt(alterationBodies.size())));
+            case GET_MTB:
+            default:
+                return get("mtb/" + patientIds.get(patient) + "?studyId=" + studyId);
+        }
+    }
+
+    HttpRequest putMtb(int patient) {
+        return builder("mtb/" + patientIds.get(patient) + "?studyId=" + studyId)
+                .header("Content-Type", "application/json")
+                .PUT(BodyPublishers.ofString(mtbBodies.get(patient))).build();
+    }
+
+    private HttpRequest get(String path) {
+        return builder(path).GET().build();
+    }
+
+    private HttpRequest post(String path, String body) {
+        return builder(path).header("Content-Type", "application/json").POST(BodyPublishers.ofString(body)).build();
+    }
+
+    private HttpRequest.Builder builder(String path) {
+        return HttpRequest.newBuilder(target.resolve(path)).header("Accept", "application/json")
+                .header("X-USERLOGIN", "loadtest").header("X-USERROLES", "[\"" + studyId + "\"]");
+    }
+
+}
@@ -0,0 +1,309 @@
+package fhirspark.stub;
+
+import ca.uhn.fhir.context.FhirContext;
+import ca.uhn.fhir.context.RuntimeResourceDefinition;
+import ca.uhn.fhir.context.RuntimeSearchParam;
+import ca.uhn.fhir.util.FhirTerser;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import org.hl7.fhir.instance.model.api.IBase;
+import org.hl7.fhir.instance.model.api.IPrimitiveType;
+import org.hl7.fhir.r4.model.CodeableConcept;
+import org.hl7.fhir.r4.model.Coding;
+import org.hl7.fhir.r4.model.IdType;
+import org.hl7.fhir.r4.model.Identifier;
+import org.hl7.fhir.r4.model.Reference;
+import org.hl7.fhir.r4.model.Resource;
+
+/**
+ * In-memory resource storage of the {@link StubFhirServer}. It understands the
+ * token and reference search parameters of the R4 specification and resolves
+ * {@code _include} and {@code _revinclude} in the way HAPI does for the queries
+ * FhirSpark issues. The store is not thread-safe; the server guards it with a
+ * read-write lock.
+ */
+final class ResourceStore {
+
+    private final FhirContext ctx;
+    private final FhirTerser terser;
+    private final Map<String, Map<String, Resource>> resources = new LinkedHashMap<>();
+    private final List<Version> history = new ArrayList<>();
+    private long nextId = 1;
+
+    /**
+     * Version of a resource for the history interactions.
+     *
+     * @param type        resource type.
+     * @param id          logical id.
+     * @param resource    content of the version, null if the version is a deletion.
+     * @param lastUpdated time the version was written.
+     */
+    record Version(String type, String id, Resource resource, Date lastUpdated) {
+    }
+
+    ResourceStore(FhirContext ctx) {
+        this.ctx = ctx;
+        this.terser = ctx.newTerser();
+    }
+
+    String newId() {
+        return String.valueOf(nextId++);
+    }
+
+    /**
+     * Stores a resource under its id, replacing earlier versions.
+     *
+     * @param resource resource with type and logical id.
+     * @return new version of the resource.
+     */
+    int put(Resource resource) {
+        Map<String, Resource> byId = resources.computeIfAbsent(resource.fhirType(), t -> new LinkedHashMap<>());
+        Resource previous = byId.get(resource.getIdElement().getIdPart());
+        int version = previous == null ? 1 : Integer.parseInt(previous.getMeta().getVersionId()) + 1;
+        resource.setIdElement(new IdType(resource.fhirType(), resource.getIdElement().getIdPart()));
+        resource.getMeta().setVersionId(String.valueOf(version)).setLastUpdated(new Date());
+        byId.put(resource.getIdElement().getIdPart(), resource);
+        history.add(new Version(resource.fhirType(), resource.getIdElement().getIdPart(), resource.copy(),
+                resource.getMeta().getLastUpdated()));
+        return version;
+    }
+
+    Resource read(String type, String id) {
+        return resources.getOrDefault(type, Map.of()).get(id);
+    }
+
+    boolean delete(String type, String id) {
+        if (resources.getOrDefault(type, Map.of()).remove(id) == null) {
+            return false;
+        }
+        history.add(new Version(type, id, null, new Date()));
+        return true;
+    }
+
+    /**
+     * @param type  resource type.
+     * @param id    logical id, null for the history of the type.
+     * @param since earliest time of the versions, null for all.
+     * @return versions including deletions, newest first.
+     */
+    List<Version> history(String type, String id, Date since) {
+        List<Version> versions = new ArrayList<>();
+        for (int i = history.size() - 1; i >= 0; i--) {
+            Version version = history.get(i);
+            if (version.type().equals(type) && (id == null || version.id().equals(id))
+                    && (since == null || !version.lastUpdated().before(since))) {
+                versions.add(version);
+            }
+        }
+        return versions;
+    }
+
+    int size() {
+        return resources.values().stream().mapToInt(Map::size).sum();
+    }
+
+    private Collection<Resource> all(String type) {
+        return resources.getOrDefault(type, Map.of()).values();
+    }
+
+    /**
+     * @param type   resource type to search.
+     * @param params search parameters in request order. Repeated names are
+     *               combined with AND, comma separated values with OR.
+     * @return matching resources.
+     */
+    List<Resource> search(String type, List<Map.Entry<String, String>> params) {
+        List<Resource> matches = new ArrayList<>();
+        for (Resource resource : all(type)) {
+            boolean match = true;
+            for (Map.Entry<String, String> param : params) {
+                if (!matches(resource, param.getKey(), param.getValue().split(","))) {
+                    match = false;
+                    break;
+                }
+            }
+            if (match) {
+                matches.add(resource);
+            }
+        }
+        return matches;
+    }
+
+    /**
+     * @param matches     resources that matched the search.
+     * @param includes    values of {@code _include}, optionally iterated.
+     * @param iterate     values of {@code _include:iterate} and {@code _include:recurse}.
+     * @param revIncludes values of {@code _revinclude}.
+     * @return resources to add to the search result, without the matches.
+     */
+    Set<Resource> include(List<Resource> matches, List<String> includes, List<String> iterate,
+            List<String> revIncludes) {
+        Set<Resource> result = new LinkedHashSet<>(matches);
+        for (String include : includes) {
+            result.addAll(follow(matches, include));
+        }
+        boolean grown = !iterate.isEmpty();
+        while (grown) {
+            int size = result.size();
+            for (String include : iterate) {
+                result.addAll(follow(new ArrayList<>(result), include));
+            }
+            grown = result.size() > size;
+        }
+        for (String revInclude : revIncludes) {
+            String[] spec = revInclude.split(":");
+            for (Resource candidate : all(spec[0])) {
+                for (Resource match : matches) {
+                    if (matches(candidate, spec[1], new String[] {reference(match)})) {
+                        result.add(candidate);
+                        break;
+                    }
+                }
+            }
+        }
+        matches.forEach(result::remove);
+        return result;
+    }
+
+    private List<Resource> follow(List<Resource> sources, String include) {
+        String[] spec = include.split(":");
+        List<Resource> targets = new ArrayList<>();
+        for (Resource source : sources) {
+            if (!source.fhirType().equals(spec[0])) {
+                continue;
+            }
+            for (IBase value : values(source, searchParam(source, spec[1]))) {
+                if (!(value instanceof Reference) || !((Reference) value).hasReference()) {
+                    continue;
+                }
+                IdType target = new IdType(((Reference) value).getReference());
+                Resource resource = read(target.getResourceType(), target.getIdPart());
+                if (resource != null && (spec.length < 3 || spec[2].equals(resource.fhirType()))) {
+                    targets.add(resource);
+                }
+            }
+        }
+        return targets;
+    }
+
+    private boolean matches(Resource resource, String name, String[] values) {
+        if ("_id".equals(name)) {
+            for (String value : values) {
+                if (new IdType(value).getIdPart().equals(resource.getIdElement().getIdPart())) {
+                    return true;
+                }
+            }
+            return false;
+        }
+        RuntimeSearchParam param = searchParam(resource, name);
+        for (IBase element : values(resource, param)) {
+            for (String value : values) {
+                switch (param.getParamType()) {
+                    case TOKEN:
+                        if (tokenMatches(element, value)) {
+                            return true;
+                        }
+                        break;
+                    case REFERENCE:
+                        if (element instanceof Reference && referenceMatches((Reference) element, value)) {
+                            return true;
+                        }
+                        break;
+                    default:
+                        throw new IllegalArgumentException("Unsupported search parameter type: " + name);
+                }
+            }
+        }
+        return false;
+    }
+
+    private RuntimeSearchParam searchParam(Resource resource, String name) {
+        RuntimeResourceDefinition definition = ctx.getResourceDefinition(resource);
+        RuntimeSearchParam param = definition.getSearchParam(name);
+        if (param == null) {
+            throw new IllegalArgumentException("Unknown search parameter " + resource.fhirType() + ":" + name);
+        }
+        return param;
+    }
+
+    private List<IBase> values(Resource resource, RuntimeSearchParam param) {
+        List<IBase> values = new ArrayList<>();
+        for (String path : param.getPath().split("\\|")) {
+            String simple = path.trim().replace("(", "").replace(")", "");
+            if (simple.contains(" as ")) {
+                simple = simple.substring(0, simple.indexOf(" as ")) + "[x]";
+            }
+            if (simple.contains(".where")) {
+                simple = simple.substring(0, simple.indexOf(".where"));
+            }
+            if (simple.startsWith(resource.fhirType() + ".")) {
+                values.addAll(terser.getValues(resource, simple));
+            }
+        }
+        return values;
+    }
+
+    private static boolean tokenMatches(IBase element, String token) {
+        String system = null;
+        String code = token;
+        if (token.contains("|")) {
+            system = token.substring(0, token.indexOf('|'));
+            code = token.substring(token.indexOf('|') + 1);
+        }
+        if (element instanceof Identifier) {
+            Identifier identifier = (Identifier) element;
+            return codeMatches(system, code, identifier.getSystem(), identifier.getValue());
+        }
+        if (element instanceof CodeableConcept) {
+            for (Coding coding : ((CodeableConcept) element).getCoding()) {
+                if (codeMatches(system, code, coding.getSystem(), coding.getCode())) {
+                    return true;
+                }
+            }
+            return false;
+        }
+        if (element instanceof Coding) {
+            return codeMatches(system, code, ((Coding) element).getSystem(), ((Coding) element).getCode());
+        }
+        if (element instanceof IPrimitiveType) {
+            return code.equals(((IPrimitiveType<?>) element).getValueAsString());
+        }
+        return false;
+    }
+
+    private static boolean codeMatches(String system, String code, String actualSystem, String actualCode) {
+        if (system != null && !system.isEmpty() && !system.equals(actualSystem)) {
+            return false;
+        }
+        if (system != null && system.isEmpty() && actualSystem != null) {
+            return false;
+        }
+        return code.isEmpty() || code.equals(actualCode);
+    }
+
+    private static boolean referenceMatches(Reference reference, String value) {
+        if (!reference.hasReference()) {
+            return false;
+        }
+        if (reference.getReference().equals(value)) {
+            return true;
+        }
+        IdType actual = new IdType(reference.getReference());
+        IdType expected = new IdType(value);
+        if (expected.hasResourceType() && !expected.getResourceType().equals(actual.getResourceType())) {
+            return false;
+        }
+        return expected.getIdPart() != null && expected.getIdPart().equals(actual.getIdPart());
+    }
+
+    private static String reference(Resource resource) {
+        return resource.fhirType() + "/" + resource.getIdElement().getIdPart();
+    }
+
+}
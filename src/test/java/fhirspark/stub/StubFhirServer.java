@@ -0,0 +1,538 @@
+package fhirspark.stub;
+
+import ca.uhn.fhir.context.FhirContext;
+import ca.uhn.fhir.parser.IParser;
+import ca.uhn.fhir.util.FhirTerser;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import fhirspark.JsonFhirMapper;
+import fhirspark.resolver.HgncGeneName;
+import fhirspark.resolver.OncoKbDrug;
+import fhirspark.restmodel.CbioportalRest;
+import fhirspark.settings.ConfigurationLoader;
+import fhirspark.settings.Settings;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.net.URLDecoder;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.util.AbstractMap.SimpleEntry;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import org.hl7.fhir.r4.model.Bundle;
+import org.hl7.fhir.r4.model.Bundle.BundleEntryComponent;
+import org.hl7.fhir.r4.model.Bundle.BundleType;
+import org.hl7.fhir.r4.model.Bundle.HTTPVerb;
+import org.hl7.fhir.r4.model.Bundle.SearchEntryMode;
+import org.hl7.fhir.r4.model.CapabilityStatement;
+import org.hl7.fhir.r4.model.Enumerations.FHIRVersion;
+import org.hl7.fhir.r4.model.Enumerations.PublicationStatus;
+import org.hl7.fhir.r4.model.InstantType;
+import org.hl7.fhir.r4.model.OperationOutcome;
+import org.hl7.fhir.r4.model.OperationOutcome.IssueSeverity;
+import org.hl7.fhir.r4.model.OperationOutcome.IssueType;
+import org.hl7.fhir.r4.model.Reference;
+import org.hl7.fhir.r4.model.Resource;
+
+/**
+ * In-process stand-in for the HAPI FHIR server behind {@code fhirDbBase}. It
+ * keeps resources in memory and supports what {@link JsonFhirMapper} uses:
+ * transactions with conditional updates, token and reference searches with
+ * {@code _include}/{@code _revinclude}, paging with {@code _count}, reads,
+ * (conditional) deletes and the type and instance history with
+ * {@code _since}. A {@link Latency} can be injected to emulate a remote
+ * server.
+ *
+ * <p>Start it standalone for load tests of the Spark endpoints:
+ * {@code mvn test-compile exec:java -Dexec.classpathScope=test
+ * -Dexec.mainClass=fhirspark.stub.StubFhirServer -Dexec.args="8080 20 twoMtbThreeRecommendation.json"}
+ * and point {@code fhirDbBase} to {@code http://localhost:8080/fhir/}.
+ */
+public final class StubFhirServer implements AutoCloseable {
+
+    private static final int BACKLOG = 1024;
+    private static final int OK = 200;
+    private static final int CREATED = 201;
+    private static final int BAD_REQUEST = 400;
+    private static final int NOT_FOUND = 404;
+    private static final int METHOD_NOT_ALLOWED = 405;
+    private static final int PRECONDITION_FAILED = 412;
+    private static final int UNPROCESSABLE_ENTITY = 422;
+    private static final String CONTEXT_PATH = "/fhir";
+
+    private final FhirContext ctx;
+    private final FhirTerser terser;
+    private final ResourceStore store;
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+    private final HttpServer server;
+    private final ExecutorService executor;
+    private volatile Latency latency = Latency.NONE;
+    private volatile boolean rejectTransactions;
+
+    /**
+     * Delay applied before a request is handled.
+     */
+    @FunctionalInterface
+    public interface Latency {
+
+        Latency NONE = (method, path) -> 0;
+
+        /**
+         * @param method HTTP method of the request.
+         * @param path   path below the FHIR base, e.g. {@code /Observation}.
+         * @return delay in milliseconds.
+         */
+        long millis(String method, String path);
+
+        static Latency fixed(long millis) {
+            return (method, path) -> millis;
+        }
+
+        static Latency uniform(long minMillis, long maxMillis) {
+            return (method, path) -> ThreadLocalRandom.current().nextLong(minMillis, maxMillis + 1);
+        }
+    }
+
+    /**
+     * Starts a server on the loopback interface.
+     *
+     * @param port port to listen on, 0 picks a free one.
+     * @throws IOException if the port cannot be bound.
+     */
+    public StubFhirServer(int port) throws IOException {
+        this.ctx = FhirContext.forR4Cached();
+        this.terser = ctx.newTerser();
+        this.store = new ResourceStore(ctx);
+        this.server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), BACKLOG);
+        // platform threads, so a server under test that pins the virtual thread carriers cannot starve the stub
+        this.executor = Executors.newCachedThreadPool();
+        server.setExecutor(executor);
+        server.createContext(CONTEXT_PATH, this::handle);
+        server.start();
+    }
+
+    /**
+     * @return base URL that can be used as {@code fhirDbBase}.
+     */
+    public String getBase() {
+        return "http://" + server.getAddress().getHostString() + ":" + server.getAddress().getPort()
+                + CONTEXT_PATH + "/";
+    }
+
+    public void setLatency(Latency latency) {
+        this.latency = latency;
+    }
+
+    /**
+     * @param rejectTransactions true to answer every transaction with 422, as a
+     *                           server does whose validation rejects a bundle.
+     */
+    public void setRejectTransactions(boolean rejectTransactions) {
+        this.rejectTransactions = rejectTransactions;
+    }
+
+    /**
+     * @return number of stored resources.
+     */
+    public int size() {
+        lock.readLock().lock();
+        try {
+            return store.size();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Persists cBioPortal fixtures through the mapper, exactly as the PUT
+     * endpoints do. The mapper has to use this server as its FHIR base.
+     *
+     * @param mapper   mapper bound to this server.
+     * @param fixtures class path resources with {@link CbioportalRest} JSON.
+     * @throws IOException if a fixture cannot be read.
+     */
+    public void seed(JsonFhirMapper mapper, String... fixtures) throws IOException {
+        ObjectMapper objectMapper = new ObjectMapper();
+        for (String fixture : fixtures) {
+            try (InputStream in = StubFhirServer.class.getClassLoader().getResourceAsStream(fixture)) {
+                if (in == null) {
+                    throw new IOException("Fixture not found: " + fixture);
+                }
+                CbioportalRest rest = objectMapper.readValue(in, CbioportalRest.class);
+                if (rest.getMtbs() != null && !rest.getMtbs().isEmpty()) {
+                    mapper.mtbFromJson(rest.getId(), rest.getMtbs());
+                }
+                if (rest.getFollowUps() != null && !rest.getFollowUps().isEmpty()) {
+                    mapper.followUpFromJson(rest.getId(), rest.getFollowUps());
+                }
+            }
+        }
+    }
+
+    @Override
+    public void close() {
+        server.stop(0);
+        executor.shutdownNow();
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        try (exchange) {
+            URI uri = exchange.getRequestURI();
+            String path = uri.getPath().substring(CONTEXT_PATH.length());
+            String method = exchange.getRequestMethod();
+            sleep(latency.millis(method, path));
+            String[] segments = path.replaceAll("^/+|/+$", "").split("/");
+            try {
+                if (segments[0].isEmpty() && "POST".equals(method) && rejectTransactions) {
+                    respond(exchange, UNPROCESSABLE_ENTITY, outcome(IssueType.PROCESSING, "Transaction rejected"));
+                } else if (segments[0].isEmpty() && "POST".equals(method)) {
+                    Bundle request = parser().parseResource(Bundle.class, exchange.getRequestBody());
+                    respond(exchange, OK, transaction(request));
+                } else if ("metadata".equals(segments[0])) {
+                    respond(exchange, OK, capabilityStatement());
+                } else if (segments.length == 1 && "GET".equals(method)) {
+                    respond(exchange, OK, search(segments[0], query(uri)));
+                } else if (segments.length == 2 && "_history".equals(segments[1]) && "GET".equals(method)) {
+                    respond(exchange, OK, history(segments[0], null, query(uri)));
+                } else if (segments.length == 3 && "_history".equals(segments[2]) && "GET".equals(method)) {
+                    respond(exchange, OK, history(segments[0], segments[1], query(uri)));
+                } else if (segments.length == 2 && "GET".equals(method)) {
+                    Resource resource = read(segments[0], segments[1]);
+                    if (resource == null) {
+                        respond(exchange, NOT_FOUND, outcome(IssueType.NOTFOUND, path + " does not exist"));
+                    } else {
+                        respond(exchange, OK, resource);
+                    }
+                } else if ("DELETE".equals(method) && segments.length <= 2) {
+                    respond(exchange, OK, delete(segments[0], segments.length == 2 ? segments[1] : null, query(uri)));
+                } else {
+                    respond(exchange, METHOD_NOT_ALLOWED, outcome(IssueType.NOTSUPPORTED, method + " " + path));
+                }
+            } catch (PreconditionFailedException e) {
+                respond(exchange, PRECONDITION_FAILED, outcome(IssueType.MULTIPLEMATCHES, e.getMessage()));
+            } catch (RuntimeException e) {
+                respond(exchange, BAD_REQUEST, outcome(IssueType.INVALID, String.valueOf(e.getMessage())));
+            }
+        }
+    }
+
+    private Bundle transaction(Bundle request) {
+        if (request.getType() != BundleType.TRANSACTION) {
+            throw new IllegalArgumentException("Only transaction bundles are supported");
+        }
+        Bundle response = new Bundle().setType(BundleType.TRANSACTIONRESPONSE);
+        lock.writeLock().lock();
+        try {
+            Map<String, String> placeholders = new HashMap<>();
+            Map<String, String> conditionalIds = new HashMap<>();
+            List<Boolean> created = new ArrayList<>();
+            for (BundleEntryComponent entry : request.getEntry()) {
+                Resource resource = entry.getResource();
+                String url = entry.getRequest().getUrl();
+                String id;
+                boolean create = false;
+                switch (entry.getRequest().getMethod()) {
+                    case PUT:
+                        if (url.contains("?")) {
+                            List<Map.Entry<String, String>> params = query(url.substring(url.indexOf('?') + 1));
+                            params.replaceAll(p -> new SimpleEntry<>(p.getKey(),
+                                    placeholders.getOrDefault(p.getValue(), p.getValue())));
+                            String key = resource.fhirType() + "?" + params;
+                            id = conditionalIds.get(key);
+                            if (id == null) {
+                                List<Resource> matches = store.search(resource.fhirType(), params);
+                                if (matches.size() > 1) {
+                                    throw new PreconditionFailedException(url + " matches " + matches.size()
+                                            + " resources");
+                                }
+                                create = matches.isEmpty();
+                                id = create ? store.newId() : matches.get(0).getIdElement().getIdPart();
+                                conditionalIds.put(key, id);
+                            }
+                        } else {
+                            id = url.substring(url.indexOf('/') + 1);
+                            create = store.read(resource.fhirType(), id) == null;
+                        }
+                        break;
+                    case POST:
+                        id = store.newId();
+                        create = true;
+                        break;
+                    default:
+                        throw new IllegalArgumentException("Unsupported transaction method "
+                                + entry.getRequest().getMethod());
+                }
+                if (entry.hasFullUrl()) {
+                    placeholders.put(entry.getFullUrl(), resource.fhirType() + "/" + id);
+                }
+                resource.setId(id);
+                created.add(create);
+            }
+            for (int i = 0; i < request.getEntry().size(); i++) {
+                Resource resource = request.getEntry().get(i).getResource();
+                for (Reference reference : terser.getAllPopulatedChildElementsOfType(resource, Reference.class)) {
+                    if (reference.hasReference() && placeholders.containsKey(reference.getReference())) {
+                        reference.setReference(placeholders.get(reference.getReference()));
+                    }
+                }
+                int version = store.put(resource);
+                response.addEntry().getResponse()
+                        .setStatus(created.get(i) ? CREATED + " Created" : OK + " OK")
+                        .setLocation(resource.fhirType() + "/" + resource.getIdElement().getIdPart()
+                                + "/_history/" + version);
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+        return response;
+    }
+
+    private Bundle search(String type, List<Map.Entry<String, String>> query) {
+        List<Map.Entry<String, String>> params = new ArrayList<>();
+        List<String> includes = new ArrayList<>();
+        List<String> iterate = new ArrayList<>();
+        List<String> revIncludes = new ArrayList<>();
+        int count = -1;
+        int offset = 0;
+        for (Map.Entry<String, String> param : query) {
+            switch (param.getKey()) {
+                case "_count":
+                    count = Integer.parseInt(param.getValue());
+                    break;
+                case "_offset":
+                    offset = Integer.parseInt(param.getValue());
+                    break;
+                case "_include":
+                    includes.add(param.getValue());
+                    break;
+                case "_include:iterate":
+                case "_include:recurse":
+                    iterate.add(param.getValue());
+                    break;
+                case "_revinclude":
+                    revIncludes.add(param.getValue());
+                    break;
+                default:
+                    if (!param.getKey().startsWith("_") || "_id".equals(param.getKey())) {
+                        params.add(param);
+                    }
+            }
+        }
+        Bundle bundle = new Bundle().setType(BundleType.SEARCHSET);
+        lock.readLock().lock();
+        try {
+            List<Resource> matches = store.search(type, params);
+            bundle.setTotal(matches.size());
+            if (count >= 0) {
+                if (offset + count < matches.size()) {
+                    bundle.addLink().setRelation(Bundle.LINK_NEXT).setUrl(nextPage(type, query, offset + count));
+                }
+                matches = matches.subList(Math.min(offset, matches.size()), Math.min(offset + count, matches.size()));
+            }
+            for (Resource match : matches) {
+                bundle.addEntry().setResource(match.copy()).getSearch().setMode(SearchEntryMode.MATCH);
+            }
+            for (Resource included : store.include(matches, includes, iterate, revIncludes)) {
+                bundle.addEntry().setResource(included.copy()).getSearch().setMode(SearchEntryMode.INCLUDE);
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+        return bundle;
+    }
+
+    private Bundle history(String type, String id, List<Map.Entry<String, String>> query) {
+        Date since = null;
+        int count = -1;
+        int offset = 0;
+        for (Map.Entry<String, String> param : query) {
+            switch (param.getKey()) {
+                case "_since":
+                    since = new InstantType(param.getValue()).getValue();
+                    break;
+                case "_count":
+                    count = Integer.parseInt(param.getValue());
+                    break;
+                case "_offset":
+                    offset = Integer.parseInt(param.getValue());
+                    break;
+                default:
+                    break;
+            }
+        }
+        String path = id == null ? type + "/_history" : type + "/" + id + "/_history";
+        Bundle bundle = new Bundle().setType(BundleType.HISTORY);
+        lock.readLock().lock();
+        try {
+            List<ResourceStore.Version> versions = store.history(type, id, since);
+            bundle.setTotal(versions.size());
+            if (count >= 0) {
+                if (offset + count < versions.size()) {
+                    bundle.addLink().setRelation(Bundle.LINK_NEXT).setUrl(nextPage(path, query, offset + count));
+                }
+                versions = versions.subList(Math.min(offset, versions.size()),
+                        Math.min(offset + count, versions.size()));
+            }
+            for (ResourceStore.Version version : versions) {
+                BundleEntryComponent entry = bundle.addEntry()
+                        .setFullUrl(getBase() + version.type() + "/" + version.id());
+                entry.getRequest().setMethod(version.resource() == null ? HTTPVerb.DELETE : HTTPVerb.PUT)
+                        .setUrl(version.type() + "/" + version.id());
+                entry.getResponse().setStatus(version.resource() == null ? "204 No Content" : OK + " OK")
+                        .setLastModified(version.lastUpdated());
+                if (version.resource() != null) {
+                    entry.setResource(version.resource().copy());
+                }
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+        return bundle;
+    }
+
+    private String nextPage(String path, List<Map.Entry<String, String>> query, int offset) {
+        StringBuilder url = new StringBuilder(getBase()).append(path).append('?');
+        for (Map.Entry<String, String> param : query) {
+            if (!"_offset".equals(param.getKey())) {
+                url.append(URLEncoder.encode(param.getKey(), StandardCharsets.UTF_8)).append('=')
+                        .append(URLEncoder.encode(param.getValue(), StandardCharsets.UTF_8)).append('&');
+            }
+        }
+        return url.append("_offset=").append(offset).toString();
+    }
+
+    private Resource read(String type, String id) {
+        lock.readLock().lock();
+        try {
+            Resource resource = store.read(type, id);
+            return resource == null ? null : resource.copy();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    private OperationOutcome delete(String type, String id, List<Map.Entry<String, String>> query) {
+        int deleted = 0;
+        lock.writeLock().lock();
+        try {
+            if (id != null) {
+                deleted += store.delete(type, id) ? 1 : 0;
+            } else {
+                List<Map.Entry<String, String>> params = new ArrayList<>(query);
+                params.removeIf(param -> param.getKey().startsWith("_") && !"_id".equals(param.getKey()));
+                for (Resource match : store.search(type, params)) {
+                    deleted += store.delete(type, match.getIdElement().getIdPart()) ? 1 : 0;
+                }
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+        OperationOutcome outcome = outcome(IssueType.INFORMATIONAL, "Deleted " + deleted + " resource(s)");
+        outcome.getIssueFirstRep().setSeverity(IssueSeverity.INFORMATION);
+        return outcome;
+    }
+
+    private CapabilityStatement capabilityStatement() {
+        CapabilityStatement capabilityStatement = new CapabilityStatement();
+        capabilityStatement.setStatus(PublicationStatus.ACTIVE).setFhirVersion(FHIRVersion._4_0_1);
+        capabilityStatement.getSoftware().setName(StubFhirServer.class.getSimpleName());
+        return capabilityStatement;
+    }
+
+    private static OperationOutcome outcome(IssueType type, String diagnostics) {
+        OperationOutcome outcome = new OperationOutcome();
+        outcome.addIssue().setSeverity(IssueSeverity.ERROR).setCode(type).setDiagnostics(diagnostics);
+        return outcome;
+    }
+
+    private IParser parser() {
+        return ctx.newJsonParser();
+    }
+
+    private void respond(HttpExchange exchange, int status, Resource resource) throws IOException {
+        byte[] body = parser().encodeResourceToString(resource).getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "application/fhir+json;charset=utf-8");
+        exchange.sendResponseHeaders(status, body.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(body);
+        }
+    }
+
+    private static List<Map.Entry<String, String>> query(URI uri) {
+        return query(uri.getRawQuery());
+    }
+
+    private static List<Map.Entry<String, String>> query(String rawQuery) {
+        List<Map.Entry<String, String>> params = new ArrayList<>();
+        if (rawQuery == null || rawQuery.isEmpty()) {
+            return params;
+        }
+        for (String pair : rawQuery.split("&")) {
+            int eq = pair.indexOf('=');
+            String name = URLDecoder.decode(eq < 0 ? pair : pair.substring(0, eq), StandardCharsets.UTF_8);
+            String value = eq < 0 ? "" : URLDecoder.decode(pair.substring(eq + 1), StandardCharsets.UTF_8);
+            params.add(new SimpleEntry<>(name, value));
+        }
+        return params;
+    }
+
+    private static void sleep(long millis) {
+        if (millis <= 0) {
+            return;
+        }
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static final class PreconditionFailedException extends RuntimeException {
+
+        private static final long serialVersionUID = 1L;
+
+        PreconditionFailedException(String message) {
+            super(message);
+        }
+    }
+
+    /**
+     * Runs the stub standalone.
+     *
+     * @param args port, latency in milliseconds and fixtures to seed.
+     * @throws IOException if the server cannot be started or seeded.
+     */
+    public static void main(String[] args) throws IOException {
+        int port = args.length > 0 ? Integer.parseInt(args[0]) : 0;
+        long latencyMillis = args.length > 1 ? Long.parseLong(args[1]) : 0;
+        StubFhirServer stub = new StubFhirServer(port);
+        if (args.length > 2) {
+            Settings settings = new ConfigurationLoader()
+                    .loadConfiguration(new FileInputStream("src/main/resources/settings.yaml"), Settings.class);
+            settings.setFhirDbBase(stub.getBase());
+            HgncGeneName.initialize(settings.getHgncPath());
+            OncoKbDrug.initalize(settings.getOncokbPath());
+            String[] fixtures = new String[args.length - 2];
+            System.arraycopy(args, 2, fixtures, 0, fixtures.length);
+            stub.seed(new JsonFhirMapper(settings), fixtures);
+        }
+        stub.setLatency(Latency.fixed(latencyMillis));
+        System.out.println("Stub FHIR server listening on " + stub.getBase() + " with " + stub.size()
+                + " resources");
+    }
+
+}
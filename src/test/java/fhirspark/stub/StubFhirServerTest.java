@@ -0,0 +1,76 @@
+package fhirspark.stub;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import fhirspark.JsonFhirMapper;
+import fhirspark.resolver.HgncGeneName;
+import fhirspark.resolver.OncoKbDrug;
+import fhirspark.restmodel.CbioportalRest;
+import fhirspark.settings.ConfigurationLoader;
+import fhirspark.settings.Settings;
+import java.io.FileInputStream;
+import java.io.IOException;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.TestInstance;
+import org.junit.jupiter.api.TestInstance.Lifecycle;
+
+@TestInstance(Lifecycle.PER_CLASS)
+public class StubFhirServerTest {
+
+    private static final long LATENCY = 50;
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    private StubFhirServer stub;
+    private JsonFhirMapper jfm;
+
+    @BeforeAll
+    public void prepare() throws IOException {
+        stub = new StubFhirServer(0);
+        Settings settings = new ConfigurationLoader()
+                .loadConfiguration(new FileInputStream("src/main/resources/settings.yaml"), Settings.class);
+        settings.setFhirDbBase(stub.getBase());
+        HgncGeneName.initialize(settings.getHgncPath());
+        OncoKbDrug.initalize(settings.getOncokbPath());
+        jfm = new JsonFhirMapper(settings);
+    }
+
+    @AfterAll
+    public void stop() {
+        stub.close();
+    }
+
+    @Test
+    public void seededFixtureRoundTrips() throws IOException {
+        stub.seed(jfm, "twoMtbThreeRecommendation.json", "oneMtbTwoRecommendation.json");
+        byte[] fixture = ClassLoader.getSystemResourceAsStream("twoMtbThreeRecommendation.json").readAllBytes();
+        String patientId = objectMapper.readValue(fixture, CbioportalRest.class).getId();
+
+        assertEquals(objectMapper.readTree(fixture), objectMapper.readTree(jfm.mtbToJson(patientId)));
+    }
+
+    @Test
+    public void conditionalUpdatesDoNotDuplicate() throws IOException {
+        stub.seed(jfm, "oneMtbOneRecommendation.json");
+        int size = stub.size();
+        stub.seed(jfm, "oneMtbOneRecommendation.json");
+
+        assertEquals(size, stub.size());
+    }
+
+    @Test
+    public void latencyIsInjected() throws IOException {
+        stub.setLatency(StubFhirServer.Latency.fixed(LATENCY));
+        try {
+            long start = System.nanoTime();
+            jfm.mtbToJson("unknownPatient");
+            assertTrue((System.nanoTime() - start) / 1_000_000 >= LATENCY);
+        } finally {
+            stub.setLatency(StubFhirServer.Latency.NONE);
+        }
+    }
+
+}
@@ -0,0 +1,200 @@
+package fhirspark.writebehind;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import fhirspark.JsonFhirMapper;
+import fhirspark.adapter.FollowUpAdapter;
+import fhirspark.resolver.HgncGeneName;
+import fhirspark.resolver.OncoKbDrug;
+import fhirspark.restmodel.CbioportalRest;
+import fhirspark.restmodel.FollowUp;
+import fhirspark.restmodel.TherapyRecommendation;
+import fhirspark.restmodel.WriteStatus;
+import fhirspark.settings.ConfigurationLoader;
+import fhirspark.settings.Settings;
+import fhirspark.settings.WriteBehindSettings;
+import fhirspark.stub.StubFhirServer;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+/**
+ * Checks that the journal survives restarts and torn writes and that the queue
+ * coalesces, retries and drops saves as documented.
+ */
+public class WriteBehindQueueTest {
+
+    private static final int CAPACITY = 4096;
+
+    @TempDir
+    Path dir;
+
+    @Test
+    public void journalReplaysPendingSaves() throws IOException {
+        Path path = dir.resolve("journal");
+        int end;
+        try (Journal journal = new Journal(path, CAPACITY)) {
+            JournalRecord first = journal.append(WriteBehindQueue.MTB, "p1", "{\"id\":\"p1\"}");
+            journal.append(WriteBehindQueue.MTB, "p2", "{\"id\":\"p2\"}");
+            journal.complete(List.of(first.getSeq()));
+            end = journal.used();
+        }
+        // a record that was cut off by a crash
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.WRITE)) {
+            channel.write(ByteBuffer.allocate(Integer.BYTES * 2).putInt(100).putInt(1).flip(), end);
+        }
+
+        try (Journal journal = new Journal(path, CAPACITY)) {
+            assertEquals(1, journal.pending().size());
+            assertEquals("p2", journal.pending().get(0).getPatientId());
+            JournalRecord next = journal.append(WriteBehindQueue.MTB, "p3", "{}");
+            assertTrue(next.getSeq() > journal.pending().get(0).getSeq());
+        }
+        try (Journal journal = new Journal(path, CAPACITY)) {
+            assertEquals(2, journal.pending().size());
+        }
+    }
+
+    @Test
+    public void journalCompactsWhenFull() throws IOException {
+        try (Journal journal = new Journal(dir.resolve("journal"), CAPACITY)) {
+            JournalRecord kept = journal.append(WriteBehindQueue.FOLLOW_UP, "kept", "{}");
+            for (int i = 0; i < 100; i++) {
+                JournalRecord record = journal.append(WriteBehindQueue.MTB, "p" + i, "{\"id\":\"p" + i + "\"}");
+                journal.complete(List.of(record.getSeq()));
+            }
+            assertTrue(journal.used() < CAPACITY);
+            assertEquals(List.of(kept.getSeq()), journal.pending().stream().map(JournalRecord::getSeq).toList());
+        }
+    }
+
+    @Test
+    public void rapidSavesAreWrittenOnce() throws Exception {
+        List<String> written = new CopyOnWriteArrayList<>();
+        try (WriteBehindQueue queue = new WriteBehindQueue(settings(), (kind, patientId, body) -> written.add(body),
+                new SimpleMeterRegistry())) {
+            for (int i = 1; i <= 3; i++) {
+                assertTrue(queue.submit(WriteBehindQueue.MTB, "p1", "save " + i));
+            }
+            assertEquals("save 3", queue.pendingBody(WriteBehindQueue.MTB, "p1"));
+
+            assertTrue(queue.drain("p1"));
+        }
+        assertEquals(List.of("save 3"), written);
+    }
+
+    @Test
+    public void transientFailuresAreRetried() throws Exception {
+        AtomicInteger attempts = new AtomicInteger();
+        try (WriteBehindQueue queue = new WriteBehindQueue(settings(), (kind, patientId, body) -> {
+            if (attempts.incrementAndGet() < 3) {
+                throw new IOException("connection refused");
+            }
+        }, new SimpleMeterRegistry())) {
+            queue.submit(WriteBehindQueue.MTB, "p1", "save");
+
+            assertTrue(queue.drain("p1"));
+            assertTrue(queue.status("p1").isEmpty());
+        }
+        assertEquals(3, attempts.get());
+    }
+
+    @Test
+    public void rejectedSavesAreDropped() throws Exception {
+        try (WriteBehindQueue queue = new WriteBehindQueue(settings(), (kind, patientId, body) -> {
+            throw new IllegalArgumentException("Invalid mtb id!");
+        }, new SimpleMeterRegistry())) {
+            queue.submit(WriteBehindQueue.MTB, "p1", "save");
+
+            assertTrue(queue.drain("p1"));
+            List<WriteStatus> status = queue.status("p1");
+            assertEquals(1, status.size());
+            assertEquals("failed", status.get(0).getState());
+            assertEquals(1, queue.status().getFailed());
+        }
+    }
+
+    @Test
+    public void unwrittenSavesSurviveARestart() throws Exception {
+        WriteBehindSettings settings = settings();
+        try (WriteBehindQueue queue = new WriteBehindQueue(settings, (kind, patientId, body) -> {
+            throw new IOException("FHIR server down");
+        }, new SimpleMeterRegistry())) {
+            queue.submit(WriteBehindQueue.FOLLOW_UP, "p1", "save");
+        }
+        List<String> written = new CopyOnWriteArrayList<>();
+        try (WriteBehindQueue queue = new WriteBehindQueue(settings,
+                (kind, patientId, body) -> written.add(kind + " " + patientId + " " + body),
+                new SimpleMeterRegistry())) {
+            assertTrue(queue.drain("p1"));
+        }
+        assertEquals(List.of("followup p1 save"), written);
+    }
+
+    @Test
+    public void savesTheFhirServerRejectsAreReported() throws Exception {
+        ObjectMapper objectMapper = new ObjectMapper();
+        try (StubFhirServer stub = new StubFhirServer(0)) {
+            Settings settings = new ConfigurationLoader()
+                    .loadConfiguration(new FileInputStream("src/main/resources/settings.yaml"), Settings.class);
+            settings.setFhirDbBase(stub.getBase());
+            HgncGeneName.initialize(settings.getHgncPath());
+            OncoKbDrug.initalize(settings.getOncokbPath());
+            JsonFhirMapper mapper = new JsonFhirMapper(settings);
+            stub.setRejectTransactions(true);
+            String body = new String(ClassLoader.getSystemResourceAsStream("oneMtbOneRecommendation.json")
+                    .readAllBytes());
+            String patientId = objectMapper.readValue(body, CbioportalRest.class).getId();
+
+            try (WriteBehindQueue queue = new WriteBehindQueue(settings(), (kind, id, save) -> mapper.saveMtbs(id,
+                    objectMapper.readValue(save, CbioportalRest.class).getMtbs()), new SimpleMeterRegistry())) {
+                queue.submit(WriteBehindQueue.MTB, patientId, body);
+
+                assertTrue(queue.drain(patientId));
+                List<WriteStatus> status = queue.status(patientId);
+                assertEquals(1, status.size());
+                assertEquals("failed", status.get(0).getState());
+            }
+            assertEquals(0, stub.size());
+        }
+    }
+
+    @Test
+    public void followUpsAreValidatedBeforeTheyAreQueued() {
+        FollowUp followUp = new FollowUp().withId("followUp_p1_1590601800979")
+                .withTherapyRecommendation(new TherapyRecommendation().withId("p1_1590601800979"))
+                .withTherapyRecommendationRealized(true).withSideEffect(false);
+        FollowUpAdapter.validate("p1", followUp);
+
+        assertThrows(IllegalArgumentException.class, () -> FollowUpAdapter.validate("p2", followUp));
+        followUp.setTherapyRecommendation(new TherapyRecommendation().withId("p2_1590601800979"));
+        assertThrows(IllegalArgumentException.class, () -> FollowUpAdapter.validate("p1", followUp));
+        followUp.setTherapyRecommendation(null);
+        assertThrows(IllegalArgumentException.class, () -> FollowUpAdapter.validate("p1", followUp));
+    }
+
+    private WriteBehindSettings settings() {
+        WriteBehindSettings settings = new WriteBehindSettings();
+        settings.setEnabled(true);
+        settings.setJournalPath(dir.resolve("queue.journal").toString());
+        settings.setJournalSize(CAPACITY);
+        settings.setCoalesceDelay(100);
+        settings.setRetryDelay(10);
+        settings.setMaxRetryDelay(50);
+        settings.setDrainTimeout(5000);
+        return settings;
+    }
+
+}